@@ -135,11 +135,11 @@ public class LinearExecutionHitTrace {
             executorService.submit(() -> {
                 for (ExecutionTrace executionTrace : test.getExecutionTraces()) {
                     traceCount.getAndIncrement();
-                    Iterator<Integer> nodeIdIterator = executionTrace.mappedIterator(spectra.getIndexer());
+                    PrimitiveIterator.OfInt nodeIdIterator = executionTrace.mappedIntIterator(spectra.getIndexer());
                     ExecutionGraphNode current, last = null;
                     int lastId = -1;
                     while (nodeIdIterator.hasNext()) {
-                        int nodeIndex = nodeIdIterator.next();
+                        int nodeIndex = nodeIdIterator.nextInt();
                         // nodeIndex is seen for the first time
                         // check for repetition
                         getNodeSeq().computeIfAbsent(
@@ -183,14 +183,14 @@ public class LinearExecutionHitTrace {
         for (ExecutionTrace executionTrace : test.getExecutionTraces()) {
 
             LinearBlockSequence innerTrace = new LinearBlockSequence();
-            Iterator<Integer> nodeIdIterator = executionTrace.mappedIterator(spectra.getIndexer());
+            PrimitiveIterator.OfInt nodeIdIterator = executionTrace.mappedIntIterator(spectra.getIndexer());
             HashMap<Integer, HashSet<Integer>> predessor = new HashMap<>();
             int currentBlock = -2;
             int lastBlock = -2;
 
             while (nodeIdIterator.hasNext()) {
 
-                int nodeIndex = nodeIdIterator.next();
+                int nodeIndex = nodeIdIterator.nextInt();
                 ExecutionGraphNode node = nodeSeq.get(nodeIndex);
 
                 synchronized (node) {
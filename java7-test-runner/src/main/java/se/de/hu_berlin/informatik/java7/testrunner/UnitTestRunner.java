@@ -17,6 +17,7 @@ import java.util.concurrent.TimeoutException;
 
 import org.apache.tools.ant.taskdefs.optional.junit.JUnitTest;
 
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ProjectData;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.TouchCollector;
 
@@ -68,6 +69,8 @@ public class UnitTestRunner {
 			ProjectData.turnOffAutoSave();
 			// reset hits, if any class was already registered (should not be the case, actually)
 			TouchCollector.resetTouchesOnRegisteredClasses();
+			// restrict the recorded execution traces, if configured
+			ExecutionTraceCollector.startRecordingForConfiguredClasses();
 		}
 		
 		TestWrapper testWrapper = new TestWrapper(testClass, testMethod);
@@ -83,6 +86,8 @@ public class UnitTestRunner {
 				} catch (InterruptedException e) {
 					// do nothing
 				}
+				// do not record the collection of the coverage data
+				ExecutionTraceCollector.stopRecording();
 				projectData = new ProjectData();
 
 				TouchCollector.applyTouchesOnProjectData(projectData);
@@ -17,6 +17,16 @@ public enum StatisticsData implements StatisticsAPI {
 	SKIPPED("was skipped", StatisticType.COUNT, StatisticsOptions.PREF_BIGGER),
 	COULD_BE_FINISHED("could be finished", StatisticType.COUNT, StatisticsOptions.PREF_BIGGER),
 	
+	TRACE_EVENTS("recorded trace events", StatisticType.DOUBLE_VALUE, StatisticsOptions.PREF_BIGGER),
+	TRACE_EVENTS_PER_SECOND("recorded trace events per second", StatisticType.DOUBLE_VALUE, StatisticsOptions.PREF_BIGGER),
+	TRACE_THREADS("threads with traces", StatisticType.COUNT, StatisticsOptions.PREF_BIGGER),
+	TRACE_COMPRESSION_RATIO("trace compression ratio (%)", StatisticType.DOUBLE_VALUE, StatisticsOptions.PREF_BIGGER),
+	TRACE_SPILLED_BYTES("bytes spilled to disk", StatisticType.DOUBLE_VALUE, StatisticsOptions.PREF_BIGGER),
+	TRACE_SPILL_TIME("spill duration (ms)", StatisticType.DOUBLE_VALUE, StatisticsOptions.PREF_SMALLER),
+	TRACE_LOCK_WAIT_TIME("trace collector lock wait (ms)", StatisticType.DOUBLE_VALUE, StatisticsOptions.PREF_SMALLER),
+	TRACE_COLLECTION_TIME("trace collection duration (ms)", StatisticType.DOUBLE_VALUE, StatisticsOptions.PREF_SMALLER),
+	LATE_TRACE_EVENTS("trace events recorded between tests", StatisticType.DOUBLE_VALUE, StatisticsOptions.PREF_BIGGER),
+	
 	FAILED_TEST_COVERAGE("failed test coverage", StatisticType.STRING, StatisticsOptions.CONCAT),
 	ERROR_MSG("error message(s)", StatisticType.STRING, StatisticsOptions.CONCAT);
 
@@ -1,5 +1,6 @@
 package se.de.hu_berlin.informatik.junittestutils.data;
 
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.TraceCollectionStatistics;
 import se.de.hu_berlin.informatik.utils.statistics.Statistics;
 
 public class TestStatistics extends Statistics<StatisticsData> {
@@ -41,6 +42,26 @@ public class TestStatistics extends Statistics<StatisticsData> {
 		addStatisticsElement(StatisticsData.WAS_INTERRUPTED, wasInterrupted ? 1 : 0);
 	}
 	
+	/**
+	 * Adds a summary of the execution traces that were collected for the test.
+	 * @param traceStatistics
+	 * the trace statistics, as provided by the execution trace collector
+	 */
+	public void addExecutionTraceStatistics(TraceCollectionStatistics traceStatistics) {
+		if (traceStatistics == null) {
+			return;
+		}
+		addStatisticsElement(StatisticsData.TRACE_EVENTS, traceStatistics.getEventCount());
+		addStatisticsElement(StatisticsData.TRACE_EVENTS_PER_SECOND, Math.round(traceStatistics.getEventsPerSecond()));
+		addStatisticsElement(StatisticsData.TRACE_THREADS, traceStatistics.getThreadCount());
+		addStatisticsElement(StatisticsData.TRACE_COMPRESSION_RATIO, Math.round(100.0 * traceStatistics.getCompressionRatio()));
+		addStatisticsElement(StatisticsData.TRACE_SPILLED_BYTES, traceStatistics.getSpilledBytes());
+		addStatisticsElement(StatisticsData.TRACE_SPILL_TIME, traceStatistics.getSpillTimeNanos() / 1000000L);
+		addStatisticsElement(StatisticsData.TRACE_LOCK_WAIT_TIME, traceStatistics.getLockWaitTimeNanos() / 1000000L);
+		addStatisticsElement(StatisticsData.TRACE_COLLECTION_TIME, traceStatistics.getCollectionTimeNanos() / 1000000L);
+		addStatisticsElement(StatisticsData.LATE_TRACE_EVENTS, traceStatistics.getLateEventCount());
+	}
+	
 	public String getErrorMsg() {
 		return getElement(StatisticsData.ERROR_MSG) == null ? 
 				null : getElement(StatisticsData.ERROR_MSG).getValueAsString();
@@ -3,8 +3,8 @@ package se.de.hu_berlin.informatik.spectra.core.manipulation;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.UUID;
 
 import se.de.hu_berlin.informatik.spectra.core.INode;
@@ -83,8 +83,8 @@ public class StatementToMethodSpectraModule extends AbstractProcessor<ISpectra<S
 						new ExecutionTrace(executiontrace.getCompressedTrace().getOutputDir(), 
 								"m_cpr_trace_" + UUID.randomUUID().toString(), 50000, 50000, true);
 				int lastNodeIndex = -1;
-				for (Iterator<Integer> iterator = executiontrace.mappedIterator(input.getIndexer()); iterator.hasNext();) {
-					int nodeIndex = lineToMethodMap.get(iterator.next());
+				for (PrimitiveIterator.OfInt iterator = executiontrace.mappedIntIterator(input.getIndexer()); iterator.hasNext();) {
+					int nodeIndex = lineToMethodMap.get(iterator.nextInt());
 					// add index to execution trace without repetitions
 					if (nodeIndex != lastNodeIndex) {
 						methodExecutionTrace.add(nodeIndex);
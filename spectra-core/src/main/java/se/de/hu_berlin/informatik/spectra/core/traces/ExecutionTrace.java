@@ -2,9 +2,10 @@ package se.de.hu_berlin.informatik.spectra.core.traces;
 
 import java.io.File;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PrimitiveIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedMap;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
@@ -55,15 +56,15 @@ public class ExecutionTrace extends EfficientCompressedIntegerTrace implements S
 	 * array that contains all executed node IDs
 	 */
 	public int[] reconstructFullMappedTrace(SequenceIndexerCompressed indexer) {
-		TraceIterator indexedFullTrace = iterator();
-		List<Integer> fullTrace = new ArrayList<>();
-		while (indexedFullTrace.hasNext()) {
-			Iterator<Integer> sequence = indexer.getFullSequenceIterator(indexedFullTrace.next());
-			while (sequence.hasNext()) {
-				fullTrace.add(sequence.next());
+		int[] fullTrace = new int[16];
+		int size = 0;
+		for (PrimitiveIterator.OfInt iterator = mappedIntIterator(indexer); iterator.hasNext();) {
+			if (size == fullTrace.length) {
+				fullTrace = Arrays.copyOf(fullTrace, size * 2);
 			}
+			fullTrace[size++] = iterator.nextInt();
 		}
-		return fullTrace.stream().mapToInt(i -> i).toArray();
+		return Arrays.copyOf(fullTrace, size);
 	}
 	
 	/**
@@ -74,18 +75,18 @@ public class ExecutionTrace extends EfficientCompressedIntegerTrace implements S
 	 * @return
 	 * iterator
 	 */
-	public Iterator<Integer> mappedIterator(SequenceIndexerCompressed sequenceIndexer) {
-		return new Iterator<Integer>(){
+	public PrimitiveIterator.OfInt mappedIntIterator(SequenceIndexerCompressed sequenceIndexer) {
+		return new PrimitiveIterator.OfInt(){
 			
 			final TraceIterator iterator = ExecutionTrace.this.iterator();
-			Iterator<Integer> currentSequence;
+			PrimitiveIterator.OfInt currentSequence;
 
 			@Override
 			public boolean hasNext() {
 				if (currentSequence == null || !currentSequence.hasNext()) {
 					currentSequence = null;
 					while (iterator.hasNext()) {
-						currentSequence = sequenceIndexer.getFullSequenceIterator(iterator.next());
+						currentSequence = sequenceIndexer.getFullSequenceIntIterator(iterator.next());
 						if (currentSequence.hasNext()) {
 							// found a "good" sequence
 							break;
@@ -101,11 +102,23 @@ public class ExecutionTrace extends EfficientCompressedIntegerTrace implements S
 			}
 
 			@Override
-			public Integer next() {
-				return currentSequence.next();
+			public int nextInt() {
+				return currentSequence.nextInt();
 			}};
 	}
 	
+	/**
+	 * Boxing variant of {@link #mappedIntIterator(SequenceIndexerCompressed)}.
+	 * @param sequenceIndexer
+	 * indexer that is used to connect the element IDs in the execution trace to the respective sub traces
+	 * that contain node IDs
+	 * @return
+	 * iterator
+	 */
+	public Iterator<Integer> mappedIterator(SequenceIndexerCompressed sequenceIndexer) {
+		return mappedIntIterator(sequenceIndexer);
+	}
+	
 	/**
 	 * iterates over all node IDs in the execution trace, starting from the end of the trace.
 	 * @param sequenceIndexer
@@ -114,18 +127,18 @@ public class ExecutionTrace extends EfficientCompressedIntegerTrace implements S
 	 * @return
 	 * iterator
 	 */
-	public Iterator<Integer> mappedReverseIterator(SequenceIndexerCompressed sequenceIndexer) {
-		return new Iterator<Integer>(){
+	public PrimitiveIterator.OfInt mappedReverseIntIterator(SequenceIndexerCompressed sequenceIndexer) {
+		return new PrimitiveIterator.OfInt(){
 			
 			final TraceReverseIterator iterator = ExecutionTrace.this.reverseIterator();
-			Iterator<Integer> currentSequence;
+			PrimitiveIterator.OfInt currentSequence;
 
 			@Override
 			public boolean hasNext() {
 				if (currentSequence == null || !currentSequence.hasNext()) {
 					currentSequence = null;
 					while (iterator.hasNext()) {
-						currentSequence = sequenceIndexer.getFullSequenceReverseIterator(iterator.next());
+						currentSequence = sequenceIndexer.getFullSequenceReverseIntIterator(iterator.next());
 						if (currentSequence.hasNext()) {
 							// found a "good" sequence
 							break;
@@ -141,9 +154,21 @@ public class ExecutionTrace extends EfficientCompressedIntegerTrace implements S
 			}
 
 			@Override
-			public Integer next() {
-				return currentSequence.next();
+			public int nextInt() {
+				return currentSequence.nextInt();
 			}};
 	}
 	
+	/**
+	 * Boxing variant of {@link #mappedReverseIntIterator(SequenceIndexerCompressed)}.
+	 * @param sequenceIndexer
+	 * indexer that is used to connect the element IDs in the execution trace to the respective sub traces
+	 * that contain node IDs
+	 * @return
+	 * iterator
+	 */
+	public Iterator<Integer> mappedReverseIterator(SequenceIndexerCompressed sequenceIndexer) {
+		return mappedReverseIntIterator(sequenceIndexer);
+	}
+	
 }
@@ -0,0 +1,122 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+/**
+ * Dynamic metrics of the nodes in a single execution trace, stored in primitive
+ * columns that are indexed by node index. Created by {@link ExecutionTraceStatisticsExtractor}.
+ *
+ * <p> Positions are indices in the fully expanded sequence of node IDs of the trace.
+ * The loop multiplicity of a node is the highest number of times that a single occurrence
+ * of the node in the compressed trace is repeated (the product of the repetition counts of
+ * all repetitions that contain it). The repetition depth is the highest number of nested
+ * repetitions that contain the node, a proxy for the depth of loops and recursive calls.
+ */
+public class ExecutionTraceStatistics {
+
+	public static final long NOT_EXECUTED = -1;
+
+	private final long length;
+	private final long[] executionCounts;
+	private final long[] firstPositions;
+	private final long[] lastPositions;
+	private final long[] loopMultiplicities;
+	private final int[] repetitionDepths;
+
+	ExecutionTraceStatistics(long length, long[] executionCounts, long[] firstPositions, long[] lastPositions,
+			long[] loopMultiplicities, int[] repetitionDepths) {
+		this.length = length;
+		this.executionCounts = executionCounts;
+		this.firstPositions = firstPositions;
+		this.lastPositions = lastPositions;
+		this.loopMultiplicities = loopMultiplicities;
+		this.repetitionDepths = repetitionDepths;
+	}
+
+	/**
+	 * @return
+	 * the number of node IDs in the fully expanded trace
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return
+	 * the number of rows in the columns (one per node index)
+	 */
+	public int getNodeCount() {
+		return executionCounts.length;
+	}
+
+	public long getExecutionCount(int nodeIndex) {
+		return nodeIndex < executionCounts.length ? executionCounts[nodeIndex] : 0;
+	}
+
+	/**
+	 * @param nodeIndex
+	 * the index of a node
+	 * @return
+	 * the position of the first execution of the node, or {@link #NOT_EXECUTED}
+	 */
+	public long getFirstPosition(int nodeIndex) {
+		return nodeIndex < firstPositions.length ? firstPositions[nodeIndex] : NOT_EXECUTED;
+	}
+
+	/**
+	 * @param nodeIndex
+	 * the index of a node
+	 * @return
+	 * the position of the last execution of the node, or {@link #NOT_EXECUTED}
+	 */
+	public long getLastPosition(int nodeIndex) {
+		return nodeIndex < lastPositions.length ? lastPositions[nodeIndex] : NOT_EXECUTED;
+	}
+
+	public long getLoopMultiplicity(int nodeIndex) {
+		return nodeIndex < loopMultiplicities.length ? loopMultiplicities[nodeIndex] : 0;
+	}
+
+	public int getRepetitionDepth(int nodeIndex) {
+		return nodeIndex < repetitionDepths.length ? repetitionDepths[nodeIndex] : 0;
+	}
+
+	/**
+	 * @return
+	 * the execution count column; not a copy
+	 */
+	public long[] getExecutionCounts() {
+		return executionCounts;
+	}
+
+	/**
+	 * @return
+	 * the first position column; not a copy
+	 */
+	public long[] getFirstPositions() {
+		return firstPositions;
+	}
+
+	/**
+	 * @return
+	 * the last position column; not a copy
+	 */
+	public long[] getLastPositions() {
+		return lastPositions;
+	}
+
+	/**
+	 * @return
+	 * the loop multiplicity column; not a copy
+	 */
+	public long[] getLoopMultiplicities() {
+		return loopMultiplicities;
+	}
+
+	/**
+	 * @return
+	 * the repetition depth column; not a copy
+	 */
+	public int[] getRepetitionDepths() {
+		return repetitionDepths;
+	}
+
+}
@@ -0,0 +1,356 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PrimitiveIterator;
+
+import se.de.hu_berlin.informatik.spectra.core.ISpectra;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntIntHashMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerWrapper;
+
+/**
+ * Computes {@link ExecutionTraceStatistics} for execution traces without expanding them.
+ * The compressed trace and the repetition markers of each level are walked once forwards
+ * (execution counts, first positions, loop multiplicities and repetition depths) and once
+ * backwards (last positions). Each repeated sequence is only visited once, with the
+ * execution counts of the contained nodes being multiplied by the number of repetitions.
+ *
+ * <p> The node ID sequences of the sequence indexer are cached, so an extractor
+ * should be reused for all execution traces that share the same indexer.
+ */
+public class ExecutionTraceStatisticsExtractor {
+
+	private final SequenceIndexerCompressed indexer;
+	private final int nodeCount;
+
+	// maps sequence indices to the respective cached node ID sequences
+	private final IntIntHashMap sequenceSlots = new IntIntHashMap(-1);
+	private final List<int[]> sequences = new ArrayList<>();
+
+	// state of the current extraction
+	private BufferedIntArrayQueue compressedTrace;
+	private Level[] levels;
+	private boolean reverse;
+	private long position;
+	private long length;
+	private long[] executionCounts;
+	private long[] firstPositions;
+	private long[] lastPositions;
+	private long[] loopMultiplicities;
+	private int[] repetitionDepths;
+
+	/**
+	 * @param indexer
+	 * the indexer that maps the sequence indices of the execution traces to node IDs
+	 * @param nodeCount
+	 * the expected number of nodes; the tables grow if larger node IDs are encountered
+	 */
+	public ExecutionTraceStatisticsExtractor(SequenceIndexerCompressed indexer, int nodeCount) {
+		this.indexer = indexer;
+		this.nodeCount = Math.max(0, nodeCount);
+	}
+
+	/**
+	 * @param spectra
+	 * a spectra with loaded execution traces
+	 */
+	public ExecutionTraceStatisticsExtractor(ISpectra<?, ?> spectra) {
+		this(spectra.getIndexer(), spectra.getNodes().size());
+	}
+
+	/**
+	 * Computes the statistics for the given execution trace.
+	 * @param executionTrace
+	 * an execution trace that contains sequence indices of the indexer of this extractor
+	 * @return
+	 * the statistics of all nodes
+	 * @throws UnsupportedOperationException
+	 * if the given trace is grammar compressed
+	 */
+	public ExecutionTraceStatistics extract(ExecutionTrace executionTrace) {
+		if (executionTrace.getGrammar() != null) {
+			throw new UnsupportedOperationException("Grammar compressed traces are not supported.");
+		}
+		compressedTrace = executionTrace.getCompressedTrace();
+		// the iterators only consider the added levels
+		int levelCount = executionTrace.levelCount();
+		RepetitionMarkerWrapper[] wrappers = executionTrace.getRepetitionMarkers();
+		levels = new Level[levelCount + 1];
+		long levelSize = compressedTrace.size();
+		for (int i = 1; i <= levelCount; ++i) {
+			levels[i] = new Level(wrappers[i - 1]);
+			levelSize += levels[i].getAddedElements();
+		}
+
+		executionCounts = new long[nodeCount];
+		firstPositions = new long[nodeCount];
+		Arrays.fill(firstPositions, ExecutionTraceStatistics.NOT_EXECUTED);
+		lastPositions = new long[nodeCount];
+		Arrays.fill(lastPositions, ExecutionTraceStatistics.NOT_EXECUTED);
+		loopMultiplicities = new long[nodeCount];
+		repetitionDepths = new int[nodeCount];
+
+		reverse = false;
+		position = 0;
+		visit(levelCount, 0, levelSize, 1, 0);
+		length = position;
+
+		reverse = true;
+		position = 0;
+		visit(levelCount, 0, levelSize, 1, 0);
+
+		ExecutionTraceStatistics statistics = new ExecutionTraceStatistics(length, executionCounts,
+				firstPositions, lastPositions, loopMultiplicities, repetitionDepths);
+		compressedTrace = null;
+		levels = null;
+		executionCounts = null;
+		firstPositions = null;
+		lastPositions = null;
+		loopMultiplicities = null;
+		repetitionDepths = null;
+		return statistics;
+	}
+
+	/*
+	 * Visits the elements in the range [start, end) of the given level, with the repetitions
+	 * of the level being unrolled. Level 0 is the compressed trace. Positions in the unrolled
+	 * trace of a level are positions in the (rolled) trace of the next higher level.
+	 */
+	private void visit(int level, long start, long end, long multiplier, int depth) {
+		if (start >= end) {
+			return;
+		}
+		if (level == 0) {
+			if (reverse) {
+				for (long i = end - 1; i >= start; --i) {
+					visitSequence(compressedTrace.get(i), multiplier, depth);
+				}
+			} else {
+				for (long i = start; i < end; ++i) {
+					visitSequence(compressedTrace.get(i), multiplier, depth);
+				}
+			}
+			return;
+		}
+		Level markers = levels[level];
+		if (reverse) {
+			long current = end;
+			while (current > start) {
+				int index = markers.getRepetitionIndex(current - 1);
+				long pieceStart = index < 0 ? start : Math.max(start, markers.getEnd(index));
+				if (pieceStart < current) {
+					// not inside of a repetition
+					long lowerStart = markers.toLowerPosition(index, pieceStart);
+					visit(level - 1, lowerStart, lowerStart + (current - pieceStart), multiplier, depth);
+				} else {
+					pieceStart = Math.max(start, markers.getStart(index));
+					visitRepetition(level, index, pieceStart, current, multiplier, depth);
+				}
+				current = pieceStart;
+			}
+		} else {
+			long current = start;
+			while (current < end) {
+				int index = markers.getRepetitionIndex(current);
+				long pieceEnd;
+				if (index < 0 || current >= markers.getEnd(index)) {
+					// not inside of a repetition
+					pieceEnd = index + 1 < markers.size() ? Math.min(end, markers.getStart(index + 1)) : end;
+					long lowerStart = markers.toLowerPosition(index, current);
+					visit(level - 1, lowerStart, lowerStart + (pieceEnd - current), multiplier, depth);
+				} else {
+					pieceEnd = Math.min(end, markers.getEnd(index));
+					visitRepetition(level, index, current, pieceEnd, multiplier, depth);
+				}
+				current = pieceEnd;
+			}
+		}
+	}
+
+	/*
+	 * Visits the range [start, end) of the given level that lies inside of the repetition
+	 * with the given index. Full iterations of the repeated sequence are only visited once.
+	 */
+	private void visitRepetition(int level, int index, long start, long end, long multiplier, int depth) {
+		Level markers = levels[level];
+		long repetitionStart = markers.getStart(index);
+		long key = markers.keys[index];
+		int repetitionLength = markers.lengths[index];
+		long startIteration = (start - repetitionStart) / repetitionLength;
+		int startOffset = (int) ((start - repetitionStart) % repetitionLength);
+		long endIteration = (end - repetitionStart) / repetitionLength;
+		int endOffset = (int) ((end - repetitionStart) % repetitionLength);
+		if (startIteration == endIteration) {
+			// inside of a single iteration
+			visit(level - 1, key + startOffset, key + endOffset, multiplier, depth + 1);
+			return;
+		}
+		if (startOffset > 0) {
+			++startIteration;
+		}
+		long fullIterations = endIteration - startIteration;
+		if (reverse) {
+			visit(level - 1, key, key + endOffset, multiplier, depth + 1);
+			visitFullIterations(level, key, repetitionLength, fullIterations, multiplier, depth);
+			if (startOffset > 0) {
+				visit(level - 1, key + startOffset, key + repetitionLength, multiplier, depth + 1);
+			}
+		} else {
+			if (startOffset > 0) {
+				visit(level - 1, key + startOffset, key + repetitionLength, multiplier, depth + 1);
+			}
+			visitFullIterations(level, key, repetitionLength, fullIterations, multiplier, depth);
+			visit(level - 1, key, key + endOffset, multiplier, depth + 1);
+		}
+	}
+
+	private void visitFullIterations(int level, long key, int repetitionLength, long iterations, long multiplier, int depth) {
+		if (iterations <= 0) {
+			return;
+		}
+		long before = position;
+		visit(level - 1, key, key + repetitionLength, multiplier * iterations, depth + 1);
+		// skip the remaining iterations
+		position += (position - before) * (iterations - 1);
+	}
+
+	private void visitSequence(int sequenceIndex, long multiplier, int depth) {
+		int[] nodeIds = getSequence(sequenceIndex);
+		if (reverse) {
+			for (int i = nodeIds.length - 1; i >= 0; --i) {
+				int nodeId = nodeIds[i];
+				ensureCapacity(nodeId);
+				if (lastPositions[nodeId] == ExecutionTraceStatistics.NOT_EXECUTED) {
+					lastPositions[nodeId] = length - 1 - position;
+				}
+				++position;
+			}
+		} else {
+			for (int nodeId : nodeIds) {
+				ensureCapacity(nodeId);
+				executionCounts[nodeId] += multiplier;
+				if (firstPositions[nodeId] == ExecutionTraceStatistics.NOT_EXECUTED) {
+					firstPositions[nodeId] = position;
+				}
+				loopMultiplicities[nodeId] = Math.max(loopMultiplicities[nodeId], multiplier);
+				repetitionDepths[nodeId] = Math.max(repetitionDepths[nodeId], depth);
+				++position;
+			}
+		}
+	}
+
+	private int[] getSequence(int sequenceIndex) {
+		int slot = sequenceSlots.get(sequenceIndex);
+		if (slot < 0) {
+			int[] nodeIds = new int[8];
+			int size = 0;
+			PrimitiveIterator.OfInt iterator = indexer.getFullSequenceIntIterator(sequenceIndex);
+			while (iterator.hasNext()) {
+				if (size == nodeIds.length) {
+					nodeIds = Arrays.copyOf(nodeIds, size * 2);
+				}
+				nodeIds[size++] = iterator.nextInt();
+			}
+			slot = sequences.size();
+			sequences.add(Arrays.copyOf(nodeIds, size));
+			sequenceSlots.put(sequenceIndex, slot);
+		}
+		return sequences.get(slot);
+	}
+
+	private void ensureCapacity(int nodeId) {
+		if (nodeId < executionCounts.length) {
+			return;
+		}
+		int oldLength = executionCounts.length;
+		int newLength = Math.max(nodeId + 1, oldLength * 2);
+		executionCounts = Arrays.copyOf(executionCounts, newLength);
+		firstPositions = Arrays.copyOf(firstPositions, newLength);
+		Arrays.fill(firstPositions, oldLength, newLength, ExecutionTraceStatistics.NOT_EXECUTED);
+		lastPositions = Arrays.copyOf(lastPositions, newLength);
+		Arrays.fill(lastPositions, oldLength, newLength, ExecutionTraceStatistics.NOT_EXECUTED);
+		loopMultiplicities = Arrays.copyOf(loopMultiplicities, newLength);
+		repetitionDepths = Arrays.copyOf(repetitionDepths, newLength);
+	}
+
+	/*
+	 * The repetition markers of a level, sorted by their positions. The (rolled)
+	 * trace of the level contains the elements of the next lower level, with each
+	 * marker [key, length, count] denoting that the elements [key, key + length)
+	 * of the lower level are repeated count times.
+	 */
+	private static class Level {
+
+		private final long[] keys;
+		private final int[] lengths;
+		private final int[] counts;
+		// start positions of the repetitions in the trace of this level
+		private final long[] starts;
+		// number of elements that are added by all previous repetitions
+		private final long[] addedBefore;
+
+		private Level(RepetitionMarkerWrapper wrapper) {
+			int size = wrapper.getRepetitionMarkers().size();
+			keys = new long[size];
+			lengths = new int[size];
+			counts = new int[size];
+			starts = new long[size];
+			addedBefore = new long[size + 1];
+			int i = 0;
+			Iterator<Entry<Integer, int[]>> iterator = wrapper.getRepetitionMarkers().entrySetIterator(true);
+			while (iterator.hasNext()) {
+				Entry<Integer, int[]> entry = iterator.next();
+				keys[i] = entry.getKey();
+				// [length, repetitionCount]
+				lengths[i] = entry.getValue()[0];
+				counts[i] = entry.getValue()[1];
+				starts[i] = keys[i] + addedBefore[i];
+				addedBefore[i + 1] = addedBefore[i] + (long) lengths[i] * (counts[i] - 1);
+				++i;
+			}
+		}
+
+		private int size() {
+			return keys.length;
+		}
+
+		private long getAddedElements() {
+			return addedBefore[keys.length];
+		}
+
+		private long getStart(int index) {
+			return starts[index];
+		}
+
+		private long getEnd(int index) {
+			return starts[index] + (long) lengths[index] * counts[index];
+		}
+
+		// index of the last repetition that starts at or before the given position; -1 if none
+		private int getRepetitionIndex(long position) {
+			int low = 0;
+			int high = keys.length - 1;
+			int result = -1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] <= position) {
+					result = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return result;
+		}
+
+		// maps a position after the repetition with the given index (and before the next one) to the lower level
+		private long toLowerPosition(int index, long position) {
+			return position - addedBefore[index + 1];
+		}
+	}
+
+}
@@ -7,12 +7,12 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
 
-import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.ArrayIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.CloneableIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.SingleLinkedArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedArrayQueue.Type;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.CompressedTrace;
 
 public abstract class GSArrayTree<T,K> {
@@ -191,7 +191,7 @@ public abstract class GSArrayTree<T,K> {
 		if (rawTrace.getCompressedTrace().isEmpty()) {
 			return new BufferedArrayQueue<>(
 					rawTrace.getCompressedTrace().getOutputDir(), UUID.randomUUID().toString(), 
-					ExecutionTraceCollector.EXECUTION_TRACE_CHUNK_SIZE, Type.INTEGER);
+					TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE, Type.INTEGER);
 		}
 		
 		if (!indexer.isIndexed()) {
@@ -200,7 +200,7 @@ public abstract class GSArrayTree<T,K> {
 		
 		BufferedArrayQueue<Integer> indexedtrace = new BufferedArrayQueue<>(
 				rawTrace.getCompressedTrace().getOutputDir(), UUID.randomUUID().toString(), 
-				ExecutionTraceCollector.EXECUTION_TRACE_CHUNK_SIZE, Type.INTEGER);
+				TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE, Type.INTEGER);
 		
 		Iterator<T> iterator = rawTrace.iterator();
 		K startElement = getRepresentation(iterator.next());
@@ -1,6 +1,6 @@
 package se.de.hu_berlin.informatik.spectra.core.traces;
 
-import java.util.Iterator;
+import java.util.PrimitiveIterator;
 
 public interface IntArraySequenceIndexer {
 
@@ -14,7 +14,29 @@ public interface IntArraySequenceIndexer {
 
 	int[] getSequence(int index);
 
-	Iterator<Integer> getSequenceIterator(int index);
+	PrimitiveIterator.OfInt getSequenceIterator(int index);
+	
+	/**
+	 * Returns a view on the sequence with the given index
+	 * that does not copy the sequence's elements.
+	 * @param index
+	 * the index of the sequence
+	 * @return
+	 * a view on the sequence
+	 */
+	IntSequenceView getSequenceView(int index);
+	
+	/**
+	 * Points the given view to the sequence with the given index. Reusing
+	 * a view avoids any allocation when iterating over many sequences.
+	 * @param index
+	 * the index of the sequence
+	 * @param view
+	 * the view to reuse
+	 * @return
+	 * the given view
+	 */
+	IntSequenceView getSequenceView(int index, IntSequenceView view);
 
 	int[][] getMappedSequences();
 
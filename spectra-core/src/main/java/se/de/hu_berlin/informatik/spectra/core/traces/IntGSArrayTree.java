@@ -1,12 +1,15 @@
 package se.de.hu_berlin.informatik.spectra.core.traces;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
-import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntArrayIterator;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntIntHashMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
@@ -19,7 +22,8 @@ public class IntGSArrayTree {
 	public static final int BAD_INDEX = -3;
 //	public static final GSTreeNode END_NODE = new GSTreeNode();
 	public static final int SUCC_END = -1;
-	private static final Integer END_NODE = -2;
+	private static final int END_NODE = -2;
+	private static final int NO_BRANCH = -1;
 
 	int[] newArray(int size) {
 		return new int[size];
@@ -34,13 +38,97 @@ public class IntGSArrayTree {
 			int[] remainingSequence, List<IntGSArrayTreeNode> existingEdges) {
 		return new IntGSArrayTreeNode(treeReference, remainingSequence, existingEdges);
 	}
+
+	IntGSArrayTreeNode newTreeNode(IntGSArrayTree treeReference, int sequenceOffset, int sequenceLength) {
+		return new IntGSArrayTreeNode(treeReference, sequenceOffset, sequenceLength);
+	}
 	
 	// the (virtual) root node has a lot of branches, the inner nodes should not branch that much
-	// so we use a map here, and we use lists of edges in the inner nodes
-	private final Map<Integer, IntGSArrayTreeNode> branches = new HashMap<>();
+	// so we map starting elements to positions in an array of branches here,
+	// and we use sorted arrays of edges in the inner nodes
+	private final IntIntHashMap branchIndices = new IntIntHashMap(NO_BRANCH);
+	private int[] branchKeys = new int[16];
+	private IntGSArrayTreeNode[] branchNodes = new IntGSArrayTreeNode[16];
+	private int branchCount = 0;
+	
+	// the sequences of all nodes are stored consecutively in this arena;
+	// nodes refer to their sequences by offset and length
+	private int[] arena = new int[1024];
+	private int arenaSize = 0;
 	
 	private int endNodeCount = 0;
 	
+	/**
+	 * Reserves space for a sequence of the given length in the arena.
+	 * @param length
+	 * the length of the sequence
+	 * @return
+	 * the offset of the reserved space in the arena
+	 */
+	int allocate(int length) {
+		ensureCapacity(arenaSize + (long) length, arena.length * 2L);
+		int offset = arenaSize;
+		arenaSize += length;
+		return offset;
+	}
+	
+	/**
+	 * Grows the arena to exactly the needed size for the given number of additional elements,
+	 * so that adding them afterwards does not copy the arena again.
+	 * @param additionalLength
+	 * the number of elements that will be added
+	 */
+	void reserve(long additionalLength) {
+		ensureCapacity(arenaSize + additionalLength, arenaSize + additionalLength);
+	}
+	
+	private void ensureCapacity(long minCapacity, long preferredCapacity) {
+		if (minCapacity > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Sequence arena is full.");
+		}
+		if (minCapacity > arena.length) {
+			long capacity = Math.max(minCapacity, preferredCapacity);
+			arena = Arrays.copyOf(arena, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+		}
+	}
+	
+	/**
+	 * @return
+	 * the current arena; the array is replaced when the arena grows,
+	 * so it should not be held across additions to the tree
+	 */
+	int[] getArena() {
+		return arena;
+	}
+	
+	/**
+	 * @return
+	 * the number of elements that are stored in the arena
+	 */
+	public int getArenaSize() {
+		return arenaSize;
+	}
+	
+	private IntGSArrayTreeNode getBranch(int firstElement) {
+		int index = branchIndices.get(firstElement);
+		return index == NO_BRANCH ? null : branchNodes[index];
+	}
+	
+	private void putBranch(int firstElement, IntGSArrayTreeNode node) {
+		int index = branchIndices.get(firstElement);
+		if (index != NO_BRANCH) {
+			branchNodes[index] = node;
+			return;
+		}
+		if (branchCount == branchNodes.length) {
+			branchKeys = Arrays.copyOf(branchKeys, branchCount * 2);
+			branchNodes = Arrays.copyOf(branchNodes, branchCount * 2);
+		}
+		branchKeys[branchCount] = firstElement;
+		branchNodes[branchCount] = node;
+		branchIndices.put(firstElement, branchCount++);
+	}
+	
 	// once created end nodes may be removed later when reinserting sequences; (no reinserting an more)
 	public IntGSArrayTreeNode getNewEndNode() {
 		return new IntGSArrayTreeEndNode(endNodeCount++);
@@ -69,8 +157,8 @@ public class IntGSArrayTree {
 	boolean __addSequence(ReplaceableCloneableIterator unprocessedIterator, int length) {
 		if (length == 0) {
 			System.out.println("adding empty sequence..."); // this should not occur, normally
-			if (!branches.containsKey(END_NODE)) {
-				branches.put(END_NODE, getNewEndNode());
+			if (!branchIndices.containsKey(END_NODE)) {
+				putBranch(END_NODE, getNewEndNode());
 			}
 			return true;
 		}
@@ -80,7 +168,7 @@ public class IntGSArrayTree {
 	}
 	
 	boolean __addSequence(ReplaceableCloneableIterator unprocessedIterator, int length, int firstElement) {
-		IntGSArrayTreeNode startingNode = branches.get(firstElement);
+		IntGSArrayTreeNode startingNode = getBranch(firstElement);
 		if (startingNode == null) {
 			return addSequenceInNewBranch(unprocessedIterator, length, firstElement);
 		} else {
@@ -95,7 +183,7 @@ public class IntGSArrayTree {
 			int firstElement) {
 		// new starting element
 //			System.out.println("new start: " + firstElement);
-		branches.put(firstElement, newTreeNode(this, unprocessedIterator, length));
+		putBranch(firstElement, newTreeNode(this, unprocessedIterator, length));
 		return true;
 	}
 	
@@ -119,17 +207,79 @@ public class IntGSArrayTree {
 //	}
 	
 	
+	/**
+	 * Moves all branches of the given tree to this tree. 
+	 * The trees must not have branches with equal starting elements.
+	 * End node indices may be ambiguous afterwards, so {@link #canonicalize()}
+	 * has to be called before the tree is indexed.
+	 * @param other
+	 * a tree that is not used anymore afterwards; its arena can be released
+	 * as soon as this method returns, since the moved nodes only refer to this tree
+	 */
+	void addBranchesFrom(IntGSArrayTree other) {
+		for (int i = 0; i < other.branchCount; ++i) {
+			if (branchIndices.containsKey(other.branchKeys[i])) {
+				throw new IllegalStateException("Branch starting with " + other.branchKeys[i] + " exists in both trees.");
+			}
+			other.branchNodes[i].moveTo(this);
+			putBranch(other.branchKeys[i], other.branchNodes[i]);
+		}
+		endNodeCount += other.endNodeCount;
+	}
+	
+	/**
+	 * Sorts the branches by their starting elements and assigns the end node 
+	 * indices in a fixed order, so trees with equal structure get equal indices,
+	 * independent of the order in which the sequences of different branches were added.
+	 */
+	void canonicalize() {
+		int[] order = new int[branchCount];
+		for (int i = 0; i < branchCount; ++i) {
+			order[i] = branchKeys[i];
+		}
+		Arrays.sort(order);
+		IntGSArrayTreeNode[] nodes = new IntGSArrayTreeNode[branchNodes.length];
+		for (int i = 0; i < branchCount; ++i) {
+			nodes[i] = getBranch(order[i]);
+		}
+		branchIndices.clear();
+		branchKeys = Arrays.copyOf(order, branchNodes.length);
+		branchNodes = nodes;
+		int nextIndex = 0;
+		for (int i = 0; i < branchCount; ++i) {
+			branchIndices.put(branchKeys[i], i);
+			nextIndex = branchNodes[i].renumberEndNodes(nextIndex);
+		}
+		endNodeCount = nextIndex;
+	}
+	
+	/**
+	 * @param sequence
+	 * an array holding the sequence
+	 * @param length
+	 * the length of the sequence
+	 * @return
+	 * whether the given sequence was added to the tree as a whole, i.e., it ends in an end node
+	 */
+	public boolean containsSequence(int[] sequence, int length) {
+		if (length == 0) {
+			return branchIndices.containsKey(END_NODE);
+		}
+		IntGSArrayTreeNode startingNode = getBranch(sequence[0]);
+		return startingNode != null && startingNode.checkIfMatch(sequence, 0, length);
+	}
+	
 	public boolean checkIfStartingElementExists(int elementRep) {
-		return branches.containsKey(elementRep);
+		return branchIndices.containsKey(elementRep);
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append("GS Tree: ").append(branches.values().size()).append(" different starting elements, ").append(endNodeCount).append(" sequences");
+		sb.append("GS Tree: ").append(branchCount).append(" different starting elements, ").append(endNodeCount).append(" sequences");
 		sb.append(System.lineSeparator());
 		// iterate over all different branches (starting with the same element)
-		for (IntGSArrayTreeNode node : branches.values()) {
+		for (IntGSArrayTreeNode node : getBranchNodes()) {
 			collectAllSuffixes("", node, sb);
 		}
 		return sb.toString();
@@ -177,9 +327,25 @@ public class IntGSArrayTree {
 //		return count;
 //	}
 	
+	/**
+	 * @return
+	 * a new map from starting elements to the respective branches
+	 */
 	public Map<Integer, IntGSArrayTreeNode> getBranches() {
+		Map<Integer, IntGSArrayTreeNode> branches = new LinkedHashMap<>();
+		for (int i = 0; i < branchCount; ++i) {
+			branches.put(branchKeys[i], branchNodes[i]);
+		}
 		return branches;
 	}
+	
+	/**
+	 * @return
+	 * an unmodifiable view of all branches, in the order of their creation
+	 */
+	public List<IntGSArrayTreeNode> getBranchNodes() {
+		return Collections.unmodifiableList(Arrays.asList(branchNodes).subList(0, branchCount));
+	}
 
 	public ExecutionTrace generateIndexedTrace(
 			EfficientCompressedIntegerTrace rawTrace, IntArraySequenceIndexer indexer) {
@@ -190,7 +356,7 @@ public class IntGSArrayTree {
 		if (rawTrace.getCompressedTrace().isEmpty()) {
 			return new ExecutionTrace(
 					rawTrace.getCompressedTrace().getOutputDir(), UUID.randomUUID().toString(), 
-					ExecutionTraceCollector.EXECUTION_TRACE_CHUNK_SIZE, ExecutionTraceCollector.MAP_CHUNK_SIZE, true);
+					TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE, TraceMemoryBudget.MAP_CHUNK_SIZE, true);
 		}
 		
 		if (!indexer.isIndexed()) {
@@ -199,7 +365,7 @@ public class IntGSArrayTree {
 		
 		ExecutionTrace indexedtrace = new ExecutionTrace(
 				rawTrace.getCompressedTrace().getOutputDir(), UUID.randomUUID().toString(), 
-				ExecutionTraceCollector.EXECUTION_TRACE_CHUNK_SIZE, ExecutionTraceCollector.MAP_CHUNK_SIZE, true);
+				TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE, TraceMemoryBudget.MAP_CHUNK_SIZE, true);
 		
 		TraceIterator iterator = rawTrace.iterator();
 		int startElement = iterator.next();
@@ -216,7 +382,7 @@ public class IntGSArrayTree {
 	
 	public int addNextSequenceIndexToTrace(IntArraySequenceIndexer indexer, int firstElement, 
 			TraceIterator rawTraceIterator, EfficientCompressedIntegerTrace indexedtrace) {
-		IntGSArrayTreeNode startingNode = branches.get(firstElement);
+		IntGSArrayTreeNode startingNode = getBranch(firstElement);
 		if (startingNode != null) {
 			// some sequence with this starting element exists in the tree
 			return startingNode.getNextSequenceIndex(indexer, rawTraceIterator, indexedtrace);
@@ -0,0 +1,276 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntArrayIterator;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntBitSet;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
+
+/**
+ * Adds traces to an {@link IntGSArrayTree}, split into sequences at the given starting elements.
+ *
+ * <p> Sequences with different first elements end up in independent branches of the tree,
+ * so with more than one thread, the sequences are partitioned by their first elements into
+ * groups and each group is added to a separate tree by its own worker, in the original order.
+ * The sequences are handed to the workers as soon as they are complete, so the workers keep 
+ * running across traces. The number of queued elements per group is bounded by
+ * {@value #MAX_QUEUED_ELEMENTS}; if a queue is full, adding traces blocks until its worker
+ * catches up. The separate trees are merged into the target tree in {@link #finish()}. Afterwards, 
+ * the end nodes are numbered in a fixed order, so the result is identical to the sequential build.
+ * 
+ * <p> If a worker fails, the next call to {@link #addTrace(ReplaceableCloneableIterator)} or 
+ * {@link #finish()} throws an {@link IllegalStateException} with the worker's exception as cause.
+ * If the build is abandoned, {@link #shutdownNow()} has to be called to stop the workers.
+ */
+class IntGSArrayTreeBuilder {
+
+	// maximum number of elements of the queued sequences per group (a longer sequence is queued alone)
+	static final int MAX_QUEUED_ELEMENTS = 1 << 18;
+	
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+	
+	// signals the workers that all sequences were added
+	private static final int[] END_OF_INPUT = new int[0];
+
+	private final IntGSArrayTree tree;
+	private final IntBitSet startElements;
+	private final int threadCount;
+
+	private final IntGSArrayTree[] groupTrees;
+	private final List<BlockingQueue<int[]>> groupQueues;
+	// permits for the number of queued elements per group
+	private final Semaphore[] queuedElements;
+	private final List<Future<?>> workers;
+	private final ExecutorService executor;
+	// the first exception thrown by any worker
+	private volatile Throwable workerFailure;
+
+	private int[] buffer = new int[INITIAL_BUFFER_SIZE];
+
+	/**
+	 * @param tree
+	 * the tree to add sequences to; should be empty if multiple threads are used
+	 * @param startElements
+	 * the elements that mark the start of sequences
+	 * @param threadCount
+	 * the number of workers; 1 adds all sequences sequentially to the given tree
+	 */
+	IntGSArrayTreeBuilder(IntGSArrayTree tree, Set<Integer> startElements, int threadCount) {
+		this(tree, new IntBitSet(startElements), threadCount);
+	}
+
+	/**
+	 * @param tree
+	 * the tree to add sequences to; should be empty if multiple threads are used
+	 * @param startElements
+	 * the elements that mark the start of sequences
+	 * @param threadCount
+	 * the number of workers; 1 adds all sequences sequentially to the given tree
+	 */
+	IntGSArrayTreeBuilder(IntGSArrayTree tree, IntBitSet startElements, int threadCount) {
+		this.tree = tree;
+		// first elements of traces are added, so that all branches start with a starting element
+		this.startElements = new IntBitSet(startElements);
+		this.threadCount = Math.max(1, threadCount);
+		if (this.threadCount > 1) {
+			groupTrees = new IntGSArrayTree[this.threadCount];
+			groupQueues = new ArrayList<>(this.threadCount);
+			queuedElements = new Semaphore[this.threadCount];
+			workers = new ArrayList<>(this.threadCount);
+			executor = Executors.newFixedThreadPool(this.threadCount, new ThreadFactory() {
+				private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+				
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = defaultFactory.newThread(runnable);
+					// workers waiting for input must not keep the JVM alive
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			for (int i = 0; i < this.threadCount; ++i) {
+				groupTrees[i] = new IntGSArrayTree();
+				groupQueues.add(new LinkedBlockingQueue<>());
+				queuedElements[i] = new Semaphore(MAX_QUEUED_ELEMENTS);
+				workers.add(executor.submit(newWorker(groupTrees[i], groupQueues.get(i), queuedElements[i])));
+			}
+		} else {
+			groupTrees = null;
+			groupQueues = null;
+			queuedElements = null;
+			workers = null;
+			executor = null;
+		}
+	}
+
+	// adds the queued sequences of a group in their original order, until the end of input
+	private Callable<Void> newWorker(final IntGSArrayTree groupTree, 
+			final BlockingQueue<int[]> queue, final Semaphore queuedElements) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				try {
+					int[] sequence;
+					while ((sequence = queue.take()) != END_OF_INPUT) {
+						groupTree.__addSequence(new IntArrayIterator(sequence), sequence.length, sequence[0]);
+						queuedElements.release(getPermits(sequence));
+					}
+					return null;
+				} catch (Throwable t) {
+					if (workerFailure == null) {
+						workerFailure = t;
+					}
+					throw t;
+				}
+			}
+		};
+	}
+
+	private static int getPermits(int[] sequence) {
+		return Math.min(sequence.length, MAX_QUEUED_ELEMENTS);
+	}
+
+	/**
+	 * Splits the given trace at starting elements and adds the resulting sequences.
+	 * @param iterator
+	 * an iterator over the trace
+	 */
+	void addTrace(ReplaceableCloneableIterator iterator) {
+		if (!iterator.hasNext()) {
+			return;
+		}
+		startElements.add(iterator.peek());
+		if (executor == null) {
+			addTraceSequentially(iterator);
+		} else {
+			addTraceInParallel(iterator);
+		}
+	}
+
+	private void addTraceSequentially(ReplaceableCloneableIterator iterator) {
+		// remember starting position
+		ReplaceableCloneableIterator unprocessedIterator = iterator.clone();
+		int processedElements = 0;
+		while (iterator.hasNext()) {
+			if (processedElements > 0 && startElements.contains(iterator.peek())) {
+				// there exists an unprocessed sequence before this element's position
+				tree.__addSequence(unprocessedIterator, processedElements, unprocessedIterator.peek());
+				unprocessedIterator = iterator.clone();
+				processedElements = 0;
+			}
+			// add the current element to the list of unprocessed elements
+			++processedElements;
+			iterator.next();
+		}
+		// process remaining elements
+		tree.__addSequence(unprocessedIterator, processedElements, unprocessedIterator.peek());
+	}
+
+	private void addTraceInParallel(ReplaceableCloneableIterator iterator) {
+		int processedElements = 0;
+		while (iterator.hasNext()) {
+			int element = iterator.peek();
+			if (processedElements > 0 && startElements.contains(element)) {
+				addToGroup(Arrays.copyOf(buffer, processedElements));
+				processedElements = 0;
+			}
+			if (processedElements == buffer.length) {
+				buffer = Arrays.copyOf(buffer, processedElements * 2);
+			}
+			buffer[processedElements++] = iterator.next();
+		}
+		addToGroup(Arrays.copyOf(buffer, processedElements));
+		if (buffer.length > MAX_QUEUED_ELEMENTS) {
+			// do not keep the buffer of an exceptionally long sequence
+			buffer = new int[INITIAL_BUFFER_SIZE];
+		}
+	}
+
+	// queues the sequence for the worker of its group; blocks while the group's queue is full
+	private void addToGroup(int[] sequence) {
+		checkWorkers();
+		int group = Math.floorMod(sequence[0], threadCount);
+		try {
+			while (!queuedElements[group].tryAcquire(getPermits(sequence), 100, TimeUnit.MILLISECONDS)) {
+				// the worker may have failed while the queue was full
+				checkWorkers();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building GS tree.", e);
+		}
+		groupQueues.get(group).add(sequence);
+	}
+
+	// rethrows the failure of any worker in the calling thread
+	private void checkWorkers() {
+		Throwable failure = workerFailure;
+		if (failure != null) {
+			throw new IllegalStateException("Could not build GS tree.", failure);
+		}
+	}
+
+	private static void waitFor(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while building GS tree.", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Could not build GS tree.", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Merges the trees of all groups into the target tree (if multiple threads are used)
+	 * and numbers the end nodes. Has to be called after all traces were added.
+	 */
+	void finish() {
+		if (executor != null) {
+			for (BlockingQueue<int[]> queue : groupQueues) {
+				queue.add(END_OF_INPUT);
+			}
+			executor.shutdown();
+			waitFor(workers);
+			long mergedSize = 0;
+			for (IntGSArrayTree groupTree : groupTrees) {
+				mergedSize += groupTree.getArenaSize();
+			}
+			// grow the target arena only once, to its final size
+			tree.reserve(mergedSize);
+			for (int i = 0; i < groupTrees.length; ++i) {
+				tree.addBranchesFrom(groupTrees[i]);
+				// release the group's arena before the next group is copied
+				groupTrees[i] = null;
+			}
+		}
+		tree.canonicalize();
+	}
+
+	/**
+	 * Stops the workers without processing the remaining queued sequences.
+	 * Has to be called if the build is abandoned before {@link #finish()} returns,
+	 * e.g. because adding a trace failed; does nothing otherwise.
+	 */
+	void shutdownNow() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+}
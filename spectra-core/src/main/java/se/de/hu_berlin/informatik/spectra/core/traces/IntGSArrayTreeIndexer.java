@@ -1,21 +1,44 @@
 package se.de.hu_berlin.informatik.spectra.core.traces;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.PrimitiveIterator;
 
 import se.de.hu_berlin.informatik.utils.miscellaneous.Log;
 
 public class IntGSArrayTreeIndexer implements IntArraySequenceIndexer {
 
+	// default maximum number of elements in the flat copy of all sequences
+	public static final int DEFAULT_MAX_FLAT_SEQUENCES_SIZE = 1 << 24;
+
 	// array of all existing sequences, extracted from the tree
 	private IntGSArrayTreeNode[][] sequences;
 	private final IntGSArrayTree tree;
 	
+	// the lengths of the sequences
+	private int[] sequenceLengths;
+	
+	// optional cache: all sequences, concatenated in index order; sequence i starts at sequenceOffsets[i];
+	// without it, the sequences are read from the nodes' ranges in the tree's arena
+	private final int maxFlatSequencesSize;
+	private int[] flatSequences;
+	private int[] sequenceOffsets;
+	
 	
 	public IntGSArrayTreeIndexer(IntGSArrayTree tree) {
+		this(tree, DEFAULT_MAX_FLAT_SEQUENCES_SIZE);
+	}
+	
+	/**
+	 * @param tree
+	 * the tree to index
+	 * @param maxFlatSequencesSize
+	 * the maximum number of elements of all sequences for which a flat copy of the sequences 
+	 * is cached; longer sequences are only read from the tree's arena, and 0 disables the cache
+	 */
+	public IntGSArrayTreeIndexer(IntGSArrayTree tree, int maxFlatSequencesSize) {
 		this.tree = Objects.requireNonNull(tree);
+		this.maxFlatSequencesSize = Math.min(maxFlatSequencesSize, Integer.MAX_VALUE - 8);
 	}
 	
 	@Override
@@ -29,6 +52,9 @@ public class IntGSArrayTreeIndexer implements IntArraySequenceIndexer {
 	@Override
 	public void reset() {
 		sequences = null;
+		sequenceLengths = null;
+		flatSequences = null;
+		sequenceOffsets = null;
 	}
 	
 //	@Override
@@ -91,9 +117,64 @@ public class IntGSArrayTreeIndexer implements IntArraySequenceIndexer {
 		
 //		currentIndex = 0;
 		// iterate over all different branches (starting with the same element)
-		for (IntGSArrayTreeNode node : tree.getBranches().values()) {
+		for (IntGSArrayTreeNode node : tree.getBranchNodes()) {
 			collectAllSuffixes(newArray(0), node);
 		}
+		computeSequenceLengths();
+	}
+	
+	private void computeSequenceLengths() {
+		int[] lengths = new int[sequences.length];
+		long totalLength = 0;
+		for (int i = 0; i < sequences.length; ++i) {
+			int length = 0;
+			for (IntGSArrayTreeNode gsTreeNode : sequences[i]) {
+				length += gsTreeNode.getSequenceLength();
+			}
+			lengths[i] = length;
+			totalLength += length;
+		}
+		sequenceLengths = lengths;
+		
+		if (totalLength <= maxFlatSequencesSize) {
+			flattenSequences((int) totalLength);
+		}
+	}
+	
+	private void flattenSequences(int totalLength) {
+		int[] offsets = new int[sequences.length + 1];
+		int length = 0;
+		for (int i = 0; i < sequences.length; ++i) {
+			offsets[i] = length;
+			length += sequenceLengths[i];
+		}
+		offsets[sequences.length] = length;
+		
+		int[] flat = tree.newArray(totalLength);
+		for (int i = 0; i < sequences.length; ++i) {
+			int j = offsets[i];
+			for (IntGSArrayTreeNode gsTreeNode : sequences[i]) {
+				gsTreeNode.copySequenceTo(flat, j);
+				j += gsTreeNode.getSequenceLength();
+			}
+		}
+		flatSequences = flat;
+		sequenceOffsets = offsets;
+	}
+	
+	private void checkIndex(int index) {
+		if (index == GSArrayTree.BAD_INDEX) {
+			throw new IllegalStateException("Bad sequence index!");
+		}
+		if (!isIndexed()) {
+			generateSequenceIndex();
+		} else if (sequenceLengths == null) {
+			// sequences were modified
+			computeSequenceLengths();
+		}
+		if (index < 0 || index >= sequences.length) {
+			throw new IllegalStateException("Index out of range: " + index);
+		}
 	}
 	
 	private void collectAllSuffixes(IntGSArrayTreeNode[] sequence, IntGSArrayTreeNode node) {
@@ -113,93 +194,36 @@ public class IntGSArrayTreeIndexer implements IntArraySequenceIndexer {
 
 	@Override
 	public int[] getSequence(int index) {
-		if (index == GSArrayTree.BAD_INDEX) {
-			throw new IllegalStateException("Bad sequence index!");
-		}
-		if (!isIndexed()) {
-			generateSequenceIndex();
-		}
-		if (index < 0 || index >= tree.getEndNodeCount()) {
-			throw new IllegalStateException("Index out of range: " + index);
+		checkIndex(index);
+		if (flatSequences == null) {
+			return getSequenceView(index).toArray();
 		}
-		return generateSequence(sequences[index]);
+		return Arrays.copyOfRange(flatSequences, sequenceOffsets[index], sequenceOffsets[index + 1]);
 	}
-
-	private int[] generateSequence(IntGSArrayTreeNode[] gsTreeNodes) {
-		int length = 0;
-		for (IntGSArrayTreeNode gsTreeNode : gsTreeNodes) {
-			length += gsTreeNode.getSequence().length;
-		}
-		int[] sequence = tree.newArray(length);
-		int j = 0;
-		for (IntGSArrayTreeNode gsTreeNode : gsTreeNodes) {
-			for (int i = 0; i < gsTreeNode.getSequence().length; i++) {
-				sequence[j++] = gsTreeNode.getSequence()[i];
-			}
-		}
-		return sequence;
+	
+	@Override
+	public IntSequenceView getSequenceView(int index) {
+		return getSequenceView(index, new IntSequenceView());
 	}
 	
 	@Override
-	public Iterator<Integer> getSequenceIterator(int index) {
-		if (index == GSArrayTree.BAD_INDEX) {
-			throw new IllegalStateException("Bad sequence index!");
-		}
-		if (!isIndexed()) {
-			generateSequenceIndex();
+	public IntSequenceView getSequenceView(int index, IntSequenceView view) {
+		checkIndex(index);
+		if (flatSequences == null) {
+			return view.set(tree.getArena(), sequences[index], sequenceLengths[index]);
 		}
-		if (index < 0 || index >= tree.getEndNodeCount()) {
-			throw new IllegalStateException("Index out of range: " + index);
-		}
-		
-		return new SequenceIterator(sequences[index]);
+		return view.set(flatSequences, sequenceOffsets[index], sequenceLengths[index]);
 	}
 	
 	@Override
-	public int getSequenceLength(int index) {
-		if (index == GSArrayTree.BAD_INDEX) {
-			throw new IllegalStateException("Bad sequence index!");
-		}
-		if (!isIndexed()) {
-			generateSequenceIndex();
-		}
-		int length = 0;
-		for (IntGSArrayTreeNode gsTreeNode : sequences[index]) {
-			length += gsTreeNode.getSequence().length;
-		}
-		return length;
+	public PrimitiveIterator.OfInt getSequenceIterator(int index) {
+		return getSequenceView(index).iterator();
 	}
 	
-	private final static class SequenceIterator implements Iterator<Integer> {
-
-		private final IntGSArrayTreeNode[] gsTreeNodes;
-		private int nodeIndex = 0;
-		private int sequenceIndex = 0;
-
-		public SequenceIterator(IntGSArrayTreeNode[] gsTreeNodes) {
-			this.gsTreeNodes = Objects.requireNonNull(gsTreeNodes);
-		}
-
-		@Override
-		public boolean hasNext() {
-			while (nodeIndex < gsTreeNodes.length && gsTreeNodes[nodeIndex].getSequence().length == 0) {
-				// skip empty nodes
-				++nodeIndex;
-			}
-			return nodeIndex < gsTreeNodes.length && 
-					sequenceIndex < gsTreeNodes[nodeIndex].getSequence().length;
-		}
-
-		@Override
-		public Integer next() {
-			int next = gsTreeNodes[nodeIndex].getSequence()[sequenceIndex++];
-			if (sequenceIndex >= gsTreeNodes[nodeIndex].getSequence().length) {
-				++nodeIndex;
-				sequenceIndex = 0;
-			}
-			return next;
-		}
-		
+	@Override
+	public int getSequenceLength(int index) {
+		checkIndex(index);
+		return sequenceLengths[index];
 	}
 
 	@Override
@@ -217,29 +241,15 @@ public class IntGSArrayTreeIndexer implements IntArraySequenceIndexer {
 
 		// iterate over all sequences (it would suffice to iterate over each single node in the tree TODO)
         for (IntGSArrayTreeNode[] sequence : sequences) {
-            boolean found = false;
             for (IntGSArrayTreeNode tkgsArrayTreeNode : sequence) {
-                if (tkgsArrayTreeNode.contains(element)) {
-                    // sequence contains the node at least once
-                    found = true;
-                }
-                if (found) {
-                    // sequence contains the node, so generate a new sequence and replace the old
-                    List<Integer> newSequence = new ArrayList<>(tkgsArrayTreeNode.getSequence().length - 1);
-                    for (int k = 0; k < tkgsArrayTreeNode.getSequence().length; k++) {
-                        if (tkgsArrayTreeNode.getSequence()[k] != element) {
-                            newSequence.add(tkgsArrayTreeNode.getSequence()[k]);
-                        }
-                    }
-                    int[] seq = tree.newArray(newSequence.size());
-                    for (int l = 0; l < seq.length; l++) {
-                        seq[l] = newSequence.get(l);
-                    }
-                    tkgsArrayTreeNode.setSequence(seq);
-                }
-                found = false;
+                // removes the element from the node's sequence in place
+                tkgsArrayTreeNode.removeElement(element);
             }
         }
+        // lengths and flattened sequences are generated again on demand
+        sequenceLengths = null;
+        flatSequences = null;
+        sequenceOffsets = null;
 	}
 	
 }
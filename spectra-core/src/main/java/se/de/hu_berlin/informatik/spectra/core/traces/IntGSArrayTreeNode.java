@@ -9,21 +9,46 @@ import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
 
+/**
+ * A node in an {@link IntGSArrayTree}. The node's sequence is stored in the
+ * tree's shared arena (see {@link IntGSArrayTree#allocate(int)}) and referenced
+ * by offset and length. Each node has at most one ending edge; all other edges
+ * start with distinct elements and are kept in arrays that are sorted by their
+ * first elements, so edges can be looked up with a binary search.
+ */
 public class IntGSArrayTreeNode {
-	
+
+	private static final int[] NO_KEYS = new int[0];
+	private static final IntGSArrayTreeNode[] NO_EDGES = new IntGSArrayTreeNode[0];
+
 	private IntGSArrayTree treeReference;
-	private int[] sequence;
-	
-	private List<IntGSArrayTreeNode> edges;
-	
+	private int sequenceOffset;
+	private int sequenceLength;
+
+	private IntGSArrayTreeNode endEdge;
+	// first elements of the edges (sorted) and the respective edges
+	private int[] edgeKeys = NO_KEYS;
+	private IntGSArrayTreeNode[] edgeNodes = NO_EDGES;
+	private int edgeCount = 0;
+
 	protected IntGSArrayTreeNode() {
 		// only for extension (end nodes)
 	}
-	
+
 	public IntGSArrayTreeNode(IntGSArrayTree treeReference, int[] remainingSequence, List<IntGSArrayTreeNode> existingEdges) {
 		this.treeReference = treeReference;
-		this.sequence = remainingSequence;
-		this.edges = existingEdges;
+		this.setSequence(remainingSequence);
+		if (existingEdges != null) {
+			for (IntGSArrayTreeNode edge : existingEdges) {
+				addEdge(edge);
+			}
+		}
+	}
+
+	IntGSArrayTreeNode(IntGSArrayTree treeReference, int sequenceOffset, int sequenceLength) {
+		this.treeReference = treeReference;
+		this.sequenceOffset = sequenceOffset;
+		this.sequenceLength = sequenceLength;
 	}
 
 	public IntGSArrayTreeNode(IntGSArrayTree treeReference, ReplaceableCloneableIterator sequence, int length) {
@@ -35,11 +60,7 @@ public class IntGSArrayTreeNode {
 			// check if the next element has already been identified as a starting element, previously
 			if (treeReference.checkIfStartingElementExists(iterator.next())) {
 				// set the sequence to end at position i and add an ending edge
-				int[] seq = treeReference.newArray(i);
-				for (int j = 0; j < i; ++j) {
-					seq[j] = sequence.next();
-				}
-				this.setSequenceAndAddEndingEdge(seq);
+				this.setSequenceAndAddEndingEdge(sequence, i);
 				// add the remaining sequence to the tree
 				treeReference.addSequence(sequence, length - i);
 				// stop at this point
@@ -47,40 +68,184 @@ public class IntGSArrayTreeNode {
 			}
 		}
 		// set the sequence and add an ending edge
-		int[] seq = treeReference.newArray(length);
-		for (int j = 0; j < length; ++j) {
-			seq[j] = sequence.next();
-		}
-		this.setSequenceAndAddEndingEdge(seq);
+		this.setSequenceAndAddEndingEdge(sequence, length);
 	}
 
+	/**
+	 * @return
+	 * a copy of this node's sequence; null for end nodes
+	 */
 	public int[] getSequence() {
-		return sequence;
+		if (treeReference == null) {
+			return null;
+		}
+		return Arrays.copyOfRange(treeReference.getArena(), sequenceOffset, sequenceOffset + sequenceLength);
+	}
+
+	public int getSequenceLength() {
+		return sequenceLength;
 	}
 
-	private void setSequenceAndAddEndingEdge(int[] sequence) {
+	// the offset of this node's sequence in the tree's arena
+	int getSequenceOffset() {
+		return sequenceOffset;
+	}
+
+	public int getElement(int index) {
+		return treeReference.getArena()[sequenceOffset + index];
+	}
+
+	/**
+	 * Copies this node's sequence into the given array.
+	 * @param dest
+	 * the destination array
+	 * @param destPos
+	 * the position of the first element in the destination array
+	 */
+	public void copySequenceTo(int[] dest, int destPos) {
+		if (sequenceLength > 0) {
+			System.arraycopy(treeReference.getArena(), sequenceOffset, dest, destPos, sequenceLength);
+		}
+	}
+
+	private void setSequenceAndAddEndingEdge(ReplaceableCloneableIterator sequence, int length) {
 		Objects.requireNonNull(sequence, "Input sequence to GSTree node should not be null.");
-//		System.out.println(Arrays.toString(sequence));
-		this.sequence = sequence;
-		this.edges = new ArrayList<>(1);
-		edges.add(treeReference.getNewEndNode());
+		this.sequenceOffset = treeReference.allocate(length);
+		this.sequenceLength = length;
+		int[] arena = treeReference.getArena();
+		for (int j = 0; j < length; ++j) {
+			arena[sequenceOffset + j] = sequence.next();
+		}
+		this.endEdge = treeReference.getNewEndNode();
 	}
 
+	/**
+	 * @return
+	 * an unmodifiable list of all edges; the ending edge comes first, if it exists
+	 */
 	public List<IntGSArrayTreeNode> getEdges() {
-		return edges == null ? Collections.emptyList() : edges;
+		int size = edgeCount + (endEdge == null ? 0 : 1);
+		if (size == 0) {
+			return Collections.emptyList();
+		}
+		List<IntGSArrayTreeNode> edges = new ArrayList<>(size);
+		if (endEdge != null) {
+			edges.add(endEdge);
+		}
+		for (int i = 0; i < edgeCount; ++i) {
+			edges.add(edgeNodes[i]);
+		}
+		return Collections.unmodifiableList(edges);
+	}
+
+	/**
+	 * @return
+	 * the ending edge, or null if this node has no ending edge
+	 */
+	public IntGSArrayTreeNode getEndEdge() {
+		return endEdge;
+	}
+
+	/**
+	 * @param firstElement
+	 * the first element of the edge's sequence
+	 * @return
+	 * the (non-ending) edge that starts with the given element, or null if no such edge exists
+	 */
+	public IntGSArrayTreeNode getEdge(int firstElement) {
+		int index = Arrays.binarySearch(edgeKeys, 0, edgeCount, firstElement);
+		return index < 0 ? null : edgeNodes[index];
+	}
+
+	private void addEdge(IntGSArrayTreeNode edge) {
+		if (edge instanceof IntGSArrayTreeEndNode) {
+			endEdge = edge;
+			return;
+		}
+		int firstElement = edge.getFirstElement();
+		int index = Arrays.binarySearch(edgeKeys, 0, edgeCount, firstElement);
+		if (index >= 0) {
+			// edges with equal first elements would have been merged
+			edgeNodes[index] = edge;
+			return;
+		}
+		index = -index - 1;
+		if (edgeCount == edgeKeys.length) {
+			int capacity = Math.max(2, edgeCount * 2);
+			edgeKeys = Arrays.copyOf(edgeKeys, capacity);
+			edgeNodes = Arrays.copyOf(edgeNodes, capacity);
+		}
+		System.arraycopy(edgeKeys, index, edgeKeys, index + 1, edgeCount - index);
+		System.arraycopy(edgeNodes, index, edgeNodes, index + 1, edgeCount - index);
+		edgeKeys[index] = firstElement;
+		edgeNodes[index] = edge;
+		++edgeCount;
 	}
 
-	private void setEdges(List<IntGSArrayTreeNode> edges) {
-		this.edges = edges;
+	private void removeEdges() {
+		endEdge = null;
+		edgeKeys = NO_KEYS;
+		edgeNodes = NO_EDGES;
+		edgeCount = 0;
 	}
-	
+
+	private void moveEdgesTo(IntGSArrayTreeNode node) {
+		node.endEdge = endEdge;
+		node.edgeKeys = edgeKeys;
+		node.edgeNodes = edgeNodes;
+		node.edgeCount = edgeCount;
+		removeEdges();
+	}
+
+	/**
+	 * Moves this node and all nodes below it to the given tree,
+	 * copying the sequences to the given tree's arena.
+	 * @param tree
+	 * the new tree
+	 */
+	void moveTo(IntGSArrayTree tree) {
+		if (treeReference == null) {
+			// end node
+			return;
+		}
+		int offset = tree.allocate(sequenceLength);
+		System.arraycopy(treeReference.getArena(), sequenceOffset, tree.getArena(), offset, sequenceLength);
+		this.sequenceOffset = offset;
+		this.treeReference = tree;
+		for (int i = 0; i < edgeCount; ++i) {
+			edgeNodes[i].moveTo(tree);
+		}
+	}
+
+	/**
+	 * Assigns consecutive indices to the end nodes below this node, in a fixed order
+	 * (the ending edge first, then the other edges in the order of their first elements).
+	 * @param nextIndex
+	 * the next index to assign
+	 * @return
+	 * the next index to assign after all end nodes below this node
+	 */
+	int renumberEndNodes(int nextIndex) {
+		if (this instanceof IntGSArrayTreeEndNode) {
+			((IntGSArrayTreeEndNode) this).setIndex(nextIndex);
+			return nextIndex + 1;
+		}
+		if (endEdge != null) {
+			nextIndex = endEdge.renumberEndNodes(nextIndex);
+		}
+		for (int i = 0; i < edgeCount; ++i) {
+			nextIndex = edgeNodes[i].renumberEndNodes(nextIndex);
+		}
+		return nextIndex;
+	}
+
 	public void addSequence(ReplaceableCloneableIterator unprocessedIterator, int length) {
 		// check how much of this node's sequence is identical to the sequence to add;
-		// we can start from index 1 (and posIndex + 1), since the first elements 
+		// we can start from index 1 (and posIndex + 1), since the first elements
 		// are guaranteed to be identical
 		unprocessedIterator.next();
 		int i = 1;
-		for (; i < this.sequence.length; i++, unprocessedIterator.next()) {
+		for (; i < this.sequenceLength; i++, unprocessedIterator.next()) {
 			if (i < length) {
 				// both sequences still contain elements
 				int nextAddedElement = unprocessedIterator.peek();
@@ -89,148 +254,128 @@ public class IntGSArrayTreeNode {
 					// sequence to add is smaller than existing sequence
 					// split sequence at this point and add branch with marked ending point
 					splitSequenceAtIndex(i);
-					
+
 					// add a branch for the new, diverging sequence (sequence ending, in this case)
-					this.getEdges().add(treeReference.getNewEndNode());
-					
+					addEdge(treeReference.getNewEndNode());
+
 					// add the remaining sequence to the tree
 					treeReference.__addSequence(unprocessedIterator, length - i, nextAddedElement);
 					// stop at this point
 					return;
 				}
-				
-				int nextExistingElement = this.sequence[i];
+
+				int nextExistingElement = getElement(i);
 				// check if the sequences differ at this position
 				if (nextAddedElement != nextExistingElement) {
 					// split the sequence at this position
 					splitSequenceAtIndex(i);
-					
+
 					// add a branch for the new, diverging sequence
-//					int[] remainingSequenceToAdd = Arrays.copyOfRange(sequenceToAdd, posIndex, endIndex);
-					this.getEdges().add(treeReference.newTreeNode(treeReference, unprocessedIterator, length - i));
+					addEdge(treeReference.newTreeNode(treeReference, unprocessedIterator, length - i));
 					return;
 				}
 			} else {
 				// sequence to add is smaller than existing sequence
 				// split sequence at this point and add branch with marked ending point
 				splitSequenceAtIndex(i);
-				
+
 				// add a branch for the new, diverging sequence (sequence ending, in this case)
-				this.getEdges().add(treeReference.getNewEndNode());
+				addEdge(treeReference.getNewEndNode());
 				return;
 			}
 		}
-		
+
 		// this node's sequence has ended;
 		// check if there are still elements in the sequence to add
 		if (i < length && unprocessedIterator.hasNext()) {
 			// sequence to add is larger than existing sequence
 			int nextAddedElement = unprocessedIterator.peek();
-			
+
 			// check if the next element has already been identified as a starting element, previously
 			if (treeReference.checkIfStartingElementExists(nextAddedElement)) {
 				// we need to check if there exists an ending edge
-				for (IntGSArrayTreeNode edge : this.getEdges()) {
-					if (edge instanceof IntGSArrayTreeEndNode) {
-						// add the remaining sequence to the tree
-						treeReference.__addSequence(unprocessedIterator, length - i, nextAddedElement);
-						// stop at this point
-						return;
-					}
+				if (endEdge == null) {
+					addEdge(treeReference.getNewEndNode());
 				}
-				
-				// no ending edge was found
-				this.getEdges().add(treeReference.getNewEndNode());
-				
+
 				// add the remaining sequence to the tree
 				treeReference.__addSequence(unprocessedIterator, length - i, nextAddedElement);
 				// stop at this point
 				return;
 			}
-//			System.out.println("new edge start: " + nextAddedElement);
-			
+
 			// the next element is an element that has NOT been identified as a starting element before
-			for (IntGSArrayTreeNode edge : this.getEdges()) {
-				if (edge instanceof IntGSArrayTreeEndNode) {
-					continue;
-				}
-				if (edge.getFirstElement() == nextAddedElement) {
-					// follow the branch and add the remaining sequence
-					edge.addSequence(unprocessedIterator, length - i);
-					return;
-				}
+			IntGSArrayTreeNode edge = getEdge(nextAddedElement);
+			if (edge != null) {
+				// follow the branch and add the remaining sequence
+				edge.addSequence(unprocessedIterator, length - i);
+				return;
 			}
 			// no branch with the next element exists, so simply add a new branch with the remaining sequence
-			edges.add(treeReference.newTreeNode(treeReference, unprocessedIterator, length - i));
+			addEdge(treeReference.newTreeNode(treeReference, unprocessedIterator, length - i));
 			return;
 		} else {
 			// if we get to this point, both sequences are identical up to the end
 
 			// we still need to check if there already exists an ending edge, in this case
-			for (IntGSArrayTreeNode edge : this.getEdges()) {
-				if (edge instanceof IntGSArrayTreeEndNode) {
-					// we are done!
-					return;
-				}
+			if (endEdge == null) {
+				addEdge(treeReference.getNewEndNode());
 			}
-
-			// no ending edge was found
-			this.getEdges().add(treeReference.getNewEndNode());
 			return;
 		}
 	}
 
 	private void splitSequenceAtIndex(int index) {
-		// split sequence at this point and add a branch
-		int[] remainingSequence = Arrays.copyOfRange(this.sequence, index, this.sequence.length);
+		// split sequence at this point and add a branch;
+		// the remaining sequence stays in place in the arena
+		IntGSArrayTreeNode remainingNode = treeReference.newTreeNode(treeReference,
+				sequenceOffset + index, sequenceLength - index);
 		// the new sequence of this node is the sequence up to the diverging position
-		this.sequence = Arrays.copyOfRange(this.sequence, 0, index);
-		// remember the previously existing edges
-		List<IntGSArrayTreeNode> existingEdges = this.getEdges();
+		this.sequenceLength = index;
+		// split this node and move the previously existing edges to the newly created node
+		moveEdgesTo(remainingNode);
 		// the new set of edges contains the remaining sequence of the previously existing node
 		// and the diverging sequence that is added
-		this.setEdges(new ArrayList<>(2));
-		// split this node and move the previously existing edges to the newly created node
-		this.getEdges().add(treeReference.newTreeNode(treeReference, remainingSequence, existingEdges));
+		addEdge(remainingNode);
 	}
-	
+
 
 	public List<int[]> extractAndRemoveRemainingSequences(int index, int firstElement) {
 		List<int[]> remainingSequences = new ArrayList<>();
-		
+
 		// we still need to check for further occurrences of the new starting element in the remaining sequences
 		extractRemainingSequences(treeReference.newArray(0), this, index, firstElement, true, remainingSequences);
-		
+
 		if (index == 0) {
-			// if index is 0, then the node will be removed later, 
+			// if index is 0, then the node will be removed later,
 			// but we need to keep the first element of the sequence;
 			// we can remove the edges, though
-			this.setEdges(null);
+			removeEdges();
 		} else {
 			// the new sequence of this node is the sequence up to the new ending position;
-			this.sequence = Arrays.copyOfRange(this.sequence, 0, index);
+			this.sequenceLength = index;
 			// the new set of edges contains only the ending edge
-			this.setEdges(new ArrayList<>(1));
+			removeEdges();
 			// add a branch for the new sequence ending
-			this.getEdges().add(treeReference.getNewEndNode());
+			addEdge(treeReference.getNewEndNode());
 		}
 		return remainingSequences;
 	}
 
-	private void extractRemainingSequences(int[] previousSequence, IntGSArrayTreeNode node, int index, 
+	private void extractRemainingSequences(int[] previousSequence, IntGSArrayTreeNode node, int index,
 			int firstElement, boolean firstCall, List<int[]> collector) {
 		if (node instanceof IntGSArrayTreeEndNode) {
 			// we are done!
 			collector.add(previousSequence);
 			return;
 		}
-		
+
 		// check for occurrences of the new starting element
-		for (int i = index; i < node.getSequence().length; i++) {
-			int element = node.getSequence()[i];
+		for (int i = index; i < node.getSequenceLength(); i++) {
+			int element = node.getElement(i);
 			if (element == firstElement) {
 				if (firstCall && i == index) {
-					// the first checked element should 
+					// the first checked element should
 					// always be identical to the new starting element
 					continue;
 				} else if (i == index) {
@@ -244,7 +389,7 @@ public class IntGSArrayTreeNode {
 					// combine previous sequence with the given node's sequence, starting from index, ending at i
 					int[] target = treeReference.newArray(previousSequence.length + (i - index));
 					System.arraycopy(previousSequence, 0, target, 0, previousSequence.length);
-					System.arraycopy(node.getSequence(), index, target, previousSequence.length, i - index);
+					System.arraycopy(treeReference.getArena(), node.sequenceOffset + index, target, previousSequence.length, i - index);
 					collector.add(target);
 
 					extractRemainingSequences(treeReference.newArray(0), node, i, firstElement, true, collector);
@@ -252,12 +397,12 @@ public class IntGSArrayTreeNode {
 				}
 			}
 		}
-		
+
 		// combine previous sequence with the given node's sequence, starting from the given index
-		int[] target = treeReference.newArray(previousSequence.length + (node.getSequence().length - index));
+		int[] target = treeReference.newArray(previousSequence.length + (node.getSequenceLength() - index));
 		System.arraycopy(previousSequence, 0, target, 0, previousSequence.length);
-		System.arraycopy(node.getSequence(), index, target, previousSequence.length, node.getSequence().length - index);
-		
+		System.arraycopy(treeReference.getArena(), node.sequenceOffset + index, target, previousSequence.length, node.getSequenceLength() - index);
+
 		for (IntGSArrayTreeNode edge : node.getEdges()) {
 			extractRemainingSequences(target, edge, 0, firstElement, false, collector);
 		}
@@ -265,144 +410,141 @@ public class IntGSArrayTreeNode {
 
 	public boolean checkIfMatch(int[] sequenceToCheck, int from, int to) {
 		// check how much of this node's sequence is identical to the sequence to check;
-		// we can start from index 1 (and from + 1), since the first elements 
+		// we can start from index 1 (and from + 1), since the first elements
 		// are guaranteed to be identical
-		
+
 		// sequence to check is smaller than existing sequence
-		if (to - from < this.sequence.length) {
+		if (to - from < this.sequenceLength) {
 			return false;
 		}
+		int[] arena = treeReference.getArena();
 		++from;
-		for (int i = 1; i < this.sequence.length; i++, from++) {
-			if (from < to) {
-				// both sequences still contain elements
-				int nextAddedElement = sequenceToCheck[from];
-				int nextExistingElement = this.sequence[i];
-				// check if the sequences differ at this position
-				// TODO null values?
-				if (nextAddedElement != nextExistingElement) {
-					return false;
-				}
-			} 
-//			else {
-//				// sequence to check is smaller than existing sequence
-//				// TODO this could be checked at the start
-//				return false;
-//			}
-		}
-		
+		for (int i = 1; i < this.sequenceLength; i++, from++) {
+			// both sequences still contain elements
+			if (sequenceToCheck[from] != arena[sequenceOffset + i]) {
+				// the sequences differ at this position
+				return false;
+			}
+		}
+
 		// check if there are still elements in the sequence to check
 		if (from < to) {
 			// sequence to check is larger than existing sequence
-			int nextAddedElement = sequenceToCheck[from];
-			for (IntGSArrayTreeNode edge : this.getEdges()) {
-				if (edge instanceof IntGSArrayTreeEndNode) {
-					continue;
-				}
-				if (edge.getFirstElement() == nextAddedElement) {
-					// follow the branch and add the remaining sequence
-					return edge.checkIfMatch(sequenceToCheck, from, to);
-				}
+			IntGSArrayTreeNode edge = getEdge(sequenceToCheck[from]);
+			if (edge != null) {
+				// follow the branch and add the remaining sequence
+				return edge.checkIfMatch(sequenceToCheck, from, to);
 			}
 			// no branch with the next element exists
 			return false;
 		}
-		
+
 		// if we get to this point, both sequences are identical up to the end
 		// we still need to check if there exists an ending edge, in this case
-		for (IntGSArrayTreeNode edge : this.getEdges()) {
-			if (edge instanceof IntGSArrayTreeEndNode) {
-				// we are done!
-				return true;
-			}
-		}
-		
-		// no ending edge was found
-		return false;
+		return endEdge != null;
 	}
-	
-	
+
+
 	public int getSequenceIndex(IntArraySequenceIndexer indexer, TraceIterator iterator, int remainingLength) {
 		// check how much of this node's sequence is identical to the sequence to check;
-		// we can start from index 1, since the first elements 
+		// we can start from index 1, since the first elements
 		// are guaranteed to be identical (has been checked previously);
 		// the iterator parameter is already pointing to the second element in the sequence
-		
+
 		// sequence to check is smaller than existing sequence
-		if (remainingLength < this.sequence.length) {
+		if (remainingLength < this.sequenceLength) {
 			return GSArrayTree.BAD_INDEX;
 		}
-		
+
 		// iterate over the sequence and check for equality
-		for (int i = 1; i < this.sequence.length; ++i) {
-			// both sequences still contain elements
-			int nextAddedElement = iterator.next();
-			int nextExistingElement = this.sequence[i];
-			
+		int[] arena = treeReference.getArena();
+		for (int i = 1; i < this.sequenceLength; ++i) {
 			// check if the sequences differ at this position
-			if (nextAddedElement != nextExistingElement) {
+			if (iterator.next() != arena[sequenceOffset + i]) {
 				return GSArrayTree.BAD_INDEX;
 			}
 		}
-		
+
 		// check if there are still elements in the sequence to check
-		if (remainingLength > this.sequence.length) {
+		if (remainingLength > this.sequenceLength) {
 			// sequence to check is larger than existing sequence
-			int nextAddedElement = iterator.next();
-			for (IntGSArrayTreeNode edge : this.getEdges()) {
-				if (edge instanceof IntGSArrayTreeEndNode) {
-					continue;
-				}
-				if (edge.getFirstElement()== nextAddedElement) {
-					// follow the branch and add the remaining sequence
-					return edge.getSequenceIndex(indexer, iterator, remainingLength - this.sequence.length);
-				}
+			IntGSArrayTreeNode edge = getEdge(iterator.next());
+			if (edge != null) {
+				// follow the branch and add the remaining sequence
+				return edge.getSequenceIndex(indexer, iterator, remainingLength - this.sequenceLength);
 			}
 			// no branch with the next element exists
 			return GSArrayTree.BAD_INDEX;
 		}
-		
+
 		// if we get to this point, both sequences are identical up to the end
 		// we still need to check if there exists an ending edge, in this case
-		for (IntGSArrayTreeNode edge : this.getEdges()) {
-			if (edge instanceof IntGSArrayTreeEndNode) {
-				// we are done!
-				return indexer.getSequenceIdForEndNode(edge);
-			}
+		if (endEdge != null) {
+			return indexer.getSequenceIdForEndNode(endEdge);
 		}
-		
+
 		// no ending edge was found
 		return GSArrayTree.BAD_INDEX;
 	}
-	
+
 
 	public int getFirstElement() {
-		return this.sequence[0];
+		return getElement(0);
 	}
 
 	public boolean contains(int element) {
-		for (int i : sequence) {
-			if (i == element) {
+		int[] arena = treeReference.getArena();
+		for (int i = sequenceOffset; i < sequenceOffset + sequenceLength; ++i) {
+			if (arena[i] == element) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Replaces this node's sequence. The given array is copied to a new position in the arena.
+	 * @param array
+	 * the new sequence
+	 */
 	public void setSequence(int[] array) {
-		this.sequence = array;
+		this.sequenceOffset = treeReference.allocate(array.length);
+		this.sequenceLength = array.length;
+		System.arraycopy(array, 0, treeReference.getArena(), sequenceOffset, array.length);
 	}
 
-	public int getNextSequenceIndex(IntArraySequenceIndexer indexer, 
+	/**
+	 * Removes all occurrences of the given element from this node's sequence, in place.
+	 * @param element
+	 * the element to remove
+	 * @return
+	 * whether the sequence contained the element
+	 */
+	public boolean removeElement(int element) {
+		int[] arena = treeReference.getArena();
+		int end = sequenceOffset + sequenceLength;
+		int j = sequenceOffset;
+		for (int i = sequenceOffset; i < end; ++i) {
+			if (arena[i] != element) {
+				arena[j++] = arena[i];
+			}
+		}
+		boolean found = j < end;
+		sequenceLength = j - sequenceOffset;
+		return found;
+	}
+
+	public int getNextSequenceIndex(IntArraySequenceIndexer indexer,
 			TraceIterator rawTraceIterator, EfficientCompressedIntegerTrace indexedtrace) {
 		// we are iterating through the raw trace until we find an element that is a starting element of the tree;
 		// this element is returned in the end to check the index of the following sequence, and so on;
 		// we start at the second element of the sequence to check
-		
+
 		// check how much of this node's sequence is identical to the sequence to check;
 
 		// iterate over the sequence and check for equality
-		for (int i = 1; i < this.sequence.length; ++i) {
+		int[] arena = treeReference.getArena();
+		for (int i = 1; i < this.sequenceLength; ++i) {
 			if (!rawTraceIterator.hasNext()) {
 				// sequence to check is smaller than existing sequence
 				System.err.println("Sequence to check is smaller than existing sequence in tree.");
@@ -410,11 +552,10 @@ public class IntGSArrayTreeNode {
 			}
 			// both sequences still contain elements
 			int nextAddedElement = rawTraceIterator.next();
-			int nextExistingElement = this.sequence[i];
+			int nextExistingElement = arena[sequenceOffset + i];
 
 			// check if the sequences differ at this position
 			// TODO is this necessary?
-			// TODO null values?
 			if (nextAddedElement != nextExistingElement) {
 				System.err.println("Sequence to check differs from existing sequence in tree.");
 				return IntGSArrayTree.BAD_INDEX;
@@ -429,27 +570,21 @@ public class IntGSArrayTreeNode {
 				// start of a new sequence!
 				// if we get to this point, both sequences are identical up to the end
 				// we still need to check if there exists an ending edge, in this case
-				for (IntGSArrayTreeNode edge : this.getEdges()) {
-					if (edge instanceof IntGSArrayTreeEndNode) {
-						// we are done!
-						indexedtrace.add(indexer.getSequenceIdForEndNode(edge));
-						// return the element that marks the start of a new sequence
-						return rep;
-					}
+				if (endEdge != null) {
+					// we are done!
+					indexedtrace.add(indexer.getSequenceIdForEndNode(endEdge));
+					// return the element that marks the start of a new sequence
+					return rep;
 				}
 				// no ending edge was found
 				System.err.println("No ending edge present after existing sequence in tree.");
 				return IntGSArrayTree.BAD_INDEX;
 			} else {
 				// still inside of a sequence, so check the following nodes
-				for (IntGSArrayTreeNode edge : this.getEdges()) {
-					if (edge instanceof IntGSArrayTreeEndNode) {
-						continue;
-					}
-					if (edge.getFirstElement() == rep) {
-						// follow the branch and check the remaining sequence
-						return edge.getNextSequenceIndex(indexer, rawTraceIterator, indexedtrace);
-					}
+				IntGSArrayTreeNode edge = getEdge(rep);
+				if (edge != null) {
+					// follow the branch and check the remaining sequence
+					return edge.getNextSequenceIndex(indexer, rawTraceIterator, indexedtrace);
 				}
 				// no branch with the next element exists
 				System.err.println("No matching edge present after existing sequence in tree.");
@@ -459,18 +594,16 @@ public class IntGSArrayTreeNode {
 			// raw trace is at its end!
 			// if we get to this point, both sequences are identical up to the end
 			// we still need to check if there exists an ending edge, in this case
-			for (IntGSArrayTreeNode edge : this.getEdges()) {
-				if (edge instanceof IntGSArrayTreeEndNode) {
-					// we are done!
-					indexedtrace.add(indexer.getSequenceIdForEndNode(edge));
-					// return an invalid index to mark the (successful) end
-					return IntGSArrayTree.SUCC_END;
-				}
+			if (endEdge != null) {
+				// we are done!
+				indexedtrace.add(indexer.getSequenceIdForEndNode(endEdge));
+				// return an invalid index to mark the (successful) end
+				return IntGSArrayTree.SUCC_END;
 			}
 			// no ending edge was found
 			System.err.println("No ending edge present at the end.");
 			return IntGSArrayTree.BAD_INDEX;
 		}
 	}
-	
+
 }
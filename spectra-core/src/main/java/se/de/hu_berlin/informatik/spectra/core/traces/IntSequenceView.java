@@ -0,0 +1,188 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Read-only view on a sequence that is stored in a range of a shared array, or
+ * in the concatenated sequences of tree nodes that are stored in the arena of an
+ * {@link IntGSArrayTree}. The elements are not copied, so a view is only valid as
+ * long as the underlying storage does not change (e.g., until nodes are removed
+ * from the sequences or new sequences are added to the tree).
+ *
+ * <p> A view may be reused for multiple sequences to avoid allocations when
+ * streaming over many sequences.
+ */
+public class IntSequenceView {
+
+	private static final IntGSArrayTreeNode[] NO_NODES = new IntGSArrayTreeNode[0];
+
+	private int[] array;
+	private int offset;
+	private int length;
+
+	// the nodes that store the sequence in the array (arena); empty for a single range
+	private IntGSArrayTreeNode[] nodes;
+
+	// the node that contains the last accessed index and the index of its first element
+	private int currentNode;
+	private int currentNodeStart;
+
+	public IntSequenceView() {
+		set(new int[0], 0, 0);
+	}
+
+	IntSequenceView set(int[] array, int offset, int length) {
+		this.array = array;
+		this.offset = offset;
+		this.length = length;
+		this.nodes = NO_NODES;
+		return this;
+	}
+
+	IntSequenceView set(int[] arena, IntGSArrayTreeNode[] nodes, int length) {
+		this.array = arena;
+		this.offset = 0;
+		this.length = length;
+		this.nodes = nodes;
+		this.currentNode = 0;
+		this.currentNodeStart = 0;
+		return this;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public boolean isEmpty() {
+		return length == 0;
+	}
+
+	public int get(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+		}
+		if (nodes.length == 0) {
+			return array[offset + index];
+		}
+		// sequential access mostly stays in the current node or moves to a following one
+		if (index < currentNodeStart) {
+			currentNode = 0;
+			currentNodeStart = 0;
+		}
+		while (index >= currentNodeStart + nodes[currentNode].getSequenceLength()) {
+			currentNodeStart += nodes[currentNode].getSequenceLength();
+			++currentNode;
+		}
+		return array[nodes[currentNode].getSequenceOffset() + index - currentNodeStart];
+	}
+
+	/**
+	 * Copies the sequence into the given array.
+	 * @param dest
+	 * the destination array
+	 * @param destPos
+	 * the starting position in the destination array
+	 */
+	public void copyTo(int[] dest, int destPos) {
+		if (nodes.length == 0) {
+			System.arraycopy(array, offset, dest, destPos, length);
+			return;
+		}
+		for (IntGSArrayTreeNode node : nodes) {
+			System.arraycopy(array, node.getSequenceOffset(), dest, destPos, node.getSequenceLength());
+			destPos += node.getSequenceLength();
+		}
+	}
+
+	/**
+	 * @return
+	 * a copy of the sequence
+	 */
+	public int[] toArray() {
+		if (nodes.length == 0) {
+			return Arrays.copyOfRange(array, offset, offset + length);
+		}
+		int[] result = new int[length];
+		copyTo(result, 0);
+		return result;
+	}
+
+	/**
+	 * @return
+	 * an iterator over the sequence
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		if (nodes.length == 0) {
+			return new RangeIterator(array, offset, offset + length);
+		}
+		return new NodesIterator(array, nodes);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	private static class RangeIterator implements PrimitiveIterator.OfInt {
+		private final int[] array;
+		private int pos;
+		private final int end;
+
+		private RangeIterator(int[] array, int pos, int end) {
+			this.array = array;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < end;
+		}
+
+		@Override
+		public int nextInt() {
+			if (pos >= end) {
+				throw new NoSuchElementException();
+			}
+			return array[pos++];
+		}
+	}
+
+	private static class NodesIterator implements PrimitiveIterator.OfInt {
+		private final int[] arena;
+		private final IntGSArrayTreeNode[] nodes;
+		private int nodeIndex = -1;
+		private int pos = 0;
+		private int end = 0;
+
+		private NodesIterator(int[] arena, IntGSArrayTreeNode[] nodes) {
+			this.arena = arena;
+			this.nodes = nodes;
+		}
+
+		@Override
+		public boolean hasNext() {
+			// skip exhausted (or empty) nodes
+			while (pos >= end) {
+				if (nodeIndex + 1 >= nodes.length) {
+					return false;
+				}
+				IntGSArrayTreeNode node = nodes[++nodeIndex];
+				pos = node.getSequenceOffset();
+				end = pos + node.getSequenceLength();
+			}
+			return true;
+		}
+
+		@Override
+		public int nextInt() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return arena[pos++];
+		}
+	}
+
+}
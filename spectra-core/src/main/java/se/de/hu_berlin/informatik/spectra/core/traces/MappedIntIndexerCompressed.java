@@ -0,0 +1,513 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceReverseIterator;
+
+/**
+ * Sequence indexer that is backed by a memory mapped index file, written with
+ * {@link #write(SequenceIndexerCompressed, Path)}. Opening an index only maps the
+ * file and reads its header; the sub trace ID sequences (indexed by the end node IDs
+ * of the GS tree that produced them) and the node ID sequences of the sub traces are
+ * read on access, so only the pages that are actually used get loaded by the OS.
+ *
+ * <p> File layout (big endian):
+ * <pre>
+ * int   magic number
+ * int   format version
+ * int   number of sub trace ID sequences (S)
+ * int   number of node ID sequences (N)
+ * long  byte offset of the sub trace ID data
+ * long  byte offset of the node ID data
+ * long  S+1 start positions of the sub trace ID sequences (in ints, relative to the data offset)
+ * long  N+1 start positions of the node ID sequences (in ints, relative to the data offset)
+ * int   flattened sub trace ID sequences
+ * int   flattened (uncompressed) node ID sequences
+ * </pre>
+ *
+ * <p> The mapped file is never modified. Node ID sequences that are requested as
+ * compressed traces, or that change due to the removal of nodes, are kept in memory.
+ */
+public class MappedIntIndexerCompressed implements SequenceIndexerCompressed {
+
+	public static final int MAGIC_NUMBER = 0x53544958;
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 32;
+	// multiple of 8, so that no int or long crosses a segment boundary
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private final Path indexFile;
+	private final MappedByteBuffer[] segments;
+
+	private final int subTraceIdSequenceCount;
+	private final int nodeIdSequenceCount;
+	private final long subTraceIdDataOffset;
+	private final long nodeIdDataOffset;
+
+	// node ID sequences that were loaded or replaced, so far
+	private final AtomicReferenceArray<EfficientCompressedIntegerTrace> nodeIdTraces;
+	// mapping: spectra node ID -> IDs of sub traces that contain the node; built on first removal
+	private NodeSubTraceIndex nodeSubTraceIndex;
+
+	private MappedIntIndexerCompressed(Path indexFile, MappedByteBuffer[] segments) throws IOException {
+		this.indexFile = indexFile;
+		this.segments = segments;
+		if (getInt(0) != MAGIC_NUMBER) {
+			throw new IOException("Not a sub trace index file: " + indexFile);
+		}
+		if (getInt(4) != VERSION) {
+			throw new IOException("Unsupported sub trace index version " + getInt(4) + ": " + indexFile);
+		}
+		this.subTraceIdSequenceCount = getInt(8);
+		this.nodeIdSequenceCount = getInt(12);
+		this.subTraceIdDataOffset = getLong(16);
+		this.nodeIdDataOffset = getLong(24);
+		this.nodeIdTraces = new AtomicReferenceArray<>(nodeIdSequenceCount);
+	}
+
+	/**
+	 * Opens the index file at the given path. The file is mapped into memory,
+	 * but its contents are only read on demand.
+	 * @param indexFile
+	 * the index file
+	 * @return
+	 * an indexer backed by the given file
+	 * @throws IOException
+	 * if the file can not be mapped or is not a valid index file
+	 */
+	public static MappedIntIndexerCompressed open(Path indexFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException("Sub trace index file is too small: " + indexFile);
+			}
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+			for (int i = 0; i < segments.length; ++i) {
+				long position = (long) i << SEGMENT_SHIFT;
+				// the mapping stays valid after closing the channel
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, 1L << SEGMENT_SHIFT));
+			}
+			return new MappedIntIndexerCompressed(indexFile, segments);
+		}
+	}
+
+	/**
+	 * Writes the sequences of the given indexer to an index file that can be opened
+	 * with {@link #open(Path)}. The file is first written to a temporary file that
+	 * is moved to the given path afterwards, so no partially written index is opened.
+	 * @param indexer
+	 * the indexer to store
+	 * @param indexFile
+	 * the index file to write
+	 * @throws IOException
+	 * if writing fails
+	 */
+	public static void write(SequenceIndexerCompressed indexer, Path indexFile) throws IOException {
+		int[][] subTraceIdSequences = indexer.getSubTraceIdSequences();
+		EfficientCompressedIntegerTrace[] nodeIdSequences = indexer.getNodeIdSequences();
+		int subTraceIdSequenceCount = subTraceIdSequences.length;
+		int nodeIdSequenceCount = nodeIdSequences.length;
+
+		long subTraceIdDataOffset = HEADER_SIZE + 8L * (subTraceIdSequenceCount + 1 + nodeIdSequenceCount + 1);
+		long subTraceIdDataLength = 0;
+		for (int[] sequence : subTraceIdSequences) {
+			subTraceIdDataLength += sequence == null ? 0 : sequence.length;
+		}
+		// keep the node ID data aligned to 8 bytes
+		long nodeIdDataOffset = subTraceIdDataOffset + ((4 * subTraceIdDataLength + 7) & ~7L);
+
+		Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		try {
+			try (OutputStream stream = Files.newOutputStream(tempFile);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+				out.writeInt(MAGIC_NUMBER);
+				out.writeInt(VERSION);
+				out.writeInt(subTraceIdSequenceCount);
+				out.writeInt(nodeIdSequenceCount);
+				out.writeLong(subTraceIdDataOffset);
+				out.writeLong(nodeIdDataOffset);
+
+				long position = 0;
+				for (int[] sequence : subTraceIdSequences) {
+					out.writeLong(position);
+					position += sequence == null ? 0 : sequence.length;
+				}
+				out.writeLong(position);
+
+				position = 0;
+				for (EfficientCompressedIntegerTrace sequence : nodeIdSequences) {
+					out.writeLong(position);
+					position += sequence == null ? 0 : sequence.size();
+				}
+				out.writeLong(position);
+
+				for (int[] sequence : subTraceIdSequences) {
+					if (sequence != null) {
+						for (int element : sequence) {
+							out.writeInt(element);
+						}
+					}
+				}
+				if ((subTraceIdDataLength & 1) != 0) {
+					out.writeInt(0);
+				}
+
+				int[] batch = new int[ExecutionTraceCollector.SUBTRACE_ARRAY_SIZE];
+				for (EfficientCompressedIntegerTrace sequence : nodeIdSequences) {
+					if (sequence == null) {
+						continue;
+					}
+					TraceIterator iterator = sequence.iterator();
+					int count;
+					while ((count = iterator.nextBatch(batch)) > 0) {
+						for (int i = 0; i < count; ++i) {
+							out.writeInt(batch[i]);
+						}
+					}
+				}
+			}
+			Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	public Path getIndexFile() {
+		return indexFile;
+	}
+
+	private int getInt(long byteOffset) {
+		return segments[(int) (byteOffset >>> SEGMENT_SHIFT)].getInt((int) (byteOffset & SEGMENT_MASK));
+	}
+
+	private long getLong(long byteOffset) {
+		return segments[(int) (byteOffset >>> SEGMENT_SHIFT)].getLong((int) (byteOffset & SEGMENT_MASK));
+	}
+
+	private long getSubTraceIdSequenceStart(int index) {
+		return getLong(HEADER_SIZE + 8L * index);
+	}
+
+	private long getNodeIdSequenceStart(int index) {
+		return getLong(HEADER_SIZE + 8L * (subTraceIdSequenceCount + 1 + index));
+	}
+
+	private int getSubTraceId(long position) {
+		return getInt(subTraceIdDataOffset + 4 * position);
+	}
+
+	private int getNodeId(long position) {
+		return getInt(nodeIdDataOffset + 4 * position);
+	}
+
+	private void checkSubTraceIdSequenceIndex(int index) {
+		if (index < 0 || index >= subTraceIdSequenceCount) {
+			throw new IllegalStateException("index out of bounds: " + index);
+		}
+	}
+
+	public int getSubTraceIdSequenceCount() {
+		return subTraceIdSequenceCount;
+	}
+
+	public int getNodeIdSequenceCount() {
+		return nodeIdSequenceCount;
+	}
+
+	/**
+	 * Reads all sub trace ID sequences from the index file.
+	 * Prefer the iterators to avoid loading all sequences.
+	 */
+	@Override
+	public int[][] getSubTraceIdSequences() {
+		int[][] result = new int[subTraceIdSequenceCount][];
+		for (int i = 0; i < subTraceIdSequenceCount; ++i) {
+			result[i] = getSubTraceIdSequence(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Loads all node ID sequences from the index file.
+	 * Prefer the iterators to avoid loading all sequences.
+	 */
+	@Override
+	public EfficientCompressedIntegerTrace[] getNodeIdSequences() {
+		EfficientCompressedIntegerTrace[] result = new EfficientCompressedIntegerTrace[nodeIdSequenceCount];
+		for (int i = 0; i < nodeIdSequenceCount; ++i) {
+			result[i] = getNodeIdSequence(i);
+		}
+		return result;
+	}
+
+	@Override
+	public int[] getSubTraceIdSequence(int index) {
+		if (index >= subTraceIdSequenceCount) {
+			return null;
+		}
+		long start = getSubTraceIdSequenceStart(index);
+		int[] result = new int[(int) (getSubTraceIdSequenceStart(index + 1) - start)];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = getSubTraceId(start + i);
+		}
+		return result;
+	}
+
+	/**
+	 * Loads the sub trace with the given index from the index file into
+	 * a compressed trace that is kept for later requests.
+	 */
+	@Override
+	public synchronized EfficientCompressedIntegerTrace getNodeIdSequence(int subTraceIndex) {
+		if (subTraceIndex >= nodeIdSequenceCount) {
+			return null;
+		}
+		EfficientCompressedIntegerTrace trace = nodeIdTraces.get(subTraceIndex);
+		if (trace == null && subTraceIndex > 0) {
+			// id 0 represents the empty sub trace and stays null, as in the zip file
+			trace = loadNodeIdSequence(subTraceIndex);
+			nodeIdTraces.set(subTraceIndex, trace);
+		}
+		return trace;
+	}
+
+	private EfficientCompressedIntegerTrace loadNodeIdSequence(int subTraceIndex) {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(getTempDir(),
+				UUID.randomUUID().toString(), ExecutionTraceCollector.SUBTRACE_ARRAY_SIZE, true);
+		long end = getNodeIdSequenceStart(subTraceIndex + 1);
+		for (long position = getNodeIdSequenceStart(subTraceIndex); position < end; ++position) {
+			queue.add(getNodeId(position));
+		}
+		return new EfficientCompressedIntegerTrace(queue, false);
+	}
+
+	private File getTempDir() {
+		return indexFile.toAbsolutePath().getParent().resolve("execTraceTemp").toFile();
+	}
+
+	@Override
+	public PrimitiveIterator.OfInt getFullSequenceIntIterator(final int subTraceSequenceIndex) {
+		checkSubTraceIdSequenceIndex(subTraceSequenceIndex);
+		// will iterate over (potentially) multiple sub traces, indexed
+		// by the sequence of sub trace ids in the specified sequence;
+		// will return spectra node ids
+		return new PrimitiveIterator.OfInt() {
+			private long outerPos = getSubTraceIdSequenceStart(subTraceSequenceIndex);
+			private final long outerEnd = getSubTraceIdSequenceStart(subTraceSequenceIndex + 1);
+			private PrimitiveIterator.OfInt subTraceIterator;
+
+			@Override
+			public boolean hasNext() {
+				while (subTraceIterator == null || !subTraceIterator.hasNext()) {
+					if (outerPos >= outerEnd) {
+						return false;
+					}
+					subTraceIterator = getNodeIdSequenceIntIterator(getSubTraceId(outerPos++), false);
+				}
+				return true;
+			}
+
+			@Override
+			public int nextInt() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return subTraceIterator.nextInt();
+			}
+		};
+	}
+
+	@Override
+	public PrimitiveIterator.OfInt getFullSequenceReverseIntIterator(final int subTraceSequenceIndex) {
+		checkSubTraceIdSequenceIndex(subTraceSequenceIndex);
+		return new PrimitiveIterator.OfInt() {
+			private final long outerStart = getSubTraceIdSequenceStart(subTraceSequenceIndex);
+			private long outerPos = getSubTraceIdSequenceStart(subTraceSequenceIndex + 1) - 1;
+			private PrimitiveIterator.OfInt subTraceIterator;
+
+			@Override
+			public boolean hasNext() {
+				while (subTraceIterator == null || !subTraceIterator.hasNext()) {
+					if (outerPos < outerStart) {
+						return false;
+					}
+					subTraceIterator = getNodeIdSequenceIntIterator(getSubTraceId(outerPos--), true);
+				}
+				return true;
+			}
+
+			@Override
+			public int nextInt() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return subTraceIterator.nextInt();
+			}
+		};
+	}
+
+	// reads directly from the mapped file, unless the sub trace was loaded or replaced
+	private PrimitiveIterator.OfInt getNodeIdSequenceIntIterator(int subTraceIndex, final boolean reverse) {
+		if (subTraceIndex < 0 || subTraceIndex >= nodeIdSequenceCount) {
+			throw new IllegalStateException("sub trace index out of bounds: " + subTraceIndex);
+		}
+		final EfficientCompressedIntegerTrace trace = nodeIdTraces.get(subTraceIndex);
+		if (trace != null) {
+			return new PrimitiveIterator.OfInt() {
+				private final TraceIterator iterator = reverse ? null : trace.iterator();
+				private final TraceReverseIterator reverseIterator = reverse ? trace.reverseIterator() : null;
+
+				@Override
+				public boolean hasNext() {
+					return reverse ? reverseIterator.hasNext() : iterator.hasNext();
+				}
+
+				@Override
+				public int nextInt() {
+					return reverse ? reverseIterator.next() : iterator.next();
+				}
+			};
+		}
+		final long start = getNodeIdSequenceStart(subTraceIndex);
+		final long end = getNodeIdSequenceStart(subTraceIndex + 1);
+		return reverse ? new MappedReverseIterator(start, end, nodeIdDataOffset)
+				: new MappedIterator(start, end, nodeIdDataOffset);
+	}
+
+	@Override
+	public TraceIterator getNodeIdSequenceIterator(final int subTraceIndex) {
+		// will iterate over the subtrace with the specified index
+		return getNodeIdSequence(subTraceIndex).iterator();
+	}
+
+	@Override
+	public TraceReverseIterator getNodeIdSequenceReverseIterator(final int subTraceIndex) {
+		// will iterate over the subtrace with the specified index
+		return getNodeIdSequence(subTraceIndex).reverseIterator();
+	}
+
+	@Override
+	public PrimitiveIterator.OfInt getSubTraceIDSequenceIntIterator(final int subTraceSequenceIndex) {
+		checkSubTraceIdSequenceIndex(subTraceSequenceIndex);
+		return new MappedIterator(getSubTraceIdSequenceStart(subTraceSequenceIndex),
+				getSubTraceIdSequenceStart(subTraceSequenceIndex + 1), subTraceIdDataOffset);
+	}
+
+	@Override
+	public PrimitiveIterator.OfInt getSubTraceIDSequenceReverseIntIterator(final int subTraceSequenceIndex) {
+		checkSubTraceIdSequenceIndex(subTraceSequenceIndex);
+		return new MappedReverseIterator(getSubTraceIdSequenceStart(subTraceSequenceIndex),
+				getSubTraceIdSequenceStart(subTraceSequenceIndex + 1), subTraceIdDataOffset);
+	}
+
+	@Override
+	public void removeFromSequences(int nodeId) {
+		removeFromSequences(Collections.singleton(nodeId));
+	}
+
+	/**
+	 * Sub traces that contain any of the given nodes are replaced by
+	 * filtered copies in memory. The index file stays unchanged.
+	 */
+	@Override
+	public synchronized void removeFromSequences(Collection<Integer> nodeIndicesToRemove) {
+		final BitSet nodeIdsToRemove = NodeSubTraceIndex.toBitSet(nodeIndicesToRemove);
+		if (nodeIdsToRemove.isEmpty()) {
+			return;
+		}
+		if (nodeSubTraceIndex == null) {
+			nodeSubTraceIndex = NodeSubTraceIndex.build(nodeIdSequenceCount, 
+					i -> getNodeIdSequenceIntIterator(i, false));
+		}
+		// only the sub traces that contain any of the nodes have to be replaced
+		nodeSubTraceIndex.getAffectedSubTraces(nodeIdsToRemove).stream().parallel().forEach(i -> {
+			BufferedIntArrayQueue queue = new BufferedIntArrayQueue(getTempDir(),
+					UUID.randomUUID().toString(), ExecutionTraceCollector.SUBTRACE_ARRAY_SIZE, true);
+			PrimitiveIterator.OfInt iterator = getNodeIdSequenceIntIterator(i, false);
+			while (iterator.hasNext()) {
+				int next = iterator.nextInt();
+				if (next < 0 || !nodeIdsToRemove.get(next)) {
+					queue.add(next);
+				}
+			}
+			nodeIdTraces.set(i, new EfficientCompressedIntegerTrace(queue, false));
+		});
+		nodeSubTraceIndex.markRemoved(nodeIdsToRemove);
+	}
+
+	private class MappedIterator implements PrimitiveIterator.OfInt {
+
+		private long pos;
+		private final long end;
+		private final long dataOffset;
+
+		MappedIterator(long start, long end, long dataOffset) {
+			this.pos = start;
+			this.end = end;
+			this.dataOffset = dataOffset;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < end;
+		}
+
+		@Override
+		public int nextInt() {
+			if (pos >= end) {
+				throw new NoSuchElementException();
+			}
+			return getInt(dataOffset + 4 * pos++);
+		}
+	}
+
+	private class MappedReverseIterator implements PrimitiveIterator.OfInt {
+
+		private final long start;
+		private long pos;
+		private final long dataOffset;
+
+		MappedReverseIterator(long start, long end, long dataOffset) {
+			this.start = start;
+			this.pos = end - 1;
+			this.dataOffset = dataOffset;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos >= start;
+		}
+
+		@Override
+		public int nextInt() {
+			if (pos < start) {
+				throw new NoSuchElementException();
+			}
+			return getInt(dataOffset + 4 * pos--);
+		}
+	}
+
+}
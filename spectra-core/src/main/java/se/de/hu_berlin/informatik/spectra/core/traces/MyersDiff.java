@@ -0,0 +1,257 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+
+/**
+ * Linear space variant of Myers' O(ND) difference algorithm ("An O(ND) Difference Algorithm
+ * and Its Variations", 1986). The sequences are split where the forward and the reverse
+ * search paths meet, so only two arrays with one entry per diagonal are needed, independent
+ * of the lengths of the sequences. The sequences may be (partly) stored on disk. Elements are
+ * read through a small cache of blocks that are filled with sequential batch reads, since the
+ * forward and the reverse search read at a few (moving) positions near both ends of the
+ * compared ranges, which would otherwise repeatedly reload the spilled nodes of the queues.
+ *
+ * <p> If a part of the sequences needs more than the given maximum number of edits,
+ * the whole part is reported as a single differing segment.
+ */
+class MyersDiff {
+
+	// the number of elements per cached block and the maximum number of cached blocks per sequence
+	static final int BLOCK_SIZE = 4096;
+	static final int MAX_BLOCKS = 256;
+
+	private final BlockReader a;
+	private final BlockReader b;
+	private final int maxHalfEdits;
+
+	// furthest reaching x positions per diagonal k, at index k + maxHalfEdits + 1; -1 if not reached
+	private final long[] forward;
+	private final long[] backward;
+
+	private final List<TraceDiff.Segment> segments = new ArrayList<>();
+
+	/**
+	 * @param a
+	 * the first sequence
+	 * @param b
+	 * the second sequence
+	 * @param maxEdits
+	 * the maximum number of insertions and deletions to search for, per compared part
+	 */
+	MyersDiff(BufferedIntArrayQueue a, BufferedIntArrayQueue b, int maxEdits) {
+		this.a = new BlockReader(a);
+		this.b = new BlockReader(b);
+		this.maxHalfEdits = Math.max(1, (maxEdits + 1) / 2);
+		this.forward = new long[2 * maxHalfEdits + 3];
+		this.backward = new long[2 * maxHalfEdits + 3];
+	}
+
+	/**
+	 * @return
+	 * the differing segments, in the order of their positions; positions of the first sequence
+	 * are stored as failing positions, positions of the second sequence as passing positions
+	 */
+	List<TraceDiff.Segment> diff() {
+		// ranges are processed depth first (left before right) to get ordered segments
+		Deque<long[]> ranges = new ArrayDeque<>();
+		ranges.push(new long[] { 0, a.size, 0, b.size });
+		while (!ranges.isEmpty()) {
+			long[] range = ranges.pop();
+			long aLo = range[0];
+			long aHi = range[1];
+			long bLo = range[2];
+			long bHi = range[3];
+			// strip common prefix and suffix
+			while (aLo < aHi && bLo < bHi && a.get(aLo) == b.get(bLo)) {
+				++aLo;
+				++bLo;
+			}
+			while (aLo < aHi && bLo < bHi && a.get(aHi - 1) == b.get(bHi - 1)) {
+				--aHi;
+				--bHi;
+			}
+			if (aLo == aHi || bLo == bHi) {
+				addSegment(aLo, aHi, bLo, bHi);
+				continue;
+			}
+
+			long[] split = bisect(aLo, aHi, bLo, bHi);
+			if (split == null || (split[0] == aLo && split[1] == bLo) || (split[0] == aHi && split[1] == bHi)) {
+				// too many edits (or no progress)
+				addSegment(aLo, aHi, bLo, bHi);
+				continue;
+			}
+			ranges.push(new long[] { split[0], aHi, split[1], bHi });
+			ranges.push(new long[] { aLo, split[0], bLo, split[1] });
+		}
+		return segments;
+	}
+
+	private void addSegment(long aLo, long aHi, long bLo, long bHi) {
+		if (aLo == aHi && bLo == bHi) {
+			return;
+		}
+		if (!segments.isEmpty()) {
+			TraceDiff.Segment last = segments.get(segments.size() - 1);
+			if (last.getFailingEnd() == aLo && last.getPassingEnd() == bLo) {
+				// adjacent to the previous segment
+				segments.set(segments.size() - 1,
+						new TraceDiff.Segment(last.getFailingStart(), aHi, last.getPassingStart(), bHi));
+				return;
+			}
+		}
+		segments.add(new TraceDiff.Segment(aLo, aHi, bLo, bHi));
+	}
+
+	/*
+	 * Searches forward from the start and backward from the end of the given ranges
+	 * until the paths overlap and returns the (absolute) point to split the ranges at.
+	 * Diagonals that leave the edit graph are not extended any further.
+	 */
+	private long[] bisect(long aLo, long aHi, long bLo, long bHi) {
+		long n = aHi - aLo;
+		long m = bHi - bLo;
+		int maxD = (int) Math.min(maxHalfEdits, (n + m + 1) / 2);
+		int offset = maxHalfEdits + 1;
+		Arrays.fill(forward, -1);
+		Arrays.fill(backward, -1);
+		forward[offset + 1] = 0;
+		backward[offset + 1] = 0;
+		long delta = n - m;
+		// if the difference of the lengths is odd, the forward path will collide with the reverse path
+		boolean front = (delta & 1) != 0;
+		int forwardStart = 0;
+		int forwardEnd = 0;
+		int backwardStart = 0;
+		int backwardEnd = 0;
+		for (int d = 0; d <= maxD; ++d) {
+			for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+				int kOffset = offset + k;
+				long x;
+				if (k == -d || (k != d && forward[kOffset - 1] < forward[kOffset + 1])) {
+					x = forward[kOffset + 1];
+				} else {
+					x = forward[kOffset - 1] + 1;
+				}
+				long y = x - k;
+				while (x < n && y < m && a.get(aLo + x) == b.get(bLo + y)) {
+					++x;
+					++y;
+				}
+				forward[kOffset] = x;
+				if (x > n) {
+					forwardEnd += 2;
+				} else if (y > m) {
+					forwardStart += 2;
+				} else if (front) {
+					long otherOffset = offset + delta - k;
+					if (otherOffset >= 0 && otherOffset < backward.length && backward[(int) otherOffset] != -1
+							&& x >= n - backward[(int) otherOffset]) {
+						return new long[] { aLo + x, bLo + y };
+					}
+				}
+			}
+
+			for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+				int kOffset = offset + k;
+				long x;
+				if (k == -d || (k != d && backward[kOffset - 1] < backward[kOffset + 1])) {
+					x = backward[kOffset + 1];
+				} else {
+					x = backward[kOffset - 1] + 1;
+				}
+				long y = x - k;
+				while (x < n && y < m && a.get(aHi - 1 - x) == b.get(bHi - 1 - y)) {
+					++x;
+					++y;
+				}
+				backward[kOffset] = x;
+				if (x > n) {
+					backwardEnd += 2;
+				} else if (y > m) {
+					backwardStart += 2;
+				} else if (!front) {
+					long otherOffset = offset + delta - k;
+					if (otherOffset >= 0 && otherOffset < forward.length && forward[(int) otherOffset] != -1) {
+						long forwardX = forward[(int) otherOffset];
+						long forwardY = forwardX - (otherOffset - offset);
+						if (forwardX >= n - x) {
+							return new long[] { aLo + forwardX, bLo + forwardY };
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Reads the elements of a queue through a cache of aligned blocks. A missing block
+	 * is filled with a single sequential read, and the least recently used block is
+	 * dropped if too many blocks are cached. Consecutive reads within the same block
+	 * (in either direction) do not access the block map.
+	 */
+	private static class BlockReader {
+
+		private final long size;
+		private final BufferedIntArrayQueue.MyBufferedIterator iterator;
+		// block index -> elements, in access order
+		private final Map<Long, int[]> blocks = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+				if (size() > MAX_BLOCKS) {
+					// reuse the array of the dropped block
+					spareBlock = eldest.getValue();
+					return true;
+				}
+				return false;
+			}
+		};
+		private int[] spareBlock = null;
+
+		// the last accessed block
+		private long currentStart = 0;
+		private long currentEnd = 0;
+		private int[] current = null;
+
+		private BlockReader(BufferedIntArrayQueue queue) {
+			this.size = queue.size();
+			this.iterator = queue.iterator();
+		}
+
+		private int get(long index) {
+			if (index < currentStart || index >= currentEnd) {
+				setCurrentBlock(index / BLOCK_SIZE);
+			}
+			return current[(int) (index - currentStart)];
+		}
+
+		private void setCurrentBlock(long block) {
+			current = blocks.get(block);
+			currentStart = block * BLOCK_SIZE;
+			currentEnd = Math.min(size, currentStart + BLOCK_SIZE);
+			if (current == null) {
+				current = spareBlock == null ? new int[BLOCK_SIZE] : spareBlock;
+				spareBlock = null;
+				iterator.setToPosition(currentStart);
+				int length = (int) (currentEnd - currentStart);
+				int read = 0;
+				while (read < length) {
+					read += iterator.nextBatch(current, read, length - read);
+				}
+				blocks.put(block, current);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.PrimitiveIterator;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Inverted index that maps spectra node IDs to the IDs of the sub traces that contain them.
+ * Used to only touch the affected sub traces when nodes are removed from the sequences.
+ *
+ * <p> The sub trace IDs of all nodes are stored in a single array, ordered by node ID.
+ * Removed nodes are only marked, since the sub traces that remain are still valid
+ * for all other nodes.
+ */
+class NodeSubTraceIndex {
+
+	private static final int[] EMPTY = new int[0];
+
+	// node ID -> start position in subTraceIds; the last entry marks the end
+	private final int[] offsets;
+	private final int[] subTraceIds;
+	private final BitSet removedNodes = new BitSet();
+
+	private NodeSubTraceIndex(int[] offsets, int[] subTraceIds) {
+		this.offsets = offsets;
+		this.subTraceIds = subTraceIds;
+	}
+
+	/**
+	 * Builds the index by scanning all sub traces once, in parallel.
+	 * @param subTraceCount
+	 * the number of sub traces; sub trace 0 (the empty sub trace) is ignored
+	 * @param elementIterators
+	 * provides an iterator over (at least) all distinct node IDs of a sub trace
+	 * @return
+	 * the index
+	 */
+	static NodeSubTraceIndex build(int subTraceCount, final IntFunction<PrimitiveIterator.OfInt> elementIterators) {
+		final int[][] distinctNodeIds = new int[Math.max(subTraceCount, 1)][];
+		distinctNodeIds[0] = EMPTY;
+		IntStream.range(1, subTraceCount).parallel().forEach(i -> {
+			BitSet nodeIds = new BitSet();
+			PrimitiveIterator.OfInt iterator = elementIterators.apply(i);
+			while (iterator.hasNext()) {
+				int nodeId = iterator.nextInt();
+				if (nodeId >= 0) {
+					nodeIds.set(nodeId);
+				}
+			}
+			distinctNodeIds[i] = nodeIds.stream().toArray();
+		});
+
+		int nodeCount = 0;
+		for (int[] nodeIds : distinctNodeIds) {
+			if (nodeIds.length > 0) {
+				nodeCount = Math.max(nodeCount, nodeIds[nodeIds.length - 1] + 1);
+			}
+		}
+		// count sub traces per node, then fill in sub trace order
+		int[] offsets = new int[nodeCount + 1];
+		for (int[] nodeIds : distinctNodeIds) {
+			for (int nodeId : nodeIds) {
+				++offsets[nodeId + 1];
+			}
+		}
+		for (int i = 0; i < nodeCount; ++i) {
+			offsets[i + 1] += offsets[i];
+		}
+		int[] subTraceIds = new int[offsets[nodeCount]];
+		int[] positions = new int[nodeCount];
+		System.arraycopy(offsets, 0, positions, 0, nodeCount);
+		for (int i = 0; i < distinctNodeIds.length; ++i) {
+			for (int nodeId : distinctNodeIds[i]) {
+				subTraceIds[positions[nodeId]++] = i;
+			}
+		}
+		return new NodeSubTraceIndex(offsets, subTraceIds);
+	}
+
+	/**
+	 * @param nodeIds
+	 * a collection of node IDs
+	 * @return
+	 * a bit set with the given node IDs; negative and null IDs are ignored
+	 */
+	static BitSet toBitSet(Collection<Integer> nodeIds) {
+		BitSet result = new BitSet();
+		for (Integer nodeId : nodeIds) {
+			if (nodeId != null && nodeId >= 0) {
+				result.set(nodeId);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param nodeIds
+	 * node IDs
+	 * @return
+	 * the IDs of all sub traces that contain any of the given nodes
+	 */
+	BitSet getAffectedSubTraces(BitSet nodeIds) {
+		BitSet result = new BitSet();
+		int nodeCount = offsets.length - 1;
+		for (int nodeId = nodeIds.nextSetBit(0); nodeId >= 0 && nodeId < nodeCount; nodeId = nodeIds.nextSetBit(nodeId + 1)) {
+			if (removedNodes.get(nodeId)) {
+				continue;
+			}
+			for (int i = offsets[nodeId]; i < offsets[nodeId + 1]; ++i) {
+				result.set(subTraceIds[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Marks the given nodes as removed from all sub traces.
+	 * @param nodeIds
+	 * node IDs
+	 */
+	void markRemoved(BitSet nodeIds) {
+		removedNodes.or(nodeIds);
+	}
+
+}
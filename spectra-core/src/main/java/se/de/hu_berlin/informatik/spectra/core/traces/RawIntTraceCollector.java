@@ -1,14 +1,23 @@
 package se.de.hu_berlin.informatik.spectra.core.traces;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.function.Supplier;
 import java.util.zip.ZipException;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntArrayIterator;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntBitSet;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.GrammarRuleDictionary;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.IntTraceCompressor;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.IntTraceCompressors;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
 import se.de.hu_berlin.informatik.spectra.util.SpectraFileUtils;
 import se.de.hu_berlin.informatik.utils.compression.ziputils.AddNamedByteArrayToZipFileProcessor;
 import se.de.hu_berlin.informatik.utils.compression.ziputils.MoveNamedByteArraysBetweenZipFilesProcessor;
@@ -24,6 +33,11 @@ public class RawIntTraceCollector {
 	
 	private static final String RAW_TRACE_FILE_EXTENSION = ".raw";
 	private static final String REP_MARKER_FILE_EXTENSION = ".rep";
+	// marks stored raw traces that consist of grammar symbols; contains the number of rules needed to expand them
+	private static final String GRAMMAR_MARKER_FILE_EXTENSION = ".grm";
+	// the rules of the shared grammar are stored in chunks, in the order of their creation
+	private static final String GRAMMAR_RULES_FILE_PREFIX = "grammar-";
+	private static final String GRAMMAR_RULES_FILE_EXTENSION = ".rules";
 //	private static final String EXEC_TRACE_FILE_EXTENSION = ".exec";
 
 //	/**
@@ -44,7 +58,24 @@ public class RawIntTraceCollector {
 
 	private IntArraySequenceIndexer indexer = null;
 	
-	private final Set<Integer> startElements = new HashSet<>();
+	private final IntBitSet startElements = new IntBitSet();
+	
+	// trace index -> trace stream ids of the stored raw traces; the raw traces are stored 
+	// with the trace stream ids in their file names, so this only caches the zip file's entries
+	private final Map<Integer, Set<Long>> traceStreamIds = new ConcurrentHashMap<>();
+	
+	// compresses raw traces; selected per run with a system property (shares its grammar, if any)
+	private final IntTraceCompressor compressor = IntTraceCompressors.fromSystemProperty();
+	
+	// number of grammar rules and rule chunks that are stored in the zip file
+	private int storedRuleCount = 0;
+	private int storedRuleChunkCount = 0;
+	// grammar that was loaded from the zip file
+	private GrammarRuleDictionary loadedGrammar = null;
+	private int loadedRuleChunkCount = 0;
+	
+	// number of workers that build the GS tree (partitioned by branches)
+	private int gsTreeBuilderThreadCount = Runtime.getRuntime().availableProcessors();
 	
 //	public Map<Integer,EfficientCompressedIntegerTrace> getGlobalIdToSubTraceMap() {
 //		return globalIdToSubTraceMap;
@@ -68,45 +99,72 @@ public class RawIntTraceCollector {
 //		Runtime.getRuntime().addShutdownHook(new Thread(new RemoveOutput(this.output)));
 	}
 	
-	public boolean addRawTraceToPool(int traceIndex, int threadId, 
+	/**
+	 * Adds a raw trace to the pool.
+	 * @param traceIndex
+	 * the index of the test
+	 * @param traceStreamId
+	 * the collector-assigned id of the thread that produced the trace; the traces of
+	 * a test are ordered by these ids
+	 * @param trace
+	 * the trace
+	 * @param log
+	 * whether to log the compression
+	 * @param idToSubTraceMap
+	 * map from sub trace ids to sub traces
+	 * @return
+	 * true if successful
+	 */
+	public boolean addRawTraceToPool(int traceIndex, long traceStreamId, 
 			BufferedIntArrayQueue trace, boolean log,
 			Map<Integer,EfficientCompressedIntegerTrace> idToSubTraceMap) {
-		addTrace(traceIndex, threadId, trace, log, idToSubTraceMap);
+		addTrace(traceIndex, traceStreamId, trace, log, idToSubTraceMap);
 		return true;
 	}
 	
 	// only used for testing purposes
-	public boolean addRawTraceToPool(int traceIndex, int threadId, 
+	public boolean addRawTraceToPool(int traceIndex, long traceStreamId, 
 			int[] traceArray, boolean log, Path outputDir, String prefix,
 			Map<Integer,EfficientCompressedIntegerTrace> idToSubTraceMap) {
 		BufferedIntArrayQueue trace = new BufferedIntArrayQueue(outputDir.toFile(), prefix, 100);
-//        trace.addAll(Arrays.asList(traceArray));
-		for (int i : traceArray) {
-			trace.add(i);
-		}
+		trace.addAll(traceArray, 0, traceArray.length);
 //		trace.clear(1);
 //		for (ReplaceableCloneableIntIterator iterator = trace.iterator(); iterator.hasNext();) {
 //			int integer = iterator.next();
 //			System.out.print(integer + ", ");
 //		}
 //		System.out.println();
-		return addRawTraceToPool(traceIndex, threadId, trace, log, idToSubTraceMap);
+		return addRawTraceToPool(traceIndex, traceStreamId, trace, log, idToSubTraceMap);
 	}
 
-	private void addTrace(int traceIndex, int threadId, 
+	private void addTrace(int traceIndex, long traceStreamId, 
 			BufferedIntArrayQueue trace, boolean log,
 			Map<Integer,EfficientCompressedIntegerTrace> idToSubTraceMap) {
-		addTrace(traceIndex, threadId, new EfficientCompressedIntegerTrace(trace, log), idToSubTraceMap);
+		addTrace(traceIndex, traceStreamId, compressor.compress(trace, log), idToSubTraceMap);
 	}
 	
-	public boolean addRawTraceToPool(int traceIndex, int threadId, 
+	/**
+	 * Adds a compressed raw trace to the pool.
+	 * @param traceIndex
+	 * the index of the test
+	 * @param traceStreamId
+	 * the collector-assigned id of the thread that produced the trace; the traces of
+	 * a test are ordered by these ids
+	 * @param eTrace
+	 * the trace
+	 * @param map
+	 * map from sub trace ids to sub traces
+	 * @return
+	 * true if successful
+	 */
+	public boolean addRawTraceToPool(int traceIndex, long traceStreamId, 
 			EfficientCompressedIntegerTrace eTrace,
 			Map<Integer, EfficientCompressedIntegerTrace> map) {
-		addTrace(traceIndex, threadId, eTrace, map);
+		addTrace(traceIndex, traceStreamId, eTrace, map);
 		return true;
 	}
-
-	private void addTrace(int traceIndex, int threadId, 
+	
+	private void addTrace(int traceIndex, long traceStreamId, 
 			EfficientCompressedIntegerTrace eTrace,
 			Map<Integer, EfficientCompressedIntegerTrace> map) {
 		
@@ -117,7 +175,7 @@ public class RawIntTraceCollector {
 //			if (!map.containsKey(id)) {
 //				// this should definitely not happen!
 //				error = true;
-//				System.err.println(traceIndex + "-" + threadId + ": No sub trace mapping found for id " + id);
+//				System.err.println(traceIndex + "-" + traceStreamId + ": No sub trace mapping found for id " + id);
 //			}
 //		}
 //		
@@ -134,8 +192,8 @@ public class RawIntTraceCollector {
 //		globalizeTrace(eTrace, localIdToGlobalIdMap);
 		
 		// collect raw trace
-		String traceFileName = traceIndex + "-" + threadId + RAW_TRACE_FILE_EXTENSION;
-		String repMarkerFileName = traceIndex + "-" + threadId + REP_MARKER_FILE_EXTENSION;
+		String traceFileName = traceIndex + "-" + traceStreamId + RAW_TRACE_FILE_EXTENSION;
+		String repMarkerFileName = traceIndex + "-" + traceStreamId + REP_MARKER_FILE_EXTENSION;
 		// avoid storing traces in memory...
 		// store the compressed trace
 		try {
@@ -143,6 +201,11 @@ public class RawIntTraceCollector {
 		} catch (IOException e) {
 			Log.abort(this, e, "Could not store raw trace.");
 		}
+		if (eTrace.getGrammar() != null) {
+			// the stored trace consists of symbols of the shared grammar
+			storeGrammar(eTrace.getGrammar(), traceIndex + "-" + traceStreamId + GRAMMAR_MARKER_FILE_EXTENSION, eTrace.size());
+		}
+		traceStreamIds.computeIfAbsent(traceIndex, k -> new ConcurrentSkipListSet<>()).add(traceStreamId);
 		
 		// new input may or may not invalidate previously generated execution traces
 		// (generally, the execution traces should only be generated at the end of trace collection)
@@ -153,7 +216,7 @@ public class RawIntTraceCollector {
 		
 		// only extract all elements that mark the beginning of sequences;
 		// adding the traces to the GS tree has to be done in a separate, last step
-		eTrace.addStartingElementsToSet(startElements);
+		eTrace.addStartingElements(startElements);
 		eTrace.clear();
 		eTrace = null;
 	}
@@ -232,6 +295,52 @@ public class RawIntTraceCollector {
 //
 //	}
 
+	// stores the rules that were added to the grammar since the last call and marks the trace
+	// with the number of rules it needs and its expanded size
+	private synchronized void storeGrammar(GrammarRuleDictionary grammar, String grammarMarkerFileName, long expandedSize) {
+		int ruleCount = grammar.size();
+		Module<Pair<String, byte[]>, byte[]> zipModule = new AddNamedByteArrayToZipFileProcessor(output, false).asModule();
+		if (ruleCount > storedRuleCount) {
+			zipModule.submit(new Pair<>(GRAMMAR_RULES_FILE_PREFIX + (storedRuleChunkCount++) + GRAMMAR_RULES_FILE_EXTENSION, 
+					grammar.toByteArray(storedRuleCount, ruleCount)));
+			storedRuleCount = ruleCount;
+		}
+		zipModule.submit(new Pair<>(grammarMarkerFileName, 
+				ByteBuffer.allocate(12).putInt(ruleCount).putLong(expandedSize).array()));
+	}
+	
+	// expands the given raw trace with the stored grammar, if it consists of grammar symbols
+	private boolean applyStoredGrammar(ZipFileWrapper zip, String compressedTraceFile, 
+			EfficientCompressedIntegerTrace rawTrace) {
+		byte[] grammarMarker = zip.get(compressedTraceFile.replace(RAW_TRACE_FILE_EXTENSION, GRAMMAR_MARKER_FILE_EXTENSION), false);
+		if (grammarMarker == null) {
+			return false;
+		}
+		ByteBuffer marker = ByteBuffer.wrap(grammarMarker);
+		int neededRuleCount = marker.getInt();
+		// rules that are created when replacing elements of the trace are only added to the overlay,
+		// so the loaded grammar only contains the stored rules, in their original order
+		rawTrace.setGrammar(new GrammarRuleDictionary(getStoredGrammar(zip, neededRuleCount)), marker.getLong());
+		return true;
+	}
+	
+	private synchronized GrammarRuleDictionary getStoredGrammar(ZipFileWrapper zip, int neededRuleCount) {
+		if (loadedGrammar == null) {
+			loadedGrammar = new GrammarRuleDictionary();
+		}
+		// load the chunks of rules that were stored after the last loaded chunk
+		byte[] rules;
+		while (loadedGrammar.size() < neededRuleCount && (rules = zip.get(GRAMMAR_RULES_FILE_PREFIX 
+				+ loadedRuleChunkCount + GRAMMAR_RULES_FILE_EXTENSION, false)) != null) {
+			loadedGrammar.addRules(rules);
+			++loadedRuleChunkCount;
+		}
+		if (loadedGrammar.size() < neededRuleCount) {
+			Log.abort(this, "Stored grammar only contains %d of %d needed rules.", loadedGrammar.size(), neededRuleCount);
+		}
+		return loadedGrammar;
+	}
+	
 	public List<EfficientCompressedIntegerTrace> getRawTraces(int traceIndex) throws ZipException {
 		if (!output.toFile().exists()) {
 			return null;
@@ -240,22 +349,59 @@ public class RawIntTraceCollector {
 		List<EfficientCompressedIntegerTrace> result = new ArrayList<>(1);
 		ZipFileWrapper zip = ZipFileWrapper.getZipFileWrapper(output);
 
-		int traceCounter = -1;
-		// assume IDs to start at 0
-		while (true) {
-			String compressedTraceFile = traceIndex + "-" + (++traceCounter) + RAW_TRACE_FILE_EXTENSION;
-			if (zip.exists(compressedTraceFile)) {
-				String repetitionFile = traceIndex + "-" + (traceCounter) + REP_MARKER_FILE_EXTENSION;
-				EfficientCompressedIntegerTrace rawTrace = SpectraFileUtils
-						.loadRawTraceFromZipFile(zip, compressedTraceFile, repetitionFile);
-				result.add(rawTrace);
-			} else {
-				break;
-			}
+		for (long traceStreamId : getTraceStreamIds(zip, traceIndex)) {
+			result.add(loadRawTrace(zip, traceIndex, traceStreamId));
 		}
 		return result.isEmpty() ? null : result;
 	}
 	
+	/**
+	 * @param traceIndex
+	 * the index of the test
+	 * @return
+	 * the trace stream ids of the threads that produced the raw traces of the test, in 
+	 * ascending order; the i-th id belongs to the execution trace with thread index i
+	 */
+	public long[] getTraceStreamIds(int traceIndex) {
+		if (!output.toFile().exists()) {
+			return new long[0];
+		}
+		return getTraceStreamIds(ZipFileWrapper.getZipFileWrapper(output), traceIndex);
+	}
+	
+	private long[] getTraceStreamIds(ZipFileWrapper zip, int traceIndex) {
+		Set<Long> ids = traceStreamIds.get(traceIndex);
+		if (ids == null) {
+			// not added with this collector; get the ids from the names of the stored raw traces
+			ids = new TreeSet<>();
+			String prefix = traceIndex + "-";
+			for (String fileHeader : zip.getFileHeadersContainingString(RAW_TRACE_FILE_EXTENSION)) {
+				if (fileHeader.startsWith(prefix)) {
+					ids.add(Long.valueOf(fileHeader.substring(prefix.length(), 
+							fileHeader.length() - RAW_TRACE_FILE_EXTENSION.length())));
+				}
+			}
+		}
+		long[] result = new long[ids.size()];
+		int i = 0;
+		for (long id : ids) {
+			result[i++] = id;
+		}
+		return result;
+	}
+	
+	private EfficientCompressedIntegerTrace loadRawTrace(ZipFileWrapper zip, int traceIndex, long traceStreamId) throws ZipException {
+		String compressedTraceFile = traceIndex + "-" + traceStreamId + RAW_TRACE_FILE_EXTENSION;
+		if (!zip.exists(compressedTraceFile)) {
+			throw new IllegalStateException("Raw trace '" + compressedTraceFile + "' does not exist.");
+		}
+		String repetitionFile = traceIndex + "-" + traceStreamId + REP_MARKER_FILE_EXTENSION;
+		EfficientCompressedIntegerTrace rawTrace = SpectraFileUtils
+				.loadRawTraceFromZipFile(zip, compressedTraceFile, repetitionFile);
+		applyStoredGrammar(zip, compressedTraceFile, rawTrace);
+		return rawTrace;
+	}
+	
 	public List<byte[]> getExecutionTracesByteArrays(int traceIndex, boolean log) {
 		// check if a stored execution trace exists
 		if (!output.toFile().exists()) {
@@ -313,56 +459,199 @@ public class RawIntTraceCollector {
 		}
 
 		// if at this point, try generating the execution traces from raw traces on the fly
-		List<EfficientCompressedIntegerTrace> rawTraces = getRawTraces(traceIndex);
-		if (rawTraces == null) {
+		int traceCount = generateExecutionTracesFromRawTraces(traceIndex, log);
+		if (traceCount == 0) {
 			return null;
 		}
-		List<ExecutionTrace> executionTraces = generateExecutiontraceFromRawTraces(rawTraces, log);
 
-		// collect execution traces
-		int traceCounter = -1;
-		for (ExecutionTrace executionTrace : executionTraces) {
-			String traceFileName = traceIndex + "-" + (++traceCounter) + 
-					SpectraFileUtils.EXECUTION_TRACE_FILE_EXTENSION;
-			String repMarkerFileName = traceIndex + "-" + (traceCounter) + 
-					SpectraFileUtils.EXECUTION_TRACE_REPETITIONS_FILE_EXTENSION;
-			// avoid storing traces in memory...
-			// store the execution trace and repetition markers
-			try {
-				SpectraFileUtils.storeCompressedIntegerTrace(executionTrace, 
-						getExecutionTraceZipFilePath(), traceFileName, repMarkerFileName);
-			} catch (IOException e) {
-				Log.abort(this, e, "Could not store execution trace.");
-			}
-		}
-		// may still be null?
-		return executionTraces;
+		// avoid storing traces in memory... 
+		// the returned list loads the stored execution traces on access, until they are moved
+		return new StoredExecutionTraceList(traceIndex, traceCount);
 	}
 
 	public Path getExecutionTraceZipFilePath() {
 		return output.toAbsolutePath().getParent().resolve(output.getFileName() + "Exec.zip");
 	}
 
-	private List<ExecutionTrace> generateExecutiontraceFromRawTraces(List<EfficientCompressedIntegerTrace> rawTraces, boolean log) {
-		// replace sequences in the raw trace with indices
-		List<ExecutionTrace> traces = new ArrayList<>(rawTraces.size());
-		for (EfficientCompressedIntegerTrace rawTrace : rawTraces) {
+	/**
+	 * Converts the raw traces of the given test one after another and stores each
+	 * execution trace in the execution trace zip file right away, so only a single
+	 * trace has to be held in memory. The sequences of raw traces that could not be
+	 * matched are queued and added to the GS tree in one batch, afterwards. The failed
+	 * raw traces are kept (on disk) until their execution traces are generated from the updated tree.
+	 * @param traceIndex
+	 * the index of the test
+	 * @param log
+	 * whether to log the progress
+	 * @return
+	 * the number of generated execution traces
+	 * @throws ZipException
+	 * if the raw traces can not be read
+	 */
+	private int generateExecutionTracesFromRawTraces(int traceIndex, boolean log) throws ZipException {
+		ZipFileWrapper zip = ZipFileWrapper.getZipFileWrapper(output);
+		List<Integer> failedThreadIndices = new ArrayList<>();
+		List<EfficientCompressedIntegerTrace> failedRawTraces = new ArrayList<>();
+		// in order of their first occurrence, without duplicates
+		Set<UnmatchedSequence> unmatchedSequences = new LinkedHashSet<>();
+		long[] ids = getTraceStreamIds(zip, traceIndex);
+		EfficientCompressedIntegerTrace rawTrace;
+		// the execution traces are indexed by the position of their trace stream ids
+		for (int threadIndex = 0; threadIndex < ids.length; ++threadIndex) {
+			rawTrace = loadRawTrace(zip, traceIndex, ids[threadIndex]);
 			try {
-				ExecutionTrace trace = gsTree.generateIndexedTrace(rawTrace, indexer);
-				trace.sleep();
-				traces.add(trace);
+				// replace sequences in the raw trace with indices
+				storeExecutionTrace(traceIndex, threadIndex, gsTree.generateIndexedTrace(rawTrace, indexer));
 			} catch (IllegalStateException e) {
 				Log.warn(this, "Generating indexed Trace not successful: %s", e.getMessage());
-				Log.out(this, "Trying to add entire trace... (%d elements)", rawTrace.size());
-				// a sequence was not matched correctly, so try to add the entire trace to the tree...
-				extractCommonSequencesFromRawTrace(rawTrace.iterator());
-				ExecutionTrace trace = gsTree.generateIndexedTrace(rawTrace, indexer);
-				trace.sleep();
-				traces.add(trace);
+				collectUnmatchedSequences(rawTrace, unmatchedSequences);
+				failedThreadIndices.add(threadIndex);
+				// the tree can not change while the remaining traces are indexed, so keep the trace for later
+				rawTrace.sleep();
+				failedRawTraces.add(rawTrace);
+			}
+		}
+		int traceCount = ids.length;
+		
+		if (!failedThreadIndices.isEmpty()) {
+			// some sequences were not matched correctly, so add them to the tree in one batch...
+			if (log) {
+				Log.out(this, "Adding %d unmatched sequence(s) of %d trace(s)...", 
+						unmatchedSequences.size(), failedThreadIndices.size());
 			}
+			indexer.reset();
+			for (UnmatchedSequence sequence : unmatchedSequences) {
+				gsTree.__addSequence(new IntArrayIterator(sequence.elements), 
+						sequence.elements.length, sequence.elements[0]);
+			}
+			unmatchedSequences = null;
+			for (int i = 0; i < failedThreadIndices.size(); ++i) {
+				rawTrace = failedRawTraces.set(i, null);
+				storeExecutionTrace(traceIndex, failedThreadIndices.get(i), gsTree.generateIndexedTrace(rawTrace, indexer));
+				// release the trace's temporary files
+				rawTrace.clear();
+			}
+		}
+		
+		return traceCount;
+	}
+	
+	/**
+	 * Splits the given raw trace at starting elements, in the same way as when building 
+	 * the GS tree, and collects the sequences that are not contained in the tree.
+	 * @param rawTrace
+	 * the raw trace
+	 * @param collector
+	 * the collected sequences
+	 */
+	private void collectUnmatchedSequences(EfficientCompressedIntegerTrace rawTrace, 
+			Set<UnmatchedSequence> collector) {
+		int[] buffer = new int[1024];
+		int length = 0;
+		TraceIterator iterator = rawTrace.iterator();
+		while (iterator.hasNext()) {
+			int element = iterator.next();
+			if (length > 0 && startElements.contains(element)) {
+				if (!gsTree.containsSequence(buffer, length)) {
+					collector.add(new UnmatchedSequence(Arrays.copyOf(buffer, length)));
+				}
+				length = 0;
+			}
+			if (length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, length * 2);
+			}
+			buffer[length++] = element;
+		}
+		if (length > 0 && !gsTree.containsSequence(buffer, length)) {
+			collector.add(new UnmatchedSequence(Arrays.copyOf(buffer, length)));
+		}
+	}
+	
+	/**
+	 * A sequence that could not be matched, with value based equality.
+	 */
+	private static final class UnmatchedSequence {
+		
+		private final int[] elements;
+		private final int hashCode;
+
+		private UnmatchedSequence(int[] elements) {
+			this.elements = elements;
+			this.hashCode = Arrays.hashCode(elements);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof UnmatchedSequence 
+					&& Arrays.equals(elements, ((UnmatchedSequence) obj).elements);
+		}
+		
+	}
+	
+	private void storeExecutionTrace(int traceIndex, int threadIndex, ExecutionTrace executionTrace) {
+		String traceFileName = traceIndex + "-" + threadIndex + 
+				SpectraFileUtils.EXECUTION_TRACE_FILE_EXTENSION;
+		String repMarkerFileName = traceIndex + "-" + threadIndex + 
+				SpectraFileUtils.EXECUTION_TRACE_REPETITIONS_FILE_EXTENSION;
+		// store the execution trace and repetition markers
+		try {
+			SpectraFileUtils.storeCompressedIntegerTrace(executionTrace, 
+					getExecutionTraceZipFilePath(), traceFileName, repMarkerFileName);
+		} catch (IOException e) {
+			Log.abort(this, e, "Could not store execution trace.");
+		}
+		// release the trace's memory and temporary files
+		executionTrace.clear();
+	}
+	
+	/**
+	 * Execution traces of a test that were stored in the execution trace zip file.
+	 * Traces are decoded on every access and are not cached, and the list can not be modified.
+	 * 
+	 * <p> The list is only valid as long as the traces are stored in the execution trace zip file.
+	 * After {@link RawIntTraceCollector#moveExecutionTraces(int, Path, Supplier, Supplier)} moved them
+	 * (e.g., when storing the spectra), accessing a trace throws an {@link IllegalStateException}.
+	 */
+	private class StoredExecutionTraceList extends AbstractList<ExecutionTrace> {
+		
+		private final int traceIndex;
+		private final int size;
+
+		private StoredExecutionTraceList(int traceIndex, int size) {
+			this.traceIndex = traceIndex;
+			this.size = size;
+		}
+
+		@Override
+		public ExecutionTrace get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+			}
+			String traceFile = traceIndex + "-" + index + SpectraFileUtils.EXECUTION_TRACE_FILE_EXTENSION;
+			ZipFileWrapper zip = ZipFileWrapper.getZipFileWrapper(getExecutionTraceZipFilePath());
+			if (!zip.exists(traceFile)) {
+				throw new IllegalStateException("Execution trace " + traceFile + " was moved out of " 
+						+ getExecutionTraceZipFilePath() + "; the list of execution traces is not valid anymore.");
+			}
+			try {
+				return SpectraFileUtils.loadExecutionTraceFromZipFile(zip, traceFile, 
+						traceIndex + "-" + index + SpectraFileUtils.EXECUTION_TRACE_REPETITIONS_FILE_EXTENSION);
+			} catch (ZipException e) {
+				Log.abort(this, e, "Could not load execution trace.");
+				return null;
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
 		}
 		
-		return traces;
 	}
 
 	private void extractCommonSequencesFromRawTraces() {
@@ -375,6 +664,9 @@ public class RawIntTraceCollector {
 		if (!output.toFile().exists()) {
 			return;
 		}
+		// branches can only be built in parallel if the tree is still empty
+		IntGSArrayTreeBuilder builder = new IntGSArrayTreeBuilder(gsTree, startElements, 
+				gsTree.getEndNodeCount() == 0 ? gsTreeBuilderThreadCount : 1);
 		try {
 			// retrieve the raw traces from the zip file
 			ZipFileWrapper zip = ZipFileWrapper.getZipFileWrapper(output);
@@ -385,59 +677,32 @@ public class RawIntTraceCollector {
 				EfficientCompressedIntegerTrace rawTrace = SpectraFileUtils
 						.loadRawTraceFromZipFile(zip, fileHeader, fileHeader
 								.replace(RAW_TRACE_FILE_EXTENSION, REP_MARKER_FILE_EXTENSION));
-
-//				extractCommonSequencesFromRawTrace(executionTrace.iterator());
-				// it should suffice to only iterate over the compressed traces...
-				// (if not, we will try processing the entire sequence later, when generating the execution traces)
-				extractCommonSequencesFromRawTrace(rawTrace.baseIterator());
+				if (applyStoredGrammar(zip, fileHeader, rawTrace)) {
+					// the compressed trace consists of grammar symbols, so use the expanded trace
+					builder.addTrace(rawTrace.iterator());
+				} else {
+					// it should suffice to only iterate over the compressed traces...
+					// (if not, we will try processing the entire sequence later, when generating the execution traces)
+					builder.addTrace(rawTrace.baseIterator());
+				}
 				rawTrace = null;
 			}
+			builder.finish();
 		} catch (Exception e) {
 			Log.abort(this, e, "Error reading or processing raw traces from zip file.");
+		} finally {
+			// stops the workers if the build failed
+			builder.shutdownNow();
 		}
 	}
 
-	private void extractCommonSequencesFromRawTrace(ReplaceableCloneableIterator replaceableCloneableIntIterator) {
-		if (indexer != null) {
-			indexer.reset();
-		}
-		// remember starting position
-		ReplaceableCloneableIterator unprocessedIterator = replaceableCloneableIntIterator.clone();
-		int processedElements = 0;
-		while (replaceableCloneableIntIterator.hasNext()) {
-			Integer element = replaceableCloneableIntIterator.peek();
-//			System.out.println("next: " + element);
-			// TODO prevent negative elements!
-//			if (element < 0) {
-//				// check if the element is a correct id, which has to be positive (atm) TODO
-//				// this may mark elements which shall be ignored/skipped when executing exactly this method...
-//				throw new IllegalStateException("Tried to add an negative item: " + element);
-//			}
-			
-			if (startElements.contains(element)) {
-				// the element was recognized as a starting element, previously
-				if (processedElements > 0) {
-					// there exists an unprocessed sequence 
-					// before this element's position
-					gsTree.__addSequence(unprocessedIterator, processedElements, 
-							unprocessedIterator.peek());
-	
-					unprocessedIterator = replaceableCloneableIntIterator.clone();
-					processedElements = 0;
-				}
-			}
-			
-			// add the current element to the list of unprocessed elements
-			++processedElements;
-			replaceableCloneableIntIterator.next();
-		}
-		
-		// process remaining elements
-		if (processedElements > 0) {
-			// there exists an unprocessed sequence
-			gsTree.__addSequence(unprocessedIterator, processedElements, 
-					unprocessedIterator.peek());
-		}
+	/**
+	 * @param threadCount
+	 * the number of workers that build the GS tree from the collected raw traces;
+	 * 1 builds the tree sequentially
+	 */
+	public void setGsTreeBuilderThreadCount(int threadCount) {
+		this.gsTreeBuilderThreadCount = Math.max(1, threadCount);
 	}
 
 	public IntGSArrayTree getGsTree() {
@@ -0,0 +1,170 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerWrapper;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+
+/**
+ * The repetitions of a compressed trace as runs in the full trace: the elements
+ * [start, start + length) of the full trace are repeated count times, directly
+ * after each other. The repetitions of all levels are mapped to positions in the
+ * full trace. Repetitions that are nested in a repetition of a higher level are
+ * only contained once, for the first iteration of the enclosing repetition.
+ *
+ * <p> Runs are sorted by their start positions; runs with the same start position
+ * are sorted by their total lengths, longest first.
+ */
+class RepetitionRuns {
+
+	private final long[] starts;
+	private final int[] lengths;
+	private final int[] counts;
+
+	/**
+	 * @param trace
+	 * a trace that is not grammar compressed
+	 */
+	RepetitionRuns(EfficientCompressedIntegerTrace trace) {
+		this(collectRuns(trace));
+	}
+
+	// runs of the form [start, length, count]
+	private RepetitionRuns(List<long[]> runs) {
+		Collections.sort(runs, (a, b) -> a[0] != b[0] ?
+				Long.compare(a[0], b[0]) : Long.compare(b[1] * b[2], a[1] * a[2]));
+		starts = new long[runs.size()];
+		lengths = new int[runs.size()];
+		counts = new int[runs.size()];
+		for (int i = 0; i < runs.size(); ++i) {
+			starts[i] = runs.get(i)[0];
+			lengths[i] = (int) runs.get(i)[1];
+			counts[i] = (int) runs.get(i)[2];
+		}
+	}
+
+	private static List<long[]> collectRuns(EfficientCompressedIntegerTrace trace) {
+		List<long[]> runs = new ArrayList<>();
+		RepetitionMarkerWrapper[] wrappers = trace.getRepetitionMarkers();
+		if (wrappers != null && trace.getGrammar() == null) {
+			for (int level = 0; level < trace.levelCount(); ++level) {
+				runs = addLevel(wrappers[level], runs);
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * @param traceSize
+	 * the size of the full trace
+	 * @return
+	 * the runs with positions in the reversed full trace
+	 */
+	RepetitionRuns reverse(long traceSize) {
+		List<long[]> runs = new ArrayList<>(starts.length);
+		for (int i = 0; i < starts.length; ++i) {
+			runs.add(new long[] { traceSize - (starts[i] + (long) lengths[i] * counts[i]), lengths[i], counts[i] });
+		}
+		return new RepetitionRuns(runs);
+	}
+
+	/*
+	 * Maps the runs of the lower levels to the expanded trace of the given level
+	 * and adds the level's own repetitions. The markers [key, length, count] of a level
+	 * denote that the elements [key, key + length) of the expanded trace of the next
+	 * lower level are repeated count times.
+	 */
+	private static List<long[]> addLevel(RepetitionMarkerWrapper wrapper, List<long[]> lowerRuns) {
+		int size = wrapper.getRepetitionMarkers().size();
+		long[] keys = new long[size];
+		long[] lengths = new long[size];
+		// number of elements that are added by all previous repetitions
+		long[] addedBefore = new long[size + 1];
+		List<long[]> runs = new ArrayList<>(size + lowerRuns.size());
+		int i = 0;
+		Iterator<Entry<Integer, int[]>> iterator = wrapper.getRepetitionMarkers().entrySetIterator(true);
+		while (iterator.hasNext()) {
+			Entry<Integer, int[]> entry = iterator.next();
+			// [length, repetitionCount]
+			keys[i] = entry.getKey();
+			lengths[i] = entry.getValue()[0];
+			addedBefore[i + 1] = addedBefore[i] + lengths[i] * (entry.getValue()[1] - 1);
+			runs.add(new long[] { keys[i] + addedBefore[i], lengths[i], entry.getValue()[1] });
+			++i;
+		}
+
+		for (long[] run : lowerRuns) {
+			long start = run[0];
+			long end = start + run[1] * run[2];
+			int index = getLastIndexAtOrBefore(keys, start);
+			if (index >= 0 && start < keys[index] + lengths[index]) {
+				// inside of the repeated sequence; map to the first iteration
+				if (end <= keys[index] + lengths[index]) {
+					runs.add(new long[] { start + addedBefore[index], run[1], run[2] });
+				}
+			} else if (index + 1 >= size || end <= keys[index + 1]) {
+				// between repetitions
+				runs.add(new long[] { start + addedBefore[index + 1], run[1], run[2] });
+			}
+		}
+		return runs;
+	}
+
+	// index of the last key that is less than or equal to the given position; -1 if none
+	private static int getLastIndexAtOrBefore(long[] keys, long position) {
+		int low = 0;
+		int high = keys.length - 1;
+		int result = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid] <= position) {
+				result = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return result;
+	}
+
+	int size() {
+		return starts.length;
+	}
+
+	long getStart(int index) {
+		return starts[index];
+	}
+
+	int getLength(int index) {
+		return lengths[index];
+	}
+
+	int getCount(int index) {
+		return counts[index];
+	}
+
+	/**
+	 * @param position
+	 * a position in the full trace
+	 * @return
+	 * the index of the first run that starts at or after the given position
+	 */
+	int getFirstIndexAtOrAfter(long position) {
+		int low = 0;
+		int high = starts.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] < position) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+}
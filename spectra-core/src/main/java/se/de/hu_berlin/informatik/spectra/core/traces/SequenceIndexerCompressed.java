@@ -2,6 +2,7 @@ package se.de.hu_berlin.informatik.spectra.core.traces;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.PrimitiveIterator;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
@@ -31,7 +32,18 @@ public interface SequenceIndexerCompressed {
 	 * an iterator over all sub traces in the 
 	 * specified sequence of sub trace IDs
 	 */
-	Iterator<Integer> getFullSequenceIterator(int subTraceSequenceIndex);
+	PrimitiveIterator.OfInt getFullSequenceIntIterator(int subTraceSequenceIndex);
+	
+	/**
+	 * Boxing variant of {@link #getFullSequenceIntIterator(int)}.
+	 * @param subTraceSequenceIndex
+	 * an index of a sequence of sub trace IDs
+	 * @return
+	 * an iterator over the same elements
+	 */
+	default Iterator<Integer> getFullSequenceIterator(int subTraceSequenceIndex) {
+		return getFullSequenceIntIterator(subTraceSequenceIndex);
+	}
 	
 	/**
 	 * Iterates over the sequence of sub trace IDs 
@@ -44,7 +56,18 @@ public interface SequenceIndexerCompressed {
 	 * an iterator over all sub traces in the 
 	 * specified sequence of sub trace IDs
 	 */
-	Iterator<Integer> getFullSequenceReverseIterator(int subTraceSequenceIndex);
+	PrimitiveIterator.OfInt getFullSequenceReverseIntIterator(int subTraceSequenceIndex);
+	
+	/**
+	 * Boxing variant of {@link #getFullSequenceReverseIntIterator(int)}.
+	 * @param subTraceSequenceIndex
+	 * an index of a sequence of sub trace IDs
+	 * @return
+	 * an iterator over the same elements
+	 */
+	default Iterator<Integer> getFullSequenceReverseIterator(int subTraceSequenceIndex) {
+		return getFullSequenceReverseIntIterator(subTraceSequenceIndex);
+	}
 
 	/**
 	 * Iterates over the sub trace with the given index.
@@ -75,7 +98,18 @@ public interface SequenceIndexerCompressed {
 	 * @return
 	 * an iterator over the specified sequence of sub trace IDs
 	 */
-	Iterator<Integer> getSubTraceIDSequenceIterator(int subTraceSequenceIndex);
+	PrimitiveIterator.OfInt getSubTraceIDSequenceIntIterator(int subTraceSequenceIndex);
+	
+	/**
+	 * Boxing variant of {@link #getSubTraceIDSequenceIntIterator(int)}.
+	 * @param subTraceSequenceIndex
+	 * an index of a sequence of sub trace IDs
+	 * @return
+	 * an iterator over the same elements
+	 */
+	default Iterator<Integer> getSubTraceIDSequenceIterator(int subTraceSequenceIndex) {
+		return getSubTraceIDSequenceIntIterator(subTraceSequenceIndex);
+	}
 	
 	/**
 	 * Iterates over the sequence of sub trace IDs 
@@ -86,6 +120,17 @@ public interface SequenceIndexerCompressed {
 	 * @return
 	 * an iterator over the specified sequence of sub trace IDs
 	 */
-	Iterator<Integer> getSubTraceIDSequenceReverseIterator(int subTraceSequenceIndex);
+	PrimitiveIterator.OfInt getSubTraceIDSequenceReverseIntIterator(int subTraceSequenceIndex);
+	
+	/**
+	 * Boxing variant of {@link #getSubTraceIDSequenceReverseIntIterator(int)}.
+	 * @param subTraceSequenceIndex
+	 * an index of a sequence of sub trace IDs
+	 * @return
+	 * an iterator over the same elements
+	 */
+	default Iterator<Integer> getSubTraceIDSequenceReverseIterator(int subTraceSequenceIndex) {
+		return getSubTraceIDSequenceReverseIntIterator(subTraceSequenceIndex);
+	}
 	
 }
@@ -44,14 +44,9 @@ public class SimpleIntIndexer implements SequenceIndexer {
 
 	private void storeSubTraceIdSequences(IntArraySequenceIndexer intArraySequenceIndexer) {
 		this.subTraceIdSequences = new int[intArraySequenceIndexer.getSequences().length][];
-		for (int i = 0; i < intArraySequenceIndexer.getSequences().length; i++) {
-			Iterator<Integer> sequenceIterator = intArraySequenceIndexer.getSequenceIterator(i);
-			int length = intArraySequenceIndexer.getSequenceLength(i);
-			
-			subTraceIdSequences[i] = new int[length];
-			for (int j = 0; j < length; ++j) {
-				subTraceIdSequences[i][j] = sequenceIterator.next();
-			}
+		IntSequenceView view = new IntSequenceView();
+		for (int i = 0; i < subTraceIdSequences.length; i++) {
+			subTraceIdSequences[i] = intArraySequenceIndexer.getSequenceView(i, view).toArray();
 		}
 	}
 
@@ -1,19 +1,20 @@
 package se.de.hu_berlin.informatik.spectra.core.traces;
 
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PrimitiveIterator;
 
 import se.de.hu_berlin.informatik.spectra.core.INode;
 import se.de.hu_berlin.informatik.spectra.core.ISpectra;
 import se.de.hu_berlin.informatik.spectra.core.Node.NodeType;
 import se.de.hu_berlin.informatik.spectra.core.SourceCodeBlock;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ClassData;
-import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ProjectData;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.CoberturaStatementEncoding;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceReverseIterator;
@@ -27,6 +28,9 @@ public class SimpleIntIndexerCompressed implements SequenceIndexerCompressed {
 	// mapping: sub trace ID -> sequence of spectra node IDs
 	private EfficientCompressedIntegerTrace[] nodeIdSequences;
 	
+	// mapping: spectra node ID -> IDs of sub traces that contain the node; built on first removal
+	private NodeSubTraceIndex nodeSubTraceIndex;
+	
 	
 	public SimpleIntIndexerCompressed(int[][] subTraceIdSequences, EfficientCompressedIntegerTrace[] nodeIdSequences) {
 		this.subTraceIdSequences = subTraceIdSequences;
@@ -46,14 +50,9 @@ public class SimpleIntIndexerCompressed implements SequenceIndexerCompressed {
 
 	private void storeSubTraceIdSequences(IntArraySequenceIndexer intArraySequenceIndexer) {
 		this.subTraceIdSequences = new int[intArraySequenceIndexer.getSequences().length][];
-		for (int i = 0; i < intArraySequenceIndexer.getSequences().length; i++) {
-			Iterator<Integer> sequenceIterator = intArraySequenceIndexer.getSequenceIterator(i);
-			int length = intArraySequenceIndexer.getSequenceLength(i);
-			
-			subTraceIdSequences[i] = new int[length];
-			for (int j = 0; j < length; ++j) {
-				subTraceIdSequences[i][j] = sequenceIterator.next();
-			}
+		IntSequenceView view = new IntSequenceView();
+		for (int i = 0; i < subTraceIdSequences.length; i++) {
+			subTraceIdSequences[i] = intArraySequenceIndexer.getSequenceView(i, view).toArray();
 		}
 	}
 
@@ -73,7 +72,7 @@ public class SimpleIntIndexerCompressed implements SequenceIndexerCompressed {
 			
 			EfficientCompressedIntegerTrace traceOfNodeIDs = new EfficientCompressedIntegerTrace(
 					compressedTrace.getOutputDir(), "idx_" + compressedTrace.getFilePrefix(), 
-					compressedTrace.getNodeSize(), ExecutionTraceCollector.MAP_CHUNK_SIZE, true, false, true);
+					compressedTrace.getNodeSize(), TraceMemoryBudget.MAP_CHUNK_SIZE, true, false, true);
 			
 			while (sequenceIterator.hasNext()) {
 				int encodedStatement = sequenceIterator.next();
@@ -307,11 +306,11 @@ public class SimpleIntIndexerCompressed implements SequenceIndexerCompressed {
 	
 
 	@Override
-	public Iterator<Integer> getFullSequenceIterator(final int subTraceSequenceIndex) {
+	public PrimitiveIterator.OfInt getFullSequenceIntIterator(final int subTraceSequenceIndex) {
 		// will iterate over (potentially) multiple sub traces, indexed
 		// by the sequence of sub trace ids in the specified sequence;
 		// will return spectra node ids
-		return new Iterator<Integer>() {
+		return new PrimitiveIterator.OfInt() {
 			private int outerPos = 0;
 			TraceIterator subTraceIterator;
 
@@ -333,18 +332,18 @@ public class SimpleIntIndexerCompressed implements SequenceIndexerCompressed {
 				return false;
 			}
 
-			public Integer next() {
+			public int nextInt() {
 				return subTraceIterator.next();
 			}
 		};
 	}
 	
 	@Override
-	public Iterator<Integer> getFullSequenceReverseIterator(final int subTraceSequenceIndex) {
+	public PrimitiveIterator.OfInt getFullSequenceReverseIntIterator(final int subTraceSequenceIndex) {
 		// will iterate over (potentially) multiple sub traces, indexed
 		// by the sequence of sub trace ids in the specified sequence;
 		// will return spectra node ids
-		return new Iterator<Integer>() {
+		return new PrimitiveIterator.OfInt() {
 			private int outerPos = subTraceIdSequences[subTraceSequenceIndex].length - 1;
 			TraceReverseIterator subTraceIterator;
 
@@ -366,7 +365,7 @@ public class SimpleIntIndexerCompressed implements SequenceIndexerCompressed {
 				return false;
 			}
 
-			public Integer next() {
+			public int nextInt() {
 				return subTraceIterator.next();
 			}
 		};
@@ -385,32 +384,32 @@ public class SimpleIntIndexerCompressed implements SequenceIndexerCompressed {
 	}
 	
 	@Override
-	public Iterator<Integer> getSubTraceIDSequenceIterator(final int subTraceSequenceIndex) {
+	public PrimitiveIterator.OfInt getSubTraceIDSequenceIntIterator(final int subTraceSequenceIndex) {
 		// will iterate over the subtrace id sequence with the specified index
-		return new Iterator<Integer>() {
+		return new PrimitiveIterator.OfInt() {
             private int pos = 0;
 
             public boolean hasNext() {
                return pos < subTraceIdSequences[subTraceSequenceIndex].length;
             }
 
-            public Integer next() {
+            public int nextInt() {
                return subTraceIdSequences[subTraceSequenceIndex][pos++];
             }
         };
 	}
 	
 	@Override
-	public Iterator<Integer> getSubTraceIDSequenceReverseIterator(final int subTraceSequenceIndex) {
+	public PrimitiveIterator.OfInt getSubTraceIDSequenceReverseIntIterator(final int subTraceSequenceIndex) {
 		// will iterate over the subtrace id sequence with the specified index
-		return new Iterator<Integer>() {
+		return new PrimitiveIterator.OfInt() {
             private int pos = subTraceIdSequences[subTraceSequenceIndex].length - 1;
 
             public boolean hasNext() {
                return pos >= 0;
             }
 
-            public Integer next() {
+            public int nextInt() {
                return subTraceIdSequences[subTraceSequenceIndex][pos--];
             }
         };
@@ -418,68 +417,70 @@ public class SimpleIntIndexerCompressed implements SequenceIndexerCompressed {
 
 	@Override
 	public void removeFromSequences(int nodeId) {
-		// iterate over all sub traces
-		// TODO: sub trace with id 0 is the empty sub trace. Should not exist, regularly
-		for (int i = 1; i < nodeIdSequences.length; i++) {
-			EfficientCompressedIntegerTrace sequence = nodeIdSequences[i];
-			ReplaceableCloneableIterator iterator = sequence.baseIterator();
-			boolean found = false;
-			while (iterator.hasNext()) {
-				if (iterator.next() == nodeId) {
-					// sequence contains the node at least once
-                    found = true;
-                    break;
-				}
-			}
-			if (found) {
-				// sequence contains the node, so generate a new sequence and replace the old
-				TraceIterator fullIterator = sequence.iterator();
-				BufferedIntArrayQueue compressedTrace = sequence.getCompressedTrace();
-				EfficientCompressedIntegerTrace newSequence = new EfficientCompressedIntegerTrace(
-						compressedTrace.getOutputDir(), "_" + compressedTrace.getFilePrefix(), 
-						compressedTrace.getNodeSize(), compressedTrace.getNodeSize(), true, false, true);
-				while (fullIterator.hasNext()) {
-					int next = fullIterator.next();
-					if (next != nodeId) {
-						newSequence.add(next);
-					}
-				}
-				nodeIdSequences[i] = newSequence;
-			}
+		BitSet nodeIds = new BitSet();
+		if (nodeId >= 0) {
+			nodeIds.set(nodeId);
 		}
+		removeFromSequences(nodeIds);
 	}
 
 	@Override
 	public void removeFromSequences(Collection<Integer> nodeIndicesToRemove) {
-		// iterate over all sub traces
-		// TODO: sub trace with id 0 is the empty sub trace. Should not exist, regularly
-		for (int i = 1; i < nodeIdSequences.length; i++) {
-			EfficientCompressedIntegerTrace sequence = nodeIdSequences[i];
-			ReplaceableCloneableIterator iterator = sequence.baseIterator();
-			boolean found = false;
-			while (iterator.hasNext()) {
-				if (nodeIndicesToRemove.contains(iterator.next())) {
-					// sequence contains at least one of the nodes
-					found = true;
-					break;
-				}
-			}
-			if (found) {
-				// sequence contains the node, so generate a new sequence and replace the old
-				TraceIterator fullIterator = sequence.iterator();
-				BufferedIntArrayQueue compressedTrace = sequence.getCompressedTrace();
-				EfficientCompressedIntegerTrace newSequence = new EfficientCompressedIntegerTrace(
-						compressedTrace.getOutputDir(), "_" + compressedTrace.getFilePrefix(), 
-						compressedTrace.getNodeSize(), compressedTrace.getNodeSize(), true, false, true);
-				while (fullIterator.hasNext()) {
-					int next = fullIterator.next();
-					if (!nodeIndicesToRemove.contains(next)) {
-						newSequence.add(next);
-					}
+		removeFromSequences(NodeSubTraceIndex.toBitSet(nodeIndicesToRemove));
+	}
+
+	private synchronized void removeFromSequences(final BitSet nodeIdsToRemove) {
+		if (nodeIdsToRemove.isEmpty()) {
+			return;
+		}
+		if (nodeSubTraceIndex == null) {
+			// the base sequences contain all distinct elements of the (uncompressed) sub traces
+			nodeSubTraceIndex = NodeSubTraceIndex.build(nodeIdSequences.length, 
+					i -> asIntIterator(nodeIdSequences[i]));
+		}
+		// only the sub traces that contain any of the nodes have to be replaced
+		nodeSubTraceIndex.getAffectedSubTraces(nodeIdsToRemove).stream().parallel().forEach(i -> {
+			nodeIdSequences[i] = removeFromSequence(nodeIdSequences[i], nodeIdsToRemove);
+		});
+		nodeSubTraceIndex.markRemoved(nodeIdsToRemove);
+	}
+
+	private static EfficientCompressedIntegerTrace removeFromSequence(
+			EfficientCompressedIntegerTrace sequence, BitSet nodeIdsToRemove) {
+		// generate a new sequence without the given nodes
+		TraceIterator fullIterator = sequence.iterator();
+		BufferedIntArrayQueue compressedTrace = sequence.getCompressedTrace();
+		EfficientCompressedIntegerTrace newSequence = new EfficientCompressedIntegerTrace(
+				compressedTrace.getOutputDir(), "_" + compressedTrace.getFilePrefix(), 
+				compressedTrace.getNodeSize(), compressedTrace.getNodeSize(), true, false, true);
+		int[] batch = new int[compressedTrace.getNodeSize()];
+		int count;
+		while ((count = fullIterator.nextBatch(batch)) > 0) {
+			int kept = 0;
+			for (int i = 0; i < count; ++i) {
+				if (batch[i] < 0 || !nodeIdsToRemove.get(batch[i])) {
+					batch[kept++] = batch[i];
 				}
-				nodeIdSequences[i] = newSequence;
 			}
+			newSequence.addAll(batch, 0, kept);
 		}
+		return newSequence;
+	}
+
+	private static PrimitiveIterator.OfInt asIntIterator(EfficientCompressedIntegerTrace sequence) {
+		final ReplaceableCloneableIterator iterator = sequence == null ? null : 
+			(sequence.getGrammar() == null ? sequence.baseIterator() : sequence.iterator());
+		return new PrimitiveIterator.OfInt() {
+			@Override
+			public boolean hasNext() {
+				return iterator != null && iterator.hasNext();
+			}
+
+			@Override
+			public int nextInt() {
+				return iterator.next();
+			}
+		};
 	}
 
 //	@Override
@@ -0,0 +1,369 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.UUID;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.LongIntHashMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
+
+/**
+ * Dictionary that assigns the same ID to sub traces with equal contents (hash consing).
+ * Sub traces are looked up by a 64 bit hash of their contents, and every hash hit is
+ * verified by comparing the stored contents, so colliding sub traces get different IDs.
+ *
+ * <p> IDs start with 1, since ID 0 represents the empty sub trace. The contents of all
+ * sub traces are stored consecutively in a buffered queue that spills full nodes to disk,
+ * so the dictionary does not need to hold all sub traces in memory. Compressed sub traces
+ * are hashed, compared and stored in batches, so they are never expanded as a whole.
+ */
+public class SubTraceDictionary {
+
+	public static final int NO_ID = 0;
+
+	private static final int BATCH_SIZE = 4096;
+
+	// hash -> first ID with that hash
+	private final LongIntHashMap hashToId = new LongIntHashMap(NO_ID);
+	// ID -> next ID with the same hash, or NO_ID
+	private int[] nextWithSameHash = new int[16];
+	// sub trace with ID i is stored in contents[offsets[i] .. offsets[i+1]]
+	private long[] offsets = new long[17];
+	private final BufferedIntArrayQueue contents;
+	// reused to read stored sub traces
+	private BufferedIntArrayQueue.MyBufferedIterator contentsIterator;
+	// reused to stream compressed sub traces
+	private final int[] batch = new int[BATCH_SIZE];
+	private int size = 0;
+	private int collisionCount = 0;
+
+	/**
+	 * Creates an empty dictionary.
+	 * @param tempDir
+	 * the directory to spill the contents of the sub traces to
+	 */
+	public SubTraceDictionary(File tempDir) {
+		this.contents = new BufferedIntArrayQueue(tempDir, 
+				"subTraces-" + UUID.randomUUID().toString(), TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE, true);
+	}
+
+	/**
+	 * Returns the ID of the given sub trace, if it was added before; otherwise,
+	 * the sub trace is added with the next free ID.
+	 * @param elements
+	 * array that contains the sub trace
+	 * @param off
+	 * the start of the sub trace in the array
+	 * @param len
+	 * the length of the sub trace
+	 * @return
+	 * the ID of the sub trace; {@link #NO_ID} for an empty sub trace
+	 */
+	public synchronized int getOrCreateId(int[] elements, int off, int len) {
+		if (len == 0) {
+			return NO_ID;
+		}
+		long hash = hash(elements, off, len);
+		int firstId = hashToId.get(hash);
+		int id = find(firstId, elements, off, len);
+		if (id != NO_ID) {
+			return id;
+		}
+		id = add(elements, off, len);
+		link(hash, firstId, id);
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the given sub trace, if a sub trace with equal contents was added
+	 * before; otherwise, the sub trace is added with the next free ID.
+	 * @param subTrace
+	 * a compressed sub trace
+	 * @return
+	 * the ID of the sub trace; {@link #NO_ID} for an empty sub trace
+	 */
+	public synchronized int getOrCreateId(EfficientCompressedIntegerTrace subTrace) {
+		long len = subTrace.size();
+		if (len == 0) {
+			return NO_ID;
+		}
+		long hash = hash(subTrace);
+		int firstId = hashToId.get(hash);
+		for (int id = firstId; id != NO_ID; id = nextWithSameHash[id]) {
+			if (hasContents(id, subTrace)) {
+				return id;
+			}
+		}
+		int id = nextId();
+		TraceIterator iterator = subTrace.iterator();
+		int count;
+		while ((count = iterator.nextBatch(batch, 0, BATCH_SIZE)) > 0) {
+			contents.addAll(batch, 0, count);
+		}
+		offsets[id + 1] = offsets[id] + len;
+		link(hash, firstId, id);
+		return id;
+	}
+
+	private void link(long hash, int firstId, int id) {
+		if (firstId == NO_ID) {
+			hashToId.put(hash, id);
+		} else {
+			// different contents with the same hash; chain the new sub trace after the first one
+			++collisionCount;
+			nextWithSameHash[id] = nextWithSameHash[firstId];
+			nextWithSameHash[firstId] = id;
+		}
+	}
+
+	/**
+	 * @param elements
+	 * array that contains the sub trace
+	 * @param off
+	 * the start of the sub trace in the array
+	 * @param len
+	 * the length of the sub trace
+	 * @return
+	 * the ID of the sub trace, or {@link #NO_ID} if it was not added, yet
+	 */
+	public synchronized int getId(int[] elements, int off, int len) {
+		if (len == 0) {
+			return NO_ID;
+		}
+		return find(hashToId.get(hash(elements, off, len)), elements, off, len);
+	}
+
+	private int find(int id, int[] elements, int off, int len) {
+		while (id != NO_ID) {
+			if (hasContents(id, elements, off, len)) {
+				return id;
+			}
+			id = nextWithSameHash[id];
+		}
+		return NO_ID;
+	}
+
+	private boolean hasContents(int id, int[] elements, int off, int len) {
+		long start = offsets[id];
+		if (offsets[id + 1] - start != len) {
+			return false;
+		}
+		BufferedIntArrayQueue.MyBufferedIterator iterator = getContentsIterator(start);
+		for (int i = 0; i < len; ++i) {
+			if (iterator.next() != elements[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean hasContents(int id, EfficientCompressedIntegerTrace subTrace) {
+		long start = offsets[id];
+		if (offsets[id + 1] - start != subTrace.size()) {
+			return false;
+		}
+		BufferedIntArrayQueue.MyBufferedIterator storedIterator = getContentsIterator(start);
+		TraceIterator iterator = subTrace.iterator();
+		int count;
+		while ((count = iterator.nextBatch(batch, 0, BATCH_SIZE)) > 0) {
+			for (int i = 0; i < count; ++i) {
+				if (storedIterator.next() != batch[i]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private BufferedIntArrayQueue.MyBufferedIterator getContentsIterator(long position) {
+		if (contentsIterator == null) {
+			contentsIterator = contents.iterator(position);
+		} else {
+			contentsIterator.setToPosition(position);
+		}
+		return contentsIterator;
+	}
+
+	private int add(int[] elements, int off, int len) {
+		int id = nextId();
+		contents.addAll(elements, off, len);
+		offsets[id + 1] = offsets[id] + len;
+		return id;
+	}
+
+	private int nextId() {
+		int id = ++size;
+		if (id + 1 >= offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			nextWithSameHash = Arrays.copyOf(nextWithSameHash, offsets.length);
+		}
+		return id;
+	}
+
+	/**
+	 * @return
+	 * the number of stored sub traces; equal to the highest ID
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return
+	 * the number of stored sub traces that have the same hash as another stored sub trace
+	 */
+	public synchronized int getCollisionCount() {
+		return collisionCount;
+	}
+
+	/**
+	 * @param id
+	 * the ID of a sub trace
+	 * @return
+	 * a copy of the sub trace with the given ID
+	 */
+	public synchronized int[] getSubTrace(int id) {
+		if (id == NO_ID) {
+			return new int[0];
+		}
+		if (id < 0 || id > size) {
+			throw new IllegalStateException("No sub trace with ID " + id);
+		}
+		int[] result = new int[(int) (offsets[id + 1] - offsets[id])];
+		int length = 0;
+		BufferedIntArrayQueue.MyBufferedIterator iterator = getContentsIterator(offsets[id]);
+		while (length < result.length) {
+			length += iterator.nextBatch(result, length, result.length - length);
+		}
+		return result;
+	}
+
+	/**
+	 * Removes all sub traces and deletes the spilled contents.
+	 */
+	public synchronized void clear() {
+		hashToId.clear();
+		offsets = new long[17];
+		nextWithSameHash = new int[16];
+		contents.clear();
+		contentsIterator = null;
+		size = 0;
+		collisionCount = 0;
+	}
+
+	/**
+	 * Computes a 64 bit hash of the given sequence of elements.
+	 * @param elements
+	 * array that contains the sequence
+	 * @param off
+	 * the start of the sequence in the array
+	 * @param len
+	 * the length of the sequence
+	 * @return
+	 * the hash
+	 */
+	public static long hash(int[] elements, int off, int len) {
+		return finishHash(updateHash(startHash(len), elements, off, len));
+	}
+
+	// equal to hash(int[], int, int) of the expanded sub trace
+	private long hash(EfficientCompressedIntegerTrace subTrace) {
+		long hash = startHash(subTrace.size());
+		TraceIterator iterator = subTrace.iterator();
+		int count;
+		while ((count = iterator.nextBatch(batch, 0, BATCH_SIZE)) > 0) {
+			hash = updateHash(hash, batch, 0, count);
+		}
+		return finishHash(hash);
+	}
+
+	private static long startHash(long len) {
+		return 0xCBF29CE484222325L ^ len;
+	}
+
+	private static long updateHash(long hash, int[] elements, int off, int len) {
+		for (int i = off, end = off + len; i < end; ++i) {
+			hash = (hash ^ elements[i]) * 0x9E3779B97F4A7C15L;
+			hash ^= hash >>> 29;
+		}
+		return hash;
+	}
+
+	private static long finishHash(long hash) {
+		// final avalanche (MurmurHash3)
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Stores every distinct node ID sequence of the given indexer only once and maps the
+	 * sub trace IDs in the sub trace ID sequences to the remaining sequences. Sub traces
+	 * with different statements may map to equal sequences of spectra nodes, and equal
+	 * sub traces may have been recorded with different IDs (e.g., in different runs).
+	 * All empty sequences are mapped to a single sub trace ID.
+	 * @param indexer
+	 * an indexer
+	 * @param tempDir
+	 * the directory to spill the contents of the sequences to while deduplicating
+	 * @return
+	 * an equivalent indexer without duplicate node ID sequences, or the given
+	 * indexer if it does not contain any duplicates
+	 */
+	public static SequenceIndexerCompressed deduplicate(SequenceIndexerCompressed indexer, File tempDir) {
+		EfficientCompressedIntegerTrace[] nodeIdSequences = indexer.getNodeIdSequences();
+		SubTraceDictionary dictionary = new SubTraceDictionary(tempDir);
+		try {
+			return deduplicate(indexer, nodeIdSequences, dictionary);
+		} finally {
+			dictionary.clear();
+		}
+	}
+
+	private static SequenceIndexerCompressed deduplicate(SequenceIndexerCompressed indexer,
+			EfficientCompressedIntegerTrace[] nodeIdSequences, SubTraceDictionary dictionary) {
+		// old sub trace ID -> new sub trace ID
+		int[] idMap = new int[nodeIdSequences.length];
+		EfficientCompressedIntegerTrace[] uniqueSequences = new EfficientCompressedIntegerTrace[nodeIdSequences.length];
+		// the dictionary does not store empty sub traces; all of them share the first ID they get
+		int emptyId = NO_ID;
+		for (int i = 1; i < nodeIdSequences.length; ++i) {
+			EfficientCompressedIntegerTrace sequence = nodeIdSequences[i];
+			if (sequence == null || sequence.isEmpty()) {
+				if (emptyId == NO_ID) {
+					emptyId = dictionary.add(new int[0], 0, 0);
+					uniqueSequences[emptyId] = sequence;
+				}
+				idMap[i] = emptyId;
+				continue;
+			}
+			int previousSize = dictionary.size();
+			idMap[i] = dictionary.getOrCreateId(sequence);
+			if (dictionary.size() > previousSize) {
+				uniqueSequences[idMap[i]] = sequence;
+			}
+		}
+		if (dictionary.size() == nodeIdSequences.length - 1) {
+			return indexer;
+		}
+
+		int[][] subTraceIdSequences = indexer.getSubTraceIdSequences();
+		int[][] mappedSubTraceIdSequences = new int[subTraceIdSequences.length][];
+		for (int i = 0; i < subTraceIdSequences.length; ++i) {
+			int[] sequence = subTraceIdSequences[i];
+			mappedSubTraceIdSequences[i] = new int[sequence.length];
+			for (int j = 0; j < sequence.length; ++j) {
+				mappedSubTraceIdSequences[i][j] = idMap[sequence[j]];
+			}
+		}
+		return new SimpleIntIndexerCompressed(mappedSubTraceIdSequences,
+				Arrays.copyOf(uniqueSequences, dictionary.size() + 1));
+	}
+
+}
@@ -0,0 +1,558 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.UUID;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntIntHashMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
+
+/**
+ * Compares the node ID sequences of execution traces, e.g., of a failing and a passing test.
+ *
+ * <p> The common prefix and suffix of two traces are found by streaming over both traces.
+ * Equal sequence indices in the execution traces are skipped without expanding their node IDs.
+ * If both traces are at the start of a repetition (like a loop) with an equal repeated sequence,
+ * all common iterations are skipped at once, using the cached sequence lengths of a single
+ * iteration multiplied by the number of iterations. Only the remaining middle parts are stored in buffered
+ * queues (that may be stored on disk) and compared with a linear space variant of Myers'
+ * difference algorithm, so traces may be larger than the available heap.
+ *
+ * <p> Instances cache the lengths of the indexed sequences and are not thread-safe.
+ */
+public class TraceDiff {
+
+	public static final int DEFAULT_MAX_EDITS = 10000;
+
+	private static final int NO_LENGTH = -1;
+
+	private final SequenceIndexerCompressed indexer;
+	private final File tempDir;
+	private final int maxEdits;
+
+	// sequence index -> number of node IDs in the sequence
+	private final IntIntHashMap sequenceLengths = new IntIntHashMap(NO_LENGTH);
+
+	public TraceDiff(SequenceIndexerCompressed indexer, File tempDir) {
+		this(indexer, tempDir, DEFAULT_MAX_EDITS);
+	}
+
+	/**
+	 * @param indexer
+	 * indexer that connects the elements of the execution traces to node ID sequences
+	 * @param tempDir
+	 * directory to store the compared parts of the traces in, if they do not fit into memory
+	 * @param maxEdits
+	 * the maximum number of insertions and deletions to search for in a compared part;
+	 * parts with more edits are reported as a single differing segment
+	 */
+	public TraceDiff(SequenceIndexerCompressed indexer, File tempDir, int maxEdits) {
+		this.indexer = indexer;
+		this.tempDir = tempDir;
+		this.maxEdits = maxEdits;
+	}
+
+	/**
+	 * @param trace
+	 * an execution trace
+	 * @return
+	 * the number of node IDs in the trace
+	 */
+	public long getLength(ExecutionTrace trace) {
+		long length = 0;
+		ReplaceableCloneableIterator iterator = trace.iterator();
+		while (iterator.hasNext()) {
+			length += getSequenceLength(iterator.next());
+		}
+		return length;
+	}
+
+	/**
+	 * @param failingTrace
+	 * an execution trace
+	 * @param passingTrace
+	 * another execution trace
+	 * @return
+	 * the position of the first node ID that differs in the traces (or that only exists
+	 * in the longer trace), or -1 if both traces contain the same node IDs
+	 */
+	public long findFirstDivergence(ExecutionTrace failingTrace, ExecutionTrace passingTrace) {
+		NodeCursor failing = new NodeCursor(failingTrace, false);
+		NodeCursor passing = new NodeCursor(passingTrace, false);
+		long prefixLength = getCommonPrefixLength(failing, passing, Long.MAX_VALUE);
+		if (!failing.hasNext() && !passing.hasNext()) {
+			return -1;
+		}
+		return prefixLength;
+	}
+
+	/**
+	 * Computes the differing segments of the given traces.
+	 * @param failingTrace
+	 * an execution trace
+	 * @param passingTrace
+	 * another execution trace
+	 * @return
+	 * the result
+	 */
+	public Result diff(ExecutionTrace failingTrace, ExecutionTrace passingTrace) {
+		long failingLength = getLength(failingTrace);
+		long passingLength = getLength(passingTrace);
+
+		long prefixLength = getCommonPrefixLength(new NodeCursor(failingTrace, false),
+				new NodeCursor(passingTrace, false), Long.MAX_VALUE);
+		if (prefixLength == failingLength && prefixLength == passingLength) {
+			return new Result(passingTrace, -1, Collections.<Segment>emptyList(), null, null, 0);
+		}
+		// the suffix must not overlap with the prefix
+		long suffixLength = getCommonPrefixLength(new NodeCursor(failingTrace, true),
+				new NodeCursor(passingTrace, true),
+				Math.min(failingLength, passingLength) - prefixLength);
+
+		BufferedIntArrayQueue failingPart = copyNodeIds(failingTrace, prefixLength, failingLength - suffixLength);
+		BufferedIntArrayQueue passingPart = copyNodeIds(passingTrace, prefixLength, passingLength - suffixLength);
+		List<Segment> segments = new MyersDiff(failingPart, passingPart, maxEdits).diff();
+		for (int i = 0; i < segments.size(); ++i) {
+			Segment segment = segments.get(i);
+			segments.set(i, new Segment(
+					segment.failingStart + prefixLength, segment.failingEnd + prefixLength,
+					segment.passingStart + prefixLength, segment.passingEnd + prefixLength));
+		}
+		return new Result(passingTrace, prefixLength, segments, failingPart, passingPart, prefixLength);
+	}
+
+	/**
+	 * Compares the given failing trace with the most similar passing trace, i.e., the passing
+	 * trace with the longest common prefix and suffix (and the most similar length, if equal).
+	 * @param failingTrace
+	 * an execution trace
+	 * @param passingTraces
+	 * candidate execution traces
+	 * @return
+	 * the result, or null if there are no passing traces
+	 */
+	public Result diffWithNearestPassingTrace(ExecutionTrace failingTrace, Iterable<? extends ExecutionTrace> passingTraces) {
+		long failingLength = getLength(failingTrace);
+		ExecutionTrace nearestTrace = null;
+		long bestCommonLength = -1;
+		long bestLengthDifference = Long.MAX_VALUE;
+		for (ExecutionTrace passingTrace : passingTraces) {
+			long passingLength = getLength(passingTrace);
+			long prefixLength = getCommonPrefixLength(new NodeCursor(failingTrace, false),
+					new NodeCursor(passingTrace, false), Long.MAX_VALUE);
+			long suffixLength = getCommonPrefixLength(new NodeCursor(failingTrace, true),
+					new NodeCursor(passingTrace, true),
+					Math.min(failingLength, passingLength) - prefixLength);
+			long commonLength = prefixLength + suffixLength;
+			long lengthDifference = Math.abs(failingLength - passingLength);
+			if (commonLength > bestCommonLength
+					|| (commonLength == bestCommonLength && lengthDifference < bestLengthDifference)) {
+				nearestTrace = passingTrace;
+				bestCommonLength = commonLength;
+				bestLengthDifference = lengthDifference;
+			}
+		}
+		return nearestTrace == null ? null : diff(failingTrace, nearestTrace);
+	}
+
+	/*
+	 * Advances both cursors while the node IDs are equal, up to the given number of node IDs.
+	 * Both cursors are always at the same position.
+	 */
+	private long getCommonPrefixLength(NodeCursor first, NodeCursor second, long limit) {
+		while (first.position < limit) {
+			if (first.isAtSequenceBoundary() && second.isAtSequenceBoundary()
+					&& skipEqualRepetitions(first, second, limit)) {
+				continue;
+			}
+			if (first.isAtSequenceBoundary() && second.isAtSequenceBoundary()
+					&& first.hasNextSequence() && second.hasNextSequence()
+					&& first.peekSequenceIndex() == second.peekSequenceIndex()
+					&& first.position + getSequenceLength(first.peekSequenceIndex()) <= limit) {
+				// equal sequences are skipped without expanding the node IDs
+				first.skipSequence();
+				second.skipSequence();
+				continue;
+			}
+			if (!first.hasNext() || !second.hasNext()) {
+				break;
+			}
+			long position = first.position;
+			if (first.next() != second.next()) {
+				return position;
+			}
+		}
+		return first.position;
+	}
+
+	/*
+	 * Skips the common iterations of equal repetitions that start at the current positions
+	 * of both cursors, if the repeated sequences are equal. The cursors have to be at
+	 * sequence boundaries. Returns whether any iterations were skipped.
+	 */
+	private boolean skipEqualRepetitions(NodeCursor first, NodeCursor second, long limit) {
+		for (int i = first.getFirstRunAtPosition(); i >= 0 && i < first.runs.size()
+				&& first.runs.getStart(i) == first.indexPosition; ++i) {
+			int j = second.findRunAtPosition(first.runs.getLength(i));
+			if (j < 0) {
+				continue;
+			}
+			long iterations = Math.min(first.runs.getCount(i), second.runs.getCount(j));
+			long iterationLength = first.getIterationLength(i, second);
+			if (iterationLength < 0) {
+				// the repeated sequences differ
+				continue;
+			}
+			if (iterationLength > 0) {
+				iterations = Math.min(iterations, (limit - first.position) / iterationLength);
+			}
+			if (iterations < 2) {
+				// nothing to gain
+				return false;
+			}
+			first.skipIterations(i, iterations, iterationLength);
+			second.skipIterations(j, iterations, iterationLength);
+			return true;
+		}
+		return false;
+	}
+
+	private BufferedIntArrayQueue copyNodeIds(ExecutionTrace trace, long start, long end) {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(tempDir, UUID.randomUUID().toString(),
+				TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE, true);
+		NodeCursor cursor = new NodeCursor(trace, false);
+		cursor.skip(start);
+		while (cursor.position < end && cursor.hasNext()) {
+			queue.add(cursor.next());
+		}
+		return queue;
+	}
+
+	private int getSequenceLength(int sequenceIndex) {
+		int length = sequenceLengths.get(sequenceIndex);
+		if (length == NO_LENGTH) {
+			length = 0;
+			PrimitiveIterator.OfInt iterator = indexer.getFullSequenceIntIterator(sequenceIndex);
+			while (iterator.hasNext()) {
+				iterator.nextInt();
+				++length;
+			}
+			sequenceLengths.put(sequenceIndex, length);
+		}
+		return length;
+	}
+
+	/*
+	 * Iterates over the node IDs of an execution trace, in either direction.
+	 */
+	private class NodeCursor {
+
+		private final ExecutionTrace trace;
+		private ReplaceableCloneableIterator sequenceIndices;
+		private final boolean reverse;
+		// the repetitions of the trace, with positions in the direction of this cursor
+		private final RepetitionRuns runs;
+		private PrimitiveIterator.OfInt sequence = null;
+		// the number of node IDs that were passed, yet
+		private long position = 0;
+		// the number of sequence indices that were passed, yet
+		private long indexPosition = 0;
+		// index of the first run that starts at or after the index position
+		private int nextRun = 0;
+
+		private NodeCursor(ExecutionTrace trace, boolean reverse) {
+			this.trace = trace;
+			this.sequenceIndices = reverse ? trace.reverseIterator() : trace.iterator();
+			this.reverse = reverse;
+			RepetitionRuns forwardRuns = new RepetitionRuns(trace);
+			this.runs = reverse ? forwardRuns.reverse(trace.size()) : forwardRuns;
+		}
+
+		// index of the first (longest) run that starts at the current index position; -1 if none
+		private int getFirstRunAtPosition() {
+			while (nextRun < runs.size() && runs.getStart(nextRun) < indexPosition) {
+				++nextRun;
+			}
+			return nextRun < runs.size() && runs.getStart(nextRun) == indexPosition ? nextRun : -1;
+		}
+
+		// index of a run with the given length that starts at the current index position; -1 if none
+		private int findRunAtPosition(int length) {
+			int i = getFirstRunAtPosition();
+			if (i < 0) {
+				return -1;
+			}
+			for (; i < runs.size() && runs.getStart(i) == indexPosition; ++i) {
+				if (runs.getLength(i) == length) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/*
+		 * Compares the repeated sequence of the given run with the following sequence indices
+		 * of the other cursor. Returns the number of node IDs of one iteration, or -1 if the
+		 * sequence indices differ.
+		 */
+		private long getIterationLength(int run, NodeCursor other) {
+			ReplaceableCloneableIterator iterator = sequenceIndices.clone();
+			ReplaceableCloneableIterator otherIterator = other.sequenceIndices.clone();
+			long length = 0;
+			for (int k = 0; k < runs.getLength(run); ++k) {
+				int sequenceIndex = iterator.next();
+				if (sequenceIndex != otherIterator.next()) {
+					return -1;
+				}
+				length += getSequenceLength(sequenceIndex);
+			}
+			return length;
+		}
+
+		private long getIterationLength(int run) {
+			ReplaceableCloneableIterator iterator = sequenceIndices.clone();
+			long length = 0;
+			for (int k = 0; k < runs.getLength(run); ++k) {
+				length += getSequenceLength(iterator.next());
+			}
+			return length;
+		}
+
+		// skips the given number of iterations of the run that starts at the current position
+		private void skipIterations(int run, long iterations, long iterationLength) {
+			long count = runs.getLength(run) * iterations;
+			if (reverse) {
+				for (long k = 0; k < count; ++k) {
+					sequenceIndices.next();
+				}
+			} else {
+				sequenceIndices = trace.iterator(indexPosition + count);
+			}
+			indexPosition += count;
+			position += iterationLength * iterations;
+			sequence = null;
+		}
+
+		/*
+		 * Skips the iterations of the longest repetition that starts at the current position,
+		 * as far as they end before the given position. Returns whether any iterations were skipped.
+		 */
+		private boolean skipRepetition(long end) {
+			int run = getFirstRunAtPosition();
+			if (run < 0) {
+				return false;
+			}
+			long iterationLength = getIterationLength(run);
+			long iterations = runs.getCount(run);
+			if (iterationLength > 0) {
+				iterations = Math.min(iterations, (end - position) / iterationLength);
+			}
+			if (iterations < 2) {
+				return false;
+			}
+			skipIterations(run, iterations, iterationLength);
+			return true;
+		}
+
+		private boolean isAtSequenceBoundary() {
+			return sequence == null || !sequence.hasNext();
+		}
+
+		private boolean hasNextSequence() {
+			return sequenceIndices.hasNext();
+		}
+
+		private int peekSequenceIndex() {
+			return sequenceIndices.peek();
+		}
+
+		private void skipSequence() {
+			position += getSequenceLength(sequenceIndices.next());
+			++indexPosition;
+			sequence = null;
+		}
+
+		private boolean hasNext() {
+			while (sequence == null || !sequence.hasNext()) {
+				if (!sequenceIndices.hasNext()) {
+					return false;
+				}
+				int sequenceIndex = sequenceIndices.next();
+				++indexPosition;
+				sequence = reverse ?
+						indexer.getFullSequenceReverseIntIterator(sequenceIndex) :
+							indexer.getFullSequenceIntIterator(sequenceIndex);
+			}
+			return true;
+		}
+
+		private int next() {
+			++position;
+			return sequence.nextInt();
+		}
+
+		private void skip(long count) {
+			long end = position + count;
+			while (position < end) {
+				if (isAtSequenceBoundary() && skipRepetition(end)) {
+					continue;
+				}
+				if (isAtSequenceBoundary() && hasNextSequence()
+						&& position + getSequenceLength(peekSequenceIndex()) <= end) {
+					skipSequence();
+				} else if (hasNext()) {
+					next();
+				} else {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A part of the traces that differs. Positions are indices of node IDs in the full traces;
+	 * start positions are inclusive, end positions are exclusive. One of the parts may be empty,
+	 * if node IDs were only inserted or deleted.
+	 */
+	public static class Segment {
+
+		private final long failingStart;
+		private final long failingEnd;
+		private final long passingStart;
+		private final long passingEnd;
+
+		public Segment(long failingStart, long failingEnd, long passingStart, long passingEnd) {
+			this.failingStart = failingStart;
+			this.failingEnd = failingEnd;
+			this.passingStart = passingStart;
+			this.passingEnd = passingEnd;
+		}
+
+		public long getFailingStart() {
+			return failingStart;
+		}
+
+		public long getFailingEnd() {
+			return failingEnd;
+		}
+
+		public long getPassingStart() {
+			return passingStart;
+		}
+
+		public long getPassingEnd() {
+			return passingEnd;
+		}
+
+		public long getFailingLength() {
+			return failingEnd - failingStart;
+		}
+
+		public long getPassingLength() {
+			return passingEnd - passingStart;
+		}
+
+		@Override
+		public String toString() {
+			return "failing[" + failingStart + ", " + failingEnd + ") <-> passing[" + passingStart + ", " + passingEnd + ")";
+		}
+	}
+
+	/**
+	 * The result of comparing a failing with a passing trace. Holds the compared
+	 * middle parts of both traces to provide the node IDs of the differing segments.
+	 */
+	public static class Result {
+
+		private final ExecutionTrace passingTrace;
+		private final long firstDivergence;
+		private final List<Segment> segments;
+		private final BufferedIntArrayQueue failingPart;
+		private final BufferedIntArrayQueue passingPart;
+		private final long partOffset;
+
+		private Result(ExecutionTrace passingTrace, long firstDivergence, List<Segment> segments,
+				BufferedIntArrayQueue failingPart, BufferedIntArrayQueue passingPart, long partOffset) {
+			this.passingTrace = passingTrace;
+			this.firstDivergence = firstDivergence;
+			this.segments = segments;
+			this.failingPart = failingPart;
+			this.passingPart = passingPart;
+			this.partOffset = partOffset;
+		}
+
+		/**
+		 * @return
+		 * the passing trace that was compared with the failing trace
+		 */
+		public ExecutionTrace getPassingTrace() {
+			return passingTrace;
+		}
+
+		/**
+		 * @return
+		 * the position of the first differing node ID, or -1 if the traces are equal
+		 */
+		public long getFirstDivergence() {
+			return firstDivergence;
+		}
+
+		public boolean isEqual() {
+			return firstDivergence < 0;
+		}
+
+		/**
+		 * @return
+		 * the differing segments, in the order of their positions
+		 */
+		public List<Segment> getSegments() {
+			return segments;
+		}
+
+		/**
+		 * @param segment
+		 * a segment of this result
+		 * @return
+		 * the node IDs of the segment in the failing trace
+		 */
+		public int[] getFailingNodeIds(Segment segment) {
+			return getNodeIds(failingPart, segment.failingStart, segment.failingEnd);
+		}
+
+		/**
+		 * @param segment
+		 * a segment of this result
+		 * @return
+		 * the node IDs of the segment in the passing trace
+		 */
+		public int[] getPassingNodeIds(Segment segment) {
+			return getNodeIds(passingPart, segment.passingStart, segment.passingEnd);
+		}
+
+		private int[] getNodeIds(BufferedIntArrayQueue part, long start, long end) {
+			if (end - start > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Segment is too long: " + (end - start));
+			}
+			int[] nodeIds = new int[(int) (end - start)];
+			for (int i = 0; i < nodeIds.length; ++i) {
+				nodeIds[i] = part.get(start - partOffset + i);
+			}
+			return nodeIds;
+		}
+
+		/**
+		 * Deletes the stored parts of the traces.
+		 */
+		public void clear() {
+			if (failingPart != null) {
+				failingPart.clear();
+				passingPart.clear();
+			}
+		}
+	}
+
+}
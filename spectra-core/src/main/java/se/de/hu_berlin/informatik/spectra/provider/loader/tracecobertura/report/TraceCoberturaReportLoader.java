@@ -9,14 +9,22 @@ package se.de.hu_berlin.informatik.spectra.provider.loader.tracecobertura.report
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import se.de.hu_berlin.informatik.spectra.core.ISpectra;
 import se.de.hu_berlin.informatik.spectra.core.ITrace;
 import se.de.hu_berlin.informatik.spectra.core.SourceCodeBlock;
 import se.de.hu_berlin.informatik.spectra.core.Node.NodeType;
 import se.de.hu_berlin.informatik.spectra.core.traces.RawIntTraceCollector;
 import se.de.hu_berlin.informatik.spectra.core.traces.SimpleIntIndexerCompressed;
+import se.de.hu_berlin.informatik.spectra.core.traces.SubTraceDictionary;
 import se.de.hu_berlin.informatik.spectra.provider.loader.AbstractCoverageDataLoader;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.AbstractCodeProvider;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ClassData;
@@ -29,6 +37,7 @@ import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.S
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.data.CoverageData;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.CoberturaStatementEncoding;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.SingleLinkedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ProjectData;
@@ -42,15 +51,22 @@ public abstract class TraceCoberturaReportLoader<T, K extends ITrace<T>>
     private final RawIntTraceCollector traceCollector;
 	private ProjectData projectData;
 	
-	private Map<Long, Integer> idToSubtraceIdMap = new HashMap<>();
-	private Map<Integer, EfficientCompressedIntegerTrace> existingSubTraces = new HashMap<>();
+	// global sub trace IDs, shared by all tests and threads
+	private final SubTraceDictionary subTraceDictionary;
+	private Map<Integer, EfficientCompressedIntegerTrace> existingSubTraces = new ConcurrentHashMap<>();
+	// the execution traces of the threads of a test are converted in parallel, so each worker needs its own buffer
+	private final ThreadLocal<int[]> subTraceBuffer = 
+			ThreadLocal.withInitial(() -> new int[ExecutionTraceCollector.SUBTRACE_ARRAY_SIZE]);
+	
+	// converts the execution traces of the threads of a test; created on demand
+	private ExecutorService subTraceExecutor = null;
 
 	public TraceCoberturaReportLoader(Path tempOutputDir) {
 		traceCollector = new RawIntTraceCollector(tempOutputDir);
+		subTraceDictionary = new SubTraceDictionary(tempOutputDir.toFile());
 	}
 	
 	private int traceCount = 0;
-	private int currentId = 0;
 	
 	@Override
 	public boolean loadSingleCoverageData(ISpectra<T, K> lineSpectra, final TraceCoberturaReportWrapper reportWrapper,
@@ -233,21 +249,12 @@ public abstract class TraceCoberturaReportLoader<T, K extends ITrace<T>>
 			
 			
 			// convert execution traces from statement sequences to sequences of sub traces
-			Map<Long, EfficientCompressedIntegerTrace> executionTracesWithSubTraces = new HashMap<>();
-			for (Iterator<Entry<Long, EfficientCompressedIntegerTrace>> iterator = projectData.getExecutionTraces().entrySet().iterator(); iterator.hasNext();) {
-				Entry<Long, EfficientCompressedIntegerTrace> entry = iterator.next();
-				
-				EfficientCompressedIntegerTrace mappedExecutionTrace = generateSubTraceExecutionTrace(entry.getValue(), projectData);
-				
-				executionTracesWithSubTraces.put(entry.getKey(), mappedExecutionTrace);
-			}
-			projectData.addExecutionTraces(executionTracesWithSubTraces);
+			projectData.addExecutionTraces(
+					generateSubTraceExecutionTraces(projectData.getExecutionTraces(), projectData));
 			
-			
-			int threadId = -1;
+			// traces are keyed by their (unique) trace stream ids, which are stored with the raw traces
 			for (Iterator<Entry<Long, EfficientCompressedIntegerTrace>> iterator = projectData.getExecutionTraces().entrySet().iterator(); iterator.hasNext();) {
 				Entry<Long, EfficientCompressedIntegerTrace> entry = iterator.next();
-				++threadId;
 				
 				
 				boolean printTraces = 
@@ -392,7 +399,7 @@ public abstract class TraceCoberturaReportLoader<T, K extends ITrace<T>>
 				// collect the raw trace for future compression, etc.
 				// this will, among others, extract common sequences for added traces
 				entry.getValue().deleteOnExit();
-				traceCollector.addRawTraceToPool(traceCount, threadId, 
+				traceCollector.addRawTraceToPool(traceCount, entry.getKey(), 
 						entry.getValue(), existingSubTraces);
 				// processed and done with...
 				iterator.remove();
@@ -408,10 +415,73 @@ public abstract class TraceCoberturaReportLoader<T, K extends ITrace<T>>
 		}
 	}
 
+	/**
+	 * Converts the execution traces of the threads of a test from statement sequences to 
+	 * sequences of sub trace ids. The threads' traces are independent of each other, so they
+	 * are converted in parallel. Only the assignment of new sub trace ids is synchronized.
+	 * @param executionTraces
+	 * the execution traces, keyed by trace stream ids
+	 * @param projectData
+	 * the project data of the test
+	 * @return
+	 * the converted execution traces, keyed by trace stream ids
+	 * @throws InterruptedException
+	 * if interrupted while waiting for the conversion
+	 */
+	private Map<Long, EfficientCompressedIntegerTrace> generateSubTraceExecutionTraces(
+			Map<Long, EfficientCompressedIntegerTrace> executionTraces, final ProjectData projectData) throws InterruptedException {
+		Map<Long, EfficientCompressedIntegerTrace> result = new HashMap<>();
+		if (executionTraces.size() == 1) {
+			// no need for other threads
+			for (Entry<Long, EfficientCompressedIntegerTrace> entry : executionTraces.entrySet()) {
+				result.put(entry.getKey(), generateSubTraceExecutionTrace(entry.getValue(), projectData));
+			}
+			return result;
+		}
+		
+		Map<Long, Future<EfficientCompressedIntegerTrace>> futures = new LinkedHashMap<>();
+		for (Entry<Long, EfficientCompressedIntegerTrace> entry : executionTraces.entrySet()) {
+			final EfficientCompressedIntegerTrace trace = entry.getValue();
+			futures.put(entry.getKey(), getSubTraceExecutor().submit(() -> generateSubTraceExecutionTrace(trace, projectData)));
+		}
+		// wait for all conversions, so no task still works on the shared sub traces after a failure
+		ExecutionException failure = null;
+		for (Entry<Long, Future<EfficientCompressedIntegerTrace>> entry : futures.entrySet()) {
+			try {
+				result.put(entry.getKey(), entry.getValue().get());
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw new IllegalStateException("Could not convert execution trace.", failure.getCause());
+		}
+		return result;
+	}
+	
+	private ExecutorService getSubTraceExecutor() {
+		if (subTraceExecutor == null) {
+			subTraceExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+				
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = defaultFactory.newThread(runnable);
+					// idle workers must not keep the JVM alive
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return subTraceExecutor;
+	}
+
 	private EfficientCompressedIntegerTrace generateSubTraceExecutionTrace(EfficientCompressedIntegerTrace trace, ProjectData projectData) {
 		EfficientCompressedIntegerTrace resultTrace = new EfficientCompressedIntegerTrace(
 				trace.getCompressedTrace().getOutputDir(), trace.getCompressedTrace().getFilePrefix(),
-				ExecutionTraceCollector.EXECUTION_TRACE_CHUNK_SIZE, ExecutionTraceCollector.MAP_CHUNK_SIZE, true, true);
+				TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE, TraceMemoryBudget.MAP_CHUNK_SIZE, true, true);
 //		String[] idToClassNameMap = projectData.getIdToClassNameMap();
 		// iterate over trace and generate new trace based on seen sub traces
 		// iterate over executed statements in the trace
@@ -518,9 +588,31 @@ public abstract class TraceCoberturaReportLoader<T, K extends ITrace<T>>
 
 	private SingleLinkedIntArrayQueue processLastSubTrace(EfficientCompressedIntegerTrace trace,
 			EfficientCompressedIntegerTrace resultTrace, SingleLinkedIntArrayQueue currentSubTrace, int lastNodeType) {
-		// get a representation id for the subtrace (unique for sub traces that start and end within the same method!)
-		long subTraceId = CoberturaStatementEncoding.generateRepresentationForSubTrace(currentSubTrace);
-		Integer id = idToSubtraceIdMap.get(subTraceId);
+		Integer lastExecutedStatement = null;
+		if (lastNodeType != CoberturaStatementEncoding.NORMAL_ID) {
+			lastExecutedStatement = currentSubTrace.peekLastNoCheck();
+		}
+		
+		int length = currentSubTrace.size();
+		int[] subTraceBuffer = this.subTraceBuffer.get();
+		if (length > subTraceBuffer.length) {
+			subTraceBuffer = new int[Math.max(length, subTraceBuffer.length * 2)];
+			this.subTraceBuffer.set(subTraceBuffer);
+		}
+		for (int i = 0; i < length; ++i) {
+			subTraceBuffer[i] = currentSubTrace.removeNoAutoBoxing();
+		}
+		
+		// get the id of the sub trace, based on its contents (equal sub traces 
+		// from different tests and threads get the same id)
+		int id;
+		boolean isNewSubTrace;
+		// other threads may add sub traces in between, so check for a new id atomically
+		synchronized (subTraceDictionary) {
+			int previousSize = subTraceDictionary.size();
+			id = subTraceDictionary.getOrCreateId(subTraceBuffer, 0, length);
+			isNewSubTrace = subTraceDictionary.size() > previousSize;
+		}
 
 //		// check if the current sub trace has been seen before and, if so, get the respective id
 //		for (EfficientCompressedIntegerTrace subTrace : subTraces) {
@@ -530,32 +622,17 @@ public abstract class TraceCoberturaReportLoader<T, K extends ITrace<T>>
 //			}
 //		}
 		
-		Integer lastExecutedStatement = null;
-		if (lastNodeType != CoberturaStatementEncoding.NORMAL_ID) {
-			lastExecutedStatement = currentSubTrace.peekLastNoCheck();
-		}
-		
-		if (id == null) {
+		if (isNewSubTrace) {
 			// first time seeing this sub trace!
 			// starts with id 1
-			id = ++currentId;
-
-			// add id to the map
-			idToSubtraceIdMap.put(subTraceId, id);
-			EfficientCompressedIntegerTrace subTrace = getNewSubTrace(trace, currentSubTrace.size());
-			while (!currentSubTrace.isEmpty()) {
-				subTrace.add(currentSubTrace.removeNoAutoBoxing());
-			}
+			EfficientCompressedIntegerTrace subTrace = getNewSubTrace(trace, length);
+			subTrace.addAll(subTraceBuffer, 0, length);
 			// add sub trace to the list of existing sub traces (together with the id)
 			existingSubTraces.put(id, subTrace);
 			subTrace.sleep();
-			
-			currentSubTrace.clear();
-		} else {
-			// already seen, so reuse the sub trace
-			currentSubTrace.clear();
-//			currentSubTrace = getNewSubTrace(trace);
 		}
+		// otherwise, already seen, so reuse the sub trace
+		currentSubTrace.clear();
 		
 		if (lastExecutedStatement != null) {
 			// add the last executed statement (usually a branch)
@@ -588,11 +665,15 @@ public abstract class TraceCoberturaReportLoader<T, K extends ITrace<T>>
 		return new EfficientCompressedIntegerTrace(
 				trace.getCompressedTrace().getOutputDir(), trace.getCompressedTrace().getFilePrefix(),
 				size < ExecutionTraceCollector.SUBTRACE_ARRAY_SIZE ? size : ExecutionTraceCollector.SUBTRACE_ARRAY_SIZE, 
-						ExecutionTraceCollector.MAP_CHUNK_SIZE, true, false, true);
+						TraceMemoryBudget.MAP_CHUNK_SIZE, true, false, true);
 	}
 
 	public void addExecutionTracesToSpectra(ISpectra<SourceCodeBlock, ? super K> spectra) {
 		// gets called after ALL tests have been processed
+		if (subTraceExecutor != null) {
+			subTraceExecutor.shutdown();
+			subTraceExecutor = null;
+		}
 		Log.out(TraceCoberturaReportLoader.class, "Generating sequence index...");
 		try {
 			traceCollector.getIndexer().getSequences();
@@ -1,5 +1,6 @@
 package se.de.hu_berlin.informatik.spectra.util;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -10,6 +11,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
@@ -23,6 +25,7 @@ import de.unistuttgart.iste.rss.bugminer.coverage.CoverageReportSerializer;
 import de.unistuttgart.iste.rss.bugminer.coverage.FileCoverage;
 import de.unistuttgart.iste.rss.bugminer.coverage.SourceCodeFile;
 import de.unistuttgart.iste.rss.bugminer.coverage.TestCase;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
 import se.de.hu_berlin.informatik.utils.compression.CompressedByteArraysToByteArraysProcessor;
 import se.de.hu_berlin.informatik.utils.compression.IntSequencesToCompressedByteArrayProcessor;
 import se.de.hu_berlin.informatik.spectra.core.INode;
@@ -35,8 +38,10 @@ import se.de.hu_berlin.informatik.spectra.core.count.CountTrace;
 import se.de.hu_berlin.informatik.spectra.core.hit.HitSpectra;
 import se.de.hu_berlin.informatik.spectra.core.hit.HitTrace;
 import se.de.hu_berlin.informatik.spectra.core.traces.ExecutionTrace;
+import se.de.hu_berlin.informatik.spectra.core.traces.MappedIntIndexerCompressed;
 import se.de.hu_berlin.informatik.spectra.core.traces.SequenceIndexerCompressed;
 import se.de.hu_berlin.informatik.spectra.core.traces.SimpleIntIndexerCompressed;
+import se.de.hu_berlin.informatik.spectra.core.traces.SubTraceDictionary;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerBufferedMap;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerWrapper;
@@ -104,6 +109,8 @@ public class SpectraFileUtils {
 	
 //	private static final String SEQUENCE_INDEX_FILE_EXTENSION = ".seq";
 	private static final String SUBTRACE_ID_SEQUENCES_FILE_NAME = ".subTraceIdSequences";
+	// memory mapped index of the sequences, stored next to the zip file
+	public static final String SEQUENCE_INDEX_FILE_EXTENSION = ".seqidx";
 //	private static final String NODE_ID_SEQUENCES_FILE_NAME = ".nodeIdSequences";
 
 	public static final byte STATUS_UNCOMPRESSED = 0;
@@ -267,6 +274,7 @@ public class SpectraFileUtils {
 			String nodeIdentifiers, String traceIdentifiers) {
 		
 		FileUtils.delete(output);
+		FileUtils.delete(getSequenceIndexFile(output));
 		
 		// create a map that maps node IDs to storing IDs 
 		// (node IDs may not be consecutive due to removal of nodes, etc.)
@@ -279,12 +287,13 @@ public class SpectraFileUtils {
 		byte[] status = { STATUS_UNCOMPRESSED };
 
 		// byte[] involvement;
+		SequenceIndexerCompressed storedIndexer;
 		if (!spectra.getTraces().isEmpty() && spectra.getTraces().iterator().next() instanceof CountTrace) {
-			saveInvolvementArrayForCountSpectra(
+			storedIndexer = saveInvolvementArrayForCountSpectra(
 					(ISpectra<T, ? extends CountTrace<T>>) spectra, nodes, index, 
 					status, nodeIndexToStoreIdMap, output);
 		} else {
-			saveInvolvementArray(spectra, nodes, sparse, compress, index, 
+			storedIndexer = saveInvolvementArray(spectra, nodes, sparse, compress, index, 
 					status, nodeIndexToStoreIdMap, output);
 		}
 
@@ -310,9 +319,15 @@ public class SpectraFileUtils {
 
 			module.submit(new Pair<>(INDEX_FILE_NAME, identifierBuilder.toString().getBytes()));
 		}
+		
+		if (storedIndexer != null) {
+			// the index file has to be written after the last change to the zip file, 
+			// since older index files are considered stale when loading
+			storeSequenceIndexFile(storedIndexer, output);
+		}
 	}
 
-	private static <T> void saveInvolvementArray(ISpectra<T, ?> spectra, Collection<INode<T>> nodes, boolean sparse,
+	private static <T> SequenceIndexerCompressed saveInvolvementArray(ISpectra<T, ?> spectra, Collection<INode<T>> nodes, boolean sparse,
 			boolean compress, boolean index, byte[] status,
 			Map<Integer, Integer> nodeIndexToStoreIdMap, Path outputFile) {
 		int traceCount = 0;
@@ -396,7 +411,7 @@ public class SpectraFileUtils {
 			}
 		}
 		
-		saveExecutionTraces(spectra, nodeIndexToStoreIdMap, outputFile);
+		return saveExecutionTraces(spectra, nodeIndexToStoreIdMap, outputFile);
 	}
 	
 	private static class TraceFileNameSupplier implements Supplier<String> {
@@ -431,7 +446,12 @@ public class SpectraFileUtils {
 		
 	}
 
-	private static <T> void saveExecutionTraces(ISpectra<T, ?> spectra,
+	/**
+	 * Stores the execution traces and the indexed sequences in the zip file.
+	 * @return
+	 * the (deduplicated) indexer of the stored sequences, or null if no execution traces were stored
+	 */
+	private static <T> SequenceIndexerCompressed saveExecutionTraces(ISpectra<T, ?> spectra,
 			Map<Integer, Integer> nodeIndexToStoreIdMap, Path outputFile) {
 		SequenceIndexerCompressed indexer = spectra.getIndexer();
 
@@ -463,20 +483,17 @@ public class SpectraFileUtils {
 				}
 				
 				if (hasExecutionTraces) {
+					// store equal node ID sequences only once
+					indexer = SubTraceDictionary.deduplicate(indexer, 
+							outputFile.getParent().resolve(SEQ_INDEX_DIR).toFile());
+					
 					{
 						int maxValue = 0;
 						for (int i = 0; i < indexer.getSubTraceIdSequences().length; i++) {
-							Iterator<Integer> iterator = indexer.getSubTraceIDSequenceIterator(i);
+							PrimitiveIterator.OfInt iterator = indexer.getSubTraceIDSequenceIntIterator(i);
 							// iterate over the sub trace id sequences
 							while (iterator.hasNext()) {
-								// this should not fail...
-								Integer next = iterator.next();
-								if (next != null) {
-									maxValue = Math.max(maxValue, next);
-								} else {
-									// this should not happen!!
-									throw new IllegalStateException("No sub trace index (null value in sub trace id sequence " + i + ")");
-								}
+								maxValue = Math.max(maxValue, iterator.nextInt());
 							}
 						}
 						
@@ -565,6 +582,8 @@ public class SpectraFileUtils {
 
 					FileUtils.delete(outputFile.getParent().resolve(SEQ_INDEX_DIR));
 					Log.out(SpectraFileUtils.class, "Stored indexed sequences!");
+					
+					return indexer;
 				} else {
 					Log.out(SpectraFileUtils.class, "No execution traces!");
 				}
@@ -572,6 +591,7 @@ public class SpectraFileUtils {
 		} catch (Throwable e) {
 			// anything bad happened?
 			FileUtils.delete(outputFile.getParent().resolve(SEQ_INDEX_DIR));
+			FileUtils.delete(getSequenceIndexFile(outputFile));
 			FileUtils.delete(outputFile);
 			throw e;
 		}
@@ -608,6 +628,30 @@ public class SpectraFileUtils {
 //			FileUtils.delete(zipOutputDirectory.resolve(SEQ_INDEX_DIR));
 //			Log.out(SpectraFileUtils.class, "Stored indexed sequences!");
 //		}
+		return null;
+	}
+	
+	/**
+	 * Returns the path of the memory mapped sequence index that belongs to the given spectra zip file.
+	 * @param zipFilePath
+	 * the path to a spectra zip file
+	 * @return
+	 * the path to the sequence index file
+	 */
+	public static Path getSequenceIndexFile(Path zipFilePath) {
+		return zipFilePath.resolveSibling(zipFilePath.getFileName() + SEQUENCE_INDEX_FILE_EXTENSION);
+	}
+	
+	private static void storeSequenceIndexFile(SequenceIndexerCompressed indexer, Path outputFile) {
+		// the index is only an accelerator; the sequences are stored in the zip file, anyway
+		Path indexFile = getSequenceIndexFile(outputFile);
+		try {
+			Log.out(SpectraFileUtils.class, "Storing sequence index file '%s'...", indexFile);
+			MappedIntIndexerCompressed.write(indexer, indexFile);
+		} catch (IOException e) {
+			Log.err(SpectraFileUtils.class, e, "Could not store sequence index file '%s'.", indexFile);
+			FileUtils.delete(indexFile);
+		}
 	}
 	
 	public static void storeCompressedIntegerTrace(EfficientCompressedIntegerTrace eTrace, 
@@ -777,7 +821,7 @@ public class SpectraFileUtils {
 //		return involvement;
 //	}
 
-	private static <T, K extends CountTrace<T>> void saveInvolvementArrayForCountSpectra(ISpectra<T, K> spectra,
+	private static <T, K extends CountTrace<T>> SequenceIndexerCompressed saveInvolvementArrayForCountSpectra(ISpectra<T, K> spectra,
 			Collection<INode<T>> nodes, boolean index, byte[] status,
 			Map<Integer, Integer> nodeIndexToStoreIdMap, Path outputFile) {
 		Module<Pair<String, byte[]>, byte[]> zipModule = new AddNamedByteArrayToZipFileProcessor(outputFile, false).asModule();
@@ -814,7 +858,7 @@ public class SpectraFileUtils {
 			status[0] = STATUS_COMPRESSED_COUNT;
 		}
 		
-		saveExecutionTraces(spectra, nodeIndexToStoreIdMap, outputFile);
+		return saveExecutionTraces(spectra, nodeIndexToStoreIdMap, outputFile);
 	}
 
 	
@@ -1237,7 +1281,7 @@ public class SpectraFileUtils {
 		public BufferedMap<int[]> get() {
 			return new RepetitionMarkerBufferedMap(
 					zipFileWrapper.getzipFilePath().getParent().resolve("execTraceTemp").toAbsolutePath().toFile(), 
-					"lmap-" + UUID.randomUUID().toString(), ExecutionTraceCollector.MAP_CHUNK_SIZE, true);
+					"lmap-" + UUID.randomUUID().toString(), TraceMemoryBudget.MAP_CHUNK_SIZE, true);
 		}
 
 	}
@@ -1245,7 +1289,7 @@ public class SpectraFileUtils {
 	public static ExecutionTrace loadExecutionTraceFromZipFile(ZipFileWrapper zipFileWrapper, String compressedTraceFile, String repetitionFile) throws ZipException {
 		BufferedIntArrayQueue compressedTrace = new BufferedIntArrayQueue(
 				zipFileWrapper.getzipFilePath().getParent().resolve("execTraceTemp").toAbsolutePath().toFile(), 
-				UUID.randomUUID().toString(), ExecutionTraceCollector.EXECUTION_TRACE_CHUNK_SIZE);
+				UUID.randomUUID().toString(), TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE);
 		BufferedCompressedByteArrayToIntegerQueueProcessor execTraceProcessor = new BufferedCompressedByteArrayToIntegerQueueProcessor(zipFileWrapper, true,
 				k -> {compressedTrace.add(k);});
 		// load the compressed execution trace +  repetition markers (if any)
@@ -1281,7 +1325,7 @@ public class SpectraFileUtils {
 	public static EfficientCompressedIntegerTrace loadRawTraceFromZipFile(ZipFileWrapper zipFileWrapper, String compressedTraceFile, String repetitionFile) throws ZipException {
 		BufferedIntArrayQueue compressedTrace = new BufferedIntArrayQueue(
 				zipFileWrapper.getzipFilePath().getParent().resolve("execTraceTemp").toAbsolutePath().toFile(), 
-				UUID.randomUUID().toString(), ExecutionTraceCollector.EXECUTION_TRACE_CHUNK_SIZE);
+				UUID.randomUUID().toString(), TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE);
 		BufferedCompressedByteArrayToIntegerQueueProcessor execTraceProcessor = new BufferedCompressedByteArrayToIntegerQueueProcessor(zipFileWrapper, true, 
 				k -> {compressedTrace.add(k);});
 		// load the compressed raw trace
@@ -1303,7 +1347,7 @@ public class SpectraFileUtils {
 //	public static CompressedTrace loadRawArrayTraceFromZipFile(ZipFileWrapper zipFileWrapper, String compressedTraceFile, String repetitionFile) {
 //		BufferedArrayQueue<int[]> queue = new BufferedArrayQueue<>(
 //				zipFileWrapper.getzipFilePath().getParent().resolve("execTraceTemp").toAbsolutePath().toFile(), 
-//				UUID.randomUUID().toString(), ExecutionTraceCollector.EXECUTION_TRACE_CHUNK_SIZE, Type.OTHER);
+//				UUID.randomUUID().toString(), TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE, Type.OTHER);
 //		BufferedCompressedByteArrayToIntArrayQueueProcessor execTraceProcessor = new BufferedCompressedByteArrayToIntArrayQueueProcessor(zipFileWrapper, 2, true, queue);
 //		// load the compressed raw trace
 //		BufferedArrayQueue<int[]> compressedTrace = (BufferedArrayQueue<int[]>) execTraceProcessor.submit(compressedTraceFile).getResult();
@@ -1335,6 +1379,15 @@ public class SpectraFileUtils {
 	}
 	
 	private static <T> void loadSequenceIndexer(ZipFileWrapper zip, ISpectra<T, ?> spectra) throws ZipException {
+		if (zip.exists(SUBTRACE_ID_SEQUENCES_FILE_NAME)) {
+			SequenceIndexerCompressed indexer = openSequenceIndexFile(zip.getzipFilePath());
+			if (indexer != null) {
+				// no need to decode the sequences
+				spectra.setIndexer(indexer);
+				return;
+			}
+		}
+		
 		byte[] subTraceIDSequencesByteArray = zip.get(SUBTRACE_ID_SEQUENCES_FILE_NAME, false);
 
 		if (subTraceIDSequencesByteArray == null) {
@@ -1369,6 +1422,28 @@ public class SpectraFileUtils {
 		spectra.setIndexer(new SimpleIntIndexerCompressed(subTraceIdSequences, nodeIdSequences));
 	}
 	
+	/**
+	 * Opens the memory mapped sequence index that was stored together with the given
+	 * spectra zip file, if it exists and is not older than the zip file.
+	 * @param zipFilePath
+	 * the path to a spectra zip file
+	 * @return
+	 * the indexer backed by the index file, or null if no usable index file exists
+	 */
+	public static SequenceIndexerCompressed openSequenceIndexFile(Path zipFilePath) {
+		File indexFile = getSequenceIndexFile(zipFilePath).toFile();
+		if (!indexFile.isFile() || indexFile.lastModified() < zipFilePath.toFile().lastModified()) {
+			return null;
+		}
+		try {
+			Log.out(SpectraFileUtils.class, "Opening sequence index file '%s'.", indexFile);
+			return MappedIntIndexerCompressed.open(indexFile.toPath());
+		} catch (IOException e) {
+			Log.warn(SpectraFileUtils.class, "Could not open sequence index file '%s': %s", indexFile, e.getMessage());
+			return null;
+		}
+	}
+	
 	public static EfficientCompressedIntegerTrace[] loadNodeIdSequences(ZipFileWrapper zip) throws ZipException {
 		int counter = 0;
 		while (true) {
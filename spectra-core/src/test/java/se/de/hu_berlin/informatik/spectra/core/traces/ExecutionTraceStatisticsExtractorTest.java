@@ -0,0 +1,179 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.ZipException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.de.hu_berlin.informatik.spectra.core.ISpectra;
+import se.de.hu_berlin.informatik.spectra.core.ITrace;
+import se.de.hu_berlin.informatik.spectra.core.SourceCodeBlock;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.util.SpectraFileUtils;
+import se.de.hu_berlin.informatik.utils.miscellaneous.TestSettings;
+
+public class ExecutionTraceStatisticsExtractorTest extends TestSettings {
+
+	private static final int SEQUENCE_COUNT = 30;
+	private static final int NODE_COUNT = 12;
+
+	private final File outputDir = Paths.get(getStdTestDir()).resolve("traceStatistics").toFile();
+
+	@Test
+	public void testStatisticsAgainstExpandedTraces() {
+		Random random = new Random(42);
+		SequenceIndexerCompressed indexer = createIndexer(random);
+		// fewer nodes than used in the sequences, so the tables have to grow
+		ExecutionTraceStatisticsExtractor extractor = new ExecutionTraceStatisticsExtractor(indexer, NODE_COUNT / 2);
+		int maxLevelCount = 0;
+		for (int round = 0; round < 100; ++round) {
+			ExecutionTrace executionTrace = createTrace(createSequenceIndices(random, 3));
+			maxLevelCount = Math.max(maxLevelCount, executionTrace.levelCount());
+			assertStatistics(extractor.extract(executionTrace), executionTrace, indexer);
+		}
+		// nested loops result in multiple levels of repetition markers
+		Assert.assertTrue(maxLevelCount > 1);
+
+		ExecutionTraceStatistics statistics = extractor.extract(createTrace(new int[0]));
+		Assert.assertEquals(0, statistics.getLength());
+		Assert.assertEquals(ExecutionTraceStatistics.NOT_EXECUTED, statistics.getFirstPosition(0));
+		Assert.assertEquals(0, statistics.getExecutionCount(NODE_COUNT));
+	}
+
+	@Test
+	public void testLoopMultiplicity() {
+		Random random = new Random(7);
+		SequenceIndexerCompressed indexer = createIndexer(random);
+		// a sequence that is executed once before a loop with 1000 iterations
+		int[] indices = new int[1 + 2 * 1000];
+		indices[0] = 1;
+		for (int i = 1; i < indices.length; i += 2) {
+			indices[i] = 2;
+			indices[i + 1] = 3;
+		}
+		ExecutionTrace executionTrace = createTrace(indices);
+		ExecutionTraceStatistics statistics = new ExecutionTraceStatisticsExtractor(indexer, NODE_COUNT).extract(executionTrace);
+		assertStatistics(statistics, executionTrace, indexer);
+
+		for (PrimitiveIterator.OfInt iterator = indexer.getFullSequenceIntIterator(2); iterator.hasNext();) {
+			int nodeId = iterator.nextInt();
+			Assert.assertTrue(statistics.getLoopMultiplicity(nodeId) >= 1000);
+			Assert.assertTrue(statistics.getRepetitionDepth(nodeId) >= 1);
+		}
+	}
+
+	/*
+	 * Compares the statistics with the ones computed from the fully
+	 * expanded traces of the stored spectra.
+	 */
+	@Test
+	public void testStatisticsOfStoredSpectra() throws ZipException {
+		Path spectraFile = Paths.get(getStdResourcesDir(), "Chart-22b.zip");
+		ISpectra<SourceCodeBlock, ?> spectra = SpectraFileUtils.loadBlockSpectraFromZipFile(spectraFile);
+		Assert.assertNotNull(spectra.getIndexer());
+		ExecutionTraceStatisticsExtractor extractor = new ExecutionTraceStatisticsExtractor(spectra);
+		for (ITrace<SourceCodeBlock> trace : spectra.getTraces()) {
+			for (ExecutionTrace executionTrace : trace.getExecutionTraces()) {
+				ExecutionTraceStatistics statistics = extractor.extract(executionTrace);
+				assertStatistics(statistics, executionTrace, spectra.getIndexer());
+				Assert.assertEquals(spectra.getNodes().size(), statistics.getNodeCount());
+			}
+		}
+	}
+
+	private static void assertStatistics(ExecutionTraceStatistics statistics,
+			ExecutionTrace executionTrace, SequenceIndexerCompressed indexer) {
+		int[] nodeIds = executionTrace.reconstructFullMappedTrace(indexer);
+		int nodeCount = statistics.getNodeCount();
+		for (int nodeId : nodeIds) {
+			nodeCount = Math.max(nodeCount, nodeId + 1);
+		}
+		long[] executionCounts = new long[nodeCount];
+		long[] firstPositions = new long[nodeCount];
+		long[] lastPositions = new long[nodeCount];
+		Arrays.fill(firstPositions, ExecutionTraceStatistics.NOT_EXECUTED);
+		for (int i = 0; i < nodeIds.length; ++i) {
+			++executionCounts[nodeIds[i]];
+			if (firstPositions[nodeIds[i]] < 0) {
+				firstPositions[nodeIds[i]] = i;
+			}
+			lastPositions[nodeIds[i]] = i;
+		}
+
+		Assert.assertEquals(nodeIds.length, statistics.getLength());
+		for (int nodeId = 0; nodeId < nodeCount; ++nodeId) {
+			Assert.assertEquals(executionCounts[nodeId], statistics.getExecutionCount(nodeId));
+			Assert.assertEquals(firstPositions[nodeId], statistics.getFirstPosition(nodeId));
+			if (executionCounts[nodeId] == 0) {
+				Assert.assertEquals(ExecutionTraceStatistics.NOT_EXECUTED, statistics.getLastPosition(nodeId));
+				Assert.assertEquals(0, statistics.getLoopMultiplicity(nodeId));
+			} else {
+				Assert.assertEquals(lastPositions[nodeId], statistics.getLastPosition(nodeId));
+				Assert.assertTrue(statistics.getLoopMultiplicity(nodeId) >= 1);
+				Assert.assertTrue(statistics.getLoopMultiplicity(nodeId) <= executionCounts[nodeId]);
+			}
+		}
+	}
+
+	private SequenceIndexerCompressed createIndexer(Random random) {
+		EfficientCompressedIntegerTrace[] nodeIdSequences = new EfficientCompressedIntegerTrace[SEQUENCE_COUNT];
+		for (int i = 1; i < nodeIdSequences.length; ++i) {
+			BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, UUID.randomUUID().toString(), 100, true);
+			int length = 1 + random.nextInt(4);
+			for (int j = 0; j < length; ++j) {
+				queue.add(random.nextInt(NODE_COUNT));
+			}
+			nodeIdSequences[i] = new EfficientCompressedIntegerTrace(queue, false);
+		}
+		int[][] subTraceIdSequences = new int[SEQUENCE_COUNT][];
+		for (int i = 0; i < subTraceIdSequences.length; ++i) {
+			// some empty sequences
+			subTraceIdSequences[i] = new int[i % 10 == 0 ? 0 : 1 + random.nextInt(2)];
+			for (int j = 0; j < subTraceIdSequences[i].length; ++j) {
+				subTraceIdSequences[i][j] = 1 + random.nextInt(SEQUENCE_COUNT - 1);
+			}
+		}
+		return new SimpleIntIndexerCompressed(subTraceIdSequences, nodeIdSequences);
+	}
+
+	// sequence indices with (nested) loops, to get repetition markers on multiple levels
+	private static int[] createSequenceIndices(Random random, int depth) {
+		int[] indices = new int[0];
+		int parts = 1 + random.nextInt(4);
+		for (int part = 0; part < parts; ++part) {
+			int[] body;
+			if (depth > 0 && random.nextBoolean()) {
+				body = createSequenceIndices(random, depth - 1);
+			} else {
+				body = new int[1 + random.nextInt(3)];
+				for (int i = 0; i < body.length; ++i) {
+					body[i] = random.nextInt(SEQUENCE_COUNT);
+				}
+			}
+			int iterations = random.nextInt(3) == 0 ? 1 : 2 + random.nextInt(4);
+			int length = indices.length;
+			indices = Arrays.copyOf(indices, length + body.length * iterations);
+			for (int k = 0; k < iterations; ++k) {
+				System.arraycopy(body, 0, indices, length + k * body.length, body.length);
+			}
+		}
+		return indices;
+	}
+
+	private ExecutionTrace createTrace(int[] indices) {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, UUID.randomUUID().toString(), 100, true);
+		for (int index : indices) {
+			queue.add(index);
+		}
+		return new ExecutionTrace(queue, false);
+	}
+
+}
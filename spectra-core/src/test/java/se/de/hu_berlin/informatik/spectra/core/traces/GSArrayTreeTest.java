@@ -1,11 +1,24 @@
 package se.de.hu_berlin.informatik.spectra.core.traces;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
 import org.junit.After;
 import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntArrayIterator;
+
 
 /**
  * @author Simon
@@ -79,5 +92,151 @@ public class GSArrayTreeTest {
 		
 	}
 	
+	@Test
+	public void testContainsSequence() {
+		IntGSArrayTree tree = new IntGSArrayTree();
+		Assert.assertFalse(tree.containsSequence(new int[] {}, 0));
+		
+		tree.addSequence(new int[] {});
+		tree.addSequence(new int[] {s(1), s(2), s(11), s(3), s(4), s(6)});
+		tree.addSequence(new int[] {s(1), s(2), s(11), s(7)});
+		tree.addSequence(new int[] {s(12), s(14)});
+		
+		Assert.assertTrue(tree.containsSequence(new int[] {}, 0));
+		Assert.assertTrue(tree.containsSequence(new int[] {s(1), s(2), s(11), s(3), s(4), s(6)}, 6));
+		Assert.assertTrue(tree.containsSequence(new int[] {s(1), s(2), s(11), s(7)}, 4));
+		// only the given length of the array is checked
+		Assert.assertTrue(tree.containsSequence(new int[] {s(12), s(14), s(5), s(5)}, 2));
+		// prefixes and extensions of contained sequences
+		Assert.assertFalse(tree.containsSequence(new int[] {s(1), s(2), s(11)}, 3));
+		Assert.assertFalse(tree.containsSequence(new int[] {s(1), s(2), s(11), s(7), s(5)}, 5));
+		Assert.assertFalse(tree.containsSequence(new int[] {s(5)}, 1));
+		
+		tree.addSequence(new int[] {s(1), s(2), s(11)});
+		Assert.assertTrue(tree.containsSequence(new int[] {s(1), s(2), s(11)}, 3));
+		Assert.assertTrue(tree.containsSequence(new int[] {s(1), s(2), s(11), s(7)}, 4));
+	}
+	
+	@Test
+	public void testParallelConstruction() {
+		Random random = new Random(42);
+		for (int run = 0; run < 50; ++run) {
+			int alphabetSize = 3 + random.nextInt(30);
+			Set<Integer> startElements = new HashSet<>();
+			for (int i = 0; i < alphabetSize; ++i) {
+				if (random.nextInt(4) == 0) {
+					startElements.add(i);
+				}
+			}
+			int[][] traces = new int[1 + random.nextInt(20)][];
+			for (int t = 0; t < traces.length; ++t) {
+				traces[t] = new int[random.nextInt(100)];
+				for (int i = 0; i < traces[t].length; ++i) {
+					traces[t][i] = random.nextInt(alphabetSize);
+				}
+			}
+			
+			IntGSArrayTree sequentialTree = buildTree(traces, startElements, 1);
+			for (int threadCount : new int[] {2, 3, 8}) {
+				IntGSArrayTree parallelTree = buildTree(traces, startElements, threadCount);
+				Assert.assertEquals(sequentialTree.getEndNodeCount(), parallelTree.getEndNodeCount());
+				assertEqualBranches(sequentialTree.getBranches(), parallelTree.getBranches());
+				
+				IntGSArrayTreeIndexer sequentialIndexer = new IntGSArrayTreeIndexer(sequentialTree);
+				IntGSArrayTreeIndexer parallelIndexer = new IntGSArrayTreeIndexer(parallelTree);
+				for (int i = 0; i < sequentialTree.getEndNodeCount(); ++i) {
+					Assert.assertArrayEquals(sequentialIndexer.getSequence(i), parallelIndexer.getSequence(i));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testSequenceViews() {
+		testSequenceViews(IntGSArrayTreeIndexer.DEFAULT_MAX_FLAT_SEQUENCES_SIZE);
+	}
+	
+	@Test
+	public void testSequenceViewsWithoutFlatCopy() {
+		// the sequences are read from the node ranges in the tree's arena
+		testSequenceViews(0);
+	}
+	
+	private void testSequenceViews(int maxFlatSequencesSize) {
+		Random random = new Random(11);
+		Set<Integer> startElements = new HashSet<>(Arrays.asList(0, 4, 7));
+		int[][] traces = new int[10][];
+		for (int t = 0; t < traces.length; ++t) {
+			traces[t] = new int[1 + random.nextInt(80)];
+			for (int i = 0; i < traces[t].length; ++i) {
+				traces[t][i] = random.nextInt(10);
+			}
+		}
+		IntGSArrayTree tree = buildTree(traces, startElements, 1);
+		IntGSArrayTreeIndexer indexer = new IntGSArrayTreeIndexer(tree, maxFlatSequencesSize);
+		
+		for (int element = -1; element < 3; ++element) {
+			if (element >= 0) {
+				indexer.removeFromSequences(element);
+			}
+			IntSequenceView view = new IntSequenceView();
+			for (int i = 0; i < tree.getEndNodeCount(); ++i) {
+				// concatenated node sequences
+				List<Integer> expected = new ArrayList<>();
+				for (IntGSArrayTreeNode node : indexer.getSequences()[i]) {
+					for (int j = 0; j < node.getSequenceLength(); ++j) {
+						expected.add(node.getElement(j));
+					}
+				}
+				Assert.assertSame(view, indexer.getSequenceView(i, view));
+				Assert.assertEquals(expected.size(), view.length());
+				Assert.assertEquals(expected.size(), indexer.getSequenceLength(i));
+				int[] sequence = indexer.getSequence(i);
+				PrimitiveIterator.OfInt iterator = indexer.getSequenceIterator(i);
+				for (int j = 0; j < expected.size(); ++j) {
+					Assert.assertEquals(expected.get(j).intValue(), view.get(j));
+					Assert.assertEquals(expected.get(j).intValue(), sequence[j]);
+					Assert.assertEquals(expected.get(j).intValue(), iterator.nextInt());
+				}
+				Assert.assertFalse(iterator.hasNext());
+				Assert.assertArrayEquals(sequence, indexer.getSequenceView(i).toArray());
+			}
+		}
+	}
+	
+	private static IntGSArrayTree buildTree(int[][] traces, Set<Integer> startElements, int threadCount) {
+		IntGSArrayTree tree = new IntGSArrayTree();
+		IntGSArrayTreeBuilder builder = new IntGSArrayTreeBuilder(tree, startElements, threadCount);
+		for (int[] trace : traces) {
+			builder.addTrace(new IntArrayIterator(trace));
+		}
+		builder.finish();
+		return tree;
+	}
+	
+	private static void assertEqualBranches(Map<Integer, IntGSArrayTreeNode> expected, 
+			Map<Integer, IntGSArrayTreeNode> actual) {
+		Assert.assertEquals(expected.keySet(), actual.keySet());
+		for (Entry<Integer, IntGSArrayTreeNode> entry : expected.entrySet()) {
+			assertEqualNodes(entry.getValue(), actual.get(entry.getKey()));
+		}
+	}
+	
+	private static void assertEqualNodes(IntGSArrayTreeNode expected, IntGSArrayTreeNode actual) {
+		if (expected instanceof IntGSArrayTreeEndNode) {
+			Assert.assertTrue(actual instanceof IntGSArrayTreeEndNode);
+			Assert.assertEquals(((IntGSArrayTreeEndNode) expected).getIndex(), 
+					((IntGSArrayTreeEndNode) actual).getIndex());
+			return;
+		}
+		Assert.assertArrayEquals(expected.getSequence(), actual.getSequence());
+		List<IntGSArrayTreeNode> expectedEdges = expected.getEdges();
+		List<IntGSArrayTreeNode> actualEdges = actual.getEdges();
+		Assert.assertEquals(expectedEdges.size(), actualEdges.size());
+		for (int i = 0; i < expectedEdges.size(); ++i) {
+			assertEqualNodes(expectedEdges.get(i), actualEdges.get(i));
+		}
+	}
+	
 	
 }
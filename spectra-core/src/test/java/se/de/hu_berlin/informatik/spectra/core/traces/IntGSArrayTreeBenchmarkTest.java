@@ -0,0 +1,136 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.UUID;
+import java.util.zip.ZipException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.de.hu_berlin.informatik.spectra.core.ISpectra;
+import se.de.hu_berlin.informatik.spectra.core.ITrace;
+import se.de.hu_berlin.informatik.spectra.core.SourceCodeBlock;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntBitSet;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
+import se.de.hu_berlin.informatik.spectra.util.SpectraFileUtils;
+import se.de.hu_berlin.informatik.utils.miscellaneous.Log;
+import se.de.hu_berlin.informatik.utils.miscellaneous.TestSettings;
+
+/**
+ * Measures memory usage and throughput of building a GS tree from the
+ * traces of sub trace IDs that are stored in the Chart-22b spectra.
+ */
+public class IntGSArrayTreeBenchmarkTest extends TestSettings {
+
+	private static final int ROUNDS = 5;
+
+	@Test
+	public void testBuildTreeFromTraces() throws ZipException {
+		Path spectraFile = Paths.get(getStdResourcesDir(), "Chart-22b.zip");
+		ISpectra<SourceCodeBlock, ?> spectra = SpectraFileUtils.loadBlockSpectraFromZipFile(spectraFile);
+		SequenceIndexerCompressed indexer = spectra.getIndexer();
+		Assert.assertNotNull(indexer);
+
+		// reconstruct the raw traces of sub trace IDs and collect the starting elements
+		Path outputDir = Paths.get(getStdTestDir()).resolve("gsTreeBenchmark");
+		List<EfficientCompressedIntegerTrace> rawTraces = new ArrayList<>();
+		IntBitSet startElements = new IntBitSet();
+		long elementCount = 0;
+		for (ITrace<SourceCodeBlock> trace : spectra.getTraces()) {
+			for (ExecutionTrace executionTrace : trace.getExecutionTraces()) {
+				BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir.toFile(),
+						UUID.randomUUID().toString(), 10000, true);
+				TraceIterator iterator = executionTrace.iterator();
+				while (iterator.hasNext()) {
+					PrimitiveIterator.OfInt subTraceIds = indexer.getSubTraceIDSequenceIntIterator(iterator.next());
+					while (subTraceIds.hasNext()) {
+						queue.add(subTraceIds.nextInt());
+					}
+				}
+				if (queue.isEmpty()) {
+					continue;
+				}
+				elementCount += queue.size();
+				EfficientCompressedIntegerTrace rawTrace = new EfficientCompressedIntegerTrace(queue, false);
+				rawTrace.addStartingElements(startElements);
+				rawTraces.add(rawTrace);
+			}
+		}
+		Assert.assertFalse(rawTraces.isEmpty());
+
+		IntGSArrayTree tree = null;
+		long bestTime = Long.MAX_VALUE;
+		long usedMemory = 0;
+		for (int round = 0; round < ROUNDS; ++round) {
+			tree = null;
+			long memoryBefore = getUsedMemory();
+			long time = System.nanoTime();
+			tree = buildTree(rawTraces, startElements);
+			time = System.nanoTime() - time;
+			bestTime = Math.min(bestTime, time);
+			usedMemory = getUsedMemory() - memoryBefore;
+		}
+
+		Log.out(this, "%d raw traces, %d elements, %d starting elements",
+				rawTraces.size(), elementCount, startElements.size());
+		Log.out(this, "%d sequences, %d elements in arena, ~%d KB heap",
+				tree.getEndNodeCount(), tree.getArenaSize(), usedMemory / 1024);
+		Log.out(this, "best of %d rounds: %.2f ms, %.1f M elements/s", ROUNDS,
+				bestTime / 1e6, elementCount * 1e3 / bestTime);
+
+		// all raw traces can be indexed with the built tree
+		IntGSArrayTreeIndexer treeIndexer = new IntGSArrayTreeIndexer(tree);
+		IntSequenceView view = new IntSequenceView();
+		for (EfficientCompressedIntegerTrace rawTrace : rawTraces) {
+			ExecutionTrace indexedTrace = tree.generateIndexedTrace(rawTrace, treeIndexer);
+			TraceIterator expected = rawTrace.iterator();
+			TraceIterator indexedIterator = indexedTrace.iterator();
+			while (indexedIterator.hasNext()) {
+				treeIndexer.getSequenceView(indexedIterator.next(), view);
+				for (int i = 0; i < view.length(); ++i) {
+					Assert.assertEquals(expected.next(), view.get(i));
+				}
+			}
+			Assert.assertFalse(expected.hasNext());
+		}
+	}
+
+	private static IntGSArrayTree buildTree(List<EfficientCompressedIntegerTrace> rawTraces, IntBitSet startElements) {
+		IntGSArrayTree tree = new IntGSArrayTree();
+		for (EfficientCompressedIntegerTrace rawTrace : rawTraces) {
+			// same splitting as in the trace collector
+			ReplaceableCloneableIterator iterator = rawTrace.baseIterator();
+			ReplaceableCloneableIterator unprocessedIterator = iterator.clone();
+			int processedElements = 0;
+			while (iterator.hasNext()) {
+				if (processedElements > 0 && startElements.contains(iterator.peek())) {
+					tree.__addSequence(unprocessedIterator, processedElements, unprocessedIterator.peek());
+					unprocessedIterator = iterator.clone();
+					processedElements = 0;
+				}
+				++processedElements;
+				iterator.next();
+			}
+			if (processedElements > 0) {
+				tree.__addSequence(unprocessedIterator, processedElements, unprocessedIterator.peek());
+			}
+		}
+		return tree;
+	}
+
+	private static long getUsedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,182 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceReverseIterator;
+import se.de.hu_berlin.informatik.utils.miscellaneous.TestSettings;
+
+public class MappedIntIndexerCompressedTest extends TestSettings {
+
+	@Test
+	public void testWriteAndOpen() throws IOException {
+		Random random = new Random(42);
+		File outputDir = Paths.get(getStdTestDir()).resolve("mappedIndex").toFile();
+		int nodeIdSequenceCount = 50;
+		EfficientCompressedIntegerTrace[] nodeIdSequences = createNodeIdSequences(random, outputDir, nodeIdSequenceCount, 20);
+		int[][] subTraceIdSequences = createSubTraceIdSequences(random, 31, nodeIdSequenceCount);
+		SimpleIntIndexerCompressed expected = new SimpleIntIndexerCompressed(subTraceIdSequences, nodeIdSequences);
+
+		Path indexFile = outputDir.toPath().resolve("test.seqidx");
+		MappedIntIndexerCompressed.write(expected, indexFile);
+		MappedIntIndexerCompressed indexer = MappedIntIndexerCompressed.open(indexFile);
+
+		Assert.assertEquals(subTraceIdSequences.length, indexer.getSubTraceIdSequenceCount());
+		Assert.assertEquals(nodeIdSequenceCount, indexer.getNodeIdSequenceCount());
+		for (int i = 0; i < subTraceIdSequences.length; ++i) {
+			Assert.assertArrayEquals(subTraceIdSequences[i], indexer.getSubTraceIdSequence(i));
+			assertEqualElements(expected.getSubTraceIDSequenceReverseIntIterator(i),
+					indexer.getSubTraceIDSequenceReverseIntIterator(i));
+			assertEqualElements(expected.getFullSequenceIntIterator(i), indexer.getFullSequenceIntIterator(i));
+			assertEqualElements(expected.getFullSequenceReverseIntIterator(i), indexer.getFullSequenceReverseIntIterator(i));
+		}
+		for (int i = 1; i < nodeIdSequenceCount; ++i) {
+			TraceIterator expectedIterator = nodeIdSequences[i].iterator();
+			TraceIterator iterator = indexer.getNodeIdSequenceIterator(i);
+			while (expectedIterator.hasNext()) {
+				Assert.assertEquals(expectedIterator.next(), iterator.next());
+			}
+			Assert.assertFalse(iterator.hasNext());
+			TraceReverseIterator reverseIterator = indexer.getNodeIdSequenceReverseIterator(i);
+			TraceReverseIterator expectedReverseIterator = nodeIdSequences[i].reverseIterator();
+			while (expectedReverseIterator.hasNext()) {
+				Assert.assertEquals(expectedReverseIterator.next(), reverseIterator.next());
+			}
+			Assert.assertFalse(reverseIterator.hasNext());
+		}
+
+		// the expected indexer replaces the sequences in the given array
+		long expectedCount = 0;
+		for (int i = 1; i < nodeIdSequenceCount; ++i) {
+			expectedCount += nodeIdSequences[i].size();
+		}
+
+		// removal only affects the in-memory view
+		expected.removeFromSequences(Arrays.asList(0, 5));
+		indexer.removeFromSequences(Arrays.asList(0, 5));
+		for (int i = 0; i < subTraceIdSequences.length; ++i) {
+			assertEqualElements(expected.getFullSequenceIntIterator(i), indexer.getFullSequenceIntIterator(i));
+		}
+		MappedIntIndexerCompressed reopened = MappedIntIndexerCompressed.open(indexFile);
+		long count = 0;
+		for (int i = 1; i < nodeIdSequenceCount; ++i) {
+			count += reopened.getNodeIdSequence(i).size();
+		}
+		Assert.assertEquals(expectedCount, count);
+	}
+
+	@Test
+	public void testRemoveFromSequences() throws IOException {
+		Random random = new Random(7);
+		File outputDir = Paths.get(getStdTestDir()).resolve("removeFromSequences").toFile();
+		int nodeCount = 40;
+		int nodeIdSequenceCount = 60;
+		EfficientCompressedIntegerTrace[] nodeIdSequences = createNodeIdSequences(random, outputDir, nodeIdSequenceCount, nodeCount);
+		int[][] subTraceIdSequences = createSubTraceIdSequences(random, 25, nodeIdSequenceCount);
+
+		// naive copies of the sub traces to compare with
+		List<List<Integer>> expectedSequences = new ArrayList<>();
+		expectedSequences.add(new ArrayList<>());
+		for (int i = 1; i < nodeIdSequenceCount; ++i) {
+			List<Integer> sequence = new ArrayList<>();
+			TraceIterator iterator = nodeIdSequences[i].iterator();
+			while (iterator.hasNext()) {
+				sequence.add(iterator.next());
+			}
+			expectedSequences.add(sequence);
+		}
+
+		SimpleIntIndexerCompressed indexer = new SimpleIntIndexerCompressed(subTraceIdSequences, nodeIdSequences);
+		Path indexFile = outputDir.toPath().resolve("test.seqidx");
+		MappedIntIndexerCompressed.write(indexer, indexFile);
+		MappedIntIndexerCompressed mappedIndexer = MappedIntIndexerCompressed.open(indexFile);
+
+		// single nodes, lists with duplicates and unknown nodes, and already removed nodes
+		List<Collection<Integer>> removals = new ArrayList<>();
+		removals.add(Collections.singletonList(3));
+		removals.add(Arrays.asList(7, 7, 12, nodeCount + 5));
+		removals.add(Arrays.asList(3, 19));
+		removals.add(new HashSet<>(Arrays.asList(0, 1, 2)));
+		for (Collection<Integer> removal : removals) {
+			if (removal.size() == 1) {
+				indexer.removeFromSequences(removal.iterator().next().intValue());
+				mappedIndexer.removeFromSequences(removal.iterator().next().intValue());
+			} else {
+				indexer.removeFromSequences(removal);
+				mappedIndexer.removeFromSequences(removal);
+			}
+			for (List<Integer> sequence : expectedSequences) {
+				sequence.removeAll(removal);
+			}
+
+			for (int i = 1; i < nodeIdSequenceCount; ++i) {
+				assertEqualElements(expectedSequences.get(i).iterator(), indexer.getNodeIdSequenceIterator(i));
+				assertEqualElements(expectedSequences.get(i).iterator(), mappedIndexer.getNodeIdSequenceIterator(i));
+			}
+			for (int i = 0; i < subTraceIdSequences.length; ++i) {
+				assertEqualElements(indexer.getFullSequenceIntIterator(i), mappedIndexer.getFullSequenceIntIterator(i));
+			}
+		}
+	}
+
+	private static EfficientCompressedIntegerTrace[] createNodeIdSequences(Random random, File outputDir,
+			int nodeIdSequenceCount, int nodeCount) {
+		EfficientCompressedIntegerTrace[] nodeIdSequences = new EfficientCompressedIntegerTrace[nodeIdSequenceCount];
+		for (int i = 1; i < nodeIdSequenceCount; ++i) {
+			BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, UUID.randomUUID().toString(), 100, true);
+			int length = 1 + random.nextInt(300);
+			for (int j = 0; j < length; ++j) {
+				// some repetitions to get repetition markers
+				queue.add(j % 7 == 0 ? random.nextInt(nodeCount) : j % 3);
+			}
+			nodeIdSequences[i] = new EfficientCompressedIntegerTrace(queue, false);
+		}
+		return nodeIdSequences;
+	}
+
+	private static int[][] createSubTraceIdSequences(Random random, int count, int nodeIdSequenceCount) {
+		int[][] subTraceIdSequences = new int[count][];
+		for (int i = 0; i < subTraceIdSequences.length; ++i) {
+			subTraceIdSequences[i] = new int[random.nextInt(10)];
+			for (int j = 0; j < subTraceIdSequences[i].length; ++j) {
+				subTraceIdSequences[i][j] = 1 + random.nextInt(nodeIdSequenceCount - 1);
+			}
+		}
+		return subTraceIdSequences;
+	}
+
+	private static void assertEqualElements(Iterator<Integer> expected, TraceIterator actual) {
+		while (expected.hasNext()) {
+			Assert.assertTrue(actual.hasNext());
+			Assert.assertEquals(expected.next().intValue(), actual.next());
+		}
+		Assert.assertFalse(actual.hasNext());
+	}
+
+	private static void assertEqualElements(PrimitiveIterator.OfInt expected, PrimitiveIterator.OfInt actual) {
+		while (expected.hasNext()) {
+			Assert.assertTrue(actual.hasNext());
+			Assert.assertEquals(expected.nextInt(), actual.nextInt());
+		}
+		Assert.assertFalse(actual.hasNext());
+	}
+
+}
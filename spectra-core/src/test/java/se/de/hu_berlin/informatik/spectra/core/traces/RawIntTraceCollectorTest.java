@@ -5,6 +5,7 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.zip.ZipException;
@@ -22,8 +23,11 @@ import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.CoberturaStatementEncoding;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.SingleLinkedArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.IntTraceCompressors;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
+import se.de.hu_berlin.informatik.spectra.util.SpectraFileUtils;
+import se.de.hu_berlin.informatik.utils.compression.ziputils.ZipFileWrapper;
 import se.de.hu_berlin.informatik.utils.miscellaneous.TestSettings;
 
 
@@ -751,6 +755,128 @@ public class RawIntTraceCollectorTest extends TestSettings {
 		}
 	}
 
+	@Test
+	public void testGrammarCompressedRawTraces() throws ZipException {
+		String compressorName = System.getProperty(IntTraceCompressors.TRACE_COMPRESSOR_PROPERTY);
+		System.setProperty(IntTraceCompressors.TRACE_COMPRESSOR_PROPERTY, IntTraceCompressors.GRAMMAR);
+		try {
+			Path outputDir = Paths.get(getStdTestDir()).resolve("testGrammar");
+			RawIntTraceCollector collector = new RawIntTraceCollector(outputDir);
+			Map<Integer, EfficientCompressedIntegerTrace> idToSubTraceMap = generateIdToSubtraceMap(outputDir, 5, "testGrammar");
+
+			int[][] traceArrays = new int[][] {
+				s(1,2,3,4, 1,2,3,4, 5, 1,2,3,4, 2,3, 5, 2,3),
+				s(2,3,4,5, 2,3,4,5, 1, 4,5, 1,2) };
+			for (int i = 0; i < traceArrays.length; ++i) {
+				collector.addRawTraceToPool(i + 1, 0, traceArrays[i], false, outputDir, "g" + i, 
+						generateIdToSubtraceMap(outputDir, 5, "testGrammar"));
+			}
+
+			for (int i = 0; i < traceArrays.length; ++i) {
+				// the rules are loaded from the zip file to expand the stored symbols
+				EfficientCompressedIntegerTrace rawTrace = collector.getRawTraces(i + 1).get(0);
+				Assert.assertNotNull(rawTrace.getGrammar());
+				Assert.assertTrue(rawTrace.getGrammar().size() > 0);
+				Assert.assertEquals(traceArrays[i].length, rawTrace.size());
+				TraceIterator iterator = rawTrace.iterator();
+				for (int element : traceArrays[i]) {
+					Assert.assertEquals(element, iterator.next());
+				}
+				Assert.assertFalse(iterator.hasNext());
+			}
+
+			int[][] subTraceIdSequences = null;
+			for (int i = 0; i < traceArrays.length; ++i) {
+				ExecutionTrace executionTrace = collector.calculateExecutionTraces(i + 1, false).get(0);
+				if (subTraceIdSequences == null) {
+					subTraceIdSequences = getSubTraceIdSequences(collector);
+				}
+				SimpleIntIndexerCompressed simpleIndexer = new SimpleIntIndexerCompressed(subTraceIdSequences, 
+						getNodeIdSequences(outputDir, idToSubTraceMap));
+				checkMappedTrace(traceArrays[i], executionTrace.reconstructFullMappedTrace(simpleIndexer));
+			}
+		} finally {
+			if (compressorName == null) {
+				System.clearProperty(IntTraceCompressors.TRACE_COMPRESSOR_PROPERTY);
+			} else {
+				System.setProperty(IntTraceCompressors.TRACE_COMPRESSOR_PROPERTY, compressorName);
+			}
+		}
+	}
+
+	@Test
+	public void testGenerateExecutionTracesWithUnmatchedSequences() throws ZipException {
+		Path outputDir = Paths.get(getStdTestDir()).resolve("testUnmatched");
+		RawIntTraceCollector collector = new RawIntTraceCollector(outputDir);
+		Map<Integer, EfficientCompressedIntegerTrace> idToSubTraceMap = generateIdToSubtraceMap(outputDir, 9, "testUnmatched");
+
+		int[] traceArray1 = s(1,2,3,4, 1,2,3,4, 5, 1,2,3,4);
+		collector.addRawTraceToPool(1, 0, traceArray1, false, outputDir, "u1", 
+				generateIdToSubtraceMap(outputDir, 9, "testUnmatched"));
+		// builds the GS tree from the first test's raw trace
+		Assert.assertEquals(1, collector.calculateExecutionTraces(1, false).size());
+		int sequenceCount = collector.getIndexer().getSequences().length;
+
+		// the second thread's trace contains elements that are not in the GS tree, yet
+		int[][] traceArrays2 = new int[][] {
+			s(1,2,3,4, 5, 1,2,3,4),
+			s(6,7,8, 6,7,8, 9, 1,2,3,4, 9, 6,7,8) };
+		for (int i = 0; i < traceArrays2.length; ++i) {
+			collector.addRawTraceToPool(2, i, traceArrays2[i], false, outputDir, "u2-" + i, 
+					generateIdToSubtraceMap(outputDir, 9, "testUnmatched"));
+		}
+		List<ExecutionTrace> executionTraces = collector.calculateExecutionTraces(2, false);
+		Assert.assertEquals(traceArrays2.length, executionTraces.size());
+		// the unmatched trace was added to the GS tree
+		Assert.assertTrue(collector.getIndexer().getSequences().length > sequenceCount);
+
+		SimpleIntIndexerCompressed simpleIndexer = new SimpleIntIndexerCompressed(getSubTraceIdSequences(collector), 
+				getNodeIdSequences(outputDir, idToSubTraceMap));
+		// the execution traces are stored in the execution trace zip file
+		ZipFileWrapper zip = ZipFileWrapper.getZipFileWrapper(collector.getExecutionTraceZipFilePath());
+		for (int i = 0; i < traceArrays2.length; ++i) {
+			ExecutionTrace storedTrace = SpectraFileUtils.loadExecutionTraceFromZipFile(zip, 
+					"2-" + i + SpectraFileUtils.EXECUTION_TRACE_FILE_EXTENSION, 
+					"2-" + i + SpectraFileUtils.EXECUTION_TRACE_REPETITIONS_FILE_EXTENSION);
+			checkMappedTrace(traceArrays2[i], storedTrace.reconstructFullMappedTrace(simpleIndexer));
+			checkMappedTrace(traceArrays2[i], executionTraces.get(i).reconstructFullMappedTrace(simpleIndexer));
+		}
+		// the previously stored execution trace is still valid with the extended tree
+		checkMappedTrace(traceArray1, collector.calculateExecutionTraces(1, false).get(0)
+				.reconstructFullMappedTrace(simpleIndexer));
+	}
+
+	@Test
+	public void testTraceStreamIds() throws ZipException {
+		Path outputDir = Paths.get(getStdTestDir()).resolve("testStreamIds");
+		RawIntTraceCollector collector = new RawIntTraceCollector(outputDir);
+		Map<Integer, EfficientCompressedIntegerTrace> idToSubTraceMap = generateIdToSubtraceMap(outputDir, 8, "testStreamIds");
+
+		// trace stream ids are neither consecutive nor added in order
+		int[] traceArray42 = s(1,2,3,4, 1,2,3,4, 5,6);
+		int[] traceArray7 = s(7,8, 1,2,3,4);
+		collector.addRawTraceToPool(1, 42, traceArray42, false, outputDir, "s42", 
+				generateIdToSubtraceMap(outputDir, 8, "testStreamIds"));
+		collector.addRawTraceToPool(1, 7, traceArray7, false, outputDir, "s7", 
+				generateIdToSubtraceMap(outputDir, 8, "testStreamIds"));
+		Assert.assertArrayEquals(new long[] { 7, 42 }, collector.getTraceStreamIds(1));
+		Assert.assertArrayEquals(new long[0], collector.getTraceStreamIds(2));
+
+		// the raw traces are ordered by their trace stream ids
+		List<EfficientCompressedIntegerTrace> rawTraces = collector.getRawTraces(1);
+		Assert.assertEquals(2, rawTraces.size());
+		Assert.assertEquals(traceArray7.length, rawTraces.get(0).size());
+		Assert.assertEquals(traceArray42.length, rawTraces.get(1).size());
+
+		// the execution traces are indexed by the position of the trace stream ids
+		List<ExecutionTrace> executionTraces = collector.calculateExecutionTraces(1, false);
+		Assert.assertEquals(2, executionTraces.size());
+		SimpleIntIndexerCompressed simpleIndexer = new SimpleIntIndexerCompressed(getSubTraceIdSequences(collector), 
+				getNodeIdSequences(outputDir, idToSubTraceMap));
+		checkMappedTrace(traceArray7, executionTraces.get(0).reconstructFullMappedTrace(simpleIndexer));
+		checkMappedTrace(traceArray42, executionTraces.get(1).reconstructFullMappedTrace(simpleIndexer));
+	}
+
 	private String mapToString(BufferedMap<int[]> map) {
 		if (map == null) {
 			return "null";
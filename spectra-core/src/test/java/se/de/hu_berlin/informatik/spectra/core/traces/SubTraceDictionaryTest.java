@@ -0,0 +1,172 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.PrimitiveIterator;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.utils.miscellaneous.TestSettings;
+
+public class SubTraceDictionaryTest extends TestSettings {
+
+	private File outputDir = Paths.get(getStdTestDir()).resolve("subTraceDictionary").toFile();
+
+	@Test
+	public void testGetOrCreateId() {
+		SubTraceDictionary dictionary = new SubTraceDictionary(outputDir);
+		int[] elements = { 9, 1, 2, 3, 1, 2, 3, 4 };
+
+		Assert.assertEquals(SubTraceDictionary.NO_ID, dictionary.getOrCreateId(elements, 0, 0));
+		int id = dictionary.getOrCreateId(elements, 1, 3);
+		Assert.assertEquals(1, id);
+		// same contents at a different position
+		Assert.assertEquals(id, dictionary.getOrCreateId(elements, 4, 3));
+		Assert.assertEquals(id, dictionary.getId(new int[] { 1, 2, 3 }, 0, 3));
+
+		// prefixes and extensions are different sub traces
+		int prefixId = dictionary.getOrCreateId(elements, 1, 2);
+		int extendedId = dictionary.getOrCreateId(elements, 4, 4);
+		Assert.assertNotEquals(id, prefixId);
+		Assert.assertNotEquals(id, extendedId);
+		Assert.assertNotEquals(prefixId, extendedId);
+		Assert.assertEquals(3, dictionary.size());
+		Assert.assertEquals(SubTraceDictionary.NO_ID, dictionary.getId(elements, 0, 2));
+
+		Assert.assertArrayEquals(new int[] { 1, 2, 3 }, dictionary.getSubTrace(id));
+		Assert.assertArrayEquals(new int[] { 1, 2, 3, 4 }, dictionary.getSubTrace(extendedId));
+		Assert.assertArrayEquals(new int[0], dictionary.getSubTrace(SubTraceDictionary.NO_ID));
+	}
+
+	@Test
+	public void testManySubTraces() {
+		SubTraceDictionary dictionary = new SubTraceDictionary(outputDir);
+		int count = 20000;
+		for (int i = 0; i < count; ++i) {
+			Assert.assertEquals(i + 1, dictionary.getOrCreateId(new int[] { i, i % 7, i % 13 }, 0, 3));
+		}
+		for (int i = count - 1; i >= 0; --i) {
+			Assert.assertEquals(i + 1, dictionary.getOrCreateId(new int[] { i, i % 7, i % 13 }, 0, 3));
+			Assert.assertArrayEquals(new int[] { i, i % 7, i % 13 }, dictionary.getSubTrace(i + 1));
+		}
+		Assert.assertEquals(count, dictionary.size());
+		// every stored sub trace is verified, so collisions would not result in wrong IDs
+		Assert.assertEquals(0, dictionary.getCollisionCount());
+
+		dictionary.clear();
+		Assert.assertEquals(0, dictionary.size());
+		Assert.assertEquals(SubTraceDictionary.NO_ID, dictionary.getId(new int[] { 0, 0, 0 }, 0, 3));
+		Assert.assertEquals(1, dictionary.getOrCreateId(new int[] { 1, 1, 1 }, 0, 3));
+	}
+
+	@Test
+	public void testLongSubTraces() {
+		// the contents span multiple nodes of the buffered queue
+		SubTraceDictionary dictionary = new SubTraceDictionary(outputDir);
+		int length = TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE / 3 + 7;
+		int[][] subTraces = new int[8][length];
+		for (int i = 0; i < subTraces.length; ++i) {
+			for (int j = 0; j < length; ++j) {
+				subTraces[i][j] = j % (i + 2);
+			}
+			Assert.assertEquals(i + 1, dictionary.getOrCreateId(subTraces[i], 0, length));
+		}
+		for (int i = subTraces.length - 1; i >= 0; --i) {
+			Assert.assertEquals(i + 1, dictionary.getId(subTraces[i].clone(), 0, length));
+			Assert.assertArrayEquals(subTraces[i], dictionary.getSubTrace(i + 1));
+		}
+		// differs only in the last element
+		int[] changed = subTraces[3].clone();
+		++changed[length - 1];
+		Assert.assertEquals(SubTraceDictionary.NO_ID, dictionary.getId(changed, 0, length));
+		dictionary.clear();
+	}
+
+	@Test
+	public void testDeduplicate() {
+		int[][] contents = {
+				null,
+				{ 1, 2, 3 },
+				{ 4, 5 },
+				{ 1, 2, 3 },
+				{ 6 },
+				{ 4, 5 },
+				{ 1, 2, 3 } };
+		EfficientCompressedIntegerTrace[] nodeIdSequences = new EfficientCompressedIntegerTrace[contents.length];
+		for (int i = 1; i < contents.length; ++i) {
+			nodeIdSequences[i] = createTrace(outputDir, contents[i]);
+		}
+		int[][] subTraceIdSequences = { { 1, 3, 6 }, { 2, 5, 4 }, {}, { 6, 6, 3 } };
+		SimpleIntIndexerCompressed indexer = new SimpleIntIndexerCompressed(subTraceIdSequences, nodeIdSequences);
+
+		SequenceIndexerCompressed deduplicated = SubTraceDictionary.deduplicate(indexer, outputDir);
+		Assert.assertNotSame(indexer, deduplicated);
+		Assert.assertEquals(4, deduplicated.getNodeIdSequences().length);
+		Assert.assertArrayEquals(new int[] { 1, 1, 1 }, deduplicated.getSubTraceIdSequences()[0]);
+		Assert.assertArrayEquals(new int[] { 2, 2, 3 }, deduplicated.getSubTraceIdSequences()[1]);
+		for (int i = 0; i < subTraceIdSequences.length; ++i) {
+			PrimitiveIterator.OfInt expected = indexer.getFullSequenceIntIterator(i);
+			PrimitiveIterator.OfInt actual = deduplicated.getFullSequenceIntIterator(i);
+			while (expected.hasNext()) {
+				Assert.assertTrue(actual.hasNext());
+				Assert.assertEquals(expected.nextInt(), actual.nextInt());
+			}
+			Assert.assertFalse(actual.hasNext());
+		}
+
+		// nothing to do without duplicates
+		Assert.assertSame(deduplicated, SubTraceDictionary.deduplicate(deduplicated, outputDir));
+	}
+	@Test
+	public void testDeduplicateEmptyAndLongSubTraces() {
+		// longer than a batch, with repetitions
+		int[] loop = new int[10000];
+		for (int i = 0; i < loop.length; ++i) {
+			loop[i] = i % 17;
+		}
+		int[] changedLoop = loop.clone();
+		changedLoop[9000] = 42;
+		EfficientCompressedIntegerTrace[] nodeIdSequences = {
+				null,
+				createTrace(outputDir, new int[0]),
+				createTrace(outputDir, loop),
+				createTrace(outputDir, new int[0]),
+				createTrace(outputDir, changedLoop),
+				createTrace(outputDir, loop) };
+		int[][] subTraceIdSequences = { { 1, 2, 3 }, { 4, 5 } };
+		SimpleIntIndexerCompressed indexer = new SimpleIntIndexerCompressed(subTraceIdSequences, nodeIdSequences);
+
+		SequenceIndexerCompressed deduplicated = SubTraceDictionary.deduplicate(indexer, outputDir);
+		// all empty sub traces share one ID
+		Assert.assertEquals(4, deduplicated.getNodeIdSequences().length);
+		Assert.assertArrayEquals(new int[] { 1, 2, 1 }, deduplicated.getSubTraceIdSequences()[0]);
+		Assert.assertArrayEquals(new int[] { 3, 2 }, deduplicated.getSubTraceIdSequences()[1]);
+
+		// compressed sub traces get the same IDs as their expanded contents
+		SubTraceDictionary dictionary = new SubTraceDictionary(outputDir);
+		int id = dictionary.getOrCreateId(nodeIdSequences[2]);
+		Assert.assertEquals(id, dictionary.getOrCreateId(loop, 0, loop.length));
+		Assert.assertEquals(id, dictionary.getOrCreateId(nodeIdSequences[5]));
+		Assert.assertArrayEquals(loop, dictionary.getSubTrace(id));
+		int changedId = dictionary.getOrCreateId(changedLoop, 0, changedLoop.length);
+		Assert.assertEquals(changedId, dictionary.getOrCreateId(nodeIdSequences[4]));
+		Assert.assertNotEquals(id, changedId);
+		Assert.assertEquals(SubTraceDictionary.NO_ID, dictionary.getOrCreateId(nodeIdSequences[1]));
+		Assert.assertEquals(2, dictionary.size());
+		dictionary.clear();
+	}
+
+	private static EfficientCompressedIntegerTrace createTrace(File outputDir, int[] elements) {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, UUID.randomUUID().toString(), 100, true);
+		for (int element : elements) {
+			queue.add(element);
+		}
+		return new EfficientCompressedIntegerTrace(queue, false);
+	}
+
+}
@@ -0,0 +1,334 @@
+package se.de.hu_berlin.informatik.spectra.core.traces;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.SpillStatistics;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.utils.miscellaneous.TestSettings;
+
+public class TraceDiffTest extends TestSettings {
+
+	private static final int SEQUENCE_COUNT = 30;
+
+	private final File outputDir = Paths.get(getStdTestDir()).resolve("traceDiff").toFile();
+
+	@Test
+	public void testDiffAgainstNaiveDiff() {
+		Random random = new Random(42);
+		SequenceIndexerCompressed indexer = createIndexer(random);
+		for (int round = 0; round < 100; ++round) {
+			int[] failingIndices = createSequenceIndices(random);
+			int[] passingIndices = mutate(random, failingIndices);
+			ExecutionTrace failingTrace = createTrace(failingIndices);
+			ExecutionTrace passingTrace = createTrace(passingIndices);
+			int[] failing = failingTrace.reconstructFullMappedTrace(indexer);
+			int[] passing = passingTrace.reconstructFullMappedTrace(indexer);
+
+			TraceDiff traceDiff = new TraceDiff(indexer, outputDir);
+			Assert.assertEquals(failing.length, traceDiff.getLength(failingTrace));
+			Assert.assertEquals(getFirstDivergence(failing, passing), traceDiff.findFirstDivergence(failingTrace, passingTrace));
+
+			TraceDiff.Result result = traceDiff.diff(failingTrace, passingTrace);
+			Assert.assertEquals(getFirstDivergence(failing, passing), result.getFirstDivergence());
+			assertSegmentsTransform(result, failing, passing);
+			// the found edits are minimal
+			long edits = 0;
+			for (TraceDiff.Segment segment : result.getSegments()) {
+				edits += segment.getFailingLength() + segment.getPassingLength();
+			}
+			Assert.assertEquals(failing.length + passing.length - 2 * getLcsLength(failing, passing), edits);
+
+			// with a small number of allowed edits, the differing parts are still covered
+			result = new TraceDiff(indexer, outputDir, 2).diff(failingTrace, passingTrace);
+			assertSegmentsTransform(result, failing, passing);
+			result.clear();
+		}
+	}
+
+	@Test
+	public void testEqualTraces() {
+		Random random = new Random(7);
+		SequenceIndexerCompressed indexer = createIndexer(random);
+		int[] indices = createSequenceIndices(random);
+		TraceDiff traceDiff = new TraceDiff(indexer, outputDir);
+
+		TraceDiff.Result result = traceDiff.diff(createTrace(indices), createTrace(indices));
+		Assert.assertTrue(result.isEqual());
+		Assert.assertTrue(result.getSegments().isEmpty());
+		Assert.assertEquals(-1, traceDiff.findFirstDivergence(createTrace(indices), createTrace(indices)));
+		Assert.assertEquals(-1, traceDiff.findFirstDivergence(createTrace(new int[0]), createTrace(new int[0])));
+	}
+
+	@Test
+	public void testDiffWithNearestPassingTrace() {
+		Random random = new Random(3);
+		SequenceIndexerCompressed indexer = createIndexer(random);
+		int[] failingIndices = createSequenceIndices(random);
+		int[] similarIndices = Arrays.copyOf(failingIndices, failingIndices.length);
+		similarIndices[similarIndices.length / 2] = 0;
+
+		List<ExecutionTrace> passingTraces = new ArrayList<>();
+		passingTraces.add(createTrace(createSequenceIndices(random)));
+		ExecutionTrace similarTrace = createTrace(similarIndices);
+		passingTraces.add(similarTrace);
+		passingTraces.add(createTrace(createSequenceIndices(random)));
+
+		TraceDiff traceDiff = new TraceDiff(indexer, outputDir);
+		ExecutionTrace failingTrace = createTrace(failingIndices);
+		TraceDiff.Result result = traceDiff.diffWithNearestPassingTrace(failingTrace, passingTraces);
+		Assert.assertSame(similarTrace, result.getPassingTrace());
+		assertSegmentsTransform(result, failingTrace.reconstructFullMappedTrace(indexer),
+				similarTrace.reconstructFullMappedTrace(indexer));
+
+		Assert.assertNull(traceDiff.diffWithNearestPassingTrace(failingTrace, new ArrayList<ExecutionTrace>()));
+	}
+
+	@Test
+	public void testDiffWithDifferentIterationCounts() {
+		Random random = new Random(11);
+		SequenceIndexerCompressed indexer = createIndexer(random);
+		for (int round = 0; round < 50; ++round) {
+			// equal nested loops with (possibly) different numbers of iterations
+			int[] prefix = createSequenceIndices(random);
+			int[] suffix = createSequenceIndices(random);
+			int[] innerBody = createBody(random);
+			int[] outerBody = createBody(random);
+			int innerIterations = 2 + random.nextInt(20);
+			int outerIterations = 2 + random.nextInt(20);
+			int[] failingIndices = createNestedLoop(prefix, innerBody, innerIterations,
+					outerBody, outerIterations, suffix);
+			int[] passingIndices = createNestedLoop(prefix, innerBody, innerIterations + random.nextInt(3) - 1,
+					outerBody, outerIterations + random.nextInt(3) - 1, suffix);
+			ExecutionTrace failingTrace = createTrace(failingIndices);
+			ExecutionTrace passingTrace = createTrace(passingIndices);
+			int[] failing = failingTrace.reconstructFullMappedTrace(indexer);
+			int[] passing = passingTrace.reconstructFullMappedTrace(indexer);
+
+			TraceDiff traceDiff = new TraceDiff(indexer, outputDir);
+			Assert.assertEquals(failing.length, traceDiff.getLength(failingTrace));
+			Assert.assertEquals(getFirstDivergence(failing, passing), traceDiff.findFirstDivergence(failingTrace, passingTrace));
+
+			TraceDiff.Result result = traceDiff.diff(failingTrace, passingTrace);
+			Assert.assertEquals(getFirstDivergence(failing, passing), result.getFirstDivergence());
+			assertSegmentsTransform(result, failing, passing);
+			result.clear();
+		}
+	}
+
+	@Test
+	public void testDiffOfSpilledParts() {
+		Random random = new Random(5);
+		for (int round = 0; round < 5; ++round) {
+			int[] failing = new int[6000];
+			for (int i = 0; i < failing.length; ++i) {
+				failing[i] = random.nextInt(SEQUENCE_COUNT);
+			}
+			int[] passing = mutate(random, failing);
+
+			// small nodes, so the parts consist of more nodes than may be cached
+			long spillCount = SpillStatistics.getSpillCount();
+			BufferedIntArrayQueue failingPart = createQueue(failing, 64);
+			BufferedIntArrayQueue passingPart = createQueue(passing, 64);
+			Assert.assertTrue(SpillStatistics.getSpillCount() > spillCount);
+
+			List<TraceDiff.Segment> segments = new MyersDiff(failingPart, passingPart, TraceDiff.DEFAULT_MAX_EDITS).diff();
+			// replacing the differing segments of the failing part results in the passing part
+			List<Integer> transformed = new ArrayList<>();
+			int position = 0;
+			long edits = 0;
+			for (TraceDiff.Segment segment : segments) {
+				while (position < segment.getFailingStart()) {
+					transformed.add(failing[position++]);
+				}
+				for (long i = segment.getPassingStart(); i < segment.getPassingEnd(); ++i) {
+					transformed.add(passing[(int) i]);
+				}
+				position = (int) segment.getFailingEnd();
+				edits += segment.getFailingLength() + segment.getPassingLength();
+			}
+			while (position < failing.length) {
+				transformed.add(failing[position++]);
+			}
+			Assert.assertEquals(passing.length, transformed.size());
+			for (int i = 0; i < passing.length; ++i) {
+				Assert.assertEquals(passing[i], transformed.get(i).intValue());
+			}
+			Assert.assertEquals(failing.length + passing.length - 2 * getLcsLength(failing, passing), edits);
+			failingPart.clear();
+			passingPart.clear();
+		}
+	}
+
+	private static void assertSegmentsTransform(TraceDiff.Result result, int[] failing, int[] passing) {
+		// replacing the differing segments of the failing trace results in the passing trace
+		int[] transformed = new int[passing.length];
+		int length = 0;
+		int position = 0;
+		for (TraceDiff.Segment segment : result.getSegments()) {
+			Assert.assertTrue(segment.getFailingStart() >= position);
+			Assert.assertEquals(segment.getFailingStart() - position, segment.getPassingStart() - length);
+			while (position < segment.getFailingStart()) {
+				transformed[length++] = failing[position++];
+			}
+			Assert.assertArrayEquals(Arrays.copyOfRange(failing, (int) segment.getFailingStart(), (int) segment.getFailingEnd()),
+					result.getFailingNodeIds(segment));
+			for (int nodeId : result.getPassingNodeIds(segment)) {
+				transformed[length++] = nodeId;
+			}
+			position = (int) segment.getFailingEnd();
+		}
+		while (position < failing.length) {
+			transformed[length++] = failing[position++];
+		}
+		Assert.assertEquals(passing.length, length);
+		Assert.assertArrayEquals(passing, transformed);
+	}
+
+	private static long getFirstDivergence(int[] failing, int[] passing) {
+		int i = 0;
+		while (i < failing.length && i < passing.length && failing[i] == passing[i]) {
+			++i;
+		}
+		return i == failing.length && i == passing.length ? -1 : i;
+	}
+
+	private static int getLcsLength(int[] a, int[] b) {
+		int[] previous = new int[b.length + 1];
+		int[] current = new int[b.length + 1];
+		for (int i = 1; i <= a.length; ++i) {
+			for (int j = 1; j <= b.length; ++j) {
+				current[j] = a[i - 1] == b[j - 1] ? previous[j - 1] + 1 : Math.max(previous[j], current[j - 1]);
+			}
+			int[] temp = previous;
+			previous = current;
+			current = temp;
+		}
+		return previous[b.length];
+	}
+
+	private SequenceIndexerCompressed createIndexer(Random random) {
+		// few different nodes, so different sequences may contain equal node IDs
+		EfficientCompressedIntegerTrace[] nodeIdSequences = new EfficientCompressedIntegerTrace[SEQUENCE_COUNT];
+		for (int i = 1; i < nodeIdSequences.length; ++i) {
+			BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, UUID.randomUUID().toString(), 100, true);
+			int length = 1 + random.nextInt(4);
+			for (int j = 0; j < length; ++j) {
+				queue.add(random.nextInt(8));
+			}
+			nodeIdSequences[i] = new EfficientCompressedIntegerTrace(queue, false);
+		}
+		int[][] subTraceIdSequences = new int[SEQUENCE_COUNT][];
+		for (int i = 0; i < subTraceIdSequences.length; ++i) {
+			// some empty sequences
+			subTraceIdSequences[i] = new int[i % 10 == 0 ? 0 : 1 + random.nextInt(2)];
+			for (int j = 0; j < subTraceIdSequences[i].length; ++j) {
+				subTraceIdSequences[i][j] = 1 + random.nextInt(SEQUENCE_COUNT - 1);
+			}
+		}
+		return new SimpleIntIndexerCompressed(subTraceIdSequences, nodeIdSequences);
+	}
+
+	// sequence indices with loops, to get repetition markers in the execution traces
+	private static int[] createSequenceIndices(Random random) {
+		int[] indices = new int[400];
+		int length = 0;
+		while (length < 100 + random.nextInt(100)) {
+			int[] body = new int[1 + random.nextInt(4)];
+			for (int i = 0; i < body.length; ++i) {
+				body[i] = random.nextInt(SEQUENCE_COUNT);
+			}
+			int iterations = random.nextInt(3) == 0 ? 2 + random.nextInt(5) : 1;
+			for (int k = 0; k < iterations && length + body.length <= indices.length; ++k) {
+				System.arraycopy(body, 0, indices, length, body.length);
+				length += body.length;
+			}
+		}
+		return Arrays.copyOf(indices, length);
+	}
+
+	private static int[] createBody(Random random) {
+		int[] body = new int[1 + random.nextInt(4)];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = random.nextInt(SEQUENCE_COUNT);
+		}
+		return body;
+	}
+
+	// prefix, (innerBody^innerIterations outerBody)^outerIterations, suffix
+	private static int[] createNestedLoop(int[] prefix, int[] innerBody, int innerIterations,
+			int[] outerBody, int outerIterations, int[] suffix) {
+		List<Integer> result = new ArrayList<>();
+		for (int index : prefix) {
+			result.add(index);
+		}
+		for (int i = 0; i < outerIterations; ++i) {
+			for (int j = 0; j < innerIterations; ++j) {
+				for (int index : innerBody) {
+					result.add(index);
+				}
+			}
+			for (int index : outerBody) {
+				result.add(index);
+			}
+		}
+		for (int index : suffix) {
+			result.add(index);
+		}
+		int[] indices = new int[result.size()];
+		for (int i = 0; i < indices.length; ++i) {
+			indices[i] = result.get(i);
+		}
+		return indices;
+	}
+
+	private static int[] mutate(Random random, int[] indices) {
+		List<Integer> result = new ArrayList<>();
+		for (int index : indices) {
+			result.add(index);
+		}
+		int changes = random.nextInt(6);
+		for (int i = 0; i < changes && !result.isEmpty(); ++i) {
+			int position = random.nextInt(result.size());
+			switch (random.nextInt(3)) {
+			case 0:
+				result.remove(position);
+				break;
+			case 1:
+				result.add(position, random.nextInt(SEQUENCE_COUNT));
+				break;
+			default:
+				result.set(position, random.nextInt(SEQUENCE_COUNT));
+			}
+		}
+		int[] mutated = new int[result.size()];
+		for (int i = 0; i < mutated.length; ++i) {
+			mutated[i] = result.get(i);
+		}
+		return mutated;
+	}
+
+	private BufferedIntArrayQueue createQueue(int[] elements, int nodeSize) {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, UUID.randomUUID().toString(), nodeSize, true);
+		queue.addAll(elements, 0, elements.length);
+		return queue;
+	}
+
+	private ExecutionTrace createTrace(int[] indices) {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, UUID.randomUUID().toString(), 100, true);
+		for (int index : indices) {
+			queue.add(index);
+		}
+		return new ExecutionTrace(queue, false);
+	}
+
+}
@@ -2,6 +2,7 @@ package se.de.hu_berlin.informatik.spectra.util;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -30,6 +31,7 @@ import se.de.hu_berlin.informatik.spectra.core.count.CountSpectra;
 import se.de.hu_berlin.informatik.spectra.core.count.CountTrace;
 import se.de.hu_berlin.informatik.spectra.core.hit.HitTrace;
 import se.de.hu_berlin.informatik.spectra.core.traces.ExecutionTrace;
+import se.de.hu_berlin.informatik.spectra.core.traces.MappedIntIndexerCompressed;
 import se.de.hu_berlin.informatik.spectra.core.traces.RawIntTraceCollector;
 import se.de.hu_berlin.informatik.spectra.core.traces.SimpleIntIndexerCompressed;
 import se.de.hu_berlin.informatik.spectra.provider.cobertura.CoberturaSpectraProviderFactory;
@@ -273,6 +275,127 @@ public class SpectraFileUtilsTest extends TestSettings {
 		assertTrue(output3.toFile().length() > output2.toFile().length());
 	}
 	
+	@Test
+	public void testSequenceIndexFileReadingAndWriting() throws ZipException {
+		final CoberturaXMLProvider<HitTrace<SourceCodeBlock>> c = CoberturaSpectraProviderFactory.getHitSpectraFromXMLProvider(true);
+        c.addData(getStdResourcesDir() + "/fk/stardust/provider/simple-coverage.xml", "simple", false);
+        ISpectra<SourceCodeBlock, ? super HitTrace<SourceCodeBlock>> spectra = c.loadSpectra();
+        ITrace<SourceCodeBlock> trace = spectra.getTrace("simple");
+        assertNotNull(trace);
+        
+        Path outputDir = Paths.get(getStdTestDir());
+        
+        // mapping: tree indexer sequence ID -> sequence of sub trace IDs
+    	int[][] subTraceIdSequences = new int[][] {s(1,2,3)};
+    	
+    	// mapping: sub trace ID -> sequence of spectra node IDs
+    	EfficientCompressedIntegerTrace[] nodeIdSequences = 
+    			new EfficientCompressedIntegerTrace[] {
+    					c(outputDir), c(outputDir, 1,2,3), c(outputDir, 4,5,6), c(outputDir, 7,8,9)};
+        
+        RawIntTraceCollector traceCollector = new RawIntTraceCollector(outputDir);
+        
+        // sub trace id -> sub trace
+        Map<Integer, EfficientCompressedIntegerTrace> idToSubTraceMap = new HashMap<>();
+        idToSubTraceMap.put(1,asList(outputDir, rt(5,6,7)));
+        idToSubTraceMap.put(2,asList(outputDir, rt(8,9,10)));
+        idToSubTraceMap.put(3,asList(outputDir, rt(11,12,13)));
+        
+        traceCollector.addRawTraceToPool(trace.getIndex(), 0, s(1,2,3,1,2,3), false, outputDir, "t1", idToSubTraceMap);
+        traceCollector.getIndexer().getSequences();
+        for (ExecutionTrace eTrace : traceCollector.calculateExecutionTraces(trace.getIndex(), false)) {
+        	trace.addExecutionTrace(eTrace);
+        }
+		spectra.setIndexer(new SimpleIntIndexerCompressed(subTraceIdSequences, nodeIdSequences));
+
+		Path output = Paths.get(getStdTestDir(), "spectra_seqidx.zip");
+		SpectraFileUtils.saveSpectraToZipFile(spectra, output, true, false, true);
+		
+		// the index file is written after the zip file and is not discarded as stale
+		File indexFile = SpectraFileUtils.getSequenceIndexFile(output).toFile();
+		assertTrue(indexFile.isFile());
+		assertTrue(indexFile.lastModified() >= output.toFile().lastModified());
+		
+		ISpectra<SourceCodeBlock, ?> spectra2 = SpectraFileUtils.loadBlockSpectraFromZipFile(output);
+		assertTrue(spectra2.getIndexer() instanceof MappedIntIndexerCompressed);
+		ExecutionTrace executionTrace = spectra2.getTrace("simple").getExecutionTraces().iterator().next();
+		assertArrayEquals(s(1,2,3,4,5,6,7,8,9,1,2,3,4,5,6,7,8,9), 
+				executionTrace.reconstructFullMappedTrace(spectra2.getIndexer()));
+		assertEquals(spectra, spectra2);
+		
+		// without the index file, the sequences are decoded from the zip file
+		assertTrue(indexFile.delete());
+		ISpectra<SourceCodeBlock, ?> spectra3 = SpectraFileUtils.loadBlockSpectraFromZipFile(output);
+		assertTrue(spectra3.getIndexer() instanceof SimpleIntIndexerCompressed);
+		executionTrace = spectra3.getTrace("simple").getExecutionTraces().iterator().next();
+		assertArrayEquals(s(1,2,3,4,5,6,7,8,9,1,2,3,4,5,6,7,8,9), 
+				executionTrace.reconstructFullMappedTrace(spectra3.getIndexer()));
+	}
+	
+	@Test
+	public void testSharedSubTracesAreStoredOnce() throws ZipException {
+		Path outputDir = Paths.get(getStdTestDir());
+		int[] x = s(1,2,3,4,5,6,7,8,9,1,2,3,4,5,6,7,8,9);
+		
+		// three sub traces with equal node ID sequences
+		Path duplicated = saveSpectraWithSubTraces("spectra_duplicated_subtraces.zip", s(1,2,3), 
+				c(outputDir), c(outputDir, x), c(outputDir, x), c(outputDir, x));
+		// one sub trace that is shared
+		Path shared = saveSpectraWithSubTraces("spectra_shared_subtraces.zip", s(1,1,1), 
+				c(outputDir), c(outputDir, x));
+		// three sub traces with different node ID sequences
+		int[] reversed = new int[x.length];
+		for (int i = 0; i < x.length; ++i) {
+			reversed[i] = x[x.length - 1 - i];
+		}
+		Path distinct = saveSpectraWithSubTraces("spectra_distinct_subtraces.zip", s(1,2,3), 
+				c(outputDir), c(outputDir, x), c(outputDir, reversed), c(outputDir, Arrays.copyOf(x, 11)));
+		
+		// equal sub traces are only stored once
+		assertEquals(shared.toFile().length(), duplicated.toFile().length());
+		assertTrue(distinct.toFile().length() > duplicated.toFile().length());
+		
+		int[] expected = new int[3 * x.length];
+		for (int i = 0; i < 3; ++i) {
+			System.arraycopy(x, 0, expected, i * x.length, x.length);
+		}
+		for (Path output : Arrays.asList(duplicated, shared)) {
+			ISpectra<SourceCodeBlock, ?> spectra = SpectraFileUtils.loadBlockSpectraFromZipFile(output);
+			ExecutionTrace executionTrace = spectra.getTrace("simple").getExecutionTraces().iterator().next();
+			int[] trace = executionTrace.reconstructFullMappedTrace(spectra.getIndexer());
+			// the raw trace contains the indexed sequence twice
+			assertArrayEquals(expected, Arrays.copyOf(trace, expected.length));
+			assertArrayEquals(expected, Arrays.copyOfRange(trace, expected.length, trace.length));
+		}
+	}
+	
+	private Path saveSpectraWithSubTraces(String fileName, int[] subTraceIdSequence, 
+			EfficientCompressedIntegerTrace... nodeIdSequences) {
+		final CoberturaXMLProvider<HitTrace<SourceCodeBlock>> c = CoberturaSpectraProviderFactory.getHitSpectraFromXMLProvider(true);
+        c.addData(getStdResourcesDir() + "/fk/stardust/provider/simple-coverage.xml", "simple", false);
+        ISpectra<SourceCodeBlock, ? super HitTrace<SourceCodeBlock>> spectra = c.loadSpectra();
+        ITrace<SourceCodeBlock> trace = spectra.getTrace("simple");
+        
+        Path outputDir = Paths.get(getStdTestDir());
+        RawIntTraceCollector traceCollector = new RawIntTraceCollector(outputDir);
+        Map<Integer, EfficientCompressedIntegerTrace> idToSubTraceMap = new HashMap<>();
+        idToSubTraceMap.put(1,asList(outputDir, rt(5,6,7)));
+        idToSubTraceMap.put(2,asList(outputDir, rt(8,9,10)));
+        idToSubTraceMap.put(3,asList(outputDir, rt(11,12,13)));
+        
+        traceCollector.addRawTraceToPool(trace.getIndex(), 0, s(1,2,3,1,2,3), false, outputDir, "t1", idToSubTraceMap);
+        traceCollector.getIndexer().getSequences();
+        for (ExecutionTrace eTrace : traceCollector.calculateExecutionTraces(trace.getIndex(), false)) {
+        	trace.addExecutionTrace(eTrace);
+        }
+		spectra.setIndexer(new SimpleIntIndexerCompressed(new int[][] {subTraceIdSequence}, nodeIdSequences));
+		
+		Path output = Paths.get(getStdTestDir(), fileName);
+		SpectraFileUtils.saveSpectraToZipFile(spectra, output, true, false, true);
+		assertTrue(output.toFile().exists());
+		return output;
+	}
+	
 	@Test
 	public void testBlockSpectraReadingAndWriting2() throws ZipException {
 		Path output1 = Paths.get(getStdResourcesDir(), "Chart-22b.zip");
@@ -13,6 +13,7 @@ import se.de.hu_berlin.informatik.gen.spectra.modules.AbstractRunTestInNewJVMMod
 import se.de.hu_berlin.informatik.java7.testrunner.TestWrapper;
 import se.de.hu_berlin.informatik.junittestutils.data.TestStatistics;
 import se.de.hu_berlin.informatik.junittestutils.testrunner.running.ExtendedTestRunModule;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.TouchCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ProjectData;
 import se.de.hu_berlin.informatik.utils.miscellaneous.Log;
@@ -52,7 +53,9 @@ public class TraceCoberturaRunTestInNewJVMModule extends AbstractRunTestInNewJVM
 				AbstractSpectraGenerationFactory.GC,
 				AbstractSpectraGenerationFactory.INITIAL_HEAP, 
 				AbstractSpectraGenerationFactory.MAX_HEAP,
-				"-Dnet.sourceforge.cobertura.datafile=" + dataFile.toAbsolutePath().toString())
+				"-Dnet.sourceforge.cobertura.datafile=" + dataFile.toAbsolutePath().toString(),
+				"-D" + ExecutionTraceCollector.RECORDED_CLASSES_PROPERTY + "=" 
+						+ System.getProperty(ExecutionTraceCollector.RECORDED_CLASSES_PROPERTY, ""))
 				.setEnvVariable("LC_ALL","en_US.UTF-8")
 				.setEnvVariable("TZ", "America/Los_Angeles");
 		
@@ -188,6 +191,8 @@ public class TraceCoberturaRunTestInNewJVMModule extends AbstractRunTestInNewJVM
 			ProjectData.turnOffAutoSave();
 			// reset hits, if any class was already registered (should not be the case, actually)
 			TouchCollector.resetTouchesOnRegisteredClasses();
+			// restrict the recorded execution traces, if configured
+			ExecutionTraceCollector.startRecordingForConfiguredClasses();
 			
 			ProjectData projectData = null;
 
@@ -206,6 +211,8 @@ public class TraceCoberturaRunTestInNewJVMModule extends AbstractRunTestInNewJVM
 				} catch (InterruptedException e) {
 					// do nothing
 				}
+				// do not record the collection of the coverage data
+				ExecutionTraceCollector.stopRecording();
 				projectData = new ProjectData();
 
 				TouchCollector.applyTouchesOnProjectData(projectData);
@@ -8,6 +8,7 @@ import java.nio.file.Path;
 
 import se.de.hu_berlin.informatik.gen.spectra.AbstractSpectraGenerationFactory;
 import se.de.hu_berlin.informatik.gen.spectra.modules.AbstractRunTestInNewJVMModuleWithJava7RunnerAndServer;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ProjectData;
 
 /**
@@ -28,7 +29,9 @@ public class TraceCoberturaRunTestInNewJVMModuleWithJava7Runner extends Abstract
 		super(testOutput, debugOutput, timeout, repeatCount, instrumentedClassPath, 
 				dataFile, javaHome, projectDir, AbstractSpectraGenerationFactory.GC,
 				AbstractSpectraGenerationFactory.INITIAL_HEAP, AbstractSpectraGenerationFactory.MAX_HEAP,
-				"-Dnet.sourceforge.cobertura.datafile=" + dataFile.toAbsolutePath().toString());
+				"-Dnet.sourceforge.cobertura.datafile=" + dataFile.toAbsolutePath().toString(),
+				"-D" + ExecutionTraceCollector.RECORDED_CLASSES_PROPERTY + "=" 
+						+ System.getProperty(ExecutionTraceCollector.RECORDED_CLASSES_PROPERTY, ""));
 	}
 	
 	@Override
@@ -9,6 +9,7 @@ import java.util.Map;
 import se.de.hu_berlin.informatik.gen.spectra.modules.AbstractRunTestLocallyModule;
 import se.de.hu_berlin.informatik.java7.testrunner.TestWrapper;
 import se.de.hu_berlin.informatik.junittestutils.data.TestStatistics;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ExecutionTraceCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.TouchCollector;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.ProjectData;
 import se.de.hu_berlin.informatik.utils.miscellaneous.Pair;
@@ -33,8 +34,11 @@ public class TraceCoberturaRunTestLocallyModule extends AbstractRunTestLocallyMo
 	
 	@Override
 	public Pair<TestStatistics, ProjectData> getResultAfterTest(TestWrapper testWrapper, TestStatistics testResult) {
+		// do not record anything until the next test is started
+		ExecutionTraceCollector.stopRecording();
 		ProjectData projectData = new ProjectData();
 		TouchCollector.applyTouchesOnProjectData(projectData);
+		testResult.addExecutionTraceStatistics(ExecutionTraceCollector.getLastTraceStatistics());
 		if (testResult.couldBeFinished()) {
 			return new Pair<>(testResult, projectData);
 		} else {
@@ -52,6 +56,8 @@ public class TraceCoberturaRunTestLocallyModule extends AbstractRunTestLocallyMo
 			++tryCount;
 			isResetted = TouchCollector.resetTouchesOnRegisteredClasses();
 		}
+		// restrict the recorded execution traces, if configured
+		ExecutionTraceCollector.startRecordingForConfiguredClasses();
 		return isResetted;
 	}
 
@@ -3,39 +3,149 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.data.CoverageIgnore;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.CoberturaStatementEncoding;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.SpillStatistics;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
 
 @CoverageIgnore
 public class ExecutionTraceCollector {
 
-	public final static int EXECUTION_TRACE_CHUNK_SIZE = 100000;
-	public final static int MAP_CHUNK_SIZE = 500000;
+	/**
+	 * Use {@link TraceMemoryBudget#EXECUTION_TRACE_CHUNK_SIZE} outside of the instrumented JVMs,
+	 * since initializing this class has side effects (temporary directory, JMX bean).
+	 */
+	public final static int EXECUTION_TRACE_CHUNK_SIZE = TraceMemoryBudget.EXECUTION_TRACE_CHUNK_SIZE;
+	/**
+	 * Use {@link TraceMemoryBudget#MAP_CHUNK_SIZE} outside of the instrumented JVMs,
+	 * since initializing this class has side effects (temporary directory, JMX bean).
+	 */
+	public final static int MAP_CHUNK_SIZE = TraceMemoryBudget.MAP_CHUNK_SIZE;
 	public static final int SUBTRACE_ARRAY_SIZE = 300;
 	
 	public static final int NEW_SUBTRACE_ID = 0;
 	
+	/**
+	 * System property that controls what happens with events that are recorded 
+	 * after the traces of a test have been collected and before the next test starts
+	 * (e.g., from leaked threads); possible values are "next" (default; 
+	 * the events are added to the traces of the next test) and "drop".
+	 */
+	public static final String LATE_EVENTS_PROPERTY = "tracecobertura.lateEvents";
+	
+	/**
+	 * System property that sets the maximum time (in milliseconds) to wait for 
+	 * a thread to finish adding a single element to its trace during collection.
+	 */
+	public static final String SEAL_TIMEOUT_PROPERTY = "tracecobertura.sealTimeout";
+	
+	/**
+	 * System property with a comma separated list of class name prefixes (e.g., "org.jfree.chart.");
+	 * if set, the test runners only record the execution traces of classes with one of the prefixes.
+	 * @see #startRecordingForConfiguredClasses()
+	 */
+	public static final String RECORDED_CLASSES_PROPERTY = "tracecobertura.recordedClasses";
+	
+	private static final boolean DROP_LATE_EVENTS = "drop".equalsIgnoreCase(System.getProperty(LATE_EVENTS_PROPERTY));
+	private static final long SEAL_TIMEOUT = Long.getLong(SEAL_TIMEOUT_PROPERTY, 5000L);
+	
 	private static final transient Lock globalExecutionTraceCollectorLock = new ReentrantLock();
 
-	// shouldn't need to be thread-safe, as each thread only accesses its own trace (thread id -> sequence of sub trace ids)
-	private static Map<Long,EfficientCompressedIntegerTrace> executionTraces = new ConcurrentHashMap<>();
-
-	private static int[][] classesToCounterArrayMap = new int[2048][];
+	// each thread only accesses its own trace (trace stream id -> sequence of sub trace ids);
+	// the map is only modified while holding the global lock
+	private static Map<Long,ThreadTrace> executionTraces = new ConcurrentHashMap<>();
+	
+	// thread ids may be reused once a thread dies, so each thread gets its own trace stream id
+	private static final AtomicLong nextTraceStreamId = new AtomicLong();
+	private static final ThreadLocal<Long> currentTraceStreamId = new ThreadLocal<Long>() {
+		@Override
+		protected Long initialValue() {
+			return nextTraceStreamId.getAndIncrement();
+		}
+	};
+	
+	// traces of all threads are sealed by starting a new epoch
+	private static volatile int currentEpoch = 0;
+	
+	// is set after collecting the traces of a test, until the next test starts
+	private static volatile boolean betweenTests = false;
+	
+	private static long lastLateEventCount = 0;
+	private static int lastUnsealedTraceCount = 0;
+	
+	// metrics
+	private static final AtomicLong lockWaitTimeNanos = new AtomicLong();
+	private static volatile long testStartTime = System.nanoTime();
+	private static long collectionCount = 0;
+	private static long totalEventCount = 0;
+	private static long spilledBytesAtTestStart = 0;
+	private static long spillCountAtTestStart = 0;
+	private static long spillTimeAtTestStart = 0;
+	private static long lockWaitTimeAtTestStart = 0;
+	private static volatile TraceCollectionStatistics lastTraceStatistics = TraceCollectionStatistics.EMPTY;
 	
-	private static Set<Thread> currentThreads = new HashSet<>();
+	private static final ThreadLocal<ThreadTrace> currentThreadTrace = new ThreadLocal<>();
 
+	// grows with the registered class ids; replaced (and published) while holding the global lock
+	private static volatile int[][] classesToCounterArrayMap = new int[2048][];
+	
+	// whether statements are added to the execution traces at all (counters are always incremented)
+	private static volatile boolean recording = true;
+	
+	// one bit per class id; a set bit means that statements of that class are recorded;
+	// grows together with the counter array map
+	private static volatile AtomicLongArray classRecordingBitmap = new AtomicLongArray(classesToCounterArrayMap.length / 64);
+	
+	// whether classes without an explicitly set bit (e.g., ids beyond the bitmap) are recorded
+	private static volatile boolean recordingEnabledByDefault = true;
+	
+	// filter that is applied to classes that are registered while recording is restricted;
+	// is only replaced while holding the global lock, but is evaluated without holding it
+	private static volatile Function<String, Boolean> classFilter = null;
+	
+	static {
+		setRecordingEnabledForAllClasses(true);
+		ExecutionTraceCollectorMetrics.register();
+	}
+	
 	public static void initializeCounterArrayForClass(int classId, int countersCnt) {
-		classesToCounterArrayMap[classId] = new int[countersCnt];
+		lockCollector();
+		try {
+			ensureCapacityForClass(classId);
+			classesToCounterArrayMap[classId] = new int[countersCnt];
+		} finally {
+			globalExecutionTraceCollectorLock.unlock();
+		}
+	}
+	
+	// has to be called while holding the global lock
+	private static void ensureCapacityForClass(int classId) {
+		int[][] counterArrayMap = classesToCounterArrayMap;
+		if (classId >= counterArrayMap.length) {
+			int newLength = Math.max(classId + 1, counterArrayMap.length * 2);
+			classesToCounterArrayMap = Arrays.copyOf(counterArrayMap, newLength);
+		}
+		AtomicLongArray bitmap = classRecordingBitmap;
+		int words = (classesToCounterArrayMap.length + 63) >>> 6;
+		if (words > bitmap.length()) {
+			AtomicLongArray newBitmap = new AtomicLongArray(words);
+			for (int i = 0; i < words; ++i) {
+				newBitmap.set(i, i < bitmap.length() ? bitmap.get(i) : (recordingEnabledByDefault ? -1L : 0L));
+			}
+			classRecordingBitmap = newBitmap;
+		}
 	}
 	
 	private static Path tempDir;
@@ -51,101 +161,488 @@ public class ExecutionTraceCollector {
 		}
 	}
 	
+	/**
+	 * Holds a thread's trace during a single epoch. Only the owning thread adds elements;
+	 * the collector only touches the trace after the epoch has ended and the 
+	 * {@link #writing} flag has been cleared.
+	 */
+	@CoverageIgnore
+	private static final class ThreadTrace {
+		
+		private final long threadId;
+		private final long traceStreamId;
+		private final int epoch;
+		private final EfficientCompressedIntegerTrace trace;
+		
+		// set while the owning thread is adding an element
+		private volatile boolean writing = false;
+		
+		// only modified by the owning thread
+		private long lateEvents = 0;
+
+		private ThreadTrace(long threadId, long traceStreamId, int epoch, EfficientCompressedIntegerTrace trace) {
+			this.threadId = threadId;
+			this.traceStreamId = traceStreamId;
+			this.epoch = epoch;
+			this.trace = trace;
+		}
+	}
+	
 	
 	/**
 	 * @return
-	 * the collection of execution traces for all executed threads;
+	 * the collection of execution traces for all executed threads, mapped by their trace stream ids;
 	 * the statements in the traces are stored as "class_id:statement_counter";
 	 * also resets the internal map and collects potentially remaining sub traces.
+	 * @see #getTraceStreamIdForCurrentThread()
 	 */
 	public static Map<Long,EfficientCompressedIntegerTrace> getAndResetExecutionTraces() {
-		globalExecutionTraceCollectorLock.lock();
+		Map<Long, ThreadTrace> sealedTraces;
+		long collectionStartTime = System.nanoTime();
+		lockCollector();
 		try {
-			processAllRemainingSubTraces();
-			Map<Long, EfficientCompressedIntegerTrace> traces = executionTraces;
+			sealedTraces = executionTraces;
 			executionTraces = new ConcurrentHashMap<>();
-			return traces;
+			// any thread that adds an element after this point 
+			// will start a new trace that belongs to the next test
+			++currentEpoch;
+			betweenTests = true;
 		} finally {
 			globalExecutionTraceCollectorLock.unlock();
 		}
+		return processAllRemainingSubTraces(sealedTraces, collectionStartTime);
+	}
+	
+	/**
+	 * @return
+	 * the trace stream id of the current thread; each thread gets a unique id 
+	 * for its lifetime, in contrast to {@link Thread#getId()}, which may be reused 
+	 * once a thread has terminated
+	 */
+	public static long getTraceStreamIdForCurrentThread() {
+		return currentTraceStreamId.get();
+	}
+	
+	/**
+	 * Marks the start of a new test. Events that are recorded between the collection
+	 * of the traces of the previous test and the call of this method are counted
+	 * as late events.
+	 */
+	public static void startNewTest() {
+		betweenTests = false;
+		testStartTime = System.nanoTime();
+		spilledBytesAtTestStart = SpillStatistics.getSpilledBytes();
+		spillCountAtTestStart = SpillStatistics.getSpillCount();
+		spillTimeAtTestStart = SpillStatistics.getSpillTimeNanos();
+		lockWaitTimeAtTestStart = lockWaitTimeNanos.get();
+	}
+	
+	/**
+	 * @return
+	 * the number of events that have been recorded between the end of the
+	 * second to last test and the start of the last test; depending on the property
+	 * {@value #LATE_EVENTS_PROPERTY}, these events were dropped or added to the traces of the last test
+	 */
+	public static long getLastLateEventCount() {
+		return lastLateEventCount;
+	}
+	
+	/**
+	 * @return
+	 * the number of traces that had to be discarded during the last collection, 
+	 * since the respective threads did not finish adding an element in time
+	 */
+	public static int getLastUnsealedTraceCount() {
+		return lastUnsealedTraceCount;
+	}
+	
+	/**
+	 * @return
+	 * statistics about the traces that were collected by the last call of
+	 * {@link #getAndResetExecutionTraces()}
+	 */
+	public static TraceCollectionStatistics getLastTraceStatistics() {
+		return lastTraceStatistics;
+	}
+	
+	/**
+	 * @return
+	 * the number of times that the traces have been collected
+	 */
+	public static long getCollectionCount() {
+		return collectionCount;
+	}
+	
+	/**
+	 * @return
+	 * the number of events in all collected traces
+	 */
+	public static long getTotalEventCount() {
+		return totalEventCount;
+	}
+	
+	/**
+	 * @return
+	 * the total time that threads were blocked on the collector lock, in nanoseconds
+	 */
+	public static long getLockWaitTimeNanos() {
+		return lockWaitTimeNanos.get();
+	}
+	
+	private static void lockCollector() {
+		if (!globalExecutionTraceCollectorLock.tryLock()) {
+			long startTime = System.nanoTime();
+			globalExecutionTraceCollectorLock.lock();
+			lockWaitTimeNanos.addAndGet(System.nanoTime() - startTime);
+		}
 	}
 	
+	/**
+	 * @return
+	 * whether late events are dropped instead of being added to the traces of the next test
+	 */
+	public static boolean isDroppingLateEvents() {
+		return DROP_LATE_EVENTS;
+	}
 
-	private static EfficientCompressedIntegerTrace getNewCollector(long threadId) {
+	/**
+	 * Starts recording execution traces for all classes.
+	 */
+	public static void startRecording() {
+		startRecording(null);
+	}
+	
+	/**
+	 * Starts recording execution traces for all classes that are accepted by the given filter.
+	 * Statements of other classes are not added to the execution traces, but their
+	 * counters are still incremented. The filter is also applied to classes that are
+	 * registered later on. The filter is evaluated before taking the collector's lock, 
+	 * so instrumented code that runs concurrently is not blocked by it.
+	 * 
+	 * @param filter
+	 * a function that gets a fully qualified class name (e.g., "java.lang.String") and returns
+	 * whether the class' statements should be recorded; null records all classes
+	 */
+	public static void startRecording(Function<String, Boolean> filter) {
+		Map<Class<?>, Boolean> acceptedClasses = new HashMap<>();
+		while (true) {
+			// classes that were registered in the meantime are evaluated in the next round
+			if (filter != null) {
+				for (Class<?> clazz : TouchCollector.registeredClasses.keySet()) {
+					if (!acceptedClasses.containsKey(clazz)) {
+						acceptedClasses.put(clazz, isAccepted(filter, clazz.getName()));
+					}
+				}
+			}
+			lockCollector();
+			try {
+				if (filter != null && !acceptedClasses.keySet().containsAll(TouchCollector.registeredClasses.keySet())) {
+					continue;
+				}
+				classFilter = filter;
+				if (filter == null) {
+					setRecordingEnabledForAllClasses(true);
+				} else {
+					setRecordingEnabledForAllClasses(false);
+					for (Entry<Class<?>, Integer> entry : TouchCollector.registeredClasses.entrySet()) {
+						setRecordingEnabledForClass(entry.getValue(), acceptedClasses.get(entry.getKey()));
+					}
+				}
+				recording = true;
+				return;
+			} finally {
+				globalExecutionTraceCollectorLock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Starts recording execution traces for the classes that are given by the
+	 * system property {@value #RECORDED_CLASSES_PROPERTY}, or for all classes if the 
+	 * property is not set. Is called by the test runners before each test.
+	 */
+	public static void startRecordingForConfiguredClasses() {
+		startRecording(createClassNamePrefixFilter(System.getProperty(RECORDED_CLASSES_PROPERTY)));
+	}
+	
+	/**
+	 * @param prefixes
+	 * a comma separated list of class name prefixes
+	 * @return
+	 * a filter that accepts all class names that start with one of the given prefixes,
+	 * or null if no prefix is given
+	 */
+	public static Function<String, Boolean> createClassNamePrefixFilter(String prefixes) {
+		if (prefixes == null || prefixes.trim().isEmpty()) {
+			return null;
+		}
+		final String[] split = prefixes.split(",");
+		for (int i = 0; i < split.length; ++i) {
+			split[i] = split[i].trim();
+		}
+		return new Function<String, Boolean>() {
+			@Override
+			public Boolean apply(String className) {
+				for (String prefix : split) {
+					if (!prefix.isEmpty() && className.startsWith(prefix)) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Stops recording execution traces. Only the hit counters are collected until
+	 * recording is started again.
+	 */
+	public static void stopRecording() {
+		recording = false;
+	}
+	
+	/**
+	 * @return
+	 * whether execution traces are currently recorded
+	 */
+	public static boolean isRecording() {
+		return recording;
+	}
+	
+	/**
+	 * Enables or disables recording the execution traces for the class with the given id.
+	 * 
+	 * @param classId
+	 * the unique id of the class, as used by cobertura
+	 * @param enabled
+	 * whether the class' statements should be added to the execution traces
+	 */
+	public static void setRecordingEnabledForClass(int classId, boolean enabled) {
+		lockCollector();
+		try {
+			ensureCapacityForClass(classId);
+			// bits are only modified while holding the lock, so there are no concurrent updates
+			AtomicLongArray bitmap = classRecordingBitmap;
+			long word = bitmap.get(classId >>> 6);
+			bitmap.set(classId >>> 6, enabled ? word | (1L << classId) : word & ~(1L << classId));
+		} finally {
+			globalExecutionTraceCollectorLock.unlock();
+		}
+	}
+	
+	/**
+	 * @param classId
+	 * the unique id of the class, as used by cobertura
+	 * @return
+	 * whether the class' statements are added to the execution traces while recording
+	 */
+	public static boolean isRecordingEnabledForClass(int classId) {
+		AtomicLongArray bitmap = classRecordingBitmap;
+		if ((classId >>> 6) >= bitmap.length()) {
+			return recordingEnabledByDefault;
+		}
+		return (bitmap.get(classId >>> 6) & (1L << classId)) != 0;
+	}
+	
+	/**
+	 * Is called when a class is registered to apply the current class filter, if any.
+	 * 
+	 * @param classId
+	 * the unique id of the class, as used by cobertura
+	 * @param className
+	 * the fully qualified name of the class
+	 */
+	static void registerClassForRecording(int classId, String className) {
+		while (true) {
+			Function<String, Boolean> filter = classFilter;
+			if (filter == null) {
+				// recording is not restricted; startRecording(filter) handles registered classes itself
+				return;
+			}
+			boolean accepted = isAccepted(filter, className);
+			lockCollector();
+			try {
+				// the filter may have been replaced while it was evaluated
+				if (filter == classFilter) {
+					setRecordingEnabledForClass(classId, accepted);
+					return;
+				}
+			} finally {
+				globalExecutionTraceCollectorLock.unlock();
+			}
+		}
+	}
+	
+	private static boolean isAccepted(Function<String, Boolean> filter, String className) {
+		Boolean accepted = filter.apply(className);
+		return accepted != null && accepted;
+	}
+	
+	private static void setRecordingEnabledForAllClasses(boolean enabled) {
+		recordingEnabledByDefault = enabled;
+		AtomicLongArray bitmap = classRecordingBitmap;
+		for (int i = 0; i < bitmap.length(); ++i) {
+			bitmap.set(i, enabled ? -1L : 0L);
+		}
+	}
+
+	private static EfficientCompressedIntegerTrace getNewCollector(long traceStreamId) {
 		// do not delete buffered trace files on exit, due to possible necessary serialization
 		return new EfficientCompressedIntegerTrace(tempDir.toAbsolutePath().toFile(), 
-				"exec_trc_" + threadId + "-", 
+				"exec_trc_" + traceStreamId + "-", 
 				EXECUTION_TRACE_CHUNK_SIZE, MAP_CHUNK_SIZE, false, true);
 	}
 	
+	/**
+	 * Returns the current thread's trace for the current epoch with its {@code writing} 
+	 * flag set. The flag has to be cleared by the caller after adding an element.
+	 * (The flag is set before checking the epoch, and the collector starts a new 
+	 * epoch before checking the flag. So either the thread sees the new epoch, or the 
+	 * collector waits for the thread to finish adding its element.)
+	 */
+	private static ThreadTrace acquireThreadTrace() {
+		ThreadTrace threadTrace = currentThreadTrace.get();
+		while (true) {
+			if (threadTrace != null) {
+				threadTrace.writing = true;
+				if (threadTrace.epoch == currentEpoch) {
+					return threadTrace;
+				}
+				// the trace has been sealed and handed over to the collector
+				threadTrace.writing = false;
+			}
+			threadTrace = registerNewThreadTrace();
+		}
+	}
+
+	private static ThreadTrace registerNewThreadTrace() {
+		long threadId = Thread.currentThread().getId();
+		long traceStreamId = getTraceStreamIdForCurrentThread();
+		lockCollector();
+		try {
+			ThreadTrace threadTrace = new ThreadTrace(threadId, traceStreamId, currentEpoch, getNewCollector(traceStreamId));
+			executionTraces.put(traceStreamId, threadTrace);
+			currentThreadTrace.set(threadTrace);
+			return threadTrace;
+		} finally {
+			globalExecutionTraceCollectorLock.unlock();
+		}
+	}
+	
+	private static void addToCurrentThreadTrace(int element) {
+		ThreadTrace threadTrace = acquireThreadTrace();
+		try {
+			if (betweenTests) {
+				++threadTrace.lateEvents;
+				if (DROP_LATE_EVENTS) {
+					return;
+				}
+			}
+			threadTrace.trace.add(element);
+		} finally {
+			threadTrace.writing = false;
+		}
+	}
 	
 	/**
 	 * Marks the beginning of a new sub trace by adding a special indicator to the trace.
 	 */
 	public static void startNewSubTrace() {
-		// get an id for the current thread
-		long threadId = Thread.currentThread().getId(); // may be reused, once the thread is killed TODO
-
-		// get the thread's execution trace
-		EfficientCompressedIntegerTrace trace = executionTraces.get(threadId);
-		if (trace == null) {
-			trace = getNewCollector(threadId);
-			executionTraces.put(threadId, trace);
+		if (!recording) {
+			return;
 		}
-
 		// add an indicator to the trace that represents a visited catch block
-		trace.add(NEW_SUBTRACE_ID);
-
+		addToCurrentThreadTrace(NEW_SUBTRACE_ID);
 	}
 
 	
-	private static void processAllRemainingSubTraces() {
+	private static Map<Long,EfficientCompressedIntegerTrace> processAllRemainingSubTraces(
+			Map<Long, ThreadTrace> sealedTraces, long collectionStartTime) {
+		Map<Long, EfficientCompressedIntegerTrace> traces = new ConcurrentHashMap<>();
+		long lateEvents = 0;
+		int unsealedTraces = 0;
+		
+		Map<Long, Long> eventsPerThread = new HashMap<>();
+		long eventCount = 0;
+		long compressedSize = 0;
+		double[] ratioSums = new double[0];
+		int[] ratioCounts = new int[0];
 		
-		for (Thread thread : currentThreads) {
-			if (thread.equals(Thread.currentThread())) {
+		Iterator<Entry<Long, ThreadTrace>> iterator = sealedTraces.entrySet().iterator();
+		while (iterator.hasNext()) {
+			ThreadTrace threadTrace = iterator.next().getValue();
+			// threads may still be in the middle of adding an element; 
+			// all subsequent additions go to new traces, so we only wait for this single element
+			if (!awaitSealed(threadTrace)) {
+				System.err.println("Thread " + threadTrace.threadId + " did not finish adding to its trace. Discarding trace...");
+				++unsealedTraces;
 				continue;
 			}
-			boolean done = false;
-			while (!done) {
-				if (thread.isAlive()) {
-					System.err.println("Thread " + thread.getId() + " is still alive. Waiting 20 seconds for it to die...");
-					try {
-						thread.join(20000); // wait 20 seconds for threads to die... TODO
-						if (thread.isAlive()) {
-							System.err.println("(At least) thread " + thread.getId() + " remains alive...");
-							//						thread.interrupt();
-							break;
-						}
-						done = true;
-					} catch (InterruptedException e) {
-						// try again
-					}
-				} else {
-					break;
+			lateEvents += threadTrace.lateEvents;
+			if (threadTrace.trace.isEmpty()) {
+				// may happen if all events were dropped
+				continue;
+			}
+			try {
+				// store execution traces
+				threadTrace.trace.sleep();
+				traces.put(threadTrace.traceStreamId, threadTrace.trace);
+				
+				eventsPerThread.put(threadTrace.traceStreamId, threadTrace.trace.size());
+				eventCount += threadTrace.trace.size();
+				compressedSize += threadTrace.trace.getCompressedSize();
+				double[] ratios = threadTrace.trace.getCompressionRatios();
+				if (ratios.length > ratioSums.length) {
+					ratioSums = Arrays.copyOf(ratioSums, ratios.length);
+					ratioCounts = Arrays.copyOf(ratioCounts, ratios.length);
+				}
+				for (int i = 0; i < ratios.length; ++i) {
+					ratioSums[i] += ratios[i];
+					++ratioCounts[i];
 				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				// something went wrong...
 			}
 		}
 		
-		currentThreads.clear();
+		if (lateEvents > 0) {
+			System.err.println(lateEvents + " event(s) recorded between tests were " + 
+					(DROP_LATE_EVENTS ? "dropped." : "added to the traces of the following test."));
+		}
 		
-		globalExecutionTraceCollectorLock.lock();
-		try {
-			// store execution traces
-			Iterator<Entry<Long, EfficientCompressedIntegerTrace>> iterator2 = executionTraces.entrySet().iterator();
-			while (iterator2.hasNext()) {
-				try {
-					iterator2.next().getValue().sleep();
-				} catch (Exception e) {
-					e.printStackTrace();
-					// something went wrong...
-					iterator2.remove();
-				}
-			}
-			
-		} finally {
-			globalExecutionTraceCollectorLock.unlock();
+		lastLateEventCount = lateEvents;
+		lastUnsealedTraceCount = unsealedTraces;
+		
+		for (int i = 0; i < ratioSums.length; ++i) {
+			ratioSums[i] /= ratioCounts[i];
 		}
+		long collectionEndTime = System.nanoTime();
+		lastTraceStatistics = new TraceCollectionStatistics(eventsPerThread, eventCount, compressedSize, ratioSums, 
+				collectionStartTime - testStartTime, collectionEndTime - collectionStartTime, 
+				SpillStatistics.getSpilledBytes() - spilledBytesAtTestStart, 
+				SpillStatistics.getSpillCount() - spillCountAtTestStart, 
+				SpillStatistics.getSpillTimeNanos() - spillTimeAtTestStart, 
+				lockWaitTimeNanos.get() - lockWaitTimeAtTestStart, 
+				lateEvents, unsealedTraces);
+		++collectionCount;
+		totalEventCount += eventCount;
 
+		return traces;
+	}
+
+	private static boolean awaitSealed(ThreadTrace threadTrace) {
+		if (!threadTrace.writing) {
+			return true;
+		}
+		long deadline = System.currentTimeMillis() + SEAL_TIMEOUT;
+		while (threadTrace.writing) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.yield();
+		}
+		return true;
 	}
 	
 
@@ -212,19 +709,13 @@ public class ExecutionTraceCollector {
 			// this marks a fake jump! (ignore)
 			return;
 		}
-		
-		// get an id for the current thread
-		long threadId = Thread.currentThread().getId(); // may be reused, once the thread is killed TODO
-
-		// get the thread's execution trace
-		EfficientCompressedIntegerTrace trace = executionTraces.get(threadId);
-		if (trace == null) {
-			trace = getNewCollector(threadId);
-			executionTraces.put(threadId, trace);
+		if (!recording || !isRecordingEnabledForClass(classId)) {
+			// only collect hit counts
+			return;
 		}
 		
-		// add the statement to the execution trace
-		trace.add(CoberturaStatementEncoding.generateUniqueRepresentationForStatement(classId, counterId));
+		// add the statement to the current thread's execution trace
+		addToCurrentThreadTrace(CoberturaStatementEncoding.generateUniqueRepresentationForStatement(classId, counterId));
 	}
 	
 	/**
@@ -247,7 +738,7 @@ public class ExecutionTraceCollector {
 	}
 	
 	public static int[] getAndResetCounterArrayForClass(int classId) {
-		globalExecutionTraceCollectorLock.lock();
+		lockCollector();
 		try {
 //			String key = clazz.getName().replace('.','/');
 			
@@ -256,6 +747,9 @@ public class ExecutionTraceCollector {
 //				classesToCounterArrayMap.put(classId, new int[counters.length]);
 //			}
 			
+			if (classId >= classesToCounterArrayMap.length) {
+				return null;
+			}
 			int[] counters = classesToCounterArrayMap[classId];
 			if (counters != null) {
 				classesToCounterArrayMap[classId] = new int[counters.length];
@@ -0,0 +1,137 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map.Entry;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.data.CoverageIgnore;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.NodeCache;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.SpillStatistics;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.TraceMemoryBudget;
+
+@CoverageIgnore
+public class ExecutionTraceCollectorMetrics implements ExecutionTraceCollectorMetricsMBean {
+
+	public static final String OBJECT_NAME = "se.de.hu_berlin.informatik.spectra.provider.tracecobertura:type=ExecutionTraceCollector";
+
+	/**
+	 * Registers the metrics with the platform MBean server, if not already registered.
+	 */
+	static void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new ExecutionTraceCollectorMetrics(), name);
+			}
+		} catch (Exception e) {
+			// metrics are optional
+			System.err.println("Could not register execution trace metrics: " + e);
+		}
+	}
+
+	@Override
+	public long getCollectionCount() {
+		return ExecutionTraceCollector.getCollectionCount();
+	}
+
+	@Override
+	public long getTotalEventCount() {
+		return ExecutionTraceCollector.getTotalEventCount();
+	}
+
+	@Override
+	public long getLastTestEventCount() {
+		return ExecutionTraceCollector.getLastTraceStatistics().getEventCount();
+	}
+
+	@Override
+	public int getLastTestThreadCount() {
+		return ExecutionTraceCollector.getLastTraceStatistics().getThreadCount();
+	}
+
+	@Override
+	public String getLastTestEventsPerThread() {
+		StringBuilder builder = new StringBuilder();
+		for (Entry<Long, Long> entry : ExecutionTraceCollector.getLastTraceStatistics().getEventsPerThread().entrySet()) {
+			if (builder.length() > 0) {
+				builder.append(", ");
+			}
+			builder.append(entry.getKey()).append(": ").append(entry.getValue());
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public double getLastTestEventsPerSecond() {
+		return ExecutionTraceCollector.getLastTraceStatistics().getEventsPerSecond();
+	}
+
+	@Override
+	public double getLastTestCompressionRatio() {
+		return ExecutionTraceCollector.getLastTraceStatistics().getCompressionRatio();
+	}
+
+	@Override
+	public double[] getLastTestCompressionRatiosPerLevel() {
+		return ExecutionTraceCollector.getLastTraceStatistics().getCompressionRatiosPerLevel();
+	}
+
+	@Override
+	public double getLastTestCollectionTimeMillis() {
+		return ExecutionTraceCollector.getLastTraceStatistics().getCollectionTimeNanos() / 1E6;
+	}
+
+	@Override
+	public long getLastTestLateEventCount() {
+		return ExecutionTraceCollector.getLastTraceStatistics().getLateEventCount();
+	}
+
+	@Override
+	public long getSpilledBytes() {
+		return SpillStatistics.getSpilledBytes();
+	}
+
+	@Override
+	public long getSpillCount() {
+		return SpillStatistics.getSpillCount();
+	}
+
+	@Override
+	public double getSpillTimeMillis() {
+		return SpillStatistics.getSpillTimeNanos() / 1E6;
+	}
+
+	@Override
+	public double getLockWaitTimeMillis() {
+		return ExecutionTraceCollector.getLockWaitTimeNanos() / 1E6;
+	}
+
+	@Override
+	public long getMemoryBudget() {
+		return TraceMemoryBudget.getBudget();
+	}
+
+	@Override
+	public boolean isMemoryBudgetExhausted() {
+		return TraceMemoryBudget.isExhausted();
+	}
+
+	@Override
+	public long getNodeCacheHits() {
+		return NodeCache.getTotalHits();
+	}
+
+	@Override
+	public long getNodeCacheMisses() {
+		return NodeCache.getTotalMisses();
+	}
+
+	@Override
+	public boolean isRecording() {
+		return ExecutionTraceCollector.isRecording();
+	}
+
+}
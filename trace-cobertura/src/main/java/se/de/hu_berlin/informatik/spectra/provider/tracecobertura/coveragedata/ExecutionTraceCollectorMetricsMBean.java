@@ -0,0 +1,47 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata;
+
+/**
+ * JMX view on the execution trace collector. Attributes prefixed with
+ * "LastTest" refer to the traces that were collected most recently.
+ */
+public interface ExecutionTraceCollectorMetricsMBean {
+
+	long getCollectionCount();
+
+	long getTotalEventCount();
+
+	long getLastTestEventCount();
+
+	int getLastTestThreadCount();
+
+	String getLastTestEventsPerThread();
+
+	double getLastTestEventsPerSecond();
+
+	double getLastTestCompressionRatio();
+
+	double[] getLastTestCompressionRatiosPerLevel();
+
+	double getLastTestCollectionTimeMillis();
+
+	long getLastTestLateEventCount();
+
+	long getSpilledBytes();
+
+	long getSpillCount();
+
+	double getSpillTimeMillis();
+
+	double getLockWaitTimeMillis();
+
+	long getMemoryBudget();
+
+	boolean isMemoryBudgetExhausted();
+
+	long getNodeCacheHits();
+
+	long getNodeCacheMisses();
+
+	boolean isRecording();
+
+}
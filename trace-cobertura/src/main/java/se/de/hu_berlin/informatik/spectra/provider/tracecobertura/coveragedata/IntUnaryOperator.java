@@ -0,0 +1,32 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata;
+
+
+public interface IntUnaryOperator {
+
+    /**
+     * Applies this operator to the given operand.
+     *
+     * @param operand the operand
+     * @return the operator result
+     */
+    int applyAsInt(int operand);
+
+    /**
+     * Adapts a boxing function to a primitive operator.
+     */
+    public static class FromFunction implements IntUnaryOperator {
+
+        private final Function<Integer, Integer> function;
+
+        public FromFunction(Function<Integer, Integer> function) {
+            this.function = function;
+        }
+
+        @Override
+        public int applyAsInt(int operand) {
+            return function.apply(operand);
+        }
+
+    }
+
+}
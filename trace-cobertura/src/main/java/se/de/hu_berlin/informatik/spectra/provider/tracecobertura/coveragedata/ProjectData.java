@@ -31,10 +31,17 @@ public class ProjectData extends CoverageDataContainer implements Serializable {
 	public ProjectData() {
 	}
 	
+	/**
+	 * Sets the execution traces.
+	 * @param map
+	 * map from trace stream ids (see {@link ExecutionTraceCollector#getTraceStreamIdForCurrentThread()})
+	 * to the respective execution traces
+	 */
 	public void addExecutionTraces(Map<Long, EfficientCompressedIntegerTrace> map) {
 		lock.lock();
 		try {
-			this.executionTraces = new HashMap<>();
+			// keep the traces ordered by their trace stream ids
+			this.executionTraces = new TreeMap<>();
 			for (Entry<Long, EfficientCompressedIntegerTrace> entry : map.entrySet()) {
 				try {
 					EfficientCompressedIntegerTrace trace = entry.getValue();
@@ -72,7 +79,8 @@ public class ProjectData extends CoverageDataContainer implements Serializable {
 	
 	/**
 	 * @return
-	 * the collection of execution traces for all executed threads;
+	 * the collection of execution traces for all executed threads, mapped by 
+	 * their trace stream ids (in ascending order);
 	 * the statements in the traces are stored as "class_id:statement_counter"
 	 */
 	public Map<Long, EfficientCompressedIntegerTrace> getExecutionTraces() {
@@ -95,6 +95,7 @@ public class TouchCollector {
 			registeredClasses.put(classa, classId);
 //			logger.debug("Registering class: " + classa);
 			ExecutionTraceCollector.initializeCounterArrayForClass(classId, countersCnt);
+			ExecutionTraceCollector.registerClassForRecording(classId, classa.getName());
 		}
 	}
 
@@ -332,6 +333,8 @@ public class TouchCollector {
 	}
 	
 	public static synchronized boolean resetTouchesOnRegisteredClasses() {
+		// events recorded from now on belong to the next test
+		ExecutionTraceCollector.startNewTest();
 		boolean allWorked = true;
 		for (Entry<Class<?>, Integer> c : registeredClasses.entrySet()) {
 			allWorked &= resetTouchesToSingleClass(c.getKey(), c.getValue());
@@ -0,0 +1,166 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.data.CoverageIgnore;
+
+/**
+ * Summary of the execution traces that were collected for a single test.
+ */
+@CoverageIgnore
+public class TraceCollectionStatistics {
+
+	public static final TraceCollectionStatistics EMPTY = new TraceCollectionStatistics(
+			Collections.<Long, Long>emptyMap(), 0, 0, new double[0], 0, 0, 0, 0, 0, 0, 0, 0);
+
+	private final Map<Long, Long> eventsPerThread;
+	private final long eventCount;
+	private final long compressedSize;
+	private final double[] compressionRatiosPerLevel;
+	private final long recordingTimeNanos;
+	private final long collectionTimeNanos;
+	private final long spilledBytes;
+	private final long spillCount;
+	private final long spillTimeNanos;
+	private final long lockWaitTimeNanos;
+	private final long lateEventCount;
+	private final int unsealedTraceCount;
+
+	TraceCollectionStatistics(Map<Long, Long> eventsPerThread, long eventCount, long compressedSize,
+			double[] compressionRatiosPerLevel, long recordingTimeNanos, long collectionTimeNanos,
+			long spilledBytes, long spillCount, long spillTimeNanos, long lockWaitTimeNanos,
+			long lateEventCount, int unsealedTraceCount) {
+		this.eventsPerThread = Collections.unmodifiableMap(eventsPerThread);
+		this.eventCount = eventCount;
+		this.compressedSize = compressedSize;
+		this.compressionRatiosPerLevel = compressionRatiosPerLevel;
+		this.recordingTimeNanos = recordingTimeNanos;
+		this.collectionTimeNanos = collectionTimeNanos;
+		this.spilledBytes = spilledBytes;
+		this.spillCount = spillCount;
+		this.spillTimeNanos = spillTimeNanos;
+		this.lockWaitTimeNanos = lockWaitTimeNanos;
+		this.lateEventCount = lateEventCount;
+		this.unsealedTraceCount = unsealedTraceCount;
+	}
+
+	/**
+	 * @return
+	 * the number of recorded events for each thread (trace stream id to event count)
+	 */
+	public Map<Long, Long> getEventsPerThread() {
+		return eventsPerThread;
+	}
+
+	public int getThreadCount() {
+		return eventsPerThread.size();
+	}
+
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * @return
+	 * the recorded events per second, measured from the start of the test to the collection of the traces
+	 */
+	public double getEventsPerSecond() {
+		if (recordingTimeNanos <= 0) {
+			return 0;
+		}
+		return (double) eventCount * 1E9 / (double) recordingTimeNanos;
+	}
+
+	/**
+	 * @return
+	 * the summed up size of the compressed traces, including repetition markers
+	 */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * @return
+	 * the compressed size of all traces divided by the number of recorded events
+	 */
+	public double getCompressionRatio() {
+		if (eventCount == 0) {
+			return 1.0;
+		}
+		return (double) compressedSize / (double) eventCount;
+	}
+
+	/**
+	 * @return
+	 * the average compression ratio for each level of the compressed traces, starting with the lowest level
+	 */
+	public double[] getCompressionRatiosPerLevel() {
+		return compressionRatiosPerLevel.clone();
+	}
+
+	public long getRecordingTimeNanos() {
+		return recordingTimeNanos;
+	}
+
+	/**
+	 * @return
+	 * the time it took to seal and store the traces of all threads
+	 */
+	public long getCollectionTimeNanos() {
+		return collectionTimeNanos;
+	}
+
+	/**
+	 * @return
+	 * the number of bytes that were spilled to disk while running the test
+	 */
+	public long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	public long getSpillCount() {
+		return spillCount;
+	}
+
+	public long getSpillTimeNanos() {
+		return spillTimeNanos;
+	}
+
+	/**
+	 * @return
+	 * the time that threads were blocked on the collector lock while running the test
+	 */
+	public long getLockWaitTimeNanos() {
+		return lockWaitTimeNanos;
+	}
+
+	public long getLateEventCount() {
+		return lateEventCount;
+	}
+
+	public int getUnsealedTraceCount() {
+		return unsealedTraceCount;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("events: %,d (%,.0f/s), threads: %d, compressed size: %,d (%.2f%%)",
+				eventCount, getEventsPerSecond(), getThreadCount(), compressedSize, 100.0 * getCompressionRatio()));
+		for (int i = 0; i < compressionRatiosPerLevel.length; ++i) {
+			builder.append(String.format("%n  level %d: %.2f%%", i, 100.0 * compressionRatiosPerLevel[i]));
+		}
+		for (Entry<Long, Long> entry : eventsPerThread.entrySet()) {
+			builder.append(String.format("%n  thread %d: %,d events", entry.getKey(), entry.getValue()));
+		}
+		builder.append(String.format("%nspilled: %,d bytes in %,d nodes (%.2f ms), lock wait: %.2f ms, collection: %.2f ms",
+				spilledBytes, spillCount, spillTimeNanos / 1E6, lockWaitTimeNanos / 1E6, collectionTimeNanos / 1E6));
+		if (lateEventCount > 0 || unsealedTraceCount > 0) {
+			builder.append(String.format("%nlate events: %,d, discarded traces: %d", lateEventCount, unsealedTraceCount));
+		}
+		return builder.toString();
+	}
+
+}
@@ -1,17 +1,14 @@
 package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.AbstractQueue;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.Function;
@@ -29,11 +26,9 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = 2334531021193748807L;
+	private static final long serialVersionUID = 2334531021193748808L;
 
-	// keep at most 4 (+1 with the last node) nodes in memory
-    private static final int CACHE_SIZE = 4;
-    
+	// the number of cached nodes (+1 with the last node) is managed by the global memory budget
     private static final int ARRAY_SIZE = 1000;
 	
 	private int arrayLength = ARRAY_SIZE;
@@ -55,13 +50,15 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
 	private volatile transient Node<E> lastNode;
 	
 	// cache all other nodes, if necessary
-	private transient Map<Integer,Node<E>> cachedNodes = new HashMap<>();
-	private transient List<Integer> cacheSequence = new LinkedList<>();
+	private transient NodeCache<Node<E>> cachedNodes = createCache();
 
 	private transient boolean deleteOnExit;
 	
 	private Type serializationType;
 	
+	// holds all stored nodes
+	private transient SpillFile spillFile;
+	
 	private void writeObject(java.io.ObjectOutputStream stream)
             throws IOException {
 		sleep();
@@ -75,6 +72,7 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
         stream.writeInt(firstNodeSize);
         stream.writeLong(size);
         stream.writeInt(arrayLength);
+        stream.writeObject(spillFile);
     }
 	
 	private volatile transient boolean locked = false;
@@ -97,12 +95,13 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
 			node.cleanup();
 		}
 		cachedNodes.clear();
-		cacheSequence.clear();
 		// store the last node, too
 		if (lastNode != null && lastNode.modified) {
 			store(lastNode);
 			lastNode = null;
 		}
+		// release the file handle
+		spillFile.close();
 	}
 
 	private void readObject(java.io.ObjectInputStream stream)
@@ -115,13 +114,14 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
         currentStoreIndex = stream.readInt();
         lastStoreIndex = stream.readInt();
         firstNodeSize = stream.readInt();
-        size = stream.readInt();
+        size = stream.readLong();
         arrayLength = stream.readInt();
+        spillFile = (SpillFile) stream.readObject();
         
-        cachedNodes = new HashMap<>();
-        cacheSequence = new LinkedList<>();
+        cachedNodes = createCache();
         // always delete files from deserialized object TODO
         deleteOnExit = true;
+        spillFile.deleteOnExit();
     }
     
     public BufferedArrayQueue(File outputDir, String filePrefix, boolean deleteOnExit, Type serializationType) {
@@ -130,6 +130,7 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
 		check(outputDir);
 		this.output = outputDir;
 		this.filePrefix = Objects.requireNonNull(filePrefix);
+		this.spillFile = new SpillFile(new File(outputDir, filePrefix + ".spill"), deleteOnExit);
 		initialize();
     }
     
@@ -224,8 +225,8 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
     }
     
     private void store(Node<E> node) {
-		String filename = getFileName(node.storeIndex);
-		try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(filename))) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
 			Object[] array = null;
 			if (node.hasFreeSpace()) {
 				array = new Object[node.endIndex];
@@ -257,10 +258,8 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
 				throw new UnsupportedOperationException();
 			}
 			
-			// file can not be removed, due to serialization! TODO
-			if (deleteOnExit) {
-				new File(filename).deleteOnExit();
-			}
+			outputStream.flush();
+			spillFile.write(node.storeIndex, ByteBuffer.wrap(bytes.toByteArray()));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -274,26 +273,23 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
     		return;
     	}
     	// already in the cache?
-    	if (cachedNodes.containsKey(storeIndex)) {
+    	if (cachedNodes.contains(storeIndex)) {
     		return;
     	}
-    	// remove a cached node if the cache is full
-    	if (cachedNodes.size() >= CACHE_SIZE) {
-    		// remove the node from the cache that has been added first
-    		uncache(cacheSequence.remove(0));
-    	}
+    	// evicts other nodes if the cache is full or the memory budget is exhausted
     	cachedNodes.put(storeIndex, node);
-    	cacheSequence.add(storeIndex);
 	}
     
-    // should check for modifications and possibly write to the disk
-    private void uncache(int storeIndex) {
-    	Node<E> node = cachedNodes.remove(storeIndex);
-    	if (node != null) {
-    		if (node.modified) {
-    			store(node);
+    private NodeCache<Node<E>> createCache() {
+    	return new NodeCache<>(new NodeCache.EvictionListener<Node<E>>() {
+    		@Override
+    		public void evicted(int storeIndex, Node<E> node) {
+    			// should check for modifications and possibly write to the disk
+    			if (node.modified) {
+    				store(node);
+    			}
     		}
-    	}
+    	});
     }
 
 	/**
@@ -333,26 +329,16 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
     	delete(storeIndex);
 	}
     
-	private void uncacheNoStore(int storeIndex) {
-		if (cachedNodes.containsKey(storeIndex)) {
-			Node<E> node = cachedNodes.get(storeIndex);
-			node.cleanup();
-			cachedNodes.remove(storeIndex);
-			cacheSequence.remove((Integer)storeIndex);
-		}
-	}
+    private void uncacheNoStore(int storeIndex) {
+    	Node<E> node = cachedNodes.remove(storeIndex);
+    	if (node != null) {
+    		node.cleanup();
+    	}
+    }
 	
 	private void delete(int storeIndex) {
-		String filename = getFileName(storeIndex);
 		// stored node should be deleted
-		File file = new File(filename);
-		if (file.exists()) {
-			file.delete();
-		}
-	}
-
-	private String getFileName(int storeIndex) {
-		return output.getAbsolutePath() + File.separator + filePrefix + "-" + storeIndex + ".rry";
+		spillFile.remove(storeIndex);
 	}
 
 	private Node<E> loadFirst() {
@@ -378,18 +364,26 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
 		}
 
 		// only cache nodes that are not the last node
-		if (cachedNodes.containsKey(storeIndex)) {
+		Node<E> cachedNode = cachedNodes.get(storeIndex);
+		if (cachedNode != null) {
 			// already cached
-			return cachedNodes.get(storeIndex);
+			return cachedNode;
 		}
 
-		String filename = getFileName(storeIndex);
-		if (!(new File(filename).exists())) {
+		int length = spillFile.getLength(storeIndex);
+		if (length < 0) {
 			return null;
 		}
 
 		Node<E> loadedNode;
-		try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(filename))) {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		try {
+			spillFile.read(storeIndex, bytes);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new IllegalStateException();
+		}
+		try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(bytes.array()))) {
 			Object[] items = new Object[arrayLength];
 
 			int startIndex = inputStream.readInt();
@@ -473,7 +467,6 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
     		node.cleanup();
     	}
     	cachedNodes.clear();
-    	cacheSequence.clear();
 	}
     
     public void clear() {
@@ -482,12 +475,8 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
     	}
 
     	clearCache();
-    	// delete possibly stored nodes
-    	for (; storedNodeExists(); ++firstStoreIndex) {
-    		delete(firstStoreIndex);
-    	}
-    	// delete potentially stored last node
-    	delete(lastStoreIndex+1);
+    	// delete all stored nodes
+    	spillFile.delete();
 
     	initialize();
     }
@@ -610,11 +599,8 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
     }
     
     private void removeFromCache(int storeIndex) {
-    	if (cachedNodes.containsKey(storeIndex)) {
-    		cachedNodes.remove(storeIndex);
-    		cacheSequence.remove((Integer)storeIndex);
-    	}
-	}
+    	cachedNodes.remove(storeIndex);
+    }
 
 	/**
      * Same as {@link #clear()}, but removes {@code count} elements, 
@@ -1079,6 +1065,7 @@ public class BufferedArrayQueue<E> extends AbstractQueue<E> implements Serializa
 	
 	public void deleteOnExit() {
 		deleteOnExit = true;
+		spillFile.deleteOnExit();
 	}
 	
 }
@@ -1,19 +1,13 @@
 package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.Function;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.IntUnaryOperator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
 
 /**
@@ -24,11 +18,9 @@ public class BufferedIntArrayQueue implements Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = -1777403971930917719L;
+	private static final long serialVersionUID = -1777403971930917718L;
 
-	// keep at most 4 (+1 with the last node) nodes in memory
-    private static final int CACHE_SIZE = 4;
-    
+	// the number of cached nodes (+1 with the last node) is managed by the global memory budget
     private static final int ARRAY_SIZE = 1000;
 	
 	private int arrayLength = ARRAY_SIZE;
@@ -50,11 +42,13 @@ public class BufferedIntArrayQueue implements Serializable {
 	private volatile transient Node lastNode;
 	
 	// cache all other nodes, if necessary
-	private transient Map<Integer,Node> cachedNodes = new HashMap<>();
-	private transient List<Integer> cacheSequence = new LinkedList<>();
+	private transient NodeCache<Node> cachedNodes = createCache();
 
 	private transient boolean deleteOnExit;
 	
+	// holds all stored nodes
+	private transient SpillFile spillFile;
+	
 	private void writeObject(java.io.ObjectOutputStream stream)
             throws IOException {
 		sleep();
@@ -67,6 +61,7 @@ public class BufferedIntArrayQueue implements Serializable {
         stream.writeInt(firstNodeSize);
         stream.writeLong(size);
         stream.writeInt(arrayLength);
+        stream.writeObject(spillFile);
     }
 	
 	private volatile transient boolean locked = false;
@@ -90,13 +85,14 @@ public class BufferedIntArrayQueue implements Serializable {
 			node.cleanup();
 		}
 		cachedNodes.clear();
-		cacheSequence.clear();
 		// store the last node, too
 		if (lastNode != null && lastNode.modified) {
 			store(lastNode);
 			lastNode = null;
 		}
 		writeBuffer = null;
+		// release the file handle
+		spillFile.close();
 	}
 
 	private void readObject(java.io.ObjectInputStream stream)
@@ -108,13 +104,14 @@ public class BufferedIntArrayQueue implements Serializable {
         currentStoreIndex = stream.readInt();
         lastStoreIndex = stream.readInt();
         firstNodeSize = stream.readInt();
-        size = stream.readInt();
+        size = stream.readLong();
         arrayLength = stream.readInt();
+        spillFile = (SpillFile) stream.readObject();
         
-        cachedNodes = new HashMap<>();
-        cacheSequence = new LinkedList<>();
+        cachedNodes = createCache();
         // always delete files from deserialized object TODO
         deleteOnExit = true;
+        spillFile.deleteOnExit();
     }
     
     public BufferedIntArrayQueue(File outputDir, String filePrefix, boolean deleteOnExit) {
@@ -122,6 +119,7 @@ public class BufferedIntArrayQueue implements Serializable {
 		check(outputDir);
 		this.output = outputDir;
 		this.filePrefix = Objects.requireNonNull(filePrefix);
+		this.spillFile = new SpillFile(new File(outputDir, filePrefix + ".spill"), deleteOnExit);
 		initialize();
     }
     
@@ -210,42 +208,31 @@ public class BufferedIntArrayQueue implements Serializable {
     private ByteBuffer getFreshBuffer() {
     	// only (lazily) allocate ONE buffer per buffered queue object! allocation costs are potentially high...
     	if (writeBuffer == null) {
-    		writeBuffer = ByteBuffer.allocateDirect(4 * arrayLength + 8);
+    		// large enough for uncompressed and compressed nodes
+    		writeBuffer = ByteBuffer.allocateDirect(VarInts.MAX_INT_BYTES * arrayLength + 8);
     	}
     	writeBuffer.clear();
     	return writeBuffer;
     }
     
     private void store(Node node) {
-//    	System.out.println(super.toString() + " store: " + node.storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-//    	System.out.println("imem: " + Runtime.getRuntime().freeMemory());
-		String filename = getFileName(node.storeIndex);
-		// apparently, this is faster than using an ObjectOutputStream...
-		try (RandomAccessFile raFile = new RandomAccessFile(filename, "rw")) {
-			try (FileChannel file = raFile.getChannel()) {
-//				ByteBuffer buf = file.map(FileChannel.MapMode.READ_WRITE, 0, 4 * node.items.length + 8);
-//				buf.putInt(node.startIndex);
-//				buf.putInt(node.endIndex);
-//				for (int i : node.items) {
-//					buf.putInt(i);
-//				}
-				
-				ByteBuffer directBuf = getFreshBuffer();
-				directBuf.putInt(node.startIndex);
-				directBuf.putInt(node.endIndex);
-				for (int i = node.startIndex; i < node.endIndex; ++i) {
-					directBuf.putInt(node.items[i]);
-				}
-				directBuf.flip();
-				file.write(directBuf);
-
-				// file can not be removed, due to serialization! TODO
-				if (deleteOnExit) {
-					new File(filename).deleteOnExit();
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
+		long startTime = System.nanoTime();
+		ByteBuffer directBuf = getFreshBuffer();
+		if (VarInts.COMPRESS_SPILLS) {
+			// a negative start index marks a delta and varint encoded node
+			directBuf.putInt(~node.startIndex);
+			directBuf.putInt(node.endIndex);
+			VarInts.putDeltas(directBuf, node.items, node.startIndex, node.endIndex);
+		} else {
+			directBuf.putInt(node.startIndex);
+			directBuf.putInt(node.endIndex);
+			for (int i = node.startIndex; i < node.endIndex; ++i) {
+				directBuf.putInt(node.items[i]);
 			}
+		}
+		directBuf.flip();
+		try {
+			SpillStatistics.recordSpill(spillFile.write(node.storeIndex, directBuf), startTime);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -258,28 +245,24 @@ public class BufferedIntArrayQueue implements Serializable {
     		return;
     	}
     	// already in the cache?
-    	if (cachedNodes.containsKey(storeIndex)) {
+    	if (cachedNodes.contains(storeIndex)) {
     		return;
     	}
 //    	System.out.println(super.toString() + " cache: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-    	// remove a cached node if the cache is full
-    	if (cachedNodes.size() >= CACHE_SIZE) {
-    		// remove the node from the cache that has been added first
-    		uncache(cacheSequence.remove(0));
-    	}
+    	// evicts other nodes if the cache is full or the memory budget is exhausted
     	cachedNodes.put(storeIndex, node);
-    	cacheSequence.add(storeIndex);
     }
 
-    // should check for modifications and possibly write to the disk
-    private void uncache(int storeIndex) {
-    	Node node = cachedNodes.remove(storeIndex);
-    	if (node != null) {
-    		if (node.modified) {
-//    			System.out.println(super.toString() + " uncache: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-    			store(node);
+    private NodeCache<Node> createCache() {
+    	return new NodeCache<>(new NodeCache.EvictionListener<Node>() {
+    		@Override
+    		public void evicted(int storeIndex, Node node) {
+    			// should check for modifications and possibly write to the disk
+    			if (node.modified) {
+    				store(node);
+    			}
     		}
-    	}
+    	});
     }
 
 	/**
@@ -319,27 +302,16 @@ public class BufferedIntArrayQueue implements Serializable {
     }
 
     private void uncacheNoStore(int storeIndex) {
-    	if (cachedNodes.containsKey(storeIndex)) {
-//    		System.out.println(super.toString() + " uncache: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-    		Node node = cachedNodes.get(storeIndex);
+    	Node node = cachedNodes.remove(storeIndex);
+    	if (node != null) {
     		node.cleanup();
-    		cachedNodes.remove(storeIndex);
-    		cacheSequence.remove((Integer)storeIndex);
     	}
     }
 
     private void delete(int storeIndex) {
-    	String filename = getFileName(storeIndex);
     	// stored node should be deleted
-    	File file = new File(filename);
-    	if (file.exists()) {
-    		file.delete();
-    	}
+    	spillFile.remove(storeIndex);
     }
-
-    private String getFileName(int storeIndex) {
-    	return output.getAbsolutePath() + File.separator + filePrefix + "-" + storeIndex + ".rry";
-	}
 	
 	private Node loadFirst() {
 		if (storedNodeExists()) {
@@ -366,46 +338,41 @@ public class BufferedIntArrayQueue implements Serializable {
 		}
 
 		// only cache nodes that are not the last node
-		if (cachedNodes.containsKey(storeIndex)) {
+		Node cachedNode = cachedNodes.get(storeIndex);
+		if (cachedNode != null) {
 			// already cached
-			return cachedNodes.get(storeIndex);
+			return cachedNode;
 		}
 
-		String filename = getFileName(storeIndex);
-		if (!(new File(filename).exists())) {
+		if (!spillFile.contains(storeIndex)) {
 			return null;
 		}
 
-//		System.out.println(super.toString() + " load: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
 		Node loadedNode;
-		try (FileInputStream in = new FileInputStream(filename)) {
-			try (FileChannel file = in.getChannel()) {
-				long fileSize = file.size();
-				if (fileSize > Integer.MAX_VALUE) {
-					throw new UnsupportedOperationException("File size too big!");
-				}
-				ByteBuffer directBuf = getFreshBuffer();
-				file.read(directBuf);
-				directBuf.flip();
-
-				int startIndex = directBuf.getInt();
-				int endIndex = directBuf.getInt();
+		try {
+			ByteBuffer directBuf = getFreshBuffer();
+			spillFile.read(storeIndex, directBuf);
+			directBuf.flip();
+
+			int startIndex = directBuf.getInt();
+			int endIndex = directBuf.getInt();
+			boolean compressed = startIndex < 0;
+			if (compressed) {
+				startIndex = ~startIndex;
+			}
 
-//				int arrayLength = (int)fileSize/4 - 2;
-				// actually only load an array of the size that's necessary;
-				// will be extended if there are new elements that are added
-				int[] items = new int[endIndex];
+			// actually only load an array of the size that's necessary;
+			// will be extended if there are new elements that are added
+			int[] items = new int[endIndex];
+			if (compressed) {
+				VarInts.getDeltas(directBuf, items, startIndex, endIndex);
+			} else {
 				for (int i = startIndex; i < endIndex; ++i) {
 					items[i] = directBuf.getInt();
 				}
-
-				loadedNode = new Node(items, startIndex, endIndex, storeIndex, arrayLength);
-
-				// file can not be removed, due to serialization! TODO
-				if (deleteOnExit) {
-					new File(filename).deleteOnExit();
-				}
 			}
+
+			loadedNode = new Node(items, startIndex, endIndex, storeIndex, arrayLength);
 		} catch (IOException | IndexOutOfBoundsException e) {
 			e.printStackTrace();
 			throw new IllegalStateException();
@@ -446,13 +413,96 @@ public class BufferedIntArrayQueue implements Serializable {
     	return true;
     }
 
+    /**
+     * Adds the given segment of the array to the end of the queue. 
+     * Copies array segments directly into the nodes, instead of adding 
+     * each element separately.
+     * @param src
+     * the source array
+     * @param off
+     * the index of the first element to add
+     * @param len
+     * the number of elements to add
+     */
+    public void addAll(int[] src, int off, int len) {
+    	if (locked) {
+    		throw new IllegalStateException("Tried to add " + len + " values while being locked.");
+    	}
+    	if (off < 0 || len < 0 || off + len > src.length) {
+    		throw new IndexOutOfBoundsException("offset: " + off + ", length: " + len + ", array length: " + src.length);
+    	}
+    	int end = off + len;
+    	while (off < end) {
+    		loadLast();
+    		if (lastNode != null && lastNode.hasFreeSpace()) {
+    			int count = Math.min(end - off, arrayLength - lastNode.endIndex);
+    			lastNode.addAll(src, off, count);
+    			size += count;
+    			if (firstStoreIndex == lastNode.storeIndex) {
+    				firstNodeSize += count;
+    			}
+    			off += count;
+    		} else {
+    			linkLast(src[off++]);
+    		}
+    	}
+    }
+    
+    /**
+     * Removes elements from the front of the queue and copies them 
+     * into the given array segment.
+     * @param dst
+     * the destination array
+     * @param off
+     * the index in the destination array to copy the first element to
+     * @param len
+     * the maximum number of elements to remove
+     * @return
+     * the number of removed elements
+     */
+    public int drainTo(int[] dst, int off, int len) {
+    	if (locked) {
+			throw new IllegalStateException("Tried to remove elements while being locked.");
+		}
+    	if (off < 0 || len < 0 || off + len > dst.length) {
+    		throw new IndexOutOfBoundsException("offset: " + off + ", length: " + len + ", array length: " + dst.length);
+    	}
+    	int copied = 0;
+    	while (copied < len && !isEmpty()) {
+    		final Node f = loadFirst();
+    		int count = Math.min(len - copied, f.size());
+    		if (count > 1) {
+    			// copy all but the last element; the last element is removed regularly,
+    			// since this possibly unlinks the node
+    			System.arraycopy(f.items, f.startIndex, dst, off + copied, count - 1);
+    			f.clear(count - 1);
+    			size -= count - 1;
+    			firstNodeSize -= count - 1;
+    			copied += count - 1;
+    		}
+    		dst[off + copied++] = removeFirst(f);
+    	}
+    	return copied;
+    }
+    
+    /**
+     * Removes elements from the front of the queue and copies them 
+     * into the given array.
+     * @param dst
+     * the destination array
+     * @return
+     * the number of removed elements
+     */
+    public int drainTo(int[] dst) {
+    	return drainTo(dst, 0, dst.length);
+    }
+
     private void clearCache() {
 //    	System.out.println(super.toString() + " clear cache, " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
     	for (Node node : cachedNodes.values()) {
     		node.cleanup();
     	}
     	cachedNodes.clear();
-    	cacheSequence.clear();
     }
 
     public void clear() {
@@ -461,12 +511,8 @@ public class BufferedIntArrayQueue implements Serializable {
     	}
 
     	clearCache();
-    	// delete possibly stored nodes
-    	for (; storedNodeExists(); ++firstStoreIndex) {
-    		delete(firstStoreIndex);
-    	}
-    	// delete potentially stored last node
-    	delete(lastStoreIndex+1);
+    	// delete all stored nodes
+    	spillFile.delete();
 
     	initialize();
     }
@@ -589,11 +635,7 @@ public class BufferedIntArrayQueue implements Serializable {
     }
     
     private void removeFromCache(int storeIndex) {
-    	if (cachedNodes.containsKey(storeIndex)) {
-//    		System.out.println(super.toString() + " uncache: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-    		cachedNodes.remove(storeIndex);
-    		cacheSequence.remove((Integer)storeIndex);
-    	}
+    	cachedNodes.remove(storeIndex);
     }
 
     /**
@@ -795,50 +837,76 @@ public class BufferedIntArrayQueue implements Serializable {
 			Node currentNode = load(storeIndex);
 			int temp = currentNode.items[index++];
 			if (index >= currentNode.endIndex) {
-				if (storeIndex < lastStoreIndex) {
-					++storeIndex;
-				} else if (loadLast() != null) {
-					if (storeIndex >= lastNode.storeIndex) {
-						// already at the last node
-						storeIndex = -1;
-					} else {
-						// process the last node next
-						storeIndex = lastNode.storeIndex;
-					}
-				} else {
-					// should really not happen...
-					storeIndex = -1;
-				}
-				index = 0;
+				moveToNextNode();
 			}
 			return temp;
 		}
 		
 		@Override
 		public int processNextAndReplaceWithResult(Function<Integer,Integer> function) {
+			return processNextAndReplaceWithIntResult(new IntUnaryOperator.FromFunction(function));
+		}
+
+		@Override
+		public int processNextAndReplaceWithIntResult(IntUnaryOperator function) {
 			Node currentNode = load(storeIndex);
 			int temp = currentNode.items[index];
 			// replace item with function's result; otherwise the same as next()
-			currentNode.items[index] = function.apply(temp);
+			currentNode.items[index] = function.applyAsInt(temp);
 			index++;
 			if (index >= currentNode.endIndex) {
-				if (storeIndex < lastStoreIndex) {
-					++storeIndex;
-				} else if (loadLast() != null) {
-					if (storeIndex >= lastNode.storeIndex) {
-						// already at the last node
-						storeIndex = -1;
-					} else {
-						// process the last node next
-						storeIndex = lastNode.storeIndex;
-					}
-				} else {
-					// should really not happen...
+				moveToNextNode();
+			}
+			return temp;
+		}
+
+		/**
+		 * Copies the next elements into the given array segment, 
+		 * copying whole array segments of the nodes at once.
+		 * @param dst
+		 * the destination array
+		 * @param off
+		 * the index in the destination array to copy the first element to
+		 * @param len
+		 * the maximum number of elements to copy
+		 * @return
+		 * the number of copied elements; 0 if there are no elements left
+		 */
+		public int nextBatch(int[] dst, int off, int len) {
+			int copied = 0;
+			while (copied < len && hasNext()) {
+				Node currentNode = load(storeIndex);
+				int count = Math.min(len - copied, currentNode.endIndex - index);
+				System.arraycopy(currentNode.items, index, dst, off + copied, count);
+				copied += count;
+				index += count;
+				if (index >= currentNode.endIndex) {
+					moveToNextNode();
+				}
+			}
+			return copied;
+		}
+		
+		public int nextBatch(int[] dst) {
+			return nextBatch(dst, 0, dst.length);
+		}
+		
+		private void moveToNextNode() {
+			if (storeIndex < lastStoreIndex) {
+				++storeIndex;
+			} else if (loadLast() != null) {
+				if (storeIndex >= lastNode.storeIndex) {
+					// already at the last node
 					storeIndex = -1;
+				} else {
+					// process the last node next
+					storeIndex = lastNode.storeIndex;
 				}
-				index = 0;
+			} else {
+				// should really not happen...
+				storeIndex = -1;
 			}
-			return temp;
+			index = 0;
 		}
 
 		public int peek() {
@@ -926,6 +994,16 @@ public class BufferedIntArrayQueue implements Serializable {
 			items[endIndex++] = e;
 		}
 
+        // adds the given array segment to the end
+		public void addAll(int[] src, int off, int count) {
+			this.modified = true;
+			if (items.length < arrayLength) {
+				extendArray();
+			}
+			System.arraycopy(src, off, items, endIndex, count);
+			endIndex += count;
+		}
+
 		private void extendArray() {
 			int[] temp = items;
 			items = new int[arrayLength];
@@ -1020,13 +1098,18 @@ public class BufferedIntArrayQueue implements Serializable {
 	}
 
 	public int getAndReplaceWith(long i, Function<Integer, Integer> function) {
+		return getAndReplaceWithInt(i, new IntUnaryOperator.FromFunction(function));
+	}
+
+	public int getAndReplaceWithInt(long i, IntUnaryOperator function) {
 		int previous = get(i);
-		set(i, function.apply(previous));
+		set(i, function.applyAsInt(previous));
 		return previous;
 	}
 	
 	public void deleteOnExit() {
 		deleteOnExit = true;
+		spillFile.deleteOnExit();
 	}
 	
 }
@@ -1,16 +1,9 @@
 package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.Function;
@@ -24,11 +17,9 @@ public class BufferedLongArrayQueue implements Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = 3684150499665589360L;
+	private static final long serialVersionUID = 3684150499665589361L;
 
-	// keep at most 4 (+1 with the last node) nodes in memory
-    private static final int CACHE_SIZE = 4;
-    
+	// the number of cached nodes (+1 with the last node) is managed by the global memory budget
     private static final int ARRAY_SIZE = 1000;
 	
 	private int arrayLength = ARRAY_SIZE;
@@ -50,11 +41,13 @@ public class BufferedLongArrayQueue implements Serializable {
 	private volatile transient Node lastNode;
 	
 	// cache all other nodes, if necessary
-	private transient Map<Integer,Node> cachedNodes = new HashMap<>();
-	private transient List<Integer> cacheSequence = new LinkedList<>();
+	private transient NodeCache<Node> cachedNodes = createCache();
 
 	private transient boolean deleteOnExit;
 	
+	// holds all stored nodes
+	private transient SpillFile spillFile;
+	
 	private void writeObject(java.io.ObjectOutputStream stream)
             throws IOException {
 		sleep();
@@ -67,6 +60,7 @@ public class BufferedLongArrayQueue implements Serializable {
         stream.writeInt(firstNodeSize);
         stream.writeLong(size);
         stream.writeInt(arrayLength);
+        stream.writeObject(spillFile);
     }
 	
 	private volatile transient boolean locked = false;
@@ -90,13 +84,14 @@ public class BufferedLongArrayQueue implements Serializable {
 			node.cleanup();
 		}
 		cachedNodes.clear();
-		cacheSequence.clear();
 		// store the last node, too
 		if (lastNode != null && lastNode.modified) {
 			store(lastNode);
 			lastNode = null;
 		}
 		writeBuffer = null;
+		// release the file handle
+		spillFile.close();
 	}
 
 	private void readObject(java.io.ObjectInputStream stream)
@@ -108,13 +103,14 @@ public class BufferedLongArrayQueue implements Serializable {
         currentStoreIndex = stream.readInt();
         lastStoreIndex = stream.readInt();
         firstNodeSize = stream.readInt();
-        size = stream.readInt();
+        size = stream.readLong();
         arrayLength = stream.readInt();
+        spillFile = (SpillFile) stream.readObject();
         
-        cachedNodes = new HashMap<>();
-        cacheSequence = new LinkedList<>();
+        cachedNodes = createCache();
         // always delete files from deserialized object TODO
         deleteOnExit = true;
+        spillFile.deleteOnExit();
     }
     
     public BufferedLongArrayQueue(File outputDir, String filePrefix, boolean deleteOnExit) {
@@ -122,6 +118,7 @@ public class BufferedLongArrayQueue implements Serializable {
 		check(outputDir);
 		this.output = outputDir;
 		this.filePrefix = Objects.requireNonNull(filePrefix);
+		this.spillFile = new SpillFile(new File(outputDir, filePrefix + ".spill"), deleteOnExit);
 		initialize();
     }
     
@@ -210,42 +207,31 @@ public class BufferedLongArrayQueue implements Serializable {
     private ByteBuffer getFreshBuffer() {
     	// only (lazily) allocate ONE buffer per buffered queue object! allocation costs are potentially high...
     	if (writeBuffer == null) {
-    		writeBuffer = ByteBuffer.allocateDirect(8 * arrayLength + 8);
+    		// large enough for uncompressed and compressed nodes
+    		writeBuffer = ByteBuffer.allocateDirect(VarInts.MAX_LONG_BYTES * arrayLength + 8);
     	}
     	writeBuffer.clear();
     	return writeBuffer;
     }
     
     private void store(Node node) {
-//    	System.out.println(super.toString() + " store: " + node.storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-//    	System.out.println("imem: " + Runtime.getRuntime().freeMemory());
-		String filename = getFileName(node.storeIndex);
-		// apparently, this is faster than using an ObjectOutputStream...
-		try (RandomAccessFile raFile = new RandomAccessFile(filename, "rw")) {
-			try (FileChannel file = raFile.getChannel()) {
-//				ByteBuffer buf = file.map(FileChannel.MapMode.READ_WRITE, 0, 4 * node.items.length + 8);
-//				buf.putInt(node.startIndex);
-//				buf.putInt(node.endIndex);
-//				for (int i : node.items) {
-//					buf.putInt(i);
-//				}
-				
-				ByteBuffer directBuf = getFreshBuffer();
-				directBuf.putInt(node.startIndex);
-				directBuf.putInt(node.endIndex);
-				for (int i = node.startIndex; i < node.endIndex; ++i) {
-					directBuf.putLong(node.items[i]);
-				}
-				directBuf.flip();
-				file.write(directBuf);
-
-				// file can not be removed, due to serialization! TODO
-				if (deleteOnExit) {
-					new File(filename).deleteOnExit();
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
+		long startTime = System.nanoTime();
+		ByteBuffer directBuf = getFreshBuffer();
+		if (VarInts.COMPRESS_SPILLS) {
+			// a negative start index marks a delta and varint encoded node
+			directBuf.putInt(~node.startIndex);
+			directBuf.putInt(node.endIndex);
+			VarInts.putDeltas(directBuf, node.items, node.startIndex, node.endIndex);
+		} else {
+			directBuf.putInt(node.startIndex);
+			directBuf.putInt(node.endIndex);
+			for (int i = node.startIndex; i < node.endIndex; ++i) {
+				directBuf.putLong(node.items[i]);
 			}
+		}
+		directBuf.flip();
+		try {
+			SpillStatistics.recordSpill(spillFile.write(node.storeIndex, directBuf), startTime);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -258,28 +244,24 @@ public class BufferedLongArrayQueue implements Serializable {
     		return;
     	}
     	// already in the cache?
-    	if (cachedNodes.containsKey(storeIndex)) {
+    	if (cachedNodes.contains(storeIndex)) {
     		return;
     	}
 //    	System.out.println(super.toString() + " cache: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-    	// remove a cached node if the cache is full
-    	if (cachedNodes.size() >= CACHE_SIZE) {
-    		// remove the node from the cache that has been added first
-    		uncache(cacheSequence.remove(0));
-    	}
+    	// evicts other nodes if the cache is full or the memory budget is exhausted
     	cachedNodes.put(storeIndex, node);
-    	cacheSequence.add(storeIndex);
     }
 
-    // should check for modifications and possibly write to the disk
-    private void uncache(int storeIndex) {
-    	Node node = cachedNodes.remove(storeIndex);
-    	if (node != null) {
-    		if (node.modified) {
-//    			System.out.println(super.toString() + " uncache: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-    			store(node);
+    private NodeCache<Node> createCache() {
+    	return new NodeCache<>(new NodeCache.EvictionListener<Node>() {
+    		@Override
+    		public void evicted(int storeIndex, Node node) {
+    			// should check for modifications and possibly write to the disk
+    			if (node.modified) {
+    				store(node);
+    			}
     		}
-    	}
+    	});
     }
 
 	/**
@@ -319,27 +301,16 @@ public class BufferedLongArrayQueue implements Serializable {
     }
 
     private void uncacheNoStore(int storeIndex) {
-    	if (cachedNodes.containsKey(storeIndex)) {
-//    		System.out.println(super.toString() + " uncache: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-    		Node node = cachedNodes.get(storeIndex);
+    	Node node = cachedNodes.remove(storeIndex);
+    	if (node != null) {
     		node.cleanup();
-    		cachedNodes.remove(storeIndex);
-    		cacheSequence.remove((Integer)storeIndex);
     	}
     }
 
     private void delete(int storeIndex) {
-    	String filename = getFileName(storeIndex);
     	// stored node should be deleted
-    	File file = new File(filename);
-    	if (file.exists()) {
-    		file.delete();
-    	}
+    	spillFile.remove(storeIndex);
     }
-
-    private String getFileName(int storeIndex) {
-    	return output.getAbsolutePath() + File.separator + filePrefix + "-" + storeIndex + ".rry";
-	}
 	
 	private Node loadFirst() {
 		if (storedNodeExists()) {
@@ -366,46 +337,41 @@ public class BufferedLongArrayQueue implements Serializable {
 		}
 
 		// only cache nodes that are not the last node
-		if (cachedNodes.containsKey(storeIndex)) {
+		Node cachedNode = cachedNodes.get(storeIndex);
+		if (cachedNode != null) {
 			// already cached
-			return cachedNodes.get(storeIndex);
+			return cachedNode;
 		}
 
-		String filename = getFileName(storeIndex);
-		if (!(new File(filename).exists())) {
+		if (!spillFile.contains(storeIndex)) {
 			return null;
 		}
 
-//		System.out.println(super.toString() + " load: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
 		Node loadedNode;
-		try (FileInputStream in = new FileInputStream(filename)) {
-			try (FileChannel file = in.getChannel()) {
-				long fileSize = file.size();
-				if (fileSize > Integer.MAX_VALUE) {
-					throw new UnsupportedOperationException("File size too big!");
-				}
-				ByteBuffer directBuf = getFreshBuffer();
-				file.read(directBuf);
-				directBuf.flip();
-
-				int startIndex = directBuf.getInt();
-				int endIndex = directBuf.getInt();
+		try {
+			ByteBuffer directBuf = getFreshBuffer();
+			spillFile.read(storeIndex, directBuf);
+			directBuf.flip();
+
+			int startIndex = directBuf.getInt();
+			int endIndex = directBuf.getInt();
+			boolean compressed = startIndex < 0;
+			if (compressed) {
+				startIndex = ~startIndex;
+			}
 
-//				int arrayLength = (int)fileSize/8 - 2;
-				// actually only load an array of the size that's necessary;
-				// will be extended if there are new elements that are added
-				long[] items = new long[endIndex];
+			// actually only load an array of the size that's necessary;
+			// will be extended if there are new elements that are added
+			long[] items = new long[endIndex];
+			if (compressed) {
+				VarInts.getDeltas(directBuf, items, startIndex, endIndex);
+			} else {
 				for (int i = startIndex; i < endIndex; ++i) {
 					items[i] = directBuf.getLong();
 				}
-
-				loadedNode = new Node(items, startIndex, endIndex, storeIndex, arrayLength);
-
-				// file can not be removed, due to serialization! TODO
-				if (deleteOnExit) {
-					new File(filename).deleteOnExit();
-				}
 			}
+
+			loadedNode = new Node(items, startIndex, endIndex, storeIndex, arrayLength);
 		} catch (IOException | IndexOutOfBoundsException e) {
 			e.printStackTrace();
 			throw new IllegalStateException();
@@ -452,7 +418,6 @@ public class BufferedLongArrayQueue implements Serializable {
     		node.cleanup();
     	}
     	cachedNodes.clear();
-    	cacheSequence.clear();
     }
 
     public void clear() {
@@ -461,12 +426,8 @@ public class BufferedLongArrayQueue implements Serializable {
     	}
 
     	clearCache();
-    	// delete possibly stored nodes
-    	for (; storedNodeExists(); ++firstStoreIndex) {
-    		delete(firstStoreIndex);
-    	}
-    	// delete potentially stored last node
-    	delete(lastStoreIndex+1);
+    	// delete all stored nodes
+    	spillFile.delete();
 
     	initialize();
     }
@@ -589,11 +550,7 @@ public class BufferedLongArrayQueue implements Serializable {
     }
     
     private void removeFromCache(int storeIndex) {
-    	if (cachedNodes.containsKey(storeIndex)) {
-//    		System.out.println(super.toString() + " uncache: " + storeIndex + ", " + cachedNodes.keySet() + ", last: " + (lastStoreIndex+1));
-    		cachedNodes.remove(storeIndex);
-    		cacheSequence.remove((Integer)storeIndex);
-    	}
+    	cachedNodes.remove(storeIndex);
     }
 
     /**
@@ -1027,6 +984,7 @@ public class BufferedLongArrayQueue implements Serializable {
 	
 	public void deleteOnExit() {
 		deleteOnExit = true;
+		spillFile.deleteOnExit();
 	}
 	
 }
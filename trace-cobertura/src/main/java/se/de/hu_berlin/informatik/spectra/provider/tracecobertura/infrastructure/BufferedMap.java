@@ -6,7 +6,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -14,7 +17,6 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -34,11 +36,9 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = 3786896457427890598L;
+	private static final long serialVersionUID = 3786896457427890599L;
 
-	// keep at most 4 nodes in memory
-    private static final int CACHE_SIZE = 4;
-    
+	// the number of cached nodes is managed by the global memory budget
 	private File output;
 	private String filePrefix;
 	
@@ -50,14 +50,16 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 
 	private int size = 0;
 	
+	// encodes the values of stored nodes; Java serialization is used if null
+	private NodeCodec<E> codec;
+	
 	protected Set<Integer> existingNodes = new HashSet<>();
 
 	private transient int lastStoreIndex = -1;
 	protected transient Lock lock = new ReentrantLock();
 	
 	// cache all other nodes, if necessary
-	protected transient Map<Integer,Node<E>> cachedNodes = new HashMap<>();
-	private transient List<Integer> cacheSequence = new LinkedList<>();
+	protected transient NodeCache<Node<E>> cachedNodes = createCache();
 
 	protected transient boolean deleteOnExit;
 
@@ -71,6 +73,7 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
         stream.writeObject(existingNodes);
         stream.writeInt(maxSubMapSize);
         stream.writeInt(size);
+        stream.writeObject(codec);
     }
 
 	public void sleep() {
@@ -82,7 +85,7 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 				sleep(node);
 			}
 			cachedNodes.clear();
-			cacheSequence.clear();
+			codecBuffer = null;
 		} finally {
 			lock.unlock();
 		}
@@ -101,10 +104,10 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
         existingNodes = (Set<Integer>) stream.readObject();
         maxSubMapSize = stream.readInt();
         size = stream.readInt();
+        codec = (NodeCodec<E>) stream.readObject();
         
         lock = new ReentrantLock();
-        cachedNodes = new HashMap<>();
-        cacheSequence = new LinkedList<>();
+        cachedNodes = createCache();
         // always delete files from deserialized object!? TODO
         deleteOnExit = true;
     }
@@ -139,6 +142,31 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
     	this(output, filePrefix, maxSubMapSize, true);
     }
 	
+	/**
+	 * Creates a buffered map that stores its nodes in a compact binary format.
+	 * @param outputDir
+	 * the directory to store nodes in
+	 * @param filePrefix
+	 * the prefix of the file names of stored nodes
+	 * @param deleteOnExit
+	 * whether to delete stored nodes on exit
+	 * @param codec
+	 * the codec to encode values with; if null, nodes are stored via Java serialization
+	 */
+	public BufferedMap(File outputDir, String filePrefix, boolean deleteOnExit, NodeCodec<E> codec) {
+		this(outputDir, filePrefix, deleteOnExit);
+		this.codec = codec;
+	}
+	
+	public BufferedMap(File output, String filePrefix, int maxSubMapSize, boolean deleteOnExit, NodeCodec<E> codec) {
+		this(output, filePrefix, maxSubMapSize, deleteOnExit);
+		this.codec = codec;
+	}
+	
+	public NodeCodec<E> getCodec() {
+		return codec;
+	}
+	
 	public File getOutputDir() {
 		return output;
 	}
@@ -180,7 +208,6 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 				node.clear();
 			}
 			cachedNodes.clear();
-			cacheSequence.clear();
 		} finally {
 			lock.unlock();
 		}
@@ -272,7 +299,6 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
     	lock.lock();
     	try {
     		Node<E> node = cachedNodes.remove(storeIndex);
-    		cacheSequence.remove((Integer)storeIndex);
     		store(node);
     	} finally {
     		lock.unlock();
@@ -307,7 +333,6 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
     	lock.lock();
     	try {
     		cachedNodes.remove(storeIndex);
-    		cacheSequence.remove((Integer)storeIndex);
     	} finally {
     		lock.unlock();
     	}
@@ -363,9 +388,10 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 		}
 		lock.lock();
 		try {
-			if (cachedNodes.containsKey(storeIndex)) {
+			Node<E> cachedNode = cachedNodes.get(storeIndex);
+			if (cachedNode != null) {
 				// already cached
-				return cachedNodes.get(storeIndex);
+				return cachedNode;
 			}
 			
 			String filename = getFileName(storeIndex);
@@ -380,6 +406,9 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 	}
 
 	protected Node<E> load(int storeIndex, String filename) throws IllegalStateException {
+		if (codec != null) {
+			return loadEncoded(storeIndex, filename);
+		}
 		Node<E> loadedNode;
 		try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(filename))) {
 			@SuppressWarnings("unchecked")
@@ -395,19 +424,22 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 	protected void cacheNode(Node<E> node) {
 		lock.lock();
 		try {
-			// cache the node
-			if (cachedNodes.size() >= CACHE_SIZE) {
-				// remove the node from the cache that has been added first
-				Node<E> uncachedNode = cachedNodes.remove(cacheSequence.remove(0));
-				store(uncachedNode);
-			}
+			// cache the node; evicts other nodes if the cache is full or the memory budget is exhausted
 			cachedNodes.put(node.storeIndex, node);
-			cacheSequence.add(node.storeIndex);
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	private NodeCache<Node<E>> createCache() {
+		return new NodeCache<>(new NodeCache.EvictionListener<Node<E>>() {
+			@Override
+			public void evicted(int storeIndex, Node<E> node) {
+				store(node);
+			}
+		});
+	}
+
 	private Node<E> getNode(int storeIndex) {
 		return load(storeIndex);
 	}
@@ -423,8 +455,10 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 				return;
 			}
 			if (node.modified) {
+				long startTime = System.nanoTime();
 				String filename = getFileName(node.storeIndex);
 				store(node, filename);
+				SpillStatistics.recordSpill(new File(filename).length(), startTime);
 				node.modified = false;
 			}
 		} finally {
@@ -432,7 +466,81 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 		}
 	}
 
+	private transient ByteBuffer codecBuffer = null;
+	
+	private ByteBuffer getFreshBuffer(int size) {
+		// only reallocate if the buffer is too small; allocation costs are potentially high...
+		if (codecBuffer == null || codecBuffer.capacity() < size) {
+			codecBuffer = ByteBuffer.allocateDirect(size);
+		}
+		codecBuffer.clear();
+		return codecBuffer;
+	}
+	
+	// layout: number of entries, followed by (key, encoded value) pairs;
+	// keys are stored as varints, relative to the first possible key of the node
+	private void storeEncoded(Node<E> node, String filename) {
+		int byteSize = 4;
+		for (E value : node.subMap.values()) {
+			byteSize += VarInts.MAX_INT_BYTES + codec.getEncodedSize(value);
+		}
+		ByteBuffer buffer = getFreshBuffer(byteSize);
+		buffer.putInt(node.subMap.size());
+		int firstKey = node.storeIndex * maxSubMapSize;
+		for (Entry<Integer, E> entry : node.subMap.entrySet()) {
+			VarInts.putVarInt(buffer, VarInts.zigZag(entry.getKey() - firstKey));
+			codec.encode(entry.getValue(), buffer);
+		}
+		buffer.flip();
+		
+		try (FileOutputStream out = new FileOutputStream(filename)) {
+			try (FileChannel file = out.getChannel()) {
+				while (buffer.hasRemaining()) {
+					file.write(buffer);
+				}
+			}
+			// do not delete on exit, due to serialization! TODO
+			if (deleteOnExit) {
+				new File(filename).deleteOnExit();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private Node<E> loadEncoded(int storeIndex, String filename) throws IllegalStateException {
+		try (RandomAccessFile raFile = new RandomAccessFile(filename, "r")) {
+			try (FileChannel file = raFile.getChannel()) {
+				long fileSize = file.size();
+				if (fileSize > Integer.MAX_VALUE) {
+					throw new UnsupportedOperationException("File size too big!");
+				}
+				ByteBuffer buffer = getFreshBuffer((int) fileSize);
+				while (buffer.position() < fileSize && file.read(buffer) >= 0) {
+					// read the whole file
+				}
+				buffer.flip();
+				
+				int count = buffer.getInt();
+				Map<Integer, E> map = new HashMap<>(count * 4 / 3 + 1);
+				int firstKey = storeIndex * maxSubMapSize;
+				for (int i = 0; i < count; ++i) {
+					int key = firstKey + VarInts.unZigZag(VarInts.getVarInt(buffer));
+					map.put(key, codec.decode(buffer));
+				}
+				return new Node<>(storeIndex, map);
+			}
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			throw new IllegalStateException();
+		}
+	}
+
 	protected void store(Node<E> node, String filename) {
+		if (codec != null) {
+			storeEncoded(node, filename);
+			return;
+		}
 		try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(filename))) {
 			outputStream.writeObject(node.subMap);
 			// do not delete on exit, due to serialization! TODO
@@ -558,15 +666,31 @@ public class BufferedMap<E> implements Map<Integer, E>, Serializable {
 		return new MyBufferedIterator(sortNodeEntries);
 	}
 	
+	/**
+	 * @param storeIndex
+	 * the index of a node (key divided by the maximum sub map size)
+	 * @return
+	 * the entries of the node, sorted by key; empty, if the node does not exist
+	 */
+	public List<Entry<Integer, E>> getSortedNodeEntries(int storeIndex) {
+		Node<E> node = load(storeIndex);
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		List<Entry<Integer,E>> list = new ArrayList<>(node.entrySet());
+		Collections.sort(list, new KeyComp());
+		return list;
+	}
+	
+	private class KeyComp implements Comparator<Entry<Integer,E>> {
+		@Override
+		public int compare(Entry<Integer, E> o1, Entry<Integer, E> o2) {
+			return Integer.compare(o1.getKey(), o2.getKey());
+		}
+	}
+	
 	private final class MyBufferedIterator implements Iterator<java.util.Map.Entry<Integer,E>> {
 		
-		private class KeyComp implements Comparator<Entry<Integer,E>> {
-			@Override
-			public int compare(Entry<Integer, E> o1, Entry<Integer, E> o2) {
-				return Integer.compare(o1.getKey(), o2.getKey());
-			}
-		}
-
 		private final Iterator<Integer> storeIndexIterator;
 		private Iterator<java.util.Map.Entry<Integer,E>> entrySetIterator;
 		private boolean sortNodeEntries;
@@ -6,6 +6,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.Function;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.IntUnaryOperator;
 
 /**
  * Simple single linked queue implementation using fixed/variable size array nodes.
@@ -212,6 +213,16 @@ public class ConcurrentBufferedIntArrayQueue extends BufferedIntArrayQueue imple
 		}
 	}
 
+	@Override
+	public int getAndReplaceWithInt(long i, IntUnaryOperator function) {
+		lock.lock();
+    	try {
+    		return super.getAndReplaceWithInt(i, function);
+    	} finally {
+			lock.unlock();
+		}
+	}
+
 	@Override
 	public void deleteOnExit() {
 		lock.lock();
@@ -1,6 +1,7 @@
 package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.Function;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.IntUnaryOperator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator;
 
 public class IntArrayIterator implements ReplaceableCloneableIterator {
@@ -41,4 +42,9 @@ public class IntArrayIterator implements ReplaceableCloneableIterator {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public int processNextAndReplaceWithIntResult(IntUnaryOperator function) {
+		throw new UnsupportedOperationException();
+	}
+
 }
\ No newline at end of file
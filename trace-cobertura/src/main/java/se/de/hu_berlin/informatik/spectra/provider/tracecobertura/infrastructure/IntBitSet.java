@@ -0,0 +1,177 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Growable set of int elements, backed by bit arrays. Meant for dense, bounded
+ * elements like sub trace IDs, where {@link #contains(int)} is a single array
+ * access without boxing or hashing. Negative elements are supported, but are
+ * stored in a separate bit array, indexed by their complement.
+ */
+public class IntBitSet implements Serializable {
+
+	private static final long serialVersionUID = 3512284640381617734L;
+
+	private static final long[] EMPTY = new long[0];
+
+	private long[] words = EMPTY;
+	// bits for negative elements e, at index ~e
+	private long[] negativeWords = EMPTY;
+	private int size = 0;
+
+	public IntBitSet() {
+	}
+
+	public IntBitSet(int expectedMaxElement) {
+		if (expectedMaxElement >= 0) {
+			words = new long[(expectedMaxElement >>> 6) + 1];
+		}
+	}
+
+	/**
+	 * Creates a copy of the given set.
+	 * @param set
+	 * the set to copy
+	 */
+	public IntBitSet(IntBitSet set) {
+		words = set.words.clone();
+		negativeWords = set.negativeWords.clone();
+		size = set.size;
+	}
+
+	/**
+	 * @param elements
+	 * the elements to add; null elements are ignored
+	 */
+	public IntBitSet(Collection<Integer> elements) {
+		for (Integer element : elements) {
+			if (element != null) {
+				add(element);
+			}
+		}
+	}
+
+	/**
+	 * @param element
+	 * the element to add
+	 * @return
+	 * true if the element was not contained in the set, before
+	 */
+	public boolean add(int element) {
+		long[] array;
+		int index;
+		if (element >= 0) {
+			index = element >>> 6;
+			if (index >= words.length) {
+				words = Arrays.copyOf(words, Math.max(index + 1, words.length * 2));
+			}
+			array = words;
+		} else {
+			index = ~element >>> 6;
+			if (index >= negativeWords.length) {
+				negativeWords = Arrays.copyOf(negativeWords, Math.max(index + 1, negativeWords.length * 2));
+			}
+			array = negativeWords;
+		}
+		// shifts only use the lowest 6 bits of the element (or its complement)
+		long bit = 1L << (element >= 0 ? element : ~element);
+		if ((array[index] & bit) != 0) {
+			return false;
+		}
+		array[index] |= bit;
+		++size;
+		return true;
+	}
+
+	public boolean contains(int element) {
+		if (element >= 0) {
+			int index = element >>> 6;
+			return index < words.length && (words[index] & (1L << element)) != 0;
+		} else {
+			int index = ~element >>> 6;
+			return index < negativeWords.length && (negativeWords[index] & (1L << ~element)) != 0;
+		}
+	}
+
+	/**
+	 * Adds all elements of the given set to this set, one word at a time.
+	 * @param set
+	 * the set with the elements to add
+	 * @return
+	 * true if this set changed
+	 */
+	public boolean addAll(IntBitSet set) {
+		int previousSize = size;
+		words = or(words, set.words);
+		negativeWords = or(negativeWords, set.negativeWords);
+		size = count(words) + count(negativeWords);
+		return size != previousSize;
+	}
+
+	private static long[] or(long[] target, long[] source) {
+		if (source.length > target.length) {
+			target = Arrays.copyOf(target, source.length);
+		}
+		for (int i = 0; i < source.length; ++i) {
+			target[i] |= source[i];
+		}
+		return target;
+	}
+
+	private static int count(long[] array) {
+		int count = 0;
+		for (long word : array) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(words, 0);
+		Arrays.fill(negativeWords, 0);
+		size = 0;
+	}
+
+	/**
+	 * @return
+	 * the elements of this set in ascending order
+	 */
+	public int[] toArray() {
+		int[] result = new int[size];
+		int i = 0;
+		for (int index = negativeWords.length - 1; index >= 0; --index) {
+			long word = negativeWords[index];
+			while (word != 0) {
+				// highest complement first, to get ascending negative elements
+				int bit = 63 - Long.numberOfLeadingZeros(word);
+				result[i++] = ~((index << 6) + bit);
+				word &= ~(1L << bit);
+			}
+		}
+		for (int index = 0; index < words.length; ++index) {
+			long word = words[index];
+			while (word != 0) {
+				int bit = Long.numberOfTrailingZeros(word);
+				result[i++] = (index << 6) + bit;
+				word &= word - 1;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+}
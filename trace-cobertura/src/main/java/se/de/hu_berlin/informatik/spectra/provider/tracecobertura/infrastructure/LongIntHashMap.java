@@ -0,0 +1,225 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values with linear probing.
+ * Neither {@link #get(long)} nor {@link #put(long, int)} allocate objects
+ * (apart from growing the table), since keys and values are never boxed.
+ * Removed entries are deleted by shifting back following entries, so no
+ * tombstones accumulate.
+ */
+public class LongIntHashMap implements Serializable {
+
+	private static final long serialVersionUID = 4484250460227755702L;
+
+	private static final long FREE_KEY = 0;
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private final int missingValue;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size = 0;
+	private int threshold;
+
+	// the key 0 is used to mark free slots, so it is stored separately
+	private boolean hasFreeKey = false;
+	private int freeKeyValue;
+
+	/**
+	 * @param missingValue
+	 * the value that is returned by {@link #get(long)} if a key is not contained in the map
+	 */
+	public LongIntHashMap(int missingValue) {
+		this(DEFAULT_CAPACITY, missingValue);
+	}
+
+	public LongIntHashMap(int expectedSize, int missingValue) {
+		this.missingValue = missingValue;
+		int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private int slot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * @param key
+	 * the key
+	 * @return
+	 * the value that is mapped to the key, or the missing value given in the constructor
+	 */
+	public int get(long key) {
+		if (key == FREE_KEY) {
+			return hasFreeKey ? freeKeyValue : missingValue;
+		}
+		int index = slot(key);
+		while (true) {
+			long current = keys[index];
+			if (current == key) {
+				return values[index];
+			}
+			if (current == FREE_KEY) {
+				return missingValue;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	public boolean containsKey(long key) {
+		if (key == FREE_KEY) {
+			return hasFreeKey;
+		}
+		int index = slot(key);
+		while (true) {
+			long current = keys[index];
+			if (current == key) {
+				return true;
+			}
+			if (current == FREE_KEY) {
+				return false;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * @param key
+	 * the key
+	 * @param value
+	 * the value
+	 * @return
+	 * the previous value, or the missing value if there was no mapping for the key
+	 */
+	public int put(long key, int value) {
+		if (key == FREE_KEY) {
+			int previous = hasFreeKey ? freeKeyValue : missingValue;
+			if (!hasFreeKey) {
+				hasFreeKey = true;
+				++size;
+			}
+			freeKeyValue = value;
+			return previous;
+		}
+		int index = slot(key);
+		while (true) {
+			long current = keys[index];
+			if (current == key) {
+				int previous = values[index];
+				values[index] = value;
+				return previous;
+			}
+			if (current == FREE_KEY) {
+				keys[index] = key;
+				values[index] = value;
+				if (++size > threshold) {
+					rehash(keys.length * 2);
+				}
+				return missingValue;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * @param key
+	 * the key
+	 * @return
+	 * the removed value, or the missing value if there was no mapping for the key
+	 */
+	public int remove(long key) {
+		if (key == FREE_KEY) {
+			if (!hasFreeKey) {
+				return missingValue;
+			}
+			hasFreeKey = false;
+			--size;
+			return freeKeyValue;
+		}
+		int index = slot(key);
+		while (true) {
+			long current = keys[index];
+			if (current == key) {
+				int previous = values[index];
+				shiftKeys(index);
+				--size;
+				return previous;
+			}
+			if (current == FREE_KEY) {
+				return missingValue;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	// moves following entries of the probe sequence into the freed slot
+	private void shiftKeys(int freed) {
+		int index = freed;
+		while (true) {
+			index = (index + 1) & mask;
+			long current = keys[index];
+			if (current == FREE_KEY) {
+				keys[freed] = FREE_KEY;
+				return;
+			}
+			int home = slot(current);
+			// move the entry if its home slot is not between the freed slot and its current slot
+			if (freed <= index ? (freed >= home || home > index) : (freed >= home && home > index)) {
+				keys[freed] = current;
+				values[freed] = values[index];
+				freed = index;
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; ++i) {
+			long key = oldKeys[i];
+			if (key != FREE_KEY) {
+				int index = slot(key);
+				while (keys[index] != FREE_KEY) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = key;
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(keys, FREE_KEY);
+			hasFreeKey = false;
+			size = 0;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getMissingValue() {
+		return missingValue;
+	}
+
+}
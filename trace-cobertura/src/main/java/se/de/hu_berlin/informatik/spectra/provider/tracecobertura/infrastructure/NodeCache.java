@@ -0,0 +1,341 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for the nodes of buffered containers, keyed by store index.
+ *
+ * <p> Entries are held in small primitive arrays that are scanned linearly, since
+ * a container only caches up to {@link TraceMemoryBudget#getMaxCachedNodes()} nodes.
+ * The entry to evict is selected by the configured {@link Policy}. Evicted nodes are
+ * handed to an {@link EvictionListener} (e.g., to store modified nodes on disk).
+ *
+ * <p> The number of cached nodes starts at the minimum given by the memory budget
+ * and grows whenever a recently evicted node is requested again, i.e., when the
+ * access pattern (e.g., multiple iterators at different positions) would benefit
+ * from a larger cache. Purely sequential access therefore keeps the cache small.
+ * Additionally, the memory budget has to allow caching another node.
+ *
+ * <p> The policy can be set via the system property {@value #POLICY_PROPERTY}
+ * (one of {@code lru}, {@code clock} or {@code fifo}; default: {@code lru}).
+ *
+ * @param <N>
+ * the type of the cached nodes
+ */
+public class NodeCache<N> {
+
+	public static final String POLICY_PROPERTY = "tracecobertura.cachePolicy";
+
+	public static enum Policy {
+		/** evicts the least recently used node */
+		LRU,
+		/** evicts a node that was not used since the clock hand passed it the last time */
+		CLOCK,
+		/** evicts the node that has been added first */
+		FIFO
+	}
+
+	public static interface EvictionListener<N> {
+		/**
+		 * Called when a node is evicted from the cache to make room for another node.
+		 * @param key
+		 * the key of the evicted node
+		 * @param node
+		 * the evicted node
+		 */
+		public void evicted(int key, N node);
+	}
+
+	private static final Policy DEFAULT_POLICY = getPolicy(System.getProperty(POLICY_PROPERTY));
+
+	private static final int EMPTY = Integer.MIN_VALUE;
+	private static final int INITIAL_CAPACITY = 4;
+
+	// statistics of all caches
+	private static final AtomicLong totalHits = new AtomicLong();
+	private static final AtomicLong totalMisses = new AtomicLong();
+
+	private final Policy policy;
+	private final EvictionListener<N> listener;
+
+	private int[] keys;
+	private Object[] nodes;
+	// LRU/FIFO: time stamps; CLOCK: reference bits (0 or 1)
+	private long[] stamps;
+	private int size = 0;
+	private long clock = 0;
+	private int hand = 0;
+
+	// keys of recently evicted nodes
+	private final int[] ghosts;
+	private int ghostIndex = 0;
+	private int targetSize;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long publishedHits = 0;
+	private long publishedMisses = 0;
+
+	public NodeCache(EvictionListener<N> listener) {
+		this(DEFAULT_POLICY, listener);
+	}
+
+	public NodeCache(Policy policy, EvictionListener<N> listener) {
+		this.policy = policy;
+		this.listener = listener;
+		int capacity = Math.min(INITIAL_CAPACITY, TraceMemoryBudget.getMaxCachedNodes());
+		this.keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		this.nodes = new Object[capacity];
+		this.stamps = new long[capacity];
+		this.ghosts = new int[TraceMemoryBudget.getMaxCachedNodes()];
+		Arrays.fill(ghosts, EMPTY);
+		this.targetSize = TraceMemoryBudget.getMinCachedNodes();
+	}
+
+	private static Policy getPolicy(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return Policy.LRU;
+		}
+		try {
+			return Policy.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Ignoring invalid value for " + POLICY_PROPERTY + ": " + value);
+			return Policy.LRU;
+		}
+	}
+
+	private int indexOf(int key) {
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i] == key) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean contains(int key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Returns the cached node with the given key and counts a cache hit or miss.
+	 * @param key
+	 * the key
+	 * @return
+	 * the cached node, or null if no such node is cached
+	 */
+	@SuppressWarnings("unchecked")
+	public N get(int key) {
+		int index = indexOf(key);
+		if (index < 0) {
+			++misses;
+			checkGhosts(key);
+			return null;
+		}
+		++hits;
+		touch(index);
+		return (N) nodes[index];
+	}
+
+	private void touch(int index) {
+		switch (policy) {
+		case LRU:
+			stamps[index] = ++clock;
+			break;
+		case CLOCK:
+			stamps[index] = 1;
+			break;
+		default:
+			break;
+		}
+	}
+
+	// grow the cache if a recently evicted node is requested again
+	private void checkGhosts(int key) {
+		for (int i = 0; i < ghosts.length; ++i) {
+			if (ghosts[i] == key) {
+				ghosts[i] = EMPTY;
+				if (targetSize < ghosts.length) {
+					++targetSize;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adds the given node to the cache, evicting other nodes if the cache
+	 * is full or if the memory budget is exhausted.
+	 * @param key
+	 * the key
+	 * @param node
+	 * the node to cache
+	 */
+	public void put(int key, N node) {
+		int index = indexOf(key);
+		if (index >= 0) {
+			nodes[index] = node;
+			touch(index);
+			return;
+		}
+		while (size > 0 && (size >= targetSize || !TraceMemoryBudget.mayCache(size))) {
+			evict(selectVictim());
+		}
+		index = indexOf(EMPTY);
+		if (index < 0) {
+			index = keys.length;
+			grow();
+		}
+		keys[index] = key;
+		nodes[index] = node;
+		stamps[index] = policy == Policy.CLOCK ? 0 : ++clock;
+		++size;
+	}
+
+	private void grow() {
+		int capacity = Math.min(keys.length * 2, Math.max(keys.length + 1, ghosts.length));
+		int oldCapacity = keys.length;
+		keys = Arrays.copyOf(keys, capacity);
+		Arrays.fill(keys, oldCapacity, capacity, EMPTY);
+		nodes = Arrays.copyOf(nodes, capacity);
+		stamps = Arrays.copyOf(stamps, capacity);
+	}
+
+	private int selectVictim() {
+		if (policy == Policy.CLOCK) {
+			while (true) {
+				hand = (hand + 1) % keys.length;
+				if (keys[hand] != EMPTY) {
+					if (stamps[hand] == 0) {
+						return hand;
+					}
+					stamps[hand] = 0;
+				}
+			}
+		}
+		// LRU and FIFO: smallest time stamp
+		int victim = -1;
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i] != EMPTY && (victim < 0 || stamps[i] < stamps[victim])) {
+				victim = i;
+			}
+		}
+		return victim;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void evict(int index) {
+		int key = keys[index];
+		N node = (N) removeAt(index);
+		ghosts[ghostIndex] = key;
+		ghostIndex = (ghostIndex + 1) % ghosts.length;
+		if (listener != null) {
+			listener.evicted(key, node);
+		}
+	}
+
+	private Object removeAt(int index) {
+		Object node = nodes[index];
+		keys[index] = EMPTY;
+		nodes[index] = null;
+		--size;
+		return node;
+	}
+
+	/**
+	 * Removes the node with the given key without notifying the eviction listener.
+	 * @param key
+	 * the key
+	 * @return
+	 * the removed node, or null if no such node was cached
+	 */
+	@SuppressWarnings("unchecked")
+	public N remove(int key) {
+		int index = indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+		return (N) removeAt(index);
+	}
+
+	/**
+	 * @return
+	 * a list of all cached nodes
+	 */
+	@SuppressWarnings("unchecked")
+	public List<N> values() {
+		List<N> values = new ArrayList<>(size);
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i] != EMPTY) {
+				values.add((N) nodes[i]);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Removes all nodes without notifying the eviction listener.
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(nodes, null);
+		size = 0;
+		publishStatistics();
+	}
+
+	private void publishStatistics() {
+		totalHits.addAndGet(hits - publishedHits);
+		totalMisses.addAndGet(misses - publishedMisses);
+		publishedHits = hits;
+		publishedMisses = misses;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return
+	 * the number of nodes that the cache may currently hold, derived from the access pattern
+	 */
+	public int getTargetSize() {
+		return targetSize;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return
+	 * the cache hits of all caches, counted up to the last time each cache was cleared
+	 */
+	public static long getTotalHits() {
+		return totalHits.get();
+	}
+
+	/**
+	 * @return
+	 * the cache misses of all caches, counted up to the last time each cache was cleared
+	 */
+	public static long getTotalMisses() {
+		return totalMisses.get();
+	}
+
+}
@@ -0,0 +1,43 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of the values that are stored in the nodes of a {@link BufferedMap}.
+ * Implementations have to be stateless, since they are serialized along with the map.
+ * 
+ * @param <E>
+ * the type of the encoded values
+ * 
+ * @see NodeCodecs
+ */
+public interface NodeCodec<E> extends Serializable {
+
+	/**
+	 * @param value
+	 * the value to encode
+	 * @return
+	 * the maximum number of bytes that {@link #encode(Object, ByteBuffer)} writes for the given value
+	 */
+	public int getEncodedSize(E value);
+
+	/**
+	 * Writes the given value to the buffer at its current position.
+	 * @param value
+	 * the value to encode
+	 * @param buffer
+	 * the buffer to write to
+	 */
+	public void encode(E value, ByteBuffer buffer);
+
+	/**
+	 * Reads a value from the buffer at its current position.
+	 * @param buffer
+	 * the buffer to read from
+	 * @return
+	 * the decoded value
+	 */
+	public E decode(ByteBuffer buffer);
+
+}
@@ -0,0 +1,219 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary codecs for common value types of {@link BufferedMap}s.
+ */
+public final class NodeCodecs {
+
+	public static final NodeCodec<Integer> INTEGER = new IntegerCodec();
+	public static final NodeCodec<Long> LONG = new LongCodec();
+	public static final NodeCodec<int[]> INT_ARRAY = new IntArrayCodec();
+	public static final NodeCodec<long[]> LONG_ARRAY = new LongArrayCodec();
+
+	private NodeCodecs() {
+	}
+
+	/**
+	 * @param length
+	 * the length of all encoded arrays
+	 * @return
+	 * a codec for int arrays that all have the given length; the length is not stored
+	 */
+	public static NodeCodec<int[]> fixedLengthIntArray(int length) {
+		return new FixedLengthIntArrayCodec(length);
+	}
+
+	/**
+	 * @param length
+	 * the length of all encoded arrays
+	 * @return
+	 * a codec for int arrays that all have the given length, storing each element as
+	 * a zigzag encoded varint; the length is not stored
+	 */
+	public static NodeCodec<int[]> fixedLengthVarIntArray(int length) {
+		return new FixedLengthVarIntArrayCodec(length);
+	}
+
+	private static class IntegerCodec implements NodeCodec<Integer> {
+
+		private static final long serialVersionUID = -4393011926286717357L;
+
+		@Override
+		public int getEncodedSize(Integer value) {
+			return 4;
+		}
+
+		@Override
+		public void encode(Integer value, ByteBuffer buffer) {
+			buffer.putInt(value);
+		}
+
+		@Override
+		public Integer decode(ByteBuffer buffer) {
+			return buffer.getInt();
+		}
+
+		private Object readResolve() {
+			return INTEGER;
+		}
+	}
+
+	private static class LongCodec implements NodeCodec<Long> {
+
+		private static final long serialVersionUID = 2620469316399311468L;
+
+		@Override
+		public int getEncodedSize(Long value) {
+			return 8;
+		}
+
+		@Override
+		public void encode(Long value, ByteBuffer buffer) {
+			buffer.putLong(value);
+		}
+
+		@Override
+		public Long decode(ByteBuffer buffer) {
+			return buffer.getLong();
+		}
+
+		private Object readResolve() {
+			return LONG;
+		}
+	}
+
+	private static class IntArrayCodec implements NodeCodec<int[]> {
+
+		private static final long serialVersionUID = 6018839466411187407L;
+
+		@Override
+		public int getEncodedSize(int[] value) {
+			return 4 + 4 * value.length;
+		}
+
+		@Override
+		public void encode(int[] value, ByteBuffer buffer) {
+			buffer.putInt(value.length);
+			for (int i : value) {
+				buffer.putInt(i);
+			}
+		}
+
+		@Override
+		public int[] decode(ByteBuffer buffer) {
+			int[] value = new int[buffer.getInt()];
+			for (int i = 0; i < value.length; ++i) {
+				value[i] = buffer.getInt();
+			}
+			return value;
+		}
+
+		private Object readResolve() {
+			return INT_ARRAY;
+		}
+	}
+
+	private static class LongArrayCodec implements NodeCodec<long[]> {
+
+		private static final long serialVersionUID = -2744622563232398372L;
+
+		@Override
+		public int getEncodedSize(long[] value) {
+			return 4 + 8 * value.length;
+		}
+
+		@Override
+		public void encode(long[] value, ByteBuffer buffer) {
+			buffer.putInt(value.length);
+			for (long l : value) {
+				buffer.putLong(l);
+			}
+		}
+
+		@Override
+		public long[] decode(ByteBuffer buffer) {
+			long[] value = new long[buffer.getInt()];
+			for (int i = 0; i < value.length; ++i) {
+				value[i] = buffer.getLong();
+			}
+			return value;
+		}
+
+		private Object readResolve() {
+			return LONG_ARRAY;
+		}
+	}
+
+	private static class FixedLengthIntArrayCodec implements NodeCodec<int[]> {
+
+		private static final long serialVersionUID = -1180716366384377474L;
+
+		private final int length;
+
+		FixedLengthIntArrayCodec(int length) {
+			this.length = length;
+		}
+
+		@Override
+		public int getEncodedSize(int[] value) {
+			return 4 * length;
+		}
+
+		@Override
+		public void encode(int[] value, ByteBuffer buffer) {
+			if (value.length != length) {
+				throw new IllegalStateException("Expected array of length " + length + ", but got " + value.length);
+			}
+			for (int i : value) {
+				buffer.putInt(i);
+			}
+		}
+
+		@Override
+		public int[] decode(ByteBuffer buffer) {
+			int[] value = new int[length];
+			for (int i = 0; i < length; ++i) {
+				value[i] = buffer.getInt();
+			}
+			return value;
+		}
+	}
+
+	private static class FixedLengthVarIntArrayCodec implements NodeCodec<int[]> {
+
+		private static final long serialVersionUID = 3322751474546920917L;
+
+		private final int length;
+
+		FixedLengthVarIntArrayCodec(int length) {
+			this.length = length;
+		}
+
+		@Override
+		public int getEncodedSize(int[] value) {
+			return VarInts.MAX_INT_BYTES * length;
+		}
+
+		@Override
+		public void encode(int[] value, ByteBuffer buffer) {
+			if (value.length != length) {
+				throw new IllegalStateException("Expected array of length " + length + ", but got " + value.length);
+			}
+			for (int i : value) {
+				VarInts.putVarInt(buffer, VarInts.zigZag(i));
+			}
+		}
+
+		@Override
+		public int[] decode(ByteBuffer buffer) {
+			int[] value = new int[length];
+			for (int i = 0; i < length; ++i) {
+				value[i] = VarInts.unZigZag(VarInts.getVarInt(buffer));
+			}
+			return value;
+		}
+	}
+
+}
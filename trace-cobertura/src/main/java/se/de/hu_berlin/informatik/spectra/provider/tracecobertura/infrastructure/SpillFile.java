@@ -0,0 +1,455 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single file that holds the spilled nodes of a buffered container as segments.
+ *
+ * <p> Segments are identified by an integer key (the store index of a node) and are
+ * located via an in-memory index. A segment is overwritten in place if the new data
+ * fits into it; otherwise, the data is written into a segment that was freed before
+ * or appended to the end of the file. This avoids creating, opening and deleting
+ * one file per node.
+ *
+ * <p> The file channel is opened lazily and may be closed with {@link #close()}
+ * to release the file handle while the container is not in use. Reads may be
+ * done via memory mapping by setting the system property {@value #MEMORY_MAPPING_PROPERTY}
+ * to {@code true}. The file is then mapped in windows of {@value #MAPPING_WINDOW_SIZE} bytes
+ * that are reused for subsequent reads until they are invalidated by a write.
+ *
+ * <p> Writes may be done asynchronously by a background I/O thread by setting the system
+ * property {@value #ASYNC_WRITES_PROPERTY} to {@code true}. The written data is then copied
+ * and queued, and reads of segments that are still queued are served from the copy.
+ * {@link #flush()} (and thus {@link #close()}) waits until all queued writes are done.
+ * If more than {@value #MAX_PENDING_WRITES_PROPERTY} writes (default: {@value #DEFAULT_MAX_PENDING_WRITES})
+ * are queued over all spill files, data is written synchronously.
+ */
+public class SpillFile implements Serializable {
+
+	private static final long serialVersionUID = 7829519541434839512L;
+
+	public static final String MEMORY_MAPPING_PROPERTY = "tracecobertura.mapSpillFiles";
+
+	public static final String ASYNC_WRITES_PROPERTY = "tracecobertura.asyncSpill";
+	public static final String MAX_PENDING_WRITES_PROPERTY = "tracecobertura.maxPendingSpills";
+	
+	public static final int DEFAULT_MAX_PENDING_WRITES = 64;
+
+	private static final boolean USE_MEMORY_MAPPING = Boolean.getBoolean(MEMORY_MAPPING_PROPERTY);
+	private static final boolean ASYNC_WRITES = Boolean.getBoolean(ASYNC_WRITES_PROPERTY);
+	private static final int MAX_PENDING_WRITES = TraceMemoryBudget.getPositiveIntProperty(
+			MAX_PENDING_WRITES_PROPERTY, DEFAULT_MAX_PENDING_WRITES);
+
+	// the number of queued writes over all spill files
+	private static final AtomicInteger pendingWriteCount = new AtomicInteger();
+	private static ExecutorService writer;
+
+	// the number of free segments to check for a fitting segment before appending
+	private static final int MAX_FREE_SEGMENT_CHECKS = 8;
+	
+	/**
+	 * segment capacities are rounded up to a multiple of this number of bytes,
+	 * so that freed segments can be reused for data of slightly varying size
+	 */
+	public static final int SEGMENT_ALIGNMENT = 32;
+
+	/**
+	 * the (minimal) size of the mapped regions of the file if memory mapping is enabled
+	 */
+	public static final int MAPPING_WINDOW_SIZE = 1 << 24;
+
+	// indices in the segment arrays
+	private static final int OFFSET = 0;
+	private static final int CAPACITY = 1;
+	private static final int LENGTH = 2;
+
+	private File file;
+	private transient boolean deleteOnExit;
+	private transient boolean deleteOnExitRegistered = false;
+
+	// key -> { offset, capacity, length }
+	private transient Map<Integer, long[]> segments = new HashMap<>();
+	// { offset, capacity }
+	private transient List<long[]> freeSegments = new ArrayList<>();
+	private transient long fileEnd = 0;
+
+	private transient RandomAccessFile raFile;
+	private transient FileChannel channel;
+
+	// the currently mapped region of the file, if any
+	private transient MappedByteBuffer mapped;
+	private transient long mappedStart;
+	private transient long mappedEnd;
+
+	// data of queued writes that are not yet written to the file
+	private transient Map<Integer, byte[]> pendingWrites = new HashMap<>();
+	private transient boolean asyncWrites;
+	private transient boolean memoryMapping;
+
+	public SpillFile(File file, boolean deleteOnExit) {
+		this(file, deleteOnExit, ASYNC_WRITES);
+	}
+
+	public SpillFile(File file, boolean deleteOnExit, boolean asyncWrites) {
+		this(file, deleteOnExit, asyncWrites, USE_MEMORY_MAPPING);
+	}
+
+	public SpillFile(File file, boolean deleteOnExit, boolean asyncWrites, boolean memoryMapping) {
+		this.file = Objects.requireNonNull(file);
+		this.deleteOnExit = deleteOnExit;
+		this.asyncWrites = asyncWrites;
+		this.memoryMapping = memoryMapping;
+	}
+
+	private synchronized void writeObject(java.io.ObjectOutputStream stream)
+			throws IOException {
+		flush();
+		stream.writeObject(file);
+		stream.writeLong(fileEnd);
+		stream.writeInt(segments.size());
+		for (Entry<Integer, long[]> entry : segments.entrySet()) {
+			stream.writeInt(entry.getKey());
+			stream.writeLong(entry.getValue()[OFFSET]);
+			stream.writeLong(entry.getValue()[CAPACITY]);
+			stream.writeLong(entry.getValue()[LENGTH]);
+		}
+		stream.writeInt(freeSegments.size());
+		for (long[] segment : freeSegments) {
+			stream.writeLong(segment[OFFSET]);
+			stream.writeLong(segment[CAPACITY]);
+		}
+	}
+
+	private void readObject(java.io.ObjectInputStream stream)
+			throws IOException, ClassNotFoundException {
+		file = (File) stream.readObject();
+		fileEnd = stream.readLong();
+		int segmentCount = stream.readInt();
+		segments = new HashMap<>();
+		for (int i = 0; i < segmentCount; ++i) {
+			int key = stream.readInt();
+			segments.put(key, new long[] { stream.readLong(), stream.readLong(), stream.readLong() });
+		}
+		int freeSegmentCount = stream.readInt();
+		freeSegments = new ArrayList<>(freeSegmentCount);
+		for (int i = 0; i < freeSegmentCount; ++i) {
+			freeSegments.add(new long[] { stream.readLong(), stream.readLong() });
+		}
+		pendingWrites = new HashMap<>();
+		asyncWrites = ASYNC_WRITES;
+		memoryMapping = USE_MEMORY_MAPPING;
+		deleteOnExit = false;
+		deleteOnExitRegistered = false;
+	}
+
+	private static synchronized ExecutorService getWriter() {
+		if (writer == null) {
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "spill-writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return writer;
+	}
+
+	private FileChannel getChannel() throws IOException {
+		if (channel == null || !channel.isOpen()) {
+			raFile = new RandomAccessFile(file, "rw");
+			channel = raFile.getChannel();
+			if (deleteOnExit && !deleteOnExitRegistered) {
+				file.deleteOnExit();
+				deleteOnExitRegistered = true;
+			}
+		}
+		return channel;
+	}
+
+	/**
+	 * Writes the remaining bytes of the given buffer into the segment with the given key,
+	 * replacing any previously written data for that key.
+	 * @param key
+	 * the key of the segment
+	 * @param data
+	 * the data to write
+	 * @return
+	 * the number of written bytes
+	 * @throws IOException
+	 * if writing fails
+	 */
+	public synchronized int write(int key, ByteBuffer data) throws IOException {
+		if (asyncWrites && pendingWriteCount.get() < MAX_PENDING_WRITES) {
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			writeBehind(key, bytes);
+			return bytes.length;
+		}
+		// supersedes a queued write for the same key
+		pendingWrites.remove(key);
+		return writeNow(key, data);
+	}
+
+	private void writeBehind(final int key, final byte[] bytes) {
+		pendingWrites.put(key, bytes);
+		pendingWriteCount.incrementAndGet();
+		getWriter().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					synchronized (SpillFile.this) {
+						// skip the write if the segment was overwritten or removed in the meantime
+						if (pendingWrites.get(key) == bytes) {
+							try {
+								writeNow(key, ByteBuffer.wrap(bytes));
+							} catch (IOException e) {
+								e.printStackTrace();
+							}
+							pendingWrites.remove(key);
+						}
+						SpillFile.this.notifyAll();
+					}
+				} finally {
+					pendingWriteCount.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until all queued writes to this file are done.
+	 */
+	public synchronized void flush() {
+		while (!pendingWrites.isEmpty()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private int writeNow(int key, ByteBuffer data) throws IOException {
+		int length = data.remaining();
+		long[] segment = segments.get(key);
+		if (segment == null || segment[CAPACITY] < length) {
+			if (segment != null) {
+				freeSegments.add(new long[] { segment[OFFSET], segment[CAPACITY] });
+			}
+			segment = allocate(length);
+			segments.put(key, segment);
+		}
+		segment[LENGTH] = length;
+
+		FileChannel channel = getChannel();
+		long position = segment[OFFSET];
+		if (mapped != null && position < mappedEnd && position + length > mappedStart) {
+			// changes to the file are not guaranteed to be visible in the mapped region
+			mapped = null;
+		}
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+		return length;
+	}
+
+	private long[] allocate(int length) {
+		// check the most recently freed segments first;
+		// nodes are mostly of the same size, so the last freed segment fits in most cases
+		int lowerBound = Math.max(0, freeSegments.size() - MAX_FREE_SEGMENT_CHECKS);
+		for (int i = freeSegments.size() - 1; i >= lowerBound; --i) {
+			long[] free = freeSegments.get(i);
+			if (free[CAPACITY] >= length) {
+				// move the last free segment into the gap
+				long[] last = freeSegments.remove(freeSegments.size() - 1);
+				if (last != free) {
+					freeSegments.set(i, last);
+				}
+				return new long[] { free[OFFSET], free[CAPACITY], length };
+			}
+		}
+		int capacity = (length + SEGMENT_ALIGNMENT - 1) & -SEGMENT_ALIGNMENT;
+		long[] segment = new long[] { fileEnd, capacity, length };
+		fileEnd += capacity;
+		return segment;
+	}
+
+	/**
+	 * Reads the segment with the given key into the given buffer, starting at
+	 * the current position of the buffer. The buffer's limit is set to the end of the read data.
+	 * @param key
+	 * the key of the segment
+	 * @param target
+	 * the buffer to read into; needs to have enough remaining space
+	 * @return
+	 * true if the segment exists; false otherwise
+	 * @throws IOException
+	 * if reading fails
+	 */
+	public synchronized boolean read(int key, ByteBuffer target) throws IOException {
+		byte[] pending = pendingWrites.get(key);
+		if (pending != null) {
+			// still in flight
+			target.limit(target.position() + pending.length);
+			target.put(pending);
+			return true;
+		}
+		long[] segment = segments.get(key);
+		if (segment == null) {
+			return false;
+		}
+		int length = (int) segment[LENGTH];
+		target.limit(target.position() + length);
+
+		FileChannel channel = getChannel();
+		if (memoryMapping) {
+			ByteBuffer region = getMappedRegion(channel, segment[OFFSET], length);
+			region.position((int) (segment[OFFSET] - mappedStart));
+			region.limit(region.position() + length);
+			target.put(region);
+		} else {
+			long position = segment[OFFSET];
+			while (target.hasRemaining()) {
+				int read = channel.read(target, position);
+				if (read < 0) {
+					throw new IOException("Unexpected end of spill file " + file + " while reading segment " + key);
+				}
+				position += read;
+			}
+		}
+		return true;
+	}
+
+	private ByteBuffer getMappedRegion(FileChannel channel, long offset, int length) throws IOException {
+		if (mapped == null || offset < mappedStart || offset + length > mappedEnd) {
+			// map a window that starts at the segment and reaches at most to the end of the file
+			long end = Math.min(offset + Math.max(length, MAPPING_WINDOW_SIZE), channel.size());
+			if (end < offset + length) {
+				throw new IOException("Unexpected end of spill file " + file + " while mapping segment at " + offset);
+			}
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, end - offset);
+			mappedStart = offset;
+			mappedEnd = end;
+		}
+		// independent position and limit
+		return mapped.duplicate();
+	}
+
+	public synchronized boolean contains(int key) {
+		return pendingWrites.containsKey(key) || segments.containsKey(key);
+	}
+
+	/**
+	 * @param key
+	 * the key of the segment
+	 * @return
+	 * the length of the data stored in the segment, or -1 if no such segment exists
+	 */
+	public synchronized int getLength(int key) {
+		byte[] pending = pendingWrites.get(key);
+		if (pending != null) {
+			return pending.length;
+		}
+		long[] segment = segments.get(key);
+		return segment == null ? -1 : (int) segment[LENGTH];
+	}
+
+	/**
+	 * Frees the segment with the given key. Deletes the file if no segments are left.
+	 * @param key
+	 * the key of the segment
+	 */
+	public synchronized void remove(int key) {
+		pendingWrites.remove(key);
+		long[] segment = segments.remove(key);
+		if (segment != null) {
+			if (segments.isEmpty() && pendingWrites.isEmpty()) {
+				delete();
+			} else {
+				freeSegments.add(new long[] { segment[OFFSET], segment[CAPACITY] });
+			}
+		}
+	}
+
+	/**
+	 * Removes all segments and deletes the file.
+	 */
+	public synchronized void delete() {
+		pendingWrites.clear();
+		close();
+		segments.clear();
+		freeSegments.clear();
+		fileEnd = 0;
+		if (file.exists()) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Waits for queued writes and closes the underlying file channel.
+	 * The channel is reopened on the next access.
+	 */
+	public synchronized void close() {
+		flush();
+		if (channel != null) {
+			try {
+				raFile.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			channel = null;
+			raFile = null;
+		}
+		mapped = null;
+	}
+
+	public synchronized int getSegmentCount() {
+		int count = segments.size();
+		for (Integer key : pendingWrites.keySet()) {
+			if (!segments.containsKey(key)) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return
+	 * the size of the file, including freed segments
+	 */
+	public synchronized long getFileSize() {
+		return fileEnd;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized void deleteOnExit() {
+		deleteOnExit = true;
+		if (channel != null && !deleteOnExitRegistered) {
+			file.deleteOnExit();
+			deleteOnExitRegistered = true;
+		}
+	}
+
+}
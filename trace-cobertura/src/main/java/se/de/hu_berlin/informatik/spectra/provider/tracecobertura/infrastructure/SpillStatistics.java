@@ -0,0 +1,55 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects global statistics about nodes of buffered queues and maps
+ * that are spilled to disk.
+ */
+public final class SpillStatistics {
+
+	private static final AtomicLong spilledBytes = new AtomicLong();
+	private static final AtomicLong spillCount = new AtomicLong();
+	private static final AtomicLong spillTimeNanos = new AtomicLong();
+
+	private SpillStatistics() {
+	}
+
+	/**
+	 * Records a single store operation.
+	 * @param bytes
+	 * the number of written bytes
+	 * @param startTimeNanos
+	 * the result of {@link System#nanoTime()} before starting to store the node
+	 */
+	public static void recordSpill(long bytes, long startTimeNanos) {
+		spillTimeNanos.addAndGet(System.nanoTime() - startTimeNanos);
+		spilledBytes.addAndGet(bytes);
+		spillCount.incrementAndGet();
+	}
+
+	/**
+	 * @return
+	 * the total number of bytes written to disk
+	 */
+	public static long getSpilledBytes() {
+		return spilledBytes.get();
+	}
+
+	/**
+	 * @return
+	 * the total number of stored nodes
+	 */
+	public static long getSpillCount() {
+		return spillCount.get();
+	}
+
+	/**
+	 * @return
+	 * the total time spent storing nodes, in nanoseconds
+	 */
+	public static long getSpillTimeNanos() {
+		return spillTimeNanos.get();
+	}
+
+}
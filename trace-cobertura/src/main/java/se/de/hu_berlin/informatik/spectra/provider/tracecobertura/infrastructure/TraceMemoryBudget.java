@@ -0,0 +1,152 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+/**
+ * Global memory budget for the nodes that buffered queues and maps keep in memory.
+ *
+ * <p> Each buffered container asks the budget whether it may cache another node
+ * before spilling older nodes to disk. As long as the used heap stays below the
+ * budget, containers may keep up to the maximum number of cached nodes in memory;
+ * otherwise, they spill nodes until only the minimum number of cached nodes is left.
+ * (The last node of a queue is always kept in memory while elements are added.)
+ * The decision is based on the actual heap usage, since containers are frequently
+ * discarded without being cleared.
+ *
+ * <p> The following system properties may be used to configure the budget:
+ * <ul>
+ * <li>{@value #MEMORY_BUDGET_PROPERTY}: the heap usage in bytes up to which additional nodes
+ * may be cached, optionally with a suffix k, m or g (default: 75% of the maximum heap size)</li>
+ * <li>{@value #MIN_CACHED_NODES_PROPERTY}: the number of nodes each container may
+ * always keep in memory (default: {@value #DEFAULT_MIN_CACHED_NODES})</li>
+ * <li>{@value #MAX_CACHED_NODES_PROPERTY}: the maximum number of nodes each container
+ * may keep in memory (default: {@value #DEFAULT_MAX_CACHED_NODES})</li>
+ * <li>{@value #EXECUTION_TRACE_CHUNK_SIZE_PROPERTY}: the number of elements per node of the
+ * buffered execution traces (default: {@value #DEFAULT_EXECUTION_TRACE_CHUNK_SIZE})</li>
+ * <li>{@value #MAP_CHUNK_SIZE_PROPERTY}: the maximum number of entries per node of the
+ * buffered maps (default: {@value #DEFAULT_MAP_CHUNK_SIZE})</li>
+ * </ul>
+ *
+ * <p> This class has no side effects on initialization, so the sizes may also be
+ * used outside of the instrumented JVMs (e.g., when loading traces).
+ */
+public final class TraceMemoryBudget {
+
+	public static final String MEMORY_BUDGET_PROPERTY = "tracecobertura.memoryBudget";
+	public static final String MIN_CACHED_NODES_PROPERTY = "tracecobertura.minCachedNodes";
+	public static final String MAX_CACHED_NODES_PROPERTY = "tracecobertura.maxCachedNodes";
+	public static final String EXECUTION_TRACE_CHUNK_SIZE_PROPERTY = "tracecobertura.traceChunkSize";
+	public static final String MAP_CHUNK_SIZE_PROPERTY = "tracecobertura.mapChunkSize";
+
+	// the fixed cache size of the buffered containers before the adaptive node cache
+	public static final int DEFAULT_MIN_CACHED_NODES = 4;
+	public static final int DEFAULT_MAX_CACHED_NODES = 32;
+	public static final int DEFAULT_EXECUTION_TRACE_CHUNK_SIZE = 100000;
+	public static final int DEFAULT_MAP_CHUNK_SIZE = 500000;
+	
+	public static final int EXECUTION_TRACE_CHUNK_SIZE = 
+			getPositiveIntProperty(EXECUTION_TRACE_CHUNK_SIZE_PROPERTY, DEFAULT_EXECUTION_TRACE_CHUNK_SIZE);
+	public static final int MAP_CHUNK_SIZE = 
+			getPositiveIntProperty(MAP_CHUNK_SIZE_PROPERTY, DEFAULT_MAP_CHUNK_SIZE);
+
+	private static final Runtime runtime = Runtime.getRuntime();
+
+	private static final long budget = parseSize(System.getProperty(MEMORY_BUDGET_PROPERTY),
+			runtime.maxMemory() / 4 * 3);
+	private static final int minCachedNodes = getPositiveIntProperty(MIN_CACHED_NODES_PROPERTY, DEFAULT_MIN_CACHED_NODES);
+	private static final int maxCachedNodes = Math.max(minCachedNodes,
+			getPositiveIntProperty(MAX_CACHED_NODES_PROPERTY, DEFAULT_MAX_CACHED_NODES));
+
+	private TraceMemoryBudget() {
+	}
+
+	/**
+	 * @param cachedNodes
+	 * the number of nodes that a container currently holds in its cache
+	 * @return
+	 * whether the container may cache an additional node without spilling another one first
+	 */
+	public static boolean mayCache(int cachedNodes) {
+		if (cachedNodes < minCachedNodes) {
+			return true;
+		}
+		if (cachedNodes >= maxCachedNodes) {
+			return false;
+		}
+		return getUsedHeap() < budget;
+	}
+
+	/**
+	 * @return
+	 * whether the used heap exceeds the memory budget
+	 */
+	public static boolean isExhausted() {
+		return getUsedHeap() >= budget;
+	}
+
+	private static long getUsedHeap() {
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public static long getBudget() {
+		return budget;
+	}
+
+	public static int getMinCachedNodes() {
+		return minCachedNodes;
+	}
+
+	public static int getMaxCachedNodes() {
+		return maxCachedNodes;
+	}
+
+	/**
+	 * Reads an integer system property that has to be positive.
+	 * @param key
+	 * the name of the system property
+	 * @param defaultValue
+	 * the value to use if the property is not set or invalid
+	 * @return
+	 * the value of the property
+	 */
+	public static int getPositiveIntProperty(String key, int defaultValue) {
+		Integer value = Integer.getInteger(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value < 1) {
+			System.err.println("Ignoring invalid value for " + key + ": " + value);
+			return defaultValue;
+		}
+		return value;
+	}
+
+	private static long parseSize(String value, long defaultValue) {
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		String size = value.trim().toLowerCase();
+		long factor = 1;
+		switch (size.charAt(size.length() - 1)) {
+		case 'k':
+			factor = 1024L;
+			break;
+		case 'm':
+			factor = 1024L * 1024L;
+			break;
+		case 'g':
+			factor = 1024L * 1024L * 1024L;
+			break;
+		default:
+			break;
+		}
+		if (factor != 1) {
+			size = size.substring(0, size.length() - 1);
+		}
+		try {
+			return Long.parseLong(size) * factor;
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring invalid value for " + MEMORY_BUDGET_PROPERTY + ": " + value);
+			return defaultValue;
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of (zigzag encoded) integers with 7 bits per byte.
+ * Small absolute values, like the differences between consecutive statement ids
+ * of a trace, only need one or two bytes.
+ */
+public final class VarInts {
+
+	public static final String COMPRESS_SPILLS_PROPERTY = "tracecobertura.compressSpills";
+
+	/**
+	 * Whether spilled nodes of buffered containers should be delta and varint encoded.
+	 * Enabled by default; can be disabled by setting the system property
+	 * {@value #COMPRESS_SPILLS_PROPERTY} to {@code false}.
+	 */
+	public static final boolean COMPRESS_SPILLS = !"false".equalsIgnoreCase(System.getProperty(COMPRESS_SPILLS_PROPERTY));
+
+	/** the maximum number of bytes of an encoded int */
+	public static final int MAX_INT_BYTES = 5;
+	/** the maximum number of bytes of an encoded long */
+	public static final int MAX_LONG_BYTES = 10;
+
+	private VarInts() {
+	}
+
+	public static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	public static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	public static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes the given value as an unsigned varint.
+	 * @param buffer
+	 * the buffer to write to
+	 * @param value
+	 * the value (treated as unsigned)
+	 */
+	public static void putVarInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	public static int getVarInt(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	public static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	public static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Writes the differences between consecutive values as zigzag encoded varints.
+	 * @param buffer
+	 * the buffer to write to
+	 * @param values
+	 * the values
+	 * @param from
+	 * the index of the first value to write
+	 * @param to
+	 * the index after the last value to write
+	 */
+	public static void putDeltas(ByteBuffer buffer, int[] values, int from, int to) {
+		int previous = 0;
+		for (int i = from; i < to; ++i) {
+			putVarInt(buffer, zigZag(values[i] - previous));
+			previous = values[i];
+		}
+	}
+
+	public static void getDeltas(ByteBuffer buffer, int[] values, int from, int to) {
+		int previous = 0;
+		for (int i = from; i < to; ++i) {
+			previous += unZigZag(getVarInt(buffer));
+			values[i] = previous;
+		}
+	}
+
+	public static void putDeltas(ByteBuffer buffer, long[] values, int from, int to) {
+		long previous = 0;
+		for (int i = from; i < to; ++i) {
+			putVarLong(buffer, zigZag(values[i] - previous));
+			previous = values[i];
+		}
+	}
+
+	public static void getDeltas(ByteBuffer buffer, long[] values, int from, int to) {
+		long previous = 0;
+		for (int i = from; i < to; ++i) {
+			previous += unZigZag(getVarLong(buffer));
+			values[i] = previous;
+		}
+	}
+
+}
@@ -2,7 +2,9 @@ package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructur
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedMap;
@@ -22,6 +24,19 @@ public class RepetitionMarkerWrapper implements Serializable {
 	
 	private long traceSize;
 	
+	// position index with one entry per node of the repetition marker map:
+	// the number of elements that the repetitions before the node add to the expanded trace
+	private transient long[] addedElementsBeforeNode;
+	// the key of a repetition before the node that reaches into the node, or -1
+	private transient int[] overlappingKeyOfNode;
+	
+	// the sorted repetitions of the most recently searched node:
+	// keys, [length, repetitionCount] and the number of elements added by the repetitions before each key
+	private transient int cachedStoreIndex = -1;
+	private transient int[] cachedKeys;
+	private transient int[][] cachedMarkers;
+	private transient long[] cachedAddedElements;
+	
 	protected RepetitionMarkerWrapper() {
 		
 	}
@@ -52,6 +67,9 @@ public class RepetitionMarkerWrapper implements Serializable {
 	
 	protected void setRepetitionMarkers(BufferedMap<int[]> repetitionMarkers) {
 		this.repetitionMarkers = repetitionMarkers;
+		this.addedElementsBeforeNode = null;
+		this.overlappingKeyOfNode = null;
+		this.cachedStoreIndex = -1;
 	}
 
 	public BufferedMap<int[]> getRepetitionMarkers() {
@@ -84,7 +102,147 @@ public class RepetitionMarkerWrapper implements Serializable {
 		}
 	}
 	
+	/**
+	 * Maps a position in the expanded trace of this level (with all repetitions of 
+	 * this level being unrolled) to the respective position in the compressed trace 
+	 * of this level. Uses a position index with constant size per node of the 
+	 * repetition marker map to locate the relevant node with a binary search,
+	 * so only a single node has to be loaded. The sorted repetitions of the last 
+	 * searched node are kept, so subsequent seeks into that node only need a 
+	 * binary search over its repetitions.
+	 * @param position
+	 * a position in the expanded trace
+	 * @return
+	 * an array of the form { index, repetition start index, repetition length, 
+	 * repetition count, current iteration }, where the repetition start index is -1
+	 * if the position is not inside of a repetition
+	 */
+	public long[] getCompressedPosition(long position) {
+		if (repetitionMarkers == null || repetitionMarkers.isEmpty()) {
+			return new long[] { position, -1, 0, 0, 0 };
+		}
+		if (addedElementsBeforeNode == null) {
+			buildPositionIndex();
+		}
+		long nodeSize = repetitionMarkers.getMaxSubMapSize();
+		
+		// find the last node that starts at or before the given position in the expanded trace
+		int low = 0;
+		int high = addedElementsBeforeNode.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (mid * nodeSize + addedElementsBeforeNode[mid] <= position) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		int storeIndex = low;
+		
+		long addedElements = addedElementsBeforeNode[storeIndex];
+		if (cachedKeys == null || storeIndex != cachedStoreIndex) {
+			cacheNode(storeIndex);
+		}
+		
+		// find the last repetition that starts at or before the given position;
+		// the start positions in the expanded trace are strictly increasing
+		int repetition = -1;
+		low = 0;
+		high = cachedKeys.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (cachedKeys[mid] + addedElements + cachedAddedElements[mid] <= position) {
+				repetition = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		
+		if (repetition >= 0) {
+			int key = cachedKeys[repetition];
+			// [length, repetitionCount]
+			int length = cachedMarkers[repetition][0];
+			int count = cachedMarkers[repetition][1];
+			long repetitionStart = key + addedElements + cachedAddedElements[repetition];
+			long offset = position - repetitionStart;
+			if (offset < (long) length * count) {
+				return new long[] { key + offset % length, key, length, count, offset / length };
+			}
+			addedElements += cachedAddedElements[repetition] + (long) length * (count - 1);
+		} else if (overlappingKeyOfNode[storeIndex] >= 0) {
+			// may be in the last iteration of a repetition that started in a previous node
+			int key = overlappingKeyOfNode[storeIndex];
+			int[] marker = repetitionMarkers.get(key);
+			long index = position - addedElements;
+			if (index < key + marker[0]) {
+				return new long[] { index, key, marker[0], marker[1], marker[1] - 1 };
+			}
+		}
+		return new long[] { position - addedElements, -1, 0, 0, 0 };
+	}
+
+	private void cacheNode(int storeIndex) {
+		List<Entry<Integer, int[]>> entries = repetitionMarkers.getSortedNodeEntries(storeIndex);
+		int[] keys = new int[entries.size()];
+		int[][] markers = new int[entries.size()][];
+		long[] addedElements = new long[entries.size()];
+		long currentlyAdded = 0;
+		int i = 0;
+		for (Entry<Integer, int[]> entry : entries) {
+			keys[i] = entry.getKey();
+			markers[i] = entry.getValue();
+			addedElements[i] = currentlyAdded;
+			currentlyAdded += (long) markers[i][0] * (markers[i][1] - 1);
+			++i;
+		}
+		cachedKeys = keys;
+		cachedMarkers = markers;
+		cachedAddedElements = addedElements;
+		cachedStoreIndex = storeIndex;
+	}
+
+	private void buildPositionIndex() {
+		int nodeSize = repetitionMarkers.getMaxSubMapSize();
+		long[] addedElements = new long[16];
+		int[] overlappingKeys = new int[16];
+		int nodeCount = 0;
+		long currentlyAdded = 0;
+		int lastKey = -1;
+		long lastEnd = -1;
+		Iterator<Entry<Integer, int[]>> iterator = repetitionMarkers.entrySetIterator(true);
+		while (true) {
+			Entry<Integer, int[]> entry = iterator.hasNext() ? iterator.next() : null;
+			// add an additional node after the last repetition
+			int storeIndex = entry == null ? nodeCount : entry.getKey() / nodeSize;
+			while (nodeCount <= storeIndex) {
+				if (nodeCount == addedElements.length) {
+					addedElements = Arrays.copyOf(addedElements, nodeCount * 2);
+					overlappingKeys = Arrays.copyOf(overlappingKeys, nodeCount * 2);
+				}
+				addedElements[nodeCount] = currentlyAdded;
+				overlappingKeys[nodeCount] = lastEnd > (long) nodeCount * nodeSize ? lastKey : -1;
+				++nodeCount;
+			}
+			if (entry == null) {
+				break;
+			}
+			// [length, repetitionCount]
+			currentlyAdded += (long) entry.getValue()[0] * (entry.getValue()[1] - 1);
+			lastKey = entry.getKey();
+			lastEnd = (long) lastKey + entry.getValue()[0];
+		}
+		overlappingKeyOfNode = Arrays.copyOf(overlappingKeys, nodeCount);
+		addedElementsBeforeNode = Arrays.copyOf(addedElements, nodeCount);
+	}
+	
 	public void clear() {
+		addedElementsBeforeNode = null;
+		overlappingKeyOfNode = null;
+		cachedStoreIndex = -1;
+		cachedKeys = null;
+		cachedMarkers = null;
+		cachedAddedElements = null;
 		if (repetitionMarkers != null) {
 			repetitionMarkers.clear();
 		}
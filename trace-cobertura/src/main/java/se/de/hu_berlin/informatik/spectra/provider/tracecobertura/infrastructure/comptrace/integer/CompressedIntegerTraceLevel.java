@@ -2,12 +2,11 @@ package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructur
 
 import java.io.File;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntIntHashMap;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue.MyBufferedIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerBufferedMap;
 
@@ -24,6 +23,8 @@ public class CompressedIntegerTraceLevel implements Serializable {
 	 * restricted in terms of repetition marker index, at the moment.
 	 */
 	private static int MAX_INDEX = Integer.MAX_VALUE;
+	
+	private static final int NO_POSITION = -1;
 
 	private long originalSize = 0;
 
@@ -38,10 +39,10 @@ public class CompressedIntegerTraceLevel implements Serializable {
 	MyBufferedIterator inputTraceIterator;
 	
 	// mapping from elements to their most recent positions in the result list
-	Map<Integer,Integer> elementToPositionMap;
+	IntIntHashMap elementToPositionMap;
 	
 	// current position
-	Integer position = null;
+	int position = NO_POSITION;
 	
 
 	int maxPosMapSize = 0;
@@ -59,7 +60,7 @@ public class CompressedIntegerTraceLevel implements Serializable {
 		if (!flat) {
 			traceRepetitions = new RepetitionMarkerBufferedMap(outputDir, 
 					prefix + "cpr_trace_rpt_" + uuid, mapSize, deleteOnExit);
-			elementToPositionMap = new HashMap<>();
+			elementToPositionMap = new IntIntHashMap(NO_POSITION);
 			resultTraceIterator = traceWithoutRepetitions.iterator();
 			inputTraceIterator = traceWithoutRepetitions.iterator();
 		}
@@ -112,7 +113,7 @@ public class CompressedIntegerTraceLevel implements Serializable {
 			// we will only get to here when the buffer is empty!
 			// check for repetition of the current element
 			position = elementToPositionMap.get(element);
-			if (position == null) {
+			if (position == NO_POSITION) {
 				// no repetition possible; remember node containing the element
 				if (originalSize <= MAX_INDEX) {
 					elementToPositionMap.put(element, bufferStartIndex);
@@ -136,6 +137,53 @@ public class CompressedIntegerTraceLevel implements Serializable {
 		}
 	}
 
+	/**
+	 * Adds the leading elements of the given segment that can not start a repetition
+	 * in one batch, with the same result as adding them one by one with {@link #add(int, boolean)}. 
+	 * Stops at the first element that was seen before (or immediately, if a repetition is 
+	 * currently checked); that element has to be added with {@link #add(int, boolean)}.
+	 * @param src
+	 * the source array
+	 * @param off
+	 * the index of the first element to add
+	 * @param len
+	 * the number of elements to add
+	 * @param checkForRepetitions
+	 * whether to check for repetitions; if not, all elements are added
+	 * @return
+	 * the number of added elements
+	 */
+	public int addAll(int[] src, int off, int len, boolean checkForRepetitions) {
+		if (!checkForRepetitions) {
+			traceWithoutRepetitions.addAll(src, off, len);
+			bufferStartIndex += len;
+			originalSize += len;
+			return len;
+		}
+		if (repetitionCheckMode) {
+			return 0;
+		}
+		// the buffer is empty, so the elements are part of the result trace as long as they are new
+		int count = 0;
+		for (; count < len; ++count) {
+			int element = src[off + count];
+			if (elementToPositionMap.get(element) != NO_POSITION) {
+				break;
+			}
+			if (originalSize + count <= MAX_INDEX) {
+				elementToPositionMap.put(element, bufferStartIndex + count);
+			}
+		}
+		if (count > 0) {
+			maxPosMapSize = Math.max(maxPosMapSize, elementToPositionMap.size());
+			traceWithoutRepetitions.addAll(src, off, count);
+			bufferStartIndex += count;
+			maxTraceSize = Math.max(maxTraceSize, bufferStartIndex);
+			originalSize += count;
+		}
+		return count;
+	}
+
 	public boolean addFromBuffer(boolean recheckBuffer, boolean endOfLine) {
 		Boolean result = null;
 		while (result == null) {
@@ -183,7 +231,7 @@ public class CompressedIntegerTraceLevel implements Serializable {
 			// check for repetition of the current element
 			int firstBufferElement = traceWithoutRepetitions.get(bufferStartIndex);
 			position = elementToPositionMap.get(firstBufferElement);
-			if (position == null) {
+			if (position == NO_POSITION) {
 				// no repetition possible; remember node containing the element
 				if (originalSize <= MAX_INDEX) {
 					elementToPositionMap.put(firstBufferElement, bufferStartIndex);
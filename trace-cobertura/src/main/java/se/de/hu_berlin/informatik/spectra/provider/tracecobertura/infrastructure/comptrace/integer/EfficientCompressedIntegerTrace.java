@@ -11,6 +11,7 @@ import java.util.UUID;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntBitSet;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerBase;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerWrapper;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.longs.EfficientCompressedLongTrace;
@@ -39,6 +40,9 @@ public class EfficientCompressedIntegerTrace extends RepetitionMarkerBase implem
 	private boolean flat;
 	
 	private boolean locked = false;
+	
+	// rules to expand the symbols of grammar compressed traces; null for other traces
+	private GrammarRuleDictionary grammar = null;
 
 	private String prefix;
 
@@ -84,8 +88,10 @@ public class EfficientCompressedIntegerTrace extends RepetitionMarkerBase implem
 	 */
 	public EfficientCompressedIntegerTrace(BufferedIntArrayQueue trace, boolean log, boolean flat) {
 		this(trace.getOutputDir(), trace.getFilePrefix(), trace.getNodeSize(), trace.getNodeSize(), trace.isDeleteOnExit(), log, flat);
-		while (!trace.isEmpty()) {
-			add(trace.remove());
+		int[] batch = new int[Math.min(trace.getNodeSize(), (int) Math.min(trace.size(), Integer.MAX_VALUE))];
+		int count;
+		while ((count = trace.drainTo(batch)) > 0) {
+			addAll(batch, 0, count);
 		}
 		// need to finalize things now!
 		endOfLine();
@@ -194,6 +200,84 @@ public class EfficientCompressedIntegerTrace extends RepetitionMarkerBase implem
 		return originalSize;
 	}
 	
+	/**
+	 * @return
+	 * the rules to expand the stored symbols, if this trace is grammar compressed; null otherwise
+	 */
+	public GrammarRuleDictionary getGrammar() {
+		return grammar;
+	}
+	
+	/**
+	 * Marks the stored elements of this trace as symbols of the given grammar.
+	 * The iterators will expand the symbols to the respective terminals.
+	 * Iterates over the whole trace to compute the expanded size; if the size 
+	 * is known, use {@link #setGrammar(GrammarRuleDictionary, long)}, instead.
+	 * @param grammar
+	 * the grammar
+	 */
+	public void setGrammar(GrammarRuleDictionary grammar) {
+		endOfLine();
+		long expandedSize = 0;
+		this.grammar = null;
+		TraceIterator iterator = iterator();
+		while (iterator.hasNext()) {
+			expandedSize += grammar.getLength(iterator.next());
+		}
+		setGrammar(grammar, expandedSize);
+	}
+	
+	/**
+	 * Marks the stored elements of this trace as symbols of the given grammar.
+	 * The iterators will expand the symbols to the respective terminals.
+	 * @param grammar
+	 * the grammar
+	 * @param expandedSize
+	 * the number of terminals that the stored symbols expand to
+	 */
+	public void setGrammar(GrammarRuleDictionary grammar, long expandedSize) {
+		endOfLine();
+		this.grammar = grammar;
+		this.originalSize = expandedSize;
+	}
+	
+	/**
+	 * @return
+	 * the size of the compressed trace, including the repetition markers (3 ints per marker)
+	 */
+	public long getCompressedSize() {
+		endOfLine();
+		long markerSize = 0;
+		for (RepetitionMarkerWrapper repetitionMarkerWrapper : getRepetitionMarkers()) {
+			if (repetitionMarkerWrapper == null) {
+				break;
+			}
+			markerSize += repetitionMarkerWrapper.getRepetitionMarkers().size() * 3L;
+		}
+		return compressedTrace.size() + markerSize;
+	}
+	
+	/**
+	 * @return
+	 * the compression ratio (compressed size, including repetition markers, divided by 
+	 * input size) for each level with repetitions, starting with the lowest level
+	 */
+	public double[] getCompressionRatios() {
+		endOfLine();
+		RepetitionMarkerWrapper[] wrappers = getRepetitionMarkers();
+		double[] ratios = new double[levelCount()];
+		// the first wrapper belongs to the highest level, whose output is the compressed trace
+		long outputSize = compressedTrace.size();
+		for (int i = 0; i < ratios.length; ++i) {
+			RepetitionMarkerWrapper wrapper = wrappers[i];
+			long inputSize = wrapper.traceSize();
+			ratios[ratios.length - 1 - i] = inputSize == 0 ? 1.0 : 
+				(double)(outputSize + wrapper.getRepetitionMarkers().size() * 3L) / (double)inputSize;
+			outputSize = inputSize;
+		}
+		return ratios;
+	}
+	
 	public boolean isEmpty( ) {
 		return originalSize <= 0;
 	}
@@ -224,6 +308,49 @@ public class EfficientCompressedIntegerTrace extends RepetitionMarkerBase implem
 		}
 	}
 
+	/**
+	 * Adds the given segment of the array to the trace, with the same result as 
+	 * adding the elements one by one with {@link #add(int)}. Flat traces copy the 
+	 * whole segment at once. For all other traces, runs of elements that can not start
+	 * a repetition are copied to the first level at once; only elements that may 
+	 * continue a repetition are checked one by one.
+	 * @param src
+	 * the source array
+	 * @param off
+	 * the index of the first element to add
+	 * @param len
+	 * the number of elements to add
+	 */
+	public void addAll(int[] src, int off, int len) {
+		if (locked) {
+			throw new IllegalStateException("Can not add elements to already locked trace.");
+		}
+		if (off < 0 || len < 0 || off + len > src.length) {
+			throw new IndexOutOfBoundsException("offset: " + off + ", length: " + len + ", array length: " + src.length);
+		}
+		if (len == 0) {
+			return;
+		}
+		originalSize += len;
+		if (flat) {
+			compressedTrace.addAll(src, off, len);
+		} else {
+			if (levels.isEmpty()) {
+				addNewLevel();
+			}
+			CompressedIntegerTraceLevel level = levels.get(0);
+			boolean checkForRepetitions = 0 < MAX_ITERATION_COUNT;
+			int i = off;
+			int end = off + len;
+			while (i < end) {
+				i += level.addAll(src, i, end - i, checkForRepetitions);
+				if (i < end && level.add(src[i++], checkForRepetitions)) {
+					feedToHigherLevel(0, false);
+				}
+			}
+		}
+	}
+
 	private void feedToHigherLevel(int levelIndex, boolean endOfLine) {
 //		System.out.println("f level " + levelIndex + ", " + endOfLine);
 		CompressedIntegerTraceLevel level = levels.get(levelIndex);
@@ -412,6 +539,19 @@ public class EfficientCompressedIntegerTrace extends RepetitionMarkerBase implem
 		return new TraceIterator(this);
 	}
 	
+	/**
+	 * @param position
+	 * the position of the first element to return
+	 * @return
+	 * iterator over the full trace, starting at the given position;
+	 * needs logarithmic time in the number of repetition marker nodes per level
+	 * (for grammar compressed traces, linear time in the number of preceding symbols)
+	 */
+	public TraceIterator iterator(long position) {
+		endOfLine();
+		return new TraceIterator(this, position);
+	}
+	
 	/**
 	 * @return
 	 * iterator over the compressed trace (ignores repetitions)
@@ -453,6 +593,29 @@ public class EfficientCompressedIntegerTrace extends RepetitionMarkerBase implem
 			}
 		}
 	}
+	
+	/**
+	 * Adds all elements that start a sequence (the first element and the elements
+	 * at the start and after the end of repetitions) to the given set, without boxing.
+	 * @param set
+	 * the set to add the starting elements to
+	 */
+	public void addStartingElements(IntBitSet set) {
+		TraceIterator iterator = iterator();
+		boolean lastElementWasSequenceEnd = false;
+		if (iterator.hasNext()) {
+			lastElementWasSequenceEnd = iterator.isEndOfRepetition();
+			set.add(iterator.next());
+		}
+		while (iterator.hasNext()) {
+			boolean isStart = lastElementWasSequenceEnd || iterator.isStartOfRepetition();
+			lastElementWasSequenceEnd = iterator.isEndOfRepetition();
+			int element = iterator.next();
+			if (isStart) {
+				set.add(element);
+			}
+		}
+	}
 
 	@Override
 	public void clear() {
@@ -0,0 +1,97 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.LongIntHashMap;
+
+/**
+ * Grammar based compression in the style of Re-Pair: pairs of symbols that occur
+ * repeatedly are replaced by rule symbols, in multiple passes over batches of
+ * the trace, so rules may consist of other rules. The rules are stored in a
+ * dictionary that is shared by all compressed traces, so equal sequences in
+ * different traces (and threads) are replaced by the same symbols. The resulting
+ * sequence of symbols is compressed further with the usual repetition markers.
+ *
+ * <p> Pairs of equal symbols are not replaced, since runs of equal elements
+ * are handled better by the repetition markers. Rule symbols are negative, so
+ * negative elements are replaced by terminal rules of the dictionary, first.
+ */
+public class GrammarCompressor implements IntTraceCompressor {
+
+	private static final int BATCH_SIZE = 1 << 16;
+	private static final int MAX_PASSES = 8;
+	// minimum number of occurrences of a pair in a batch to create a new rule
+	private static final int MIN_PAIR_COUNT = 2;
+
+	private final GrammarRuleDictionary grammar;
+
+	public GrammarCompressor(GrammarRuleDictionary grammar) {
+		this.grammar = grammar;
+	}
+
+	@Override
+	public GrammarRuleDictionary getGrammar() {
+		return grammar;
+	}
+
+	@Override
+	public EfficientCompressedIntegerTrace compress(BufferedIntArrayQueue trace, boolean log) {
+		EfficientCompressedIntegerTrace result = new EfficientCompressedIntegerTrace(trace.getOutputDir(),
+				trace.getFilePrefix(), trace.getNodeSize(), trace.getNodeSize(), trace.isDeleteOnExit(), log, false);
+		int[] batch = new int[(int) Math.max(1, Math.min(BATCH_SIZE, trace.size()))];
+		LongIntHashMap pairCounts = new LongIntHashMap(0);
+		long expandedSize = 0;
+		int count;
+		while ((count = trace.drainTo(batch)) > 0) {
+			expandedSize += count;
+			for (int i = 0; i < count; ++i) {
+				if (batch[i] < 0) {
+					batch[i] = grammar.getTerminalSymbol(batch[i]);
+				}
+			}
+			int length = count;
+			for (int pass = 0; pass < MAX_PASSES; ++pass) {
+				int newLength = replacePairs(batch, length, pairCounts);
+				if (newLength == length) {
+					break;
+				}
+				length = newLength;
+			}
+			result.addAll(batch, 0, length);
+		}
+		result.setGrammar(grammar, expandedSize);
+		return result;
+	}
+
+	// replaces pairs in place; returns the new length of the sequence
+	private int replacePairs(int[] symbols, int length, LongIntHashMap pairCounts) {
+		pairCounts.clear();
+		for (int i = 0; i < length - 1; ++i) {
+			if (symbols[i] != symbols[i + 1]) {
+				long key = ((long) symbols[i] << 32) | (symbols[i + 1] & 0xFFFFFFFFL);
+				pairCounts.put(key, pairCounts.get(key) + 1);
+			}
+		}
+		int newLength = 0;
+		int i = 0;
+		while (i < length) {
+			if (i < length - 1 && symbols[i] != symbols[i + 1]) {
+				int first = symbols[i];
+				int second = symbols[i + 1];
+				// reuse existing rules, even for pairs that only occur once in this batch
+				int rule = grammar.getRule(first, second);
+				if (rule == GrammarRuleDictionary.NO_RULE &&
+						pairCounts.get(((long) first << 32) | (second & 0xFFFFFFFFL)) >= MIN_PAIR_COUNT) {
+					rule = grammar.getOrCreateRule(first, second);
+				}
+				if (rule != GrammarRuleDictionary.NO_RULE) {
+					symbols[newLength++] = rule;
+					i += 2;
+					continue;
+				}
+			}
+			symbols[newLength++] = symbols[i++];
+		}
+		return newLength;
+	}
+
+}
@@ -0,0 +1,165 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer;
+
+import java.util.Arrays;
+
+/**
+ * Expands the symbols of a grammar compressed trace to terminals,
+ * in forward or reverse order. Holds the remaining symbols of the
+ * currently expanded symbol on a stack.
+ */
+class GrammarExpansion {
+
+	private final GrammarRuleDictionary grammar;
+	private final boolean reverse;
+
+	private int[] stack;
+	private int stackSize = 0;
+
+	// the currently expanded symbol
+	private int symbol;
+	// repetition information of the currently expanded symbol
+	private boolean startOfRepetition;
+	private boolean endOfRepetition;
+	private long consumed;
+	private long remaining;
+
+	GrammarExpansion(GrammarRuleDictionary grammar, boolean reverse) {
+		this.grammar = grammar;
+		this.reverse = reverse;
+		this.stack = new int[16];
+	}
+
+	// clone constructor
+	GrammarExpansion(GrammarExpansion expansion) {
+		this.grammar = expansion.grammar;
+		this.reverse = expansion.reverse;
+		this.stack = expansion.stack.clone();
+		this.stackSize = expansion.stackSize;
+		this.symbol = expansion.symbol;
+		this.startOfRepetition = expansion.startOfRepetition;
+		this.endOfRepetition = expansion.endOfRepetition;
+		this.consumed = expansion.consumed;
+		this.remaining = expansion.remaining;
+	}
+
+	boolean isEmpty() {
+		return stackSize == 0;
+	}
+
+	/**
+	 * Starts the expansion of the given symbol.
+	 * @param symbol
+	 * the symbol
+	 * @param startOfRepetition
+	 * whether the symbol is at the start of a repetition
+	 * @param endOfRepetition
+	 * whether the symbol is at the end of a repetition
+	 */
+	void expand(int symbol, boolean startOfRepetition, boolean endOfRepetition) {
+		push(symbol);
+		this.symbol = symbol;
+		this.startOfRepetition = startOfRepetition;
+		this.endOfRepetition = endOfRepetition;
+		this.consumed = 0;
+		this.remaining = grammar.getLength(symbol);
+	}
+
+	private void push(int symbol) {
+		if (stackSize == stack.length) {
+			stack = Arrays.copyOf(stack, stackSize * 2);
+		}
+		stack[stackSize++] = symbol;
+	}
+
+	// expands rules on top of the stack until a terminal symbol is on top
+	private void expandTop() {
+		while (GrammarRuleDictionary.isRule(stack[stackSize - 1]) 
+				&& !grammar.isTerminalSymbol(stack[stackSize - 1])) {
+			int rule = stack[--stackSize];
+			if (reverse) {
+				push(grammar.getFirstSymbol(rule));
+				push(grammar.getSecondSymbol(rule));
+			} else {
+				push(grammar.getSecondSymbol(rule));
+				push(grammar.getFirstSymbol(rule));
+			}
+		}
+	}
+
+	/**
+	 * Skips the given number of terminals of the currently expanded symbol.
+	 * Rules that are skipped completely are not expanded.
+	 * @param count
+	 * the number of terminals to skip; at most the number of remaining terminals
+	 */
+	void skip(long count) {
+		while (count > 0) {
+			int top = stack[stackSize - 1];
+			long length = grammar.getLength(top);
+			if (length <= count) {
+				--stackSize;
+				count -= length;
+				consumed += length;
+				remaining -= length;
+			} else {
+				// the rule contains the next terminal
+				--stackSize;
+				if (reverse) {
+					push(grammar.getFirstSymbol(top));
+					push(grammar.getSecondSymbol(top));
+				} else {
+					push(grammar.getSecondSymbol(top));
+					push(grammar.getFirstSymbol(top));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the last returned terminal in the currently expanded symbol.
+	 * The remaining terminals on the stack are not affected.
+	 * @param terminal
+	 * the new terminal
+	 * @return
+	 * the symbol that replaces the currently expanded symbol
+	 */
+	int replaceLastTerminal(int terminal) {
+		long offset = reverse ? remaining : consumed - 1;
+		symbol = grammar.replaceTerminal(symbol, offset, terminal);
+		return symbol;
+	}
+
+	int peek() {
+		expandTop();
+		return getTerminal(stack[stackSize - 1]);
+	}
+
+	int next() {
+		expandTop();
+		++consumed;
+		--remaining;
+		return getTerminal(stack[--stackSize]);
+	}
+	
+	// negative terminals are represented by terminal rules
+	private int getTerminal(int symbol) {
+		return GrammarRuleDictionary.isRule(symbol) ? grammar.getTerminal(symbol) : symbol;
+	}
+
+	/**
+	 * @return
+	 * whether the next terminal is the first terminal of a symbol at the start of a repetition
+	 */
+	boolean isStartOfRepetition() {
+		return consumed == 0 && startOfRepetition;
+	}
+
+	/**
+	 * @return
+	 * whether the next terminal is the last terminal of a symbol at the end of a repetition
+	 */
+	boolean isEndOfRepetition() {
+		return remaining == 1 && endOfRepetition;
+	}
+
+}
@@ -0,0 +1,280 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.IntIntHashMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.LongIntHashMap;
+
+/**
+ * Dictionary of grammar rules that replace pairs of symbols with a single (rule) symbol.
+ * Non-negative terminals are their own symbols; rule symbols are negative (the first rule is -1).
+ * Rules may consist of other rules, so each rule expands to a sequence of terminals.
+ * Negative terminals (e.g., encoded statements with large class ids) are represented
+ * by terminal rules that expand to the single terminal; see {@link #getTerminalSymbol(int)}.
+ * A dictionary is meant to be shared by all traces of a run (all threads and tests),
+ * so equal sequences in different traces are represented by equal rule symbols.
+ *
+ * <p> An overlay of a dictionary (see {@link #GrammarRuleDictionary(GrammarRuleDictionary)})
+ * resolves the rules of the underlying dictionary, but adds new rules only to itself. 
+ * Its own rule symbols start at {@link Integer#MIN_VALUE}, so they never clash with
+ * rules that are added to the underlying dictionary later.
+ */
+public class GrammarRuleDictionary implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 4416913466046287731L;
+
+	/** returned by {@link #getRule(int, int)} if no rule exists for the given pair */
+	public static final int NO_RULE = 0;
+
+	private int[] firstSymbols = new int[16];
+	private int[] secondSymbols = new int[16];
+	// number of terminals that each rule expands to; terminal rules have length 1
+	private long[] lengths = new long[16];
+	private int ruleCount = 0;
+
+	private final LongIntHashMap pairToRule = new LongIntHashMap(NO_RULE);
+	private final IntIntHashMap terminalToRule = new IntIntHashMap(NO_RULE);
+	
+	// the dictionary whose rules this dictionary extends, if this is an overlay
+	private final GrammarRuleDictionary base;
+
+	public GrammarRuleDictionary() {
+		this.base = null;
+	}
+
+	/**
+	 * Creates an overlay of the given dictionary, e.g. for a trace whose elements are replaced.
+	 * All rules of the given dictionary can be used (also the ones that are added to it later),
+	 * but new rules are only added to the overlay.
+	 * @param base
+	 * the underlying dictionary
+	 */
+	public GrammarRuleDictionary(GrammarRuleDictionary base) {
+		this.base = base;
+	}
+
+	public static boolean isRule(int symbol) {
+		return symbol < 0;
+	}
+	
+	private int getSymbol(int index) {
+		return base == null ? -(index + 1) : Integer.MIN_VALUE + index;
+	}
+	
+	private boolean isOwnRule(int rule) {
+		return base == null || rule - Integer.MIN_VALUE < ruleCount;
+	}
+	
+	private int getIndex(int rule) {
+		return base == null ? -rule - 1 : rule - Integer.MIN_VALUE;
+	}
+
+	private static long getPairKey(int first, int second) {
+		return ((long) first << 32) | (second & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param first
+	 * the first symbol
+	 * @param second
+	 * the second symbol
+	 * @return
+	 * the rule symbol that replaces the given pair, or {@link #NO_RULE}
+	 */
+	public synchronized int getRule(int first, int second) {
+		int rule = pairToRule.get(getPairKey(first, second));
+		if (rule == NO_RULE && base != null) {
+			return base.getRule(first, second);
+		}
+		return rule;
+	}
+
+	/**
+	 * @param first
+	 * the first symbol
+	 * @param second
+	 * the second symbol
+	 * @return
+	 * the rule symbol that replaces the given pair; creates a new rule, if necessary
+	 */
+	public synchronized int getOrCreateRule(int first, int second) {
+		int rule = getRule(first, second);
+		if (rule == NO_RULE) {
+			rule = addRule(first, second, getLength(first) + getLength(second));
+			pairToRule.put(getPairKey(first, second), rule);
+		}
+		return rule;
+	}
+	
+	/**
+	 * @param terminal
+	 * a terminal
+	 * @return
+	 * the symbol that represents the given terminal; for negative terminals, 
+	 * this is a terminal rule, which is created, if necessary
+	 */
+	public synchronized int getTerminalSymbol(int terminal) {
+		if (!isRule(terminal)) {
+			return terminal;
+		}
+		int rule = getTerminalRule(terminal);
+		if (rule == NO_RULE) {
+			// terminal rules refer to themselves as second symbol, which other rules never do
+			rule = addRule(terminal, getSymbol(ruleCount), 1);
+			terminalToRule.put(terminal, rule);
+		}
+		return rule;
+	}
+	
+	private synchronized int getTerminalRule(int terminal) {
+		int rule = terminalToRule.get(terminal);
+		if (rule == NO_RULE && base != null) {
+			return base.getTerminalRule(terminal);
+		}
+		return rule;
+	}
+	
+	/**
+	 * @param symbol
+	 * a symbol
+	 * @return
+	 * whether the given symbol represents a single terminal, i.e., it is no rule or a terminal rule
+	 */
+	public synchronized boolean isTerminalSymbol(int symbol) {
+		return !isRule(symbol) || getLength(symbol) == 1;
+	}
+	
+	/**
+	 * @param symbol
+	 * a symbol that represents a single terminal
+	 * @return
+	 * the terminal
+	 */
+	public synchronized int getTerminal(int symbol) {
+		return isRule(symbol) ? getFirstSymbol(symbol) : symbol;
+	}
+	
+	private int addRule(int first, int second, long length) {
+		if (ruleCount == Integer.MAX_VALUE || (base != null && ruleCount == Integer.MAX_VALUE - base.size())) {
+			throw new IllegalStateException("Too many grammar rules.");
+		}
+		if (ruleCount == firstSymbols.length) {
+			int capacity = (int) Math.min(Integer.MAX_VALUE, ruleCount * 2L);
+			firstSymbols = Arrays.copyOf(firstSymbols, capacity);
+			secondSymbols = Arrays.copyOf(secondSymbols, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+		}
+		firstSymbols[ruleCount] = first;
+		secondSymbols[ruleCount] = second;
+		lengths[ruleCount] = length;
+		return getSymbol(ruleCount++);
+	}
+
+	/**
+	 * Returns a symbol that expands to the same terminals as the given symbol,
+	 * except for the terminal at the given offset, which is replaced with the given
+	 * terminal. Creates new rules along the path to the replaced terminal, if necessary.
+	 * @param symbol
+	 * a terminal or rule symbol
+	 * @param offset
+	 * the offset of the terminal to replace in the expansion of the symbol
+	 * @param terminal
+	 * the new terminal
+	 * @return
+	 * the resulting symbol
+	 */
+	public synchronized int replaceTerminal(int symbol, long offset, int terminal) {
+		if (isTerminalSymbol(symbol)) {
+			return getTerminalSymbol(terminal);
+		}
+		int first = getFirstSymbol(symbol);
+		int second = getSecondSymbol(symbol);
+		long firstLength = getLength(first);
+		if (offset < firstLength) {
+			return getOrCreateRule(replaceTerminal(first, offset, terminal), second);
+		} else {
+			return getOrCreateRule(first, replaceTerminal(second, offset - firstLength, terminal));
+		}
+	}
+
+	/**
+	 * Stores the symbol pairs of the rules in the given range. Rules only consist of
+	 * symbols of previous rules, so the rules can be stored in chunks and added to
+	 * a dictionary in the same order with {@link #addRules(byte[])}.
+	 * @param fromIndex
+	 * the index of the first rule to store (the first rule has index 0)
+	 * @param toIndex
+	 * the index after the last rule to store
+	 * @return
+	 * the symbol pairs of the rules
+	 */
+	public synchronized byte[] toByteArray(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > ruleCount || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("from: " + fromIndex + ", to: " + toIndex + ", rules: " + ruleCount);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(8 * (toIndex - fromIndex));
+		for (int i = fromIndex; i < toIndex; ++i) {
+			buffer.putInt(firstSymbols[i]);
+			buffer.putInt(secondSymbols[i]);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Adds rules that were stored with {@link #toByteArray(int, int)}. The rules
+	 * have to be added in the order of their creation, starting with the first rule
+	 * that does not exist in this dictionary.
+	 * @param rules
+	 * the symbol pairs of the rules
+	 * @throws IllegalStateException
+	 * if a rule already exists or would get a different symbol than before
+	 */
+	public synchronized void addRules(byte[] rules) {
+		ByteBuffer buffer = ByteBuffer.wrap(rules);
+		while (buffer.remaining() >= 8) {
+			int expectedRule = getSymbol(ruleCount);
+			int first = buffer.getInt();
+			int second = buffer.getInt();
+			int rule = second == expectedRule ? getTerminalSymbol(first) : getOrCreateRule(first, second);
+			if (rule != expectedRule) {
+				throw new IllegalStateException("Inconsistent grammar rules: expected rule " + 
+						expectedRule + ", but got " + rule + ".");
+			}
+		}
+	}
+
+	public synchronized int getFirstSymbol(int rule) {
+		return isOwnRule(rule) ? firstSymbols[getIndex(rule)] : base.getFirstSymbol(rule);
+	}
+
+	public synchronized int getSecondSymbol(int rule) {
+		return isOwnRule(rule) ? secondSymbols[getIndex(rule)] : base.getSecondSymbol(rule);
+	}
+
+	/**
+	 * @param symbol
+	 * a terminal or rule symbol
+	 * @return
+	 * the number of terminals that the symbol expands to
+	 */
+	public synchronized long getLength(int symbol) {
+		if (!isRule(symbol)) {
+			return 1;
+		}
+		return isOwnRule(symbol) ? lengths[getIndex(symbol)] : base.getLength(symbol);
+	}
+
+	/**
+	 * @return
+	 * the number of rules of this dictionary (without the rules of the underlying dictionary of an overlay)
+	 */
+	public synchronized int size() {
+		return ruleCount;
+	}
+
+}
@@ -0,0 +1,30 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+
+/**
+ * Strategy to compress a trace. All strategies produce traces whose iterators
+ * return the original sequence of elements.
+ */
+public interface IntTraceCompressor {
+
+	/**
+	 * Compresses the given queue's contents.
+	 * ATTENTION: the queue's contents will be removed in the process!
+	 * @param trace
+	 * a queue that should be compressed
+	 * @param log
+	 * whether to log some status information
+	 * @return
+	 * the compressed trace
+	 */
+	public EfficientCompressedIntegerTrace compress(BufferedIntArrayQueue trace, boolean log);
+
+	/**
+	 * @return
+	 * the grammar that is shared by all traces compressed by this compressor;
+	 * null if this compressor does not use a grammar
+	 */
+	public GrammarRuleDictionary getGrammar();
+
+}
@@ -0,0 +1,61 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
+
+/**
+ * Provides the available trace compression strategies.
+ */
+public final class IntTraceCompressors {
+
+	public static final String TRACE_COMPRESSOR_PROPERTY = "tracecobertura.traceCompressor";
+
+	/** multi-level repetition markers (default) */
+	public static final String REPETITIONS = "repetitions";
+	/** grammar rules for frequent pairs of elements, followed by repetition markers */
+	public static final String GRAMMAR = "grammar";
+
+	private IntTraceCompressors() {
+	}
+
+	/**
+	 * @param name
+	 * the name of the strategy ({@value #REPETITIONS} or {@value #GRAMMAR})
+	 * @return
+	 * a new compressor; grammar compressors come with a new (empty) grammar
+	 * that is shared by all traces that they compress
+	 */
+	public static IntTraceCompressor forName(String name) {
+		if (name == null || REPETITIONS.equalsIgnoreCase(name)) {
+			return new RepetitionMarkerCompressor();
+		} else if (GRAMMAR.equalsIgnoreCase(name)) {
+			return new GrammarCompressor(new GrammarRuleDictionary());
+		}
+		throw new IllegalStateException("Unknown trace compressor: " + name);
+	}
+
+	/**
+	 * @return
+	 * a new compressor as selected by the system property {@value #TRACE_COMPRESSOR_PROPERTY}
+	 */
+	public static IntTraceCompressor fromSystemProperty() {
+		return forName(System.getProperty(TRACE_COMPRESSOR_PROPERTY));
+	}
+
+	/**
+	 * Compresses traces with multi-level repetition markers.
+	 */
+	public static class RepetitionMarkerCompressor implements IntTraceCompressor {
+
+		@Override
+		public EfficientCompressedIntegerTrace compress(BufferedIntArrayQueue trace, boolean log) {
+			return new EfficientCompressedIntegerTrace(trace, log);
+		}
+
+		@Override
+		public GrammarRuleDictionary getGrammar() {
+			return null;
+		}
+
+	}
+
+}
@@ -1,11 +1,14 @@
 package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.Function;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.IntUnaryOperator;
 
 public interface ReplaceableCloneableIterator {
 
 	public int processNextAndReplaceWithResult(Function<Integer,Integer> function);
 	
+	public int processNextAndReplaceWithIntResult(IntUnaryOperator function);
+	
 	public ReplaceableCloneableIterator clone();
 	
 	public int peek();
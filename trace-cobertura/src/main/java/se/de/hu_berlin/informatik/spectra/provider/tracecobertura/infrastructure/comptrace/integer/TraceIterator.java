@@ -1,18 +1,24 @@
 package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.Function;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.IntUnaryOperator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.LevelState;
 
 public class TraceIterator implements ReplaceableCloneableIterator {
 	
 	private final EfficientCompressedIntegerTrace trace;
 	private final LevelState[] levelStates;
+	// expands grammar rule symbols; null if the trace is not grammar compressed
+	private final GrammarExpansion expansion;
 	
 	// level 0 is the lowest level
 	private int currentLevel = 0;
+	// the index of the last symbol that was read from the compressed trace
+	private long lastSymbolIndex = -1;
 	
 	public TraceIterator(EfficientCompressedIntegerTrace trace) {
 		this.trace = trace;
+		this.expansion = trace.getGrammar() == null ? null : new GrammarExpansion(trace.getGrammar(), false);
 		if (trace.getRepetitionMarkers() != null) {
 			levelStates = new LevelState[trace.levelCount() + 1];
 			for (int i = 0; i < trace.levelCount() + 1; ++i) {
@@ -24,26 +30,95 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 		resetCurrentLevel();
 	}
 	
+	/**
+	 * Creates an iterator that starts at the given position of the full trace.
+	 * The states of all levels are computed from the position indices of the 
+	 * repetition markers, without iterating over the preceding elements.
+	 * For grammar compressed traces, the preceding symbols are skipped 
+	 * by their expanded lengths, without expanding them.
+	 * @param trace
+	 * the trace
+	 * @param position
+	 * the position of the first element to return
+	 */
+	public TraceIterator(EfficientCompressedIntegerTrace trace, long position) {
+		this(trace);
+		if (position < 0 || position > trace.size()) {
+			throw new IndexOutOfBoundsException("Position " + position + " is out of bounds for trace of size " + trace.size());
+		}
+		if (expansion == null) {
+			seek(levelStates.length - 1, position);
+		} else {
+			skipSymbols(position);
+		}
+	}
+	
+	// skips the given number of elements of a grammar compressed trace
+	private void skipSymbols(long count) {
+		GrammarRuleDictionary grammar = trace.getGrammar();
+		while (count > 0) {
+			boolean startOfRepetition = isStartOfRepetitionSymbol();
+			boolean endOfRepetition = isEndOfRepetitionSymbol();
+			int symbol = nextSymbol();
+			long length = grammar.getLength(symbol);
+			if (length <= count) {
+				count -= length;
+			} else {
+				// the position is inside of the expansion of the symbol
+				expansion.expand(symbol, startOfRepetition, endOfRepetition);
+				expansion.skip(count);
+				count = 0;
+			}
+		}
+	}
+	
+	// sets the state of the given level and all levels below to the given 
+	// position in the expanded trace of the level
+	private void seek(int level, long position) {
+		LevelState state = levelStates[level];
+		if (level <= 0) {
+			state.indexState[0] = position;
+			return;
+		}
+		// [index, repetition start, length, repetition count, iteration]
+		long[] location = trace.getRepetitionMarkers()[level-1].getCompressedPosition(position);
+		state.indexState[0] = location[0];
+		// at the very start of a repetition, the repetition is entered with the next element
+		if (location[1] >= 0 && (location[0] > location[1] || location[4] > 0)) {
+			state.indexState[1] = location[1];
+			state.repetitionState[0] = (int) location[2];
+			state.repetitionState[1] = (int) location[3];
+			state.repetitionState[2] = (int) location[4];
+			// the states of the lower levels at the start of the repetition are the reset point
+			seek(level - 1, location[1]);
+			LevelState.setResetPoint(levelStates, level);
+		} else {
+			state.indexState[1] = -1;
+		}
+		seek(level - 1, location[0]);
+	}
+	
 	// clone constructor
 	private TraceIterator(TraceIterator iterator) {
 		this.trace = iterator.trace;
 		levelStates = LevelState.copy(iterator.levelStates);
+		this.expansion = iterator.expansion == null ? null : new GrammarExpansion(iterator.expansion);
 		this.currentLevel = iterator.currentLevel;
+		this.lastSymbolIndex = iterator.lastSymbolIndex;
 	}
 
 	public TraceIterator clone() {
 		return new TraceIterator(this);
 	}
 
-	@Override
-	public boolean hasNext() {
+	private boolean hasNextSymbol() {
 		return levelStates[0].indexState[0] < trace.getCompressedTrace().size();
 	}
 
-	@Override
-	public int next() {
+	private int nextSymbol() {
 		if (currentLevel <= 0) {
 			resetCurrentLevel();
+			lastSymbolIndex = levelStates[0].indexState[0];
 			return trace.getCompressedTrace().get(levelStates[0].indexState[0]++);
 		} else {
 			// prioritize repetitions in parent 
@@ -55,7 +130,8 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 					++levelStates[currentLevel].repetitionState[2];
 					if (levelStates[currentLevel].repetitionState[2] < levelStates[currentLevel].repetitionState[1]) {
 						// still an iteration to go
-						int lastElementOfRepetition = peek();
+						lastSymbolIndex = levelStates[0].indexState[0];
+						int lastElementOfRepetition = peekSymbol();
 						// reset to previous reset point
 						LevelState.resetState(levelStates, currentLevel);
 						resetCurrentLevel();
@@ -65,13 +141,13 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 						levelStates[currentLevel].indexState[1] = -1;
 						++levelStates[currentLevel].indexState[0];
 						--currentLevel;
-						return next();
+						return nextSymbol();
 					}
 				} else {
 					// still inside of the repeated sequence
 					++levelStates[currentLevel].indexState[0];
 					--currentLevel;
-					return next();
+					return nextSymbol();
 				}
 			} else {
 				// check if we are in a repeated sequence
@@ -87,26 +163,109 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 					// set the reset point to this exact point
 					LevelState.setResetPoint(levelStates, currentLevel);
 					// stay on the same level!
-					return next();
+					return nextSymbol();
 				} else {
 					// not in a repeated sequence!
 					++levelStates[currentLevel].indexState[0];
 					--currentLevel;
-					return next();
+					return nextSymbol();
 				}
 			}
 		}
 	}
 
+	/**
+	 * Copies the next elements of the full trace into the given array segment.
+	 * Traces without repetitions are copied in whole array segments.
+	 * @param dst
+	 * the destination array
+	 * @param off
+	 * the index in the destination array to copy the first element to
+	 * @param len
+	 * the maximum number of elements to copy
+	 * @return
+	 * the number of copied elements; 0 if there are no elements left
+	 */
+	public int nextBatch(int[] dst, int off, int len) {
+		if (levelStates.length == 1 && expansion == null) {
+			// no repetitions: copy directly from the compressed trace
+			if (!hasNext()) {
+				return 0;
+			}
+			int copied = trace.getCompressedTrace().iterator(levelStates[0].indexState[0]).nextBatch(dst, off, len);
+			levelStates[0].indexState[0] += copied;
+			return copied;
+		}
+		int copied = 0;
+		while (copied < len && hasNext()) {
+			dst[off + copied++] = next();
+		}
+		return copied;
+	}
+	
+	public int nextBatch(int[] dst) {
+		return nextBatch(dst, 0, dst.length);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (expansion != null && !expansion.isEmpty()) {
+			return true;
+		}
+		return hasNextSymbol();
+	}
+
+	@Override
+	public int next() {
+		if (expansion == null) {
+			return nextSymbol();
+		}
+		expandNextSymbol();
+		return expansion.next();
+	}
+
+	@Override
+	public int peek() {
+		if (expansion == null) {
+			return peekSymbol();
+		}
+		expandNextSymbol();
+		return expansion.peek();
+	}
+
+	public boolean isStartOfRepetition() {
+		if (expansion == null) {
+			return isStartOfRepetitionSymbol();
+		}
+		return hasNext() && expandNextSymbol().isStartOfRepetition();
+	}
+
+	public boolean isEndOfRepetition() {
+		if (expansion == null) {
+			return isEndOfRepetitionSymbol();
+		}
+		return hasNext() && expandNextSymbol().isEndOfRepetition();
+	}
+
+	// starts the expansion of the next symbol if the previous symbol is completely expanded
+	private GrammarExpansion expandNextSymbol() {
+		if (expansion.isEmpty()) {
+			boolean startOfRepetition = isStartOfRepetitionSymbol();
+			boolean endOfRepetition = isEndOfRepetitionSymbol();
+			expansion.expand(nextSymbol(), startOfRepetition, endOfRepetition);
+		}
+		return expansion;
+	}
+
 	private void resetCurrentLevel() {
 		currentLevel = levelStates.length - 1;
 	}
 
-	public int peek() {
+	private int peekSymbol() {
 		return trace.getCompressedTrace().get(levelStates[0].indexState[0]);
 	}
 
-	public boolean isStartOfRepetition() {
+	private boolean isStartOfRepetitionSymbol() {
 		for (int level = levelStates.length - 1; level > 0; --level) {
 			// check if we are in a repeated sequence
 			if (levelStates[level].indexState[0] <= Integer.MAX_VALUE && 
@@ -117,7 +276,7 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 		return false;
 	}
 
-	public boolean isEndOfRepetition() {
+	private boolean isEndOfRepetitionSymbol() {
 		for (int level = levelStates.length - 1; level > 0; --level) {
 			// prioritize repetitions in parent 
 			// (parent repetitions should be contained in child repetitions)
@@ -134,9 +293,17 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 
 	@Override
 	public int processNextAndReplaceWithResult(Function<Integer, Integer> function) {
+		return processNextAndReplaceWithIntResult(new IntUnaryOperator.FromFunction(function));
+	}
+
+	@Override
+	public int processNextAndReplaceWithIntResult(IntUnaryOperator function) {
+		if (expansion != null) {
+			return processNextAndReplaceInExpansion(function);
+		}
 		if (currentLevel <= 0) {
 			resetCurrentLevel();
-			return trace.getCompressedTrace().getAndReplaceWith(levelStates[0].indexState[0]++, function);
+			return trace.getCompressedTrace().getAndReplaceWithInt(levelStates[0].indexState[0]++, function);
 		} else {
 			// prioritize repetitions in parent 
 			// (parent repetitions should be contained in child repetitions)
@@ -147,7 +314,7 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 					++levelStates[currentLevel].repetitionState[2];
 					if (levelStates[currentLevel].repetitionState[2] < levelStates[currentLevel].repetitionState[1]) {
 						// still an iteration to go
-						int lastElementOfRepetition = peek();
+						int lastElementOfRepetition = peekSymbol();
 						// reset to previous reset point
 						LevelState.resetState(levelStates, currentLevel);
 						resetCurrentLevel();
@@ -157,13 +324,13 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 						levelStates[currentLevel].indexState[1] = -1;
 						++levelStates[currentLevel].indexState[0];
 						--currentLevel;
-						return next();
+						return nextSymbol();
 					}
 				} else {
 					// still inside of the repeated sequence
 					++levelStates[currentLevel].indexState[0];
 					--currentLevel;
-					return next();
+					return nextSymbol();
 				}
 			} else {
 				// check if we are in a repeated sequence
@@ -179,15 +346,35 @@ public class TraceIterator implements ReplaceableCloneableIterator {
 					// set the reset point to this exact point
 					LevelState.setResetPoint(levelStates, currentLevel);
 					// stay on the same level!
-					return next();
+					return nextSymbol();
 				} else {
 					// not in a repeated sequence!
 					++levelStates[currentLevel].indexState[0];
 					--currentLevel;
-					return next();
+					return nextSymbol();
 				}
 			}
 		}
 	}
 
+	// replaces the next element in the expansion of the current symbol; the stored symbol is
+	// replaced with a symbol that expands to the new elements (as with stored elements of 
+	// repetitions, this affects all iterations of a repetition that contains the symbol)
+	private int processNextAndReplaceInExpansion(IntUnaryOperator function) {
+		expandNextSymbol();
+		long symbolIndex = lastSymbolIndex;
+		int previous = expansion.next();
+		int replacement = function.applyAsInt(previous);
+		if (replacement != previous) {
+			final int symbol = expansion.replaceLastTerminal(replacement);
+			trace.getCompressedTrace().getAndReplaceWithInt(symbolIndex, new IntUnaryOperator() {
+				@Override
+				public int applyAsInt(int operand) {
+					return symbol;
+				}
+			});
+		}
+		return previous;
+	}
+
 }
\ No newline at end of file
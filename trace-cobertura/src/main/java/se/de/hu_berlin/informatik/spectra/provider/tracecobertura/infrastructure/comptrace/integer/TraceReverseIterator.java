@@ -1,18 +1,22 @@
 package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.Function;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.IntUnaryOperator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.LevelState;
 
 public class TraceReverseIterator implements ReplaceableCloneableIterator {
 	
 	private final EfficientCompressedIntegerTrace trace;
 	private final LevelState[] levelStates;
+	// expands grammar rule symbols; null if the trace is not grammar compressed
+	private final GrammarExpansion expansion;
 	
 	// level 0 is the lowest level
 	private int currentLevel = 0;
 	
 	public TraceReverseIterator(EfficientCompressedIntegerTrace trace) {
 		this.trace = trace;
+		this.expansion = trace.getGrammar() == null ? null : new GrammarExpansion(trace.getGrammar(), true);
 		if (trace.getRepetitionMarkers() != null) {
 			levelStates = new LevelState[trace.levelCount() + 1];
 			for (int i = 0; i < trace.levelCount() + 1; ++i) {
@@ -38,6 +42,7 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 	private TraceReverseIterator(TraceReverseIterator iterator) {
 		this.trace = iterator.trace;
 		levelStates = LevelState.copy(iterator.levelStates);
+		this.expansion = iterator.expansion == null ? null : new GrammarExpansion(iterator.expansion);
 		this.currentLevel = iterator.currentLevel;
 	}
 
@@ -45,13 +50,11 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 		return new TraceReverseIterator(this);
 	}
 
-	@Override
-	public boolean hasNext() {
+	private boolean hasNextSymbol() {
 		return levelStates[0].indexState[0] > -1;
 	}
 
-	@Override
-	public int next() {
+	private int nextSymbol() {
 		if (currentLevel <= 0) {
 			resetCurrentLevel();
 //			System.out.println("s: 0, " + levelStates[0].indexState[0]);
@@ -66,7 +69,7 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 					++levelStates[currentLevel].repetitionState[2];
 					if (levelStates[currentLevel].repetitionState[2] < levelStates[currentLevel].repetitionState[1]) {
 						// still an iteration to go
-						int lastElementOfRepetition = peek();
+						int lastElementOfRepetition = peekSymbol();
 						// reset to previous reset point
 						LevelState.resetState(levelStates, currentLevel);
 						resetCurrentLevel();
@@ -76,13 +79,13 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 						levelStates[currentLevel].indexState[1] = -1;
 						--levelStates[currentLevel].indexState[0];
 						--currentLevel;
-						return next();
+						return nextSymbol();
 					}
 				} else {
 					// still inside of the repeated sequence
 					--levelStates[currentLevel].indexState[0];
 					--currentLevel;
-					return next();
+					return nextSymbol();
 				}
 			} else {
 				// check if we are in a repeated sequence
@@ -100,26 +103,76 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 					// set the reset point to this exact point
 					LevelState.setResetPoint(levelStates, currentLevel);
 					// stay on the same level!
-					return next();
+					return nextSymbol();
 				} else {
 					// not in a repeated sequence!
 					--levelStates[currentLevel].indexState[0];
 					--currentLevel;
-					return next();
+					return nextSymbol();
 				}
 			}
 		}
 	}
 	
+	@Override
+	public boolean hasNext() {
+		if (expansion != null && !expansion.isEmpty()) {
+			return true;
+		}
+		return hasNextSymbol();
+	}
+
+	@Override
+	public int next() {
+		if (expansion == null) {
+			return nextSymbol();
+		}
+		expandNextSymbol();
+		return expansion.next();
+	}
+
+	@Override
+	public int peek() {
+		if (expansion == null) {
+			return peekSymbol();
+		}
+		expandNextSymbol();
+		return expansion.peek();
+	}
+
+	public boolean isStartOfRepetition() {
+		if (expansion == null) {
+			return isStartOfRepetitionSymbol();
+		}
+		return hasNext() && expandNextSymbol().isStartOfRepetition();
+	}
+
+	public boolean isEndOfRepetition() {
+		if (expansion == null) {
+			return isEndOfRepetitionSymbol();
+		}
+		return hasNext() && expandNextSymbol().isEndOfRepetition();
+	}
+
+	// starts the expansion of the next symbol if the previous symbol is completely expanded
+	private GrammarExpansion expandNextSymbol() {
+		if (expansion.isEmpty()) {
+			boolean startOfRepetition = isStartOfRepetitionSymbol();
+			boolean endOfRepetition = isEndOfRepetitionSymbol();
+			expansion.expand(nextSymbol(), startOfRepetition, endOfRepetition);
+		}
+		return expansion;
+	}
+
 	private void resetCurrentLevel() {
 		currentLevel = levelStates.length - 1;
 	}
 
-	public int peek() {
+	private int peekSymbol() {
 		return trace.getCompressedTrace().get(levelStates[0].indexState[0]);
 	}
 
-	public boolean isStartOfRepetition() {
+	private boolean isStartOfRepetitionSymbol() {
 		for (int level = levelStates.length - 1; level > 0; --level) {
 			// check if we are in a repeated sequence
 			if (levelStates[level].indexState[0] <= Integer.MAX_VALUE && 
@@ -130,7 +183,7 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 		return false;
 	}
 
-	public boolean isEndOfRepetition() {
+	private boolean isEndOfRepetitionSymbol() {
 		for (int level = levelStates.length - 1; level > 0; --level) {
 			// prioritize repetitions in parent 
 			// (parent repetitions should be contained in child repetitions)
@@ -147,9 +200,17 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 
 	@Override
 	public int processNextAndReplaceWithResult(Function<Integer, Integer> function) {
+		return processNextAndReplaceWithIntResult(new IntUnaryOperator.FromFunction(function));
+	}
+
+	@Override
+	public int processNextAndReplaceWithIntResult(IntUnaryOperator function) {
+		if (expansion != null) {
+			throw new UnsupportedOperationException("Can not replace elements of a grammar compressed trace.");
+		}
 		if (currentLevel <= 0) {
 			resetCurrentLevel();
-			return trace.getCompressedTrace().getAndReplaceWith(levelStates[0].indexState[0]--, function);
+			return trace.getCompressedTrace().getAndReplaceWithInt(levelStates[0].indexState[0]--, function);
 		} else {
 			// prioritize repetitions in parent 
 			// (parent repetitions should be contained in child repetitions)
@@ -160,7 +221,7 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 					++levelStates[currentLevel].repetitionState[2];
 					if (levelStates[currentLevel].repetitionState[2] < levelStates[currentLevel].repetitionState[1]) {
 						// still an iteration to go
-						int lastElementOfRepetition = peek();
+						int lastElementOfRepetition = peekSymbol();
 						// reset to previous reset point
 						LevelState.resetState(levelStates, currentLevel);
 						resetCurrentLevel();
@@ -170,13 +231,13 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 						levelStates[currentLevel].indexState[1] = -1;
 						--levelStates[currentLevel].indexState[0];
 						--currentLevel;
-						return next();
+						return nextSymbol();
 					}
 				} else {
 					// still inside of the repeated sequence
 					--levelStates[currentLevel].indexState[0];
 					--currentLevel;
-					return next();
+					return nextSymbol();
 				}
 			} else {
 				// check if we are in a repeated sequence
@@ -192,12 +253,12 @@ public class TraceReverseIterator implements ReplaceableCloneableIterator {
 					// set the reset point to this exact point
 					LevelState.setResetPoint(levelStates, currentLevel);
 					// stay on the same level!
-					return next();
+					return nextSymbol();
 				} else {
 					// not in a repeated sequence!
 					--levelStates[currentLevel].indexState[0];
 					--currentLevel;
-					return next();
+					return nextSymbol();
 				}
 			}
 		}
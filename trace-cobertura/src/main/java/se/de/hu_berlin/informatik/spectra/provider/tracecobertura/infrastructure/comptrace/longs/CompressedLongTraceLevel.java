@@ -2,11 +2,10 @@ package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructur
 
 import java.io.File;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.LongIntHashMap;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedLongArrayQueue.MyBufferedIterator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedLongArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerBufferedMap;
@@ -24,6 +23,8 @@ public class CompressedLongTraceLevel implements Serializable {
 	 * restricted in terms of repetition marker index, at the moment.
 	 */
 	private static int MAX_INDEX = Integer.MAX_VALUE;
+	
+	private static final int NO_POSITION = -1;
 
 	private long originalSize = 0;
 
@@ -38,10 +39,10 @@ public class CompressedLongTraceLevel implements Serializable {
 	MyBufferedIterator inputTraceIterator;
 	
 	// mapping from elements to their most recent positions in the result list
-	Map<Long,Integer> elementToPositionMap;
+	LongIntHashMap elementToPositionMap;
 	
 	// current position
-	Integer position = null;
+	int position = NO_POSITION;
 	
 
 	int maxBufferSize = 0;
@@ -58,7 +59,7 @@ public class CompressedLongTraceLevel implements Serializable {
 		if (!flat) {
 			traceRepetitions = new RepetitionMarkerBufferedMap(outputDir, 
 					prefix + "cpr_trace_rpt_" + uuid, mapSize, deleteOnExit);
-			elementToPositionMap = new HashMap<>();
+			elementToPositionMap = new LongIntHashMap(NO_POSITION);
 			resultTraceIterator = traceWithoutRepetitions.iterator();
 			inputTraceIterator = traceWithoutRepetitions.iterator();
 		}
@@ -111,7 +112,7 @@ public class CompressedLongTraceLevel implements Serializable {
 			// we will only get to here when the buffer is empty!
 			// check for repetition of the current element
 			position = elementToPositionMap.get(element);
-			if (position == null) {
+			if (position == NO_POSITION) {
 				// no repetition possible; remember node containing the element
 				if (originalSize <= MAX_INDEX) {
 					elementToPositionMap.put(element, bufferStartIndex);
@@ -181,7 +182,7 @@ public class CompressedLongTraceLevel implements Serializable {
 			// check for repetition of the current element
 			long firstBufferElement = traceWithoutRepetitions.get(bufferStartIndex);
 			position = elementToPositionMap.get(firstBufferElement);
-			if (position == null) {
+			if (position == NO_POSITION) {
 				// no repetition possible; remember node containing the element
 				if (originalSize <= MAX_INDEX) {
 					elementToPositionMap.put(firstBufferElement, bufferStartIndex);
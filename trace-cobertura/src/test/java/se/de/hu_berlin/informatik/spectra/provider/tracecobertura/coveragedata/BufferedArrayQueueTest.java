@@ -3,6 +3,8 @@
  */
 package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -13,6 +15,7 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Random;
 
@@ -65,6 +68,93 @@ public class BufferedArrayQueueTest {
 
 	private File outputDir = new File("target" + File.separator + "bufferedArrayQueueTest");
 	
+	@Test
+	public void testBufferedIntArrayQueueBulkOperations() throws Exception {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, "testIntBulk", 7);
+		
+		int[] values = new int[500];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = i;
+		}
+		// mix single and bulk additions with segments crossing node borders
+		queue.add(-1);
+		queue.addAll(values, 0, 3);
+		queue.addAll(values, 3, 0);
+		queue.add(-2);
+		queue.addAll(values, 3, 497);
+		queue.sleep();
+		Assert.assertEquals(502, queue.size());
+		
+		int[] batch = new int[11];
+		BufferedIntArrayQueue.MyBufferedIterator iterator = queue.iterator(2);
+		int position = 2;
+		int count;
+		while ((count = iterator.nextBatch(batch)) > 0) {
+			for (int i = 0; i < count; ++i) {
+				Assert.assertEquals(queue.get(position++), batch[i]);
+			}
+		}
+		Assert.assertEquals(502, position);
+		Assert.assertFalse(iterator.hasNext());
+		
+		Assert.assertEquals(-1, queue.remove());
+		Assert.assertEquals(3, queue.drainTo(batch, 0, 3));
+		Assert.assertArrayEquals(new int[] {0, 1, 2}, Arrays.copyOf(batch, 3));
+		Assert.assertEquals(-2, queue.remove());
+		int expected = 3;
+		while ((count = queue.drainTo(batch)) > 0) {
+			for (int i = 0; i < count; ++i) {
+				Assert.assertEquals(expected++, batch[i]);
+			}
+		}
+		Assert.assertEquals(500, expected);
+		Assert.assertTrue(queue.isEmpty());
+		
+		// the queue is still usable after being drained
+		queue.addAll(values, 10, 20);
+		Assert.assertEquals(20, queue.size());
+		Assert.assertEquals(10, queue.element());
+		Assert.assertEquals(29, queue.lastElement());
+		queue.clear();
+	}
+	
+	@Test
+	public void testBufferedIntArrayQueueReplaceWithOperator() throws Exception {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, "testIntReplace", 7);
+		for (int i = 0; i < 50; ++i) {
+			queue.add(i);
+		}
+		queue.sleep();
+		
+		IntUnaryOperator increment = new IntUnaryOperator() {
+			@Override
+			public int applyAsInt(int operand) {
+				return operand + 100;
+			}
+		};
+		BufferedIntArrayQueue.MyBufferedIterator iterator = queue.iterator();
+		int expected = 0;
+		while (iterator.hasNext()) {
+			// returns the previous element
+			Assert.assertEquals(expected++, iterator.processNextAndReplaceWithIntResult(increment));
+		}
+		Assert.assertEquals(100, queue.getAndReplaceWithInt(0, increment));
+		
+		// the boxing variant yields the same results
+		Assert.assertEquals(101, queue.getAndReplaceWith(1, new Function<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer t) {
+				return t - 100;
+			}
+		}));
+		Assert.assertEquals(200, queue.get(0));
+		Assert.assertEquals(1, queue.get(1));
+		for (int i = 2; i < 50; ++i) {
+			Assert.assertEquals(i + 100, queue.get(i));
+		}
+		queue.clear();
+	}
+	
 	/*
 	 * Test method for {@link se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.SingleLinkedBufferedArrayQueue#SingleLinkedBufferedArrayQueue(java.io.File, java.lang.String, int)}.
 	 */
@@ -222,6 +312,46 @@ public class BufferedArrayQueueTest {
 		queue.clear();
 	}
 	
+	@Test
+	public void testBufferedIntArrayQueueSpillFile() throws Exception {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, "testIntSpill", 5);
+		
+		for (int i = 0; i < 500; ++i) {
+			queue.add(i);
+		}
+		queue.sleep();
+		// all nodes are stored in a single file
+		File spillFile = new File(outputDir, "testIntSpill.spill");
+		Assert.assertTrue(spillFile.exists());
+		Assert.assertFalse(new File(outputDir, "testIntSpill-0.rry").exists());
+		
+		// freed segments are reused
+		long fileSize = spillFile.length();
+		queue.clear(250);
+		for (int i = 500; i < 750; ++i) {
+			queue.add(i);
+		}
+		queue.sleep();
+		Assert.assertEquals(fileSize, spillFile.length());
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(queue);
+		}
+		BufferedIntArrayQueue copy;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			copy = (BufferedIntArrayQueue) in.readObject();
+		}
+		
+		Assert.assertEquals(500, copy.size());
+		for (int i = 0; i < 500; ++i) {
+			Assert.assertEquals(i + 250, copy.get(i));
+		}
+		
+		copy.clear();
+		Assert.assertFalse(spillFile.exists());
+	}
+	
 	/*
 	 * Test method for {@link se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.SingleLinkedBufferedArrayQueue#SingleLinkedBufferedArrayQueue(java.io.File, java.lang.String, int)}.
 	 */
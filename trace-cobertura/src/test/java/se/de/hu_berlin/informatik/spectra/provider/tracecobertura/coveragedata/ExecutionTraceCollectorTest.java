@@ -0,0 +1,188 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.CoberturaStatementEncoding;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator;
+
+/**
+ * Tests the hand-over of execution traces from threads that are still running.
+ */
+public class ExecutionTraceCollectorTest {
+
+	private static final int CLASS_ID = 7;
+	private static final int MAX_EVENT_COUNT = (1 << CoberturaStatementEncoding.COUNTER_ID_BITS) - 1;
+	private static final int EVENTS_PER_TEST = 20000;
+	private static final int COLLECTIONS = 5;
+
+	@Test
+	public void testHandOverWhileWriting() throws Exception {
+		ExecutionTraceCollector.initializeCounterArrayForClass(CLASS_ID, MAX_EVENT_COUNT);
+		// discard anything that has been recorded before
+		ExecutionTraceCollector.getAndResetExecutionTraces();
+		ExecutionTraceCollector.startNewTest();
+
+		final AtomicInteger progress = new AtomicInteger();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final long[] traceStreamId = new long[1];
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				traceStreamId[0] = ExecutionTraceCollector.getTraceStreamIdForCurrentThread();
+				// each counter id is only added once (0 is the fake counter id, which is not recorded)
+				for (int i = 1; i < MAX_EVENT_COUNT && !stop.get(); ++i) {
+					ExecutionTraceCollector.addStatementToExecutionTraceAndIncrementCounter(CLASS_ID, i);
+					progress.set(i);
+				}
+			}
+		});
+		writer.start();
+
+		int[] counterIds = new int[MAX_EVENT_COUNT + 1];
+		int size = 0;
+		long lateEvents = 0;
+		for (int i = 1; i <= COLLECTIONS; ++i) {
+			awaitProgress(progress, progress.get() + EVENTS_PER_TEST, writer);
+			// the writer is still adding events while its trace is collected
+			size = addEvents(ExecutionTraceCollector.getAndResetExecutionTraces(), traceStreamId[0], counterIds, size);
+			lateEvents += ExecutionTraceCollector.getLastLateEventCount();
+			// events that are added before the next test starts are late events
+			awaitProgress(progress, progress.get() + 1000, writer);
+			ExecutionTraceCollector.startNewTest();
+		}
+		stop.set(true);
+		writer.join();
+		int eventCount = progress.get();
+		size = addEvents(ExecutionTraceCollector.getAndResetExecutionTraces(), traceStreamId[0], counterIds, size);
+		lateEvents += ExecutionTraceCollector.getLastLateEventCount();
+
+		// no event is lost or recorded twice, and the order is kept
+		Assert.assertEquals(eventCount, size);
+		for (int i = 0; i < eventCount; ++i) {
+			Assert.assertEquals(i + 1, counterIds[i]);
+		}
+		Assert.assertEquals(0, ExecutionTraceCollector.getLastUnsealedTraceCount());
+		// by default, late events are added to the traces of the next test
+		Assert.assertFalse(ExecutionTraceCollector.isDroppingLateEvents());
+		Assert.assertTrue(lateEvents >= 1000);
+		Assert.assertTrue(lateEvents <= eventCount);
+		int[] counters = ExecutionTraceCollector.getAndResetCounterArrayForClass(CLASS_ID);
+		for (int i = 0; i < counters.length; ++i) {
+			Assert.assertEquals(i >= 1 && i <= eventCount ? 1 : 0, counters[i]);
+		}
+	}
+
+	@Test
+	public void testRecordingBitmapForLargeClassIds() throws Exception {
+		try {
+			// class ids are not limited to the initial size of the counter array map
+			ExecutionTraceCollector.initializeCounterArrayForClass(5000, 3);
+			Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(5000));
+			Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(20000));
+			ExecutionTraceCollector.setRecordingEnabledForClass(5000, false);
+			Assert.assertFalse(ExecutionTraceCollector.isRecordingEnabledForClass(5000));
+			Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(4999));
+			// the bitmap also grows for classes that are not registered, yet
+			ExecutionTraceCollector.setRecordingEnabledForClass(10000, false);
+			Assert.assertFalse(ExecutionTraceCollector.isRecordingEnabledForClass(10000));
+			Assert.assertFalse(ExecutionTraceCollector.isRecordingEnabledForClass(5000));
+
+			ExecutionTraceCollector.incrementCounter(5000, 1);
+			Assert.assertArrayEquals(new int[] { 0, 1, 0 }, ExecutionTraceCollector.getAndResetCounterArrayForClass(5000));
+			Assert.assertNull(ExecutionTraceCollector.getAndResetCounterArrayForClass(1 << 20));
+
+			// the filter is applied to classes that are registered later on
+			ExecutionTraceCollector.startRecording(ExecutionTraceCollector.createClassNamePrefixFilter("java.lang., org.example."));
+			ExecutionTraceCollector.registerClassForRecording(6000, "java.lang.String");
+			ExecutionTraceCollector.registerClassForRecording(6001, "org.other.Example");
+			ExecutionTraceCollector.registerClassForRecording(7000, "org.example.Example");
+			Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(6000));
+			Assert.assertFalse(ExecutionTraceCollector.isRecordingEnabledForClass(6001));
+			Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(7000));
+			Assert.assertFalse(ExecutionTraceCollector.isRecordingEnabledForClass(30000));
+			Assert.assertNull(ExecutionTraceCollector.createClassNamePrefixFilter(" "));
+		} finally {
+			ExecutionTraceCollector.startRecording();
+		}
+		Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(6001));
+		Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(30000));
+	}
+
+	@Test
+	public void testClassFilterIsEvaluatedWithoutLock() throws Exception {
+		final AtomicInteger evaluations = new AtomicInteger();
+		final AtomicInteger blockedEvaluations = new AtomicInteger();
+		Function<String, Boolean> filter = new Function<String, Boolean>() {
+			@Override
+			public Boolean apply(String className) {
+				evaluations.incrementAndGet();
+				// another thread has to be able to take the collector's lock while the filter is evaluated
+				Thread other = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						ExecutionTraceCollector.setRecordingEnabledForClass(8100, true);
+					}
+				});
+				other.start();
+				try {
+					other.join(5000);
+				} catch (InterruptedException e) {
+					// checked below
+				}
+				if (other.isAlive()) {
+					blockedEvaluations.incrementAndGet();
+				}
+				return className.equals(ExecutionTraceCollectorTest.class.getName());
+			}
+		};
+		try {
+			TouchCollector.registerClass(ExecutionTraceCollectorTest.class, 8000, 3);
+			ExecutionTraceCollector.startRecording(filter);
+			Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(8000));
+			ExecutionTraceCollector.registerClassForRecording(8001, "org.other.Example");
+			Assert.assertFalse(ExecutionTraceCollector.isRecordingEnabledForClass(8001));
+			Assert.assertTrue(evaluations.get() >= 2);
+			Assert.assertEquals(0, blockedEvaluations.get());
+			
+			// recording can be stopped between tests and started again
+			ExecutionTraceCollector.stopRecording();
+			Assert.assertFalse(ExecutionTraceCollector.isRecording());
+			ExecutionTraceCollector.startRecording(filter);
+			Assert.assertTrue(ExecutionTraceCollector.isRecording());
+			Assert.assertTrue(ExecutionTraceCollector.isRecordingEnabledForClass(8000));
+			Assert.assertFalse(ExecutionTraceCollector.isRecordingEnabledForClass(8001));
+		} finally {
+			TouchCollector.registeredClasses.remove(ExecutionTraceCollectorTest.class);
+			ExecutionTraceCollector.startRecording();
+		}
+	}
+
+	private static void awaitProgress(AtomicInteger progress, int count, Thread writer) throws InterruptedException {
+		while (progress.get() < count && writer.isAlive()) {
+			Thread.sleep(1);
+		}
+	}
+
+	private static int addEvents(Map<Long, EfficientCompressedIntegerTrace> traces, long traceStreamId,
+			int[] counterIds, int size) {
+		EfficientCompressedIntegerTrace trace = traces.get(traceStreamId);
+		if (trace == null) {
+			return size;
+		}
+		TraceIterator iterator = trace.iterator();
+		while (iterator.hasNext()) {
+			int statement = iterator.next();
+			Assert.assertEquals(CLASS_ID, CoberturaStatementEncoding.getClassId(statement));
+			Assert.assertTrue(size < counterIds.length);
+			counterIds[size++] = CoberturaStatementEncoding.getCounterId(statement);
+		}
+		return size;
+	}
+
+}
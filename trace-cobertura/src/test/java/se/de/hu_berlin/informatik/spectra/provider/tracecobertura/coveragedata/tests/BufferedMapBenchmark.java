@@ -0,0 +1,44 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.tests;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.NodeCodec;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.NodeCodecs;
+
+/**
+ * Measures storing and loading BufferedMap nodes with Java serialization
+ * and with a binary codec. Not part of the unit tests; run with
+ * {@code mvn test -Pbenchmarks}.
+ */
+public class BufferedMapBenchmark {
+
+	private File outputDir = new File("target" + File.separator + "bufferedMapTest");
+
+	@Test
+	public void benchmarkSpillAndReload() throws Exception {
+		int entries = 50000;
+		time("Java serialization", null, entries);
+		time("binary codec", NodeCodecs.fixedLengthIntArray(2), entries);
+	}
+
+	private void time(String name, NodeCodec<int[]> codec, int entries) {
+		BufferedMap<int[]> map = new BufferedMap<>(outputDir, "time", entries, true, codec);
+		for (int i = 0; i < entries; ++i) {
+			map.put(i, new int[] { i % 100, i % 7 });
+		}
+		long start = System.nanoTime();
+		// spill and reload the single node a few times
+		for (int i = 0; i < 5; ++i) {
+			map.sleep();
+			Assert.assertArrayEquals(new int[] { 42, 0 }, map.get(42));
+		}
+		double ms = (System.nanoTime() - start) / 1000000d;
+		System.out.printf("%s stored and loaded %,d entries 5 times in %,.3f ms%n", name, entries, ms);
+		map.clear();
+	}
+
+}
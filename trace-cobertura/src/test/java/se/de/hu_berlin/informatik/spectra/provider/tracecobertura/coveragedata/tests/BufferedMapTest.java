@@ -12,6 +12,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedMap;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.NodeCodecs;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.RepetitionMarkerBufferedMap;
 
 
@@ -82,4 +83,24 @@ public class BufferedMapTest {
 		
 	}
 
+	@Test
+	public void testBufferedMapCodecs() throws Exception {
+		BufferedMap<long[]> map = new BufferedMap<>(outputDir, "test3", 5, true, NodeCodecs.LONG_ARRAY);
+		for (int i = 0; i < 50; ++i) {
+			map.put(i*10, new long[] { i, Long.MAX_VALUE - i });
+		}
+		map.sleep();
+		Assert.assertArrayEquals(new long[] { 3, Long.MAX_VALUE - 3 }, map.get(30));
+		Assert.assertEquals(50, map.size());
+		map.clear();
+		
+		BufferedMap<Integer> intMap = new BufferedMap<>(outputDir, "test4", 5, true, NodeCodecs.INTEGER);
+		for (int i = 0; i < 50; ++i) {
+			intMap.put(i, -i);
+		}
+		intMap.sleep();
+		Assert.assertEquals(-42, intMap.get(42).intValue());
+		intMap.clear();
+	}
+
 }
@@ -0,0 +1,76 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Measures the primitive set of starting elements that is used to split
+ * raw traces against a boxed hash set. Not part of the unit tests; run with
+ * {@code mvn test -Pbenchmarks}.
+ */
+public class IntBitSetBenchmark {
+
+	private static final int TRACE_LENGTH = 2000000;
+	private static final int NUM_REPS = 5;
+
+	/*
+	 * Compares the per-element cost of the sets with the access pattern of
+	 * splitting raw traces: a lookup for each element of a trace with many
+	 * short sequences, i.e., many starting elements.
+	 */
+	@Test
+	public void benchmarkTraceSplitting() throws Exception {
+		Random random = new Random(7);
+		final int[] trace = new int[TRACE_LENGTH];
+		Set<Integer> boxedStartElements = new HashSet<>();
+		IntBitSet startElements = new IntBitSet();
+		// sub trace IDs are dense, and about every third one starts a sequence
+		for (int i = 0; i < trace.length; ++i) {
+			trace[i] = 1 + random.nextInt(50000);
+			if (trace[i] % 3 == 0) {
+				boxedStartElements.add(trace[i]);
+				startElements.add(trace[i]);
+			}
+		}
+
+		// warm up
+		int expectedSplits = timeBoxed(trace, boxedStartElements)[1];
+		Assert.assertEquals(expectedSplits, timePrimitive(trace, startElements)[1]);
+
+		long boxed = Long.MAX_VALUE;
+		long primitive = Long.MAX_VALUE;
+		for (int i = 0; i < NUM_REPS; ++i) {
+			boxed = Math.min(boxed, timeBoxed(trace, boxedStartElements)[0]);
+			primitive = Math.min(primitive, timePrimitive(trace, startElements)[0]);
+		}
+		System.out.printf("HashSet<Integer>: %.2f ns/element%n", (double) boxed / trace.length);
+		System.out.printf("IntBitSet: %.2f ns/element%n", (double) primitive / trace.length);
+	}
+
+	private static int[] timeBoxed(int[] trace, Set<Integer> startElements) {
+		long start = System.nanoTime();
+		int splits = 0;
+		for (int i = 0; i < trace.length; ++i) {
+			if (startElements.contains(trace[i])) {
+				++splits;
+			}
+		}
+		return new int[] { (int) (System.nanoTime() - start), splits };
+	}
+
+	private static int[] timePrimitive(int[] trace, IntBitSet startElements) {
+		long start = System.nanoTime();
+		int splits = 0;
+		for (int i = 0; i < trace.length; ++i) {
+			if (startElements.contains(trace[i])) {
+				++splits;
+			}
+		}
+		return new int[] { (int) (System.nanoTime() - start), splits };
+	}
+
+}
@@ -0,0 +1,68 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the primitive set of starting elements that is used to split
+ * raw traces into sequences.
+ */
+public class IntBitSetTest {
+
+	@Test
+	public void testIntBitSetAgainstHashSet() throws Exception {
+		IntBitSet set = new IntBitSet();
+		Set<Integer> expected = new HashSet<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 100000; ++i) {
+			// includes negative elements and 0
+			int element = random.nextInt(5000) - 1000;
+			if (random.nextBoolean()) {
+				Assert.assertEquals(expected.add(element), set.add(element));
+			} else {
+				Assert.assertEquals(expected.contains(element), set.contains(element));
+			}
+			Assert.assertEquals(expected.size(), set.size());
+		}
+		for (int element = -1100; element < 4100; ++element) {
+			Assert.assertEquals(expected.contains(element), set.contains(element));
+		}
+		Assert.assertFalse(set.contains(Integer.MAX_VALUE));
+		Assert.assertFalse(set.contains(Integer.MIN_VALUE));
+
+		int[] elements = new int[expected.size()];
+		int i = 0;
+		for (int element : new TreeSet<>(expected)) {
+			elements[i++] = element;
+		}
+		Assert.assertArrayEquals(elements, set.toArray());
+		Assert.assertArrayEquals(elements, new IntBitSet(expected).toArray());
+	}
+
+	@Test
+	public void testAddAll() throws Exception {
+		IntBitSet set = new IntBitSet(Arrays.asList(-70, -1, 3, 64));
+		IntBitSet other = new IntBitSet(Arrays.asList(-1, 2, 3, 1000));
+		IntBitSet copy = new IntBitSet(set);
+
+		Assert.assertTrue(set.addAll(other));
+		Assert.assertArrayEquals(new int[] { -70, -1, 2, 3, 64, 1000 }, set.toArray());
+		Assert.assertEquals(6, set.size());
+		Assert.assertFalse(set.addAll(other));
+		// the copy is independent of the original set
+		Assert.assertArrayEquals(new int[] { -70, -1, 3, 64 }, copy.toArray());
+
+		set.clear();
+		Assert.assertTrue(set.isEmpty());
+		Assert.assertFalse(set.contains(1000));
+		Assert.assertTrue(set.add(1000));
+	}
+
+}
@@ -0,0 +1,102 @@
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Measures the primitive hash maps that are used for repetition detection
+ * against boxed hash maps. Not part of the unit tests; run with
+ * {@code mvn test -Pbenchmarks}.
+ */
+public class IntIntHashMapBenchmark {
+
+	private static final int NO_POSITION = -1;
+
+	private static final int TRACE_LENGTH = 2000000;
+	private static final int NUM_REPS = 5;
+
+	/*
+	 * Compares the per-element cost of the maps with the access pattern of
+	 * the repetition detection: a lookup for each element, an update for new
+	 * elements and a reset of the map after each found repetition.
+	 */
+	@Test
+	public void benchmarkRepetitionDetection() throws Exception {
+		final int[] trace = createTrace(new Random(7));
+
+		// warm up
+		timeBoxed(trace);
+		timePrimitive(trace);
+
+		long boxed = Long.MAX_VALUE;
+		long primitive = Long.MAX_VALUE;
+		for (int i = 0; i < NUM_REPS; ++i) {
+			boxed = Math.min(boxed, timeBoxed(trace));
+			primitive = Math.min(primitive, timePrimitive(trace));
+		}
+		System.out.printf("HashMap<Integer,Integer>: %.2f ns/element%n", (double) boxed / trace.length);
+		System.out.printf("IntIntHashMap: %.2f ns/element%n", (double) primitive / trace.length);
+	}
+
+	// statement ids of nested loops with varying bodies, similar to actual execution traces
+	private static int[] createTrace(Random random) {
+		int[] trace = new int[TRACE_LENGTH];
+		int i = 0;
+		while (i < trace.length) {
+			int method = random.nextInt(2000) * 50;
+			int iterations = 1 + random.nextInt(20);
+			int bodyLength = 1 + random.nextInt(30);
+			for (int k = 0; k < iterations && i < trace.length; ++k) {
+				for (int j = 0; j < bodyLength && i < trace.length; ++j) {
+					trace[i++] = method + (j % 2 == 0 || random.nextInt(4) > 0 ? j : j + 25);
+				}
+			}
+		}
+		return trace;
+	}
+
+	private static long timeBoxed(int[] trace) {
+		long start = System.nanoTime();
+		Map<Integer, Integer> map = new HashMap<>();
+		Integer position = null;
+		int found = 0;
+		for (int i = 0; i < trace.length; ++i) {
+			position = map.get(trace[i]);
+			if (position == null) {
+				map.put(trace[i], i);
+			} else if (i - position < 64) {
+				map.clear();
+				++found;
+			} else {
+				map.put(trace[i], i);
+			}
+		}
+		Assert.assertTrue(found > 0);
+		return System.nanoTime() - start;
+	}
+
+	private static long timePrimitive(int[] trace) {
+		long start = System.nanoTime();
+		IntIntHashMap map = new IntIntHashMap(NO_POSITION);
+		int position = NO_POSITION;
+		int found = 0;
+		for (int i = 0; i < trace.length; ++i) {
+			position = map.get(trace[i]);
+			if (position == NO_POSITION) {
+				map.put(trace[i], i);
+			} else if (i - position < 64) {
+				map.clear();
+				++found;
+			} else {
+				map.put(trace[i], i);
+			}
+		}
+		Assert.assertTrue(found > 0);
+		return System.nanoTime() - start;
+	}
+
+}
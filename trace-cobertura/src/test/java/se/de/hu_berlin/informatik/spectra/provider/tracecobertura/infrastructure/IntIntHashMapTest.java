@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the primitive hash maps that are used for repetition detection
+ * in the compressed trace levels.
+ */
+public class IntIntHashMapTest {
+
+	private static final int NO_POSITION = -1;
+
+	@Test
+	public void testIntIntHashMapAgainstHashMap() throws Exception {
+		IntIntHashMap map = new IntIntHashMap(NO_POSITION);
+		Map<Integer, Integer> expected = new HashMap<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 200000; ++i) {
+			// small key range to provoke collisions, removals and re-insertions; includes 0
+			int key = random.nextInt(5000) - 2500;
+			int operation = random.nextInt(10);
+			if (operation < 6) {
+				Integer previous = expected.put(key, i);
+				Assert.assertEquals(previous == null ? NO_POSITION : previous.intValue(), map.put(key, i));
+			} else if (operation < 9) {
+				Integer previous = expected.remove(key);
+				Assert.assertEquals(previous == null ? NO_POSITION : previous.intValue(), map.remove(key));
+			} else {
+				Integer value = expected.get(key);
+				Assert.assertEquals(value == null ? NO_POSITION : value.intValue(), map.get(key));
+				Assert.assertEquals(value != null, map.containsKey(key));
+			}
+			Assert.assertEquals(expected.size(), map.size());
+
+			if (i % 50000 == 0) {
+				map.clear();
+				expected.clear();
+			}
+		}
+
+		for (int key = -2500; key < 2500; ++key) {
+			Integer value = expected.get(key);
+			Assert.assertEquals(value == null ? NO_POSITION : value.intValue(), map.get(key));
+		}
+	}
+
+	@Test
+	public void testLongIntHashMapAgainstHashMap() throws Exception {
+		LongIntHashMap map = new LongIntHashMap(NO_POSITION);
+		Map<Long, Integer> expected = new HashMap<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 200000; ++i) {
+			long key = (random.nextInt(5000) - 2500) * 0x100000001L;
+			int operation = random.nextInt(10);
+			if (operation < 6) {
+				Integer previous = expected.put(key, i);
+				Assert.assertEquals(previous == null ? NO_POSITION : previous.intValue(), map.put(key, i));
+			} else if (operation < 9) {
+				Integer previous = expected.remove(key);
+				Assert.assertEquals(previous == null ? NO_POSITION : previous.intValue(), map.remove(key));
+			} else {
+				Integer value = expected.get(key);
+				Assert.assertEquals(value == null ? NO_POSITION : value.intValue(), map.get(key));
+			}
+			Assert.assertEquals(expected.size(), map.size());
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the segmented spill file with synchronous and asynchronous writes.
+ */
+public class SpillFileTest {
+
+	private File outputDir = new File("target" + File.separator + "spillFileTest");
+
+	@Test
+	public void testSynchronousWrites() throws Exception {
+		testSpillFile(new SpillFile(getFile("sync"), true, false));
+	}
+
+	@Test
+	public void testAsynchronousWrites() throws Exception {
+		testSpillFile(new SpillFile(getFile("async"), true, true));
+	}
+
+	@Test
+	public void testMemoryMappedReads() throws Exception {
+		testSpillFile(new SpillFile(getFile("mapped"), true, false, true));
+
+		// segments that are overwritten after being mapped are read with their new content
+		SpillFile spillFile = new SpillFile(getFile("remapped"), true, false, true);
+		spillFile.write(0, createData(0, 10));
+		spillFile.write(1, createData(1, 10));
+		assertData(spillFile, 0, 10);
+		spillFile.write(1, createData(200, 10));
+		spillFile.write(2, createData(2, 10));
+		assertData(spillFile, 1, 200, 10);
+		assertData(spillFile, 2, 10);
+		assertData(spillFile, 0, 10);
+		spillFile.delete();
+		Assert.assertFalse(spillFile.getFile().exists());
+	}
+
+	private File getFile(String name) {
+		outputDir.mkdirs();
+		return new File(outputDir, name + ".spill");
+	}
+
+	private void testSpillFile(SpillFile spillFile) throws Exception {
+		for (int key = 0; key < 100; ++key) {
+			spillFile.write(key, createData(key, 10));
+		}
+		// reads are served from queued writes or from the file
+		for (int key = 0; key < 100; ++key) {
+			assertData(spillFile, key, 10);
+		}
+		spillFile.flush();
+		Assert.assertEquals(100, spillFile.getSegmentCount());
+		long fileSize = spillFile.getFileSize();
+		Assert.assertEquals(100 * ((40 + SpillFile.SEGMENT_ALIGNMENT - 1) / SpillFile.SEGMENT_ALIGNMENT) * SpillFile.SEGMENT_ALIGNMENT, fileSize);
+
+		// overwrite in place and reuse freed segments
+		spillFile.write(5, createData(500, 8));
+		spillFile.remove(7);
+		Assert.assertFalse(spillFile.contains(7));
+		spillFile.write(100, createData(100, 10));
+		spillFile.close();
+		Assert.assertEquals(fileSize, spillFile.getFileSize());
+		assertData(spillFile, 5, 500, 8);
+		assertData(spillFile, 100, 10);
+		Assert.assertEquals(-1, spillFile.getLength(7));
+
+		// the file is deleted if no segments are left
+		for (int key = 0; key <= 100; ++key) {
+			spillFile.remove(key);
+		}
+		spillFile.flush();
+		Assert.assertEquals(0, spillFile.getSegmentCount());
+		Assert.assertFalse(spillFile.getFile().exists());
+	}
+
+	private static ByteBuffer createData(int start, int count) {
+		ByteBuffer buffer = ByteBuffer.allocate(4 * count);
+		for (int i = 0; i < count; ++i) {
+			buffer.putInt(start + i);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void assertData(SpillFile spillFile, int key, int count) throws Exception {
+		assertData(spillFile, key, key, count);
+	}
+
+	private static void assertData(SpillFile spillFile, int key, int start, int count) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(4 * 10);
+		Assert.assertTrue(spillFile.read(key, buffer));
+		buffer.flip();
+		Assert.assertEquals(4 * count, buffer.remaining());
+		for (int i = 0; i < count; ++i) {
+			Assert.assertEquals(start + i, buffer.getInt());
+		}
+	}
+
+}
@@ -5,9 +5,12 @@ package se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructur
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -16,12 +19,17 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.coveragedata.IntUnaryOperator;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedArrayQueue;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.CoberturaStatementEncoding;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedIntArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedLongArrayQueue;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.BufferedArrayQueue.Type;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.CompressedIdTrace;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.EfficientCompressedIntegerTrace;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.GrammarRuleDictionary;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.IntTraceCompressor;
+import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.IntTraceCompressors;
 import se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.longs.EfficientCompressedLongTrace;
 
 
@@ -509,6 +517,400 @@ public class CompressedTraceTest {
 		queue.clear();
 	}
 	
+	@Test
+	public void testRandomAccessIntegerIteration() throws Exception {
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, "testSeek", 5);
+		
+		Random random = new Random(13);
+		// nested loops with varying bodies and iteration counts
+		for (int k = 0; k < 30; ++k) {
+			int outerIterations = 1 + random.nextInt(4);
+			for (int j = 0; j < outerIterations; ++j) {
+				queue.add(100 + k % 3);
+				int innerIterations = 1 + random.nextInt(5);
+				for (int i = 0; i < innerIterations; ++i) {
+					queue.add(1);
+					queue.add(random.nextInt(3) > 0 ? 2 : 3);
+				}
+				queue.add(k % 2 == 0 ? 4 : 5);
+			}
+			queue.add(99);
+		}
+		queue.sleep();
+		
+		EfficientCompressedIntegerTrace compressedIdTrace = new EfficientCompressedIntegerTrace(queue, false);
+		Assert.assertTrue(compressedIdTrace.levelCount() > 1);
+		
+		List<Integer> list = storeInList(compressedIdTrace.iterator());
+		Assert.assertEquals(compressedIdTrace.size(), list.size());
+		
+		for (int position = 0; position <= list.size(); ++position) {
+			List<Integer> remaining = storeInList(compressedIdTrace.iterator(position));
+			Assert.assertEquals("position " + position, list.subList(position, list.size()), remaining);
+		}
+		
+		compressedIdTrace.clear();
+		queue.clear();
+	}
+	
+	@Test
+	public void testRandomAccessWithSmallRepetitionMarkerNodes() throws Exception {
+		// two repetition markers per node, so repetitions reach over node boundaries
+		// and some nodes contain no markers, but lie inside of a repetition of a previous node
+		EfficientCompressedIntegerTrace compressedIdTrace = new EfficientCompressedIntegerTrace(
+				outputDir, "testSeekSmallMaps", 5, 2, false);
+		
+		Random random = new Random(17);
+		for (int k = 0; k < 20; ++k) {
+			compressedIdTrace.add(100 + k);
+			int bodyLength = 1 + random.nextInt(9);
+			int iterations = 1 + random.nextInt(4);
+			for (int j = 0; j < iterations; ++j) {
+				for (int i = 0; i < bodyLength; ++i) {
+					compressedIdTrace.add(200 + 10 * k + i);
+				}
+			}
+		}
+		List<Integer> list = storeInList(compressedIdTrace.iterator());
+		Assert.assertEquals(compressedIdTrace.size(), list.size());
+		
+		// some repetition covers a whole node without markers
+		boolean coversNode = false;
+		for (RepetitionMarkerWrapper repMarkerWrapper : compressedIdTrace.getRepetitionMarkers()) {
+			if (repMarkerWrapper == null || repMarkerWrapper.getRepetitionMarkers() == null) {
+				continue;
+			}
+			Iterator<Entry<Integer, int[]>> iterator = repMarkerWrapper.getRepetitionMarkers().entrySetIterator();
+			while (iterator.hasNext()) {
+				Entry<Integer, int[]> entry = iterator.next();
+				coversNode |= (entry.getKey() + entry.getValue()[0] - 1) / 2 - entry.getKey() / 2 >= 2;
+			}
+			// compare with a linear search over all repetitions
+			for (long position = repMarkerWrapper.traceSize() - 1; position >= 0; --position) {
+				Assert.assertArrayEquals("position " + position, 
+						getCompressedPositionLinear(repMarkerWrapper, position), 
+						repMarkerWrapper.getCompressedPosition(position));
+			}
+		}
+		Assert.assertTrue(coversNode);
+		
+		// seek backwards, so that the cached marker node changes with every seek
+		for (int position = list.size(); position >= 0; --position) {
+			List<Integer> remaining = storeInList(compressedIdTrace.iterator(position));
+			Assert.assertEquals("position " + position, list.subList(position, list.size()), remaining);
+		}
+		
+		compressedIdTrace.clear();
+	}
+	
+	@Test
+	public void testAddAllEqualsSingleAdditions() throws Exception {
+		Random random = new Random(23);
+		for (int run = 0; run < 20; ++run) {
+			// new elements, loops with nested loops and repeated loop bodies
+			int[] elements = new int[2000];
+			for (int i = 0; i < elements.length;) {
+				int bodyLength = 1 + random.nextInt(6);
+				int iterations = random.nextInt(4) == 0 ? 1 : 1 + random.nextInt(5);
+				int base = random.nextInt(3) == 0 ? 1000 * run + i : 10 * random.nextInt(10);
+				for (int j = 0; j < iterations && i < elements.length; ++j) {
+					for (int k = 0; k < bodyLength && i < elements.length; ++k) {
+						elements[i++] = base + k;
+					}
+				}
+			}
+			
+			EfficientCompressedIntegerTrace singleTrace = new EfficientCompressedIntegerTrace(
+					outputDir, "testAddAll1", 5, 2, true);
+			for (int element : elements) {
+				singleTrace.add(element);
+			}
+			EfficientCompressedIntegerTrace batchTrace = new EfficientCompressedIntegerTrace(
+					outputDir, "testAddAll2", 5, 2, true);
+			for (int i = 0; i < elements.length;) {
+				int length = Math.min(random.nextInt(50), elements.length - i);
+				batchTrace.addAll(elements, i, length);
+				i += length;
+			}
+			
+			Assert.assertEquals(singleTrace.size(), batchTrace.size());
+			// repetitions were found
+			Assert.assertTrue(batchTrace.getCompressedTrace().size() < batchTrace.size());
+			Assert.assertEquals(storeInList(singleTrace.baseIterator()), storeInList(batchTrace.baseIterator()));
+			Assert.assertEquals(storeInList(singleTrace.iterator()), storeInList(batchTrace.iterator()));
+			Assert.assertEquals(singleTrace.getRepetitionMarkers().length, batchTrace.getRepetitionMarkers().length);
+			for (int i = 0; i < singleTrace.getRepetitionMarkers().length; ++i) {
+				Assert.assertEquals(getMarkers(singleTrace.getRepetitionMarkers()[i]), 
+						getMarkers(batchTrace.getRepetitionMarkers()[i]));
+			}
+			
+			singleTrace.clear();
+			batchTrace.clear();
+		}
+	}
+	
+	private static List<String> getMarkers(RepetitionMarkerWrapper repMarkerWrapper) {
+		List<String> markers = new ArrayList<>();
+		if (repMarkerWrapper != null && repMarkerWrapper.getRepetitionMarkers() != null) {
+			Iterator<Entry<Integer, int[]>> iterator = repMarkerWrapper.getRepetitionMarkers().entrySetIterator(true);
+			while (iterator.hasNext()) {
+				Entry<Integer, int[]> entry = iterator.next();
+				markers.add(entry.getKey() + ":" + Arrays.toString(entry.getValue()));
+			}
+		}
+		return markers;
+	}
+	
+	private static long[] getCompressedPositionLinear(RepetitionMarkerWrapper repMarkerWrapper, long position) {
+		long addedElements = 0;
+		Entry<Integer, int[]> repetition = null;
+		long repetitionStart = 0;
+		Iterator<Entry<Integer, int[]>> iterator = repMarkerWrapper.getRepetitionMarkers().entrySetIterator(true);
+		while (iterator.hasNext()) {
+			Entry<Integer, int[]> entry = iterator.next();
+			if (entry.getKey() + addedElements > position) {
+				break;
+			}
+			repetition = entry;
+			repetitionStart = entry.getKey() + addedElements;
+			addedElements += (long) entry.getValue()[0] * (entry.getValue()[1] - 1);
+		}
+		if (repetition != null) {
+			int length = repetition.getValue()[0];
+			int count = repetition.getValue()[1];
+			long offset = position - repetitionStart;
+			if (offset < (long) length * count) {
+				return new long[] { repetition.getKey() + offset % length, 
+						repetition.getKey(), length, count, offset / length };
+			}
+		}
+		return new long[] { position - addedElements, -1, 0, 0, 0 };
+	}
+	
+	@Test
+	public void testGrammarCompression() throws Exception {
+		IntTraceCompressor compressor = IntTraceCompressors.forName(IntTraceCompressors.GRAMMAR);
+		
+		List<List<Integer>> traces = new ArrayList<>();
+		List<EfficientCompressedIntegerTrace> compressedTraces = new ArrayList<>();
+		for (int t = 0; t < 3; ++t) {
+			BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, "testGrammar" + t, 10);
+			List<Integer> trace = new ArrayList<>();
+			Random random = new Random(t);
+			for (int k = 0; k < 50; ++k) {
+				// recurring call sequences with varying loops
+				int method = random.nextInt(5) * 10;
+				for (int i = 0; i < 1 + random.nextInt(3); ++i) {
+					for (int j = 0; j < 4; ++j) {
+						trace.add(method + j);
+					}
+				}
+				trace.add(7);
+				trace.add(7);
+				trace.add(99);
+			}
+			for (int element : trace) {
+				queue.add(element);
+			}
+			traces.add(trace);
+			compressedTraces.add(compressor.compress(queue, false));
+			Assert.assertTrue(queue.isEmpty());
+		}
+		
+		// all traces share the rules
+		Assert.assertTrue(compressor.getGrammar().size() > 0);
+		for (int t = 0; t < traces.size(); ++t) {
+			List<Integer> trace = traces.get(t);
+			EfficientCompressedIntegerTrace compressedTrace = compressedTraces.get(t);
+			Assert.assertSame(compressor.getGrammar(), compressedTrace.getGrammar());
+			Assert.assertTrue(compressedTrace.getCompressedTrace().size() < trace.size());
+			Assert.assertEquals(trace.size(), compressedTrace.size());
+			Assert.assertEquals(trace, storeInList(compressedTrace.iterator()));
+			
+			List<Integer> reverseList = storeInList(compressedTrace.reverseIterator());
+			Collections.reverse(reverseList);
+			Assert.assertEquals(trace, reverseList);
+			
+			// peeking and cloning work on expanded elements
+			se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator iterator = compressedTrace.iterator();
+			for (int i = 0; i < 5; ++i) {
+				iterator.next();
+			}
+			Assert.assertEquals(trace.get(5).intValue(), iterator.peek());
+			Assert.assertEquals(trace.subList(5, trace.size()), storeInList(iterator.clone()));
+			
+			// random access skips symbols by their expanded lengths
+			for (int position = 0; position < trace.size(); position += 3) {
+				Assert.assertEquals("position " + position, trace.subList(position, trace.size()), 
+						storeInList(compressedTrace.iterator(position)));
+			}
+			Assert.assertFalse(compressedTrace.iterator(trace.size()).hasNext());
+			compressedTrace.clear();
+		}
+		
+		// the rules can be stored in chunks and added to another dictionary
+		GrammarRuleDictionary grammar = compressor.getGrammar();
+		GrammarRuleDictionary loadedGrammar = new GrammarRuleDictionary();
+		loadedGrammar.addRules(grammar.toByteArray(0, grammar.size() / 2));
+		loadedGrammar.addRules(grammar.toByteArray(grammar.size() / 2, grammar.size()));
+		Assert.assertEquals(grammar.size(), loadedGrammar.size());
+		for (int rule = -1; rule >= -grammar.size(); --rule) {
+			Assert.assertEquals(grammar.getFirstSymbol(rule), loadedGrammar.getFirstSymbol(rule));
+			Assert.assertEquals(grammar.getSecondSymbol(rule), loadedGrammar.getSecondSymbol(rule));
+			Assert.assertEquals(grammar.getLength(rule), loadedGrammar.getLength(rule));
+		}
+		
+		// replacing elements creates new rules, so other traces with the same rules are not affected
+		List<EfficientCompressedIntegerTrace> sameTraces = new ArrayList<>();
+		for (int t = 0; t < 2; ++t) {
+			BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, "testGrammarReplace" + t, 10);
+			for (int element : traces.get(0)) {
+				queue.add(element);
+			}
+			sameTraces.add(compressor.compress(queue, false));
+		}
+		long compressedSize = sameTraces.get(0).getCompressedTrace().size();
+		se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator replacingIterator = sameTraces.get(0).iterator();
+		while (replacingIterator.hasNext()) {
+			// elements in repetitions are visited multiple times
+			replacingIterator.processNextAndReplaceWithIntResult(new IntUnaryOperator() {
+				@Override
+				public int applyAsInt(int operand) {
+					return operand < 1000 ? operand + 1000 : operand;
+				}
+			});
+		}
+		List<Integer> replacedTrace = new ArrayList<>();
+		for (int element : traces.get(0)) {
+			replacedTrace.add(element + 1000);
+		}
+		Assert.assertEquals(compressedSize, sameTraces.get(0).getCompressedTrace().size());
+		Assert.assertEquals(replacedTrace, storeInList(sameTraces.get(0).iterator()));
+		Assert.assertEquals(traces.get(0), storeInList(sameTraces.get(1).iterator()));
+		for (EfficientCompressedIntegerTrace sameTrace : sameTraces) {
+			sameTrace.clear();
+		}
+	}
+	
+	@Test
+	public void testGrammarCompressionOfEncodedStatements() throws Exception {
+		IntTraceCompressor compressor = IntTraceCompressors.forName(IntTraceCompressors.GRAMMAR);
+		
+		// statements of classes with large ids use all 32 bits, so they are negative
+		List<Integer> trace = new ArrayList<>();
+		Random random = new Random(5);
+		for (int k = 0; k < 100; ++k) {
+			int classId = random.nextBoolean() ? 3 : 2000 + random.nextInt(2);
+			int counterId = random.nextInt(3) * 10;
+			for (int i = 0; i < 1 + random.nextInt(3); ++i) {
+				for (int j = 0; j < 4; ++j) {
+					trace.add(CoberturaStatementEncoding.generateUniqueRepresentationForStatement(classId, counterId + j));
+				}
+			}
+		}
+		Assert.assertTrue(trace.contains(CoberturaStatementEncoding.generateUniqueRepresentationForStatement(2000, 0)));
+		Assert.assertTrue(CoberturaStatementEncoding.generateUniqueRepresentationForStatement(2000, 0) < 0);
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, "testGrammarEncoded", 10);
+		for (int element : trace) {
+			queue.add(element);
+		}
+		EfficientCompressedIntegerTrace compressedTrace = compressor.compress(queue, false);
+		
+		Assert.assertSame(compressor.getGrammar(), compressedTrace.getGrammar());
+		Assert.assertTrue(compressedTrace.getCompressedTrace().size() < trace.size());
+		Assert.assertEquals(trace.size(), compressedTrace.size());
+		Assert.assertEquals(trace, storeInList(compressedTrace.iterator()));
+		List<Integer> reverseList = storeInList(compressedTrace.reverseIterator());
+		Collections.reverse(reverseList);
+		Assert.assertEquals(trace, reverseList);
+		for (int position = 0; position < trace.size(); position += 7) {
+			Assert.assertEquals("position " + position, trace.subList(position, trace.size()), 
+					storeInList(compressedTrace.iterator(position)));
+		}
+		
+		// the terminal rules are stored with the other rules
+		GrammarRuleDictionary grammar = compressor.getGrammar();
+		GrammarRuleDictionary loadedGrammar = new GrammarRuleDictionary();
+		loadedGrammar.addRules(grammar.toByteArray(0, grammar.size()));
+		compressedTrace.setGrammar(loadedGrammar, trace.size());
+		Assert.assertEquals(trace, storeInList(compressedTrace.iterator()));
+		
+		// elements can be replaced with negative elements
+		se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator replacingIterator = compressedTrace.iterator();
+		while (replacingIterator.hasNext()) {
+			replacingIterator.processNextAndReplaceWithIntResult(new IntUnaryOperator() {
+				@Override
+				public int applyAsInt(int operand) {
+					return operand == 3 << CoberturaStatementEncoding.COUNTER_ID_BITS ? -5 : operand;
+				}
+			});
+		}
+		List<Integer> replacedTrace = new ArrayList<>();
+		for (int element : trace) {
+			replacedTrace.add(element == 3 << CoberturaStatementEncoding.COUNTER_ID_BITS ? -5 : element);
+		}
+		Assert.assertEquals(replacedTrace, storeInList(compressedTrace.iterator()));
+		compressedTrace.clear();
+	}
+	
+	@Test
+	public void testGrammarOverlay() throws Exception {
+		IntTraceCompressor compressor = IntTraceCompressors.forName(IntTraceCompressors.GRAMMAR);
+		List<Integer> trace = new ArrayList<>();
+		for (int k = 0; k < 30; ++k) {
+			for (int j = 0; j < 4; ++j) {
+				trace.add(10 * (k % 3) + j);
+			}
+			trace.add(-k % 4);
+		}
+		BufferedIntArrayQueue queue = new BufferedIntArrayQueue(outputDir, "testGrammarOverlay", 10);
+		for (int element : trace) {
+			queue.add(element);
+		}
+		EfficientCompressedIntegerTrace compressedTrace = compressor.compress(queue, false);
+		GrammarRuleDictionary grammar = compressor.getGrammar();
+		Assert.assertTrue(grammar.size() > 2);
+		
+		// a trace is loaded when only the first chunk of rules is loaded...
+		GrammarRuleDictionary loadedGrammar = new GrammarRuleDictionary();
+		loadedGrammar.addRules(grammar.toByteArray(0, grammar.size() / 2));
+		GrammarRuleDictionary overlay = new GrammarRuleDictionary(loadedGrammar);
+		// ...and the remaining chunk is loaded before the trace is used
+		loadedGrammar.addRules(grammar.toByteArray(grammar.size() / 2, grammar.size()));
+		compressedTrace.setGrammar(overlay, trace.size());
+		Assert.assertEquals(trace, storeInList(compressedTrace.iterator()));
+		
+		// replacing elements creates rules in the overlay, only
+		se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.TraceIterator replacingIterator = compressedTrace.iterator();
+		while (replacingIterator.hasNext()) {
+			replacingIterator.processNextAndReplaceWithIntResult(new IntUnaryOperator() {
+				@Override
+				public int applyAsInt(int operand) {
+					return operand == 1 ? -100 : operand;
+				}
+			});
+		}
+		Assert.assertTrue(overlay.size() > 0);
+		Assert.assertEquals(grammar.size(), loadedGrammar.size());
+		List<Integer> replacedTrace = new ArrayList<>();
+		for (int element : trace) {
+			replacedTrace.add(element == 1 ? -100 : element);
+		}
+		Assert.assertEquals(replacedTrace, storeInList(compressedTrace.iterator()));
+		
+		// rules that are loaded later still get their original symbols
+		compressor.compress(queue, false);
+		BufferedIntArrayQueue otherQueue = new BufferedIntArrayQueue(outputDir, "testGrammarOverlay2", 10);
+		for (int k = 0; k < 20; ++k) {
+			otherQueue.add(500 + k % 5);
+		}
+		compressor.compress(otherQueue, false).clear();
+		Assert.assertTrue(grammar.size() > loadedGrammar.size());
+		loadedGrammar.addRules(grammar.toByteArray(loadedGrammar.size(), grammar.size()));
+		Assert.assertEquals(replacedTrace, storeInList(compressedTrace.iterator()));
+		compressedTrace.clear();
+	}
+	
 	private static void printWithIterator(se.de.hu_berlin.informatik.spectra.provider.tracecobertura.infrastructure.comptrace.integer.ReplaceableCloneableIterator iterator) {
 		StringBuilder builder = new StringBuilder();
 		while (iterator.hasNext()) {